@@ -0,0 +1,122 @@
+package tn.amin.keyboard_gpt;
+
+import android.view.Choreographer;
+import android.view.inputmethod.InputConnection;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import tn.amin.keyboard_gpt.metrics.Counter;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+
+/**
+ * Collects streamed tokens off the main thread and commits them at most once per display frame.
+ * If no frame arrives within the max latency (e.g. nothing is drawing), the pending text is
+ * committed anyway.
+ */
+public class CommitCoalescer implements Choreographer.FrameCallback {
+    public static final long DEFAULT_MAX_LATENCY_MS = 50;
+
+    private static final Counter sTokensReceived = Metrics.counter("stream.tokens_received");
+    private static final Counter sCommits = Metrics.counter("stream.commits");
+
+    private final UiInteracter mInteracter;
+    private final long mMaxLatencyMs;
+    private final DrainListener mDrainListener;
+
+    private final ConcurrentLinkedQueue<String> mPending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mFlushScheduled = new AtomicBoolean(false);
+
+    // Main thread only
+    private final StringBuilder mBuffer = new StringBuilder();
+    private long mTokenCount = 0;
+    private long mCommitCount = 0;
+
+    private final Runnable mScheduleFlush = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(CommitCoalescer.this);
+            mInteracter.postDelayed(mLatencyFlush, mMaxLatencyMs);
+        }
+    };
+
+    private final Runnable mLatencyFlush = this::flush;
+
+    /**
+     * Told on the main thread how many tokens a flush took off the queue, e.g. to ask the stream
+     * for as many more.
+     */
+    public interface DrainListener {
+        void onDrained(int tokens);
+    }
+
+    public CommitCoalescer(UiInteracter interacter) {
+        this(interacter, DEFAULT_MAX_LATENCY_MS, null);
+    }
+
+    public CommitCoalescer(UiInteracter interacter, DrainListener drainListener) {
+        this(interacter, DEFAULT_MAX_LATENCY_MS, drainListener);
+    }
+
+    public CommitCoalescer(UiInteracter interacter, long maxLatencyMs, DrainListener drainListener) {
+        mInteracter = interacter;
+        mMaxLatencyMs = maxLatencyMs;
+        mDrainListener = drainListener;
+    }
+
+    /**
+     * Queues a token for commit. Meant to be called from the single thread delivering the stream.
+     */
+    public void offer(String token) {
+        sTokensReceived.inc();
+        mPending.offer(token);
+        if (mFlushScheduled.compareAndSet(false, true)) {
+            mInteracter.post(mScheduleFlush);
+        }
+    }
+
+    /**
+     * Commits whatever is still pending, then runs {@code then} on the main thread.
+     */
+    public void finish(Runnable then) {
+        mInteracter.post(() -> {
+            flush();
+            MainHook.log("Committed " + mTokenCount + " tokens in " + mCommitCount + " commits");
+            then.run();
+        });
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        flush();
+    }
+
+    private void flush() {
+        Choreographer.getInstance().removeFrameCallback(this);
+        mInteracter.removeCallbacks(mLatencyFlush);
+        // Cleared before draining so a token offered meanwhile schedules another flush
+        mFlushScheduled.set(false);
+
+        String token;
+        int drained = 0;
+        while ((token = mPending.poll()) != null) {
+            mBuffer.append(token);
+            drained++;
+        }
+        mTokenCount += drained;
+        if (drained > 0 && mDrainListener != null) {
+            mDrainListener.onDrained(drained);
+        }
+        if (mBuffer.length() == 0) {
+            return;
+        }
+
+        InputConnection inputConnection = mInteracter.getInputConnection();
+        if (inputConnection != null) {
+            inputConnection.commitText(mBuffer.toString(), 1);
+            mCommitCount++;
+            sCommits.inc();
+        }
+        mBuffer.setLength(0);
+    }
+}
@@ -1,6 +1,7 @@
 package tn.amin.keyboard_gpt;
 
 import tn.amin.keyboard_gpt.language_model.LanguageModel;
+import tn.amin.keyboard_gpt.resilience.Deadlines;
 
 public interface ConfigChangeListener {
     void onLanguageModelChange(LanguageModel model);
@@ -9,7 +10,24 @@ public interface ConfigChangeListener {
 
     void onSubModelChange(LanguageModel languageModel, String subModel);
 
+    void onFastSubModelChange(LanguageModel languageModel, String fastSubModel);
+
     void onBaseUrlChange(LanguageModel languageModel, String baseUrl);
 
+    void onDeadlinesChange(LanguageModel languageModel, Deadlines deadlines);
+
+    /**
+     * @param budgetTokens tokens the provider may spend per day before an alarm, or 0 for none
+     */
+    void onDailyTokenBudgetChange(LanguageModel languageModel, long budgetTokens);
+
     void onCommandsChange(String commandsRaw);
+
+    /**
+     * @param model   the provider raced against the selected one, or null
+     * @param delayMs how long to wait for a first token before hedging, or 0 to derive it
+     */
+    void onHedgingChange(boolean enabled, LanguageModel model, long delayMs);
+
+    void onFailoverChange(boolean enabled);
 }
@@ -0,0 +1,126 @@
+package tn.amin.keyboard_gpt;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tn.amin.keyboard_gpt.language_model.http.EventLoop;
+
+/**
+ * Threads shared by every generation in the keyboard process. All pools are bounded and let idle
+ * threads die, so the thread count does not grow with the number of prompts. Tasks beyond the
+ * queue limits are rejected with {@link java.util.concurrent.RejectedExecutionException}.
+ */
+public class GenerationExecutors {
+    // Direct response streams run on the network loop; io only takes lookups, warm-ups and
+    // streams through a proxy
+    static final int IO_THREADS = 4;
+    static final int IO_QUEUE_SIZE = 16;
+    static final int COMPUTE_THREADS = 2;
+    static final int COMPUTE_QUEUE_SIZE = 64;
+    static final int TIMER_THREADS = 1;
+    static final int NETWORK_THREADS = 1;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static GenerationExecutors sInstance = null;
+
+    private final ThreadPoolExecutor mIo;
+    private final ThreadPoolExecutor mCompute;
+    private final ScheduledThreadPoolExecutor mTimer;
+    private final EventLoop mNetwork;
+
+    private GenerationExecutors() {
+        mIo = newPool("io", IO_THREADS, IO_QUEUE_SIZE);
+        mCompute = newPool("compute", COMPUTE_THREADS, COMPUTE_QUEUE_SIZE);
+
+        mTimer = new ScheduledThreadPoolExecutor(TIMER_THREADS, new NamedThreadFactory("timer"));
+        mTimer.setRemoveOnCancelPolicy(true);
+        mTimer.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        mTimer.allowCoreThreadTimeOut(true);
+
+        mNetwork = new EventLoop(new NamedThreadFactory("network"));
+    }
+
+    public static synchronized GenerationExecutors get() {
+        if (sInstance == null) {
+            sInstance = new GenerationExecutors();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Stops all pools and interrupts running tasks. The next {@link #get()} starts fresh pools.
+     */
+    public static synchronized void shutdown() {
+        if (sInstance == null) {
+            return;
+        }
+
+        MainHook.log("Shutting down generation executors");
+        sInstance.mIo.shutdownNow();
+        sInstance.mCompute.shutdownNow();
+        sInstance.mTimer.shutdownNow();
+        sInstance.mNetwork.shutdown();
+        sInstance = null;
+    }
+
+    /**
+     * For blocking network work, like host lookups and response streams that go through a proxy,
+     * which take one task from connecting to the end of their body.
+     */
+    public ExecutorService io() {
+        return mIo;
+    }
+
+    /**
+     * For short CPU-bound work like parsing, hashing and persisting.
+     */
+    public ExecutorService compute() {
+        return mCompute;
+    }
+
+    /**
+     * For delayed work. Scheduled tasks must stay short and hand off anything blocking.
+     */
+    public ScheduledExecutorService timer() {
+        return mTimer;
+    }
+
+    /**
+     * Selector thread for sockets that are read without blocking, see
+     * {@link tn.amin.keyboard_gpt.language_model.http.HttpCall}.
+     */
+    public EventLoop network() {
+        return mNetwork;
+    }
+
+    private static ThreadPoolExecutor newPool(String name, int threads, int queueSize) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new NamedThreadFactory(name));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger(0);
+
+        NamedThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "KeyboardGPT-" + mName + "-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
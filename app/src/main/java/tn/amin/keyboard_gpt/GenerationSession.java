@@ -0,0 +1,155 @@
+package tn.amin.keyboard_gpt;
+
+import android.text.InputType;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.robv.android.xposed.XposedBridge;
+import tn.amin.keyboard_gpt.instruction.InstructionCategory;
+import tn.amin.keyboard_gpt.metrics.Histogram;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+import tn.amin.keyboard_gpt.routing.ModelTier;
+
+/**
+ * One streamed response being written to the input field. Owns the upstream subscription so the
+ * generation can be stopped at any time, which also aborts the underlying HTTP stream.
+ */
+public class GenerationSession implements Subscriber<String> {
+    // Tokens requested ahead of what was committed to the field, refilled as commits go through
+    static final int REQUEST_BATCH = 32;
+
+    private final UiInteracter mInteracter;
+    private final CommitCoalescer mCoalescer;
+    private final Histogram mTimeToFirstToken;
+    private final ModelTier mTier;
+    private final int mInputType;
+    private final long mStartNanos = System.nanoTime();
+    private boolean mReceivedToken = false;
+
+    private volatile Subscription mSubscription = null;
+    private volatile boolean mCancelled = false;
+    private final AtomicBoolean mFinished = new AtomicBoolean(false);
+
+    /**
+     * @param tier      sub-model tier answering, null for responses not coming from a model
+     * @param inputType input type to restore on the field once done
+     */
+    public GenerationSession(UiInteracter interacter, Histogram timeToFirstToken, ModelTier tier, int inputType) {
+        mInteracter = interacter;
+        mCoalescer = new CommitCoalescer(interacter, this::requestMore);
+        mTimeToFirstToken = timeToFirstToken;
+        mTier = tier;
+        mInputType = inputType != InputType.TYPE_NULL ? inputType : InputType.TYPE_CLASS_TEXT;
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        mSubscription = s;
+        if (mCancelled) {
+            s.cancel();
+            return;
+        }
+        s.request(REQUEST_BATCH);
+    }
+
+    /**
+     * Refills the demand as tokens get committed.
+     */
+    private void requestMore(int tokens) {
+        Subscription subscription = mSubscription;
+        if (subscription != null && !mCancelled && !mFinished.get()) {
+            subscription.request(tokens);
+        }
+    }
+
+    @Override
+    public void onNext(String s) {
+        if (mCancelled) {
+            return;
+        }
+        if (s.isEmpty()) {
+            // Never reaches the field, so nothing would refill its demand
+            requestMore(1);
+            return;
+        }
+
+        if (!mReceivedToken) {
+            mReceivedToken = true;
+            long elapsedMs = (System.nanoTime() - mStartNanos) / 1_000_000;
+            mTimeToFirstToken.record(elapsedMs);
+            Metrics.histogram("ttft_ms").record(elapsedMs);
+            if (mTier != null) {
+                Metrics.histogram("tier." + mTier.key + ".ttft_ms").record(elapsedMs);
+            }
+            MainHook.log("First token after " + elapsedMs + "ms");
+        }
+
+        mCoalescer.offer(s);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (mCancelled) {
+            return;
+        }
+
+        XposedBridge.log(t);
+
+        mInteracter.post(() -> {
+            mInteracter.toastLong(t.getClass().getSimpleName() + " : " + t.getMessage() + " (see logs)");
+        });
+
+        finish();
+    }
+
+    @Override
+    public void onComplete() {
+        if (mCancelled) {
+            return;
+        }
+
+        if (mTier != null) {
+            Metrics.histogram("tier." + mTier.key + ".total_ms").record((System.nanoTime() - mStartNanos) / 1_000_000);
+        }
+
+        finish();
+    }
+
+    /**
+     * Stops the generation, keeping what was already received. Safe to call from any thread.
+     */
+    public void cancel() {
+        if (mFinished.get()) {
+            return;
+        }
+
+        MainHook.log("Cancelling generation");
+        mCancelled = true;
+        Subscription subscription = mSubscription;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        finish();
+    }
+
+    public boolean isActive() {
+        return !mFinished.get();
+    }
+
+    private void finish() {
+        if (!mFinished.compareAndSet(false, true)) {
+            MainHook.log("Skipping duplicate onComplete");
+            return;
+        }
+
+        mCoalescer.finish(() -> {
+            mInteracter.setInputType(mInputType);
+            mInteracter.setText("? ");
+        });
+        mInteracter.releaseEditTextOwnership(InstructionCategory.Prompt);
+        MainHook.log("Done");
+    }
+}
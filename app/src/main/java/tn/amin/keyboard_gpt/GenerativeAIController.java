@@ -3,50 +3,144 @@ package tn.amin.keyboard_gpt;
 import android.text.InputType;
 
 import org.reactivestreams.Publisher;
-import org.reactivestreams.Subscriber;
-import org.reactivestreams.Subscription;
 
-import de.robv.android.xposed.XposedBridge;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import tn.amin.keyboard_gpt.cache.CachePolicy;
+import tn.amin.keyboard_gpt.cache.ResponseCache;
+import tn.amin.keyboard_gpt.cache.SingleFlight;
 import tn.amin.keyboard_gpt.instruction.InstructionCategory;
 import tn.amin.keyboard_gpt.language_model.LanguageModel;
 import tn.amin.keyboard_gpt.language_model.LanguageModelClient;
+import tn.amin.keyboard_gpt.language_model.publisher.FailoverPublisher;
+import tn.amin.keyboard_gpt.language_model.publisher.HedgedPublisher;
+import tn.amin.keyboard_gpt.language_model.publisher.SimpleStringPublisher;
+import tn.amin.keyboard_gpt.metrics.Histogram;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+import tn.amin.keyboard_gpt.resilience.CircuitBreakers;
+import tn.amin.keyboard_gpt.resilience.ContinuingPublisher;
+import tn.amin.keyboard_gpt.resilience.Deadlines;
+import tn.amin.keyboard_gpt.resilience.RateLimiters;
+import tn.amin.keyboard_gpt.resilience.RequestPriority;
+import tn.amin.keyboard_gpt.resilience.RetryingPublisher;
+import tn.amin.keyboard_gpt.resilience.WatchdogPublisher;
+import tn.amin.keyboard_gpt.routing.ModelTier;
+import tn.amin.keyboard_gpt.routing.ProviderRouter;
+import tn.amin.keyboard_gpt.routing.TierPolicy;
+import tn.amin.keyboard_gpt.usage.UsageTracker;
 
 public class GenerativeAIController implements ConfigChangeListener {
+    private static final long DEFAULT_HEDGE_DELAY_MS = 1500;
+    private static final long MIN_HEDGE_DELAY_MS = 250;
+    private static final long MAX_HEDGE_DELAY_MS = 5000;
+    private static final int MIN_HEDGE_DELAY_SAMPLES = 10;
+    private static final long IDLE_PROBE_DELAY_MS = 60 * 1000;
+    // Counted against the tokens/minute limit on top of the prompt
+    private static final int EXPECTED_ANSWER_TOKENS = 256;
+    // What usage is accounted to when it is not a command
+    private static final String PROMPT_USAGE_LABEL = "prompt";
+    private static final String PROBE_USAGE_LABEL = "probe";
+
+    private LanguageModel mSelectedModel = null;
+    // Null when the selected model is Auto, which resolves to a client per request
     private LanguageModelClient mModelClient = null;
+    private final EnumMap<LanguageModel, LanguageModelClient> mClients = new EnumMap<>(LanguageModel.class);
+
+    private boolean mHedgingEnabled = false;
+    private LanguageModel mHedgeModel = null;
+    private long mHedgeDelayMs = 0;
+
+    private boolean mFailoverEnabled = false;
+    private final CircuitBreakers mCircuitBreakers;
+    private final RateLimiters mRateLimiters = new RateLimiters();
+    private final SingleFlight mSingleFlight = new SingleFlight();
+
+    private final ProviderRouter mRouter;
+    private ScheduledFuture<?> mIdleProbe = null;
 
     private final SPManager mSPManager;
     private final UiInteracter mInteracter;
+    private final ResponseCache mResponseCache;
+    private final UsageTracker mUsageTracker;
+
+    private volatile GenerationSession mSession = null;
+    // Flight key of the request mSession answers
+    private volatile String mSessionKey = null;
 
-    public GenerativeAIController(SPManager spManager, UiInteracter interacter) {
+    public GenerativeAIController(SPManager spManager, UiInteracter interacter, ResponseCache responseCache,
+                                  UsageTracker usageTracker) {
         mSPManager = spManager;
         mInteracter = interacter;
+        mResponseCache = responseCache;
+        mUsageTracker = usageTracker;
+        mCircuitBreakers = new CircuitBreakers(spManager);
+        mRouter = new ProviderRouter(spManager);
+
+        for (LanguageModel model: LanguageModel.providers()) {
+            mUsageTracker.setDailyBudget(model, mSPManager.getDailyTokenBudget(model));
+        }
+        mUsageTracker.setBudgetListener(this::onBudgetAlarm);
 
         mInteracter.registerConfigChangeListener(this);
         if (mSPManager.hasLanguageModel()) {
             setModel(mSPManager.getLanguageModel());
         }
+        setHedging(mSPManager.isHedgingEnabled(), mSPManager.getHedgingModel(), mSPManager.getHedgingDelayMs());
+        mFailoverEnabled = mSPManager.isFailoverEnabled();
     }
 
     public boolean needModelClient() {
-        return mModelClient == null;
+        return mSelectedModel == null;
     }
 
     public boolean needApiKey() {
-        return mModelClient.getApiKey() == null || mModelClient.getApiKey().isEmpty();
+        if (mSelectedModel == LanguageModel.Auto) {
+            return getRoutingCandidates().isEmpty();
+        }
+        return !hasApiKey(mModelClient);
     }
 
     private void setModel(LanguageModel model) {
-        mModelClient = LanguageModelClient.forModel(model);
-        mModelClient.setApiKey(mSPManager.getApiKey(model));
-        mModelClient.setSubModel(mSPManager.getSubModel(model));
-        mModelClient.setBaseUrl(mSPManager.getBaseUrl(model));
+        mModelClient = model != LanguageModel.Auto ? getClient(model) : null;
+        mSelectedModel = model;
+    }
+
+    private void setHedging(boolean enabled, LanguageModel model, long delayMs) {
+        mHedgingEnabled = enabled;
+        mHedgeModel = model;
+        mHedgeDelayMs = delayMs;
+    }
+
+    private synchronized LanguageModelClient getClient(LanguageModel model) {
+        LanguageModelClient client = mClients.get(model);
+        if (client == null) {
+            client = LanguageModelClient.forModel(model);
+            client.setApiKey(mSPManager.getApiKey(model));
+            client.setSubModel(mSPManager.getSubModel(model));
+            client.setFastSubModel(mSPManager.getFastSubModel(model));
+            client.setRateLimitListener(mRateLimiters);
+            client.setBaseUrl(mSPManager.getBaseUrl(model));
+            client.setDeadlines(mSPManager.getDeadlines(model));
+            mClients.put(model, client);
+        }
+        return client;
+    }
+
+    private synchronized LanguageModelClient getExistingClient(LanguageModel model) {
+        return mClients.get(model);
     }
 
     @Override
     public void onLanguageModelChange(LanguageModel model) {
         mSPManager.setLanguageModel(model);
 
-        if (mModelClient == null || mModelClient.getLanguageModel() != model) {
+        if (mSelectedModel != model) {
             setModel(model);
         }
     }
@@ -54,43 +148,142 @@ public class GenerativeAIController implements ConfigChangeListener {
     @Override
     public void onApiKeyChange(LanguageModel languageModel, String apiKey) {
         mSPManager.setApiKey(languageModel, apiKey);
-        if (mModelClient != null && mModelClient.getLanguageModel() == languageModel) {
-            mModelClient.setApiKey(apiKey);
+        LanguageModelClient client = getExistingClient(languageModel);
+        if (client != null) {
+            client.setApiKey(apiKey);
         }
     }
 
     @Override
     public void onSubModelChange(LanguageModel languageModel, String subModel) {
         mSPManager.setSubModel(languageModel, subModel);
-        if (mModelClient != null && mModelClient.getLanguageModel() == languageModel) {
-            mModelClient.setSubModel(subModel);
+        LanguageModelClient client = getExistingClient(languageModel);
+        if (client != null) {
+            client.setSubModel(subModel);
+        }
+    }
+
+    @Override
+    public void onFastSubModelChange(LanguageModel languageModel, String fastSubModel) {
+        mSPManager.setFastSubModel(languageModel, fastSubModel);
+        LanguageModelClient client = getExistingClient(languageModel);
+        if (client != null) {
+            client.setFastSubModel(fastSubModel);
         }
     }
 
     @Override
     public void onBaseUrlChange(LanguageModel languageModel, String baseUrl) {
         mSPManager.setBaseUrl(languageModel, baseUrl);
-        if (mModelClient != null && mModelClient.getLanguageModel() == languageModel) {
-            mModelClient.setBaseUrl(baseUrl);
+        LanguageModelClient client = getExistingClient(languageModel);
+        if (client != null) {
+            client.setBaseUrl(baseUrl);
+        }
+    }
+
+    @Override
+    public void onDeadlinesChange(LanguageModel languageModel, Deadlines deadlines) {
+        mSPManager.setDeadlines(languageModel, deadlines);
+        LanguageModelClient client = getExistingClient(languageModel);
+        if (client != null) {
+            client.setDeadlines(deadlines);
         }
     }
 
+    @Override
+    public void onDailyTokenBudgetChange(LanguageModel languageModel, long budgetTokens) {
+        mSPManager.setDailyTokenBudget(languageModel, budgetTokens);
+        mUsageTracker.setDailyBudget(languageModel, budgetTokens);
+    }
+
+    private void onBudgetAlarm(LanguageModel model, long spentTokens, long budgetTokens, boolean exhausted) {
+        MainHook.log(model.label + " spent " + spentTokens + " of its " + budgetTokens + " daily tokens");
+        String message = exhausted
+                ? model.label + " used up its daily token budget (" + spentTokens + " tokens)"
+                : model.label + " used " + (spentTokens * 100 / budgetTokens) + "% of its daily token budget";
+        mInteracter.post(() -> mInteracter.toastLong(message));
+    }
+
     @Override
     public void onCommandsChange(String commandsRaw) {
         mSPManager.setGenerativeAICommandsRaw(commandsRaw);
     }
 
-    public void generateResponse(String prompt) {
-        generateResponse(prompt, null);
+    @Override
+    public void onHedgingChange(boolean enabled, LanguageModel model, long delayMs) {
+        mSPManager.setHedging(enabled, model, delayMs);
+        setHedging(enabled, model, delayMs);
     }
 
-    public void generateResponse(String prompt, String systemMessage) {
+    @Override
+    public void onFailoverChange(boolean enabled) {
+        mSPManager.setFailoverEnabled(enabled);
+        mFailoverEnabled = enabled;
+    }
+
+    public void generateResponseAsync(String prompt) {
+        generateResponseAsync(prompt, null, CachePolicy.NONE, null, PROMPT_USAGE_LABEL);
+    }
+
+    /**
+     * Starts a response on the io pool. Call on the main thread.
+     *
+     * @param commandTier sub-model tier required by the command, null to pick one from the request
+     * @param command     what the token usage is accounted to, e.g. the command prefix
+     */
+    public void generateResponseAsync(String prompt, String systemMessage, CachePolicy cachePolicy,
+                                      ModelTier commandTier, String command) {
+        // Views and the editor can only be read from the main thread
+        int inputType = mInteracter.getInputType();
+        int targetInputType = mInteracter.getTargetInputType();
+        try {
+            GenerationExecutors.get().io().execute(() -> generateResponse(prompt, systemMessage, cachePolicy,
+                    commandTier, command, inputType, targetInputType));
+        } catch (RejectedExecutionException e) {
+            MainHook.log(e);
+            mInteracter.post(() -> mInteracter.toastShort("Too many pending requests"));
+        }
+    }
+
+    /**
+     * @param inputType       input type of the keyboard's field holding the instruction
+     * @param targetInputType input type of the app's field the answer goes to
+     */
+    private void generateResponse(String prompt, String systemMessage, CachePolicy cachePolicy,
+                                  ModelTier commandTier, String command, int inputType, int targetInputType) {
         MainHook.log("Getting response for text \"" + prompt + "\"");
 
         if (prompt.isEmpty()) {
             return;
         }
 
+        scheduleIdleProbe();
+
+        ModelTier tier = TierPolicy.choose(commandTier, prompt, systemMessage, targetInputType);
+        MainHook.log("Using " + tier.key + " tier");
+        Metrics.counter("tier." + tier.key + ".requests").inc();
+
+        LanguageModel selectedModel = mSelectedModel;
+        LanguageModelClient client = resolveClient(selectedModel, tier);
+        if (client == null) {
+            cancelGeneration();
+            mInteracter.post(() -> mInteracter.toastShort("No language model configured"));
+            return;
+        }
+
+        // Auto shares its cache entries and flights across providers, whichever answered
+        LanguageModel keyModel = selectedModel == LanguageModel.Auto ? selectedModel : client.getLanguageModel();
+        String keySubModel = selectedModel == LanguageModel.Auto ? tier.key : client.getSubModel(tier);
+        String flightKey = SingleFlight.key(keyModel, keySubModel, systemMessage, prompt);
+
+        // Restarting would replay the shared flight from its start, after the text already committed
+        GenerationSession running = mSession;
+        if (running != null && running.isActive() && flightKey.equals(mSessionKey)) {
+            MainHook.log("Already answering this request");
+            return;
+        }
+        cancelGeneration();
+
         if (!mInteracter.requestEditTextOwnership(InstructionCategory.Prompt)) {
             return;
         }
@@ -100,58 +293,290 @@ public class GenerativeAIController implements ConfigChangeListener {
             mInteracter.setInputType(InputType.TYPE_NULL);
         });
 
-        Publisher<String> publisher = mModelClient.submitPrompt(prompt, systemMessage);
+        ResponseCache.Query cacheQuery = null;
+        String cached = null;
+        if (cachePolicy.useCache) {
+            cacheQuery = ResponseCache.query(keyModel, keySubModel, systemMessage, prompt);
+            cached = mResponseCache.get(cacheQuery);
+            if (cached == null && cachePolicy.allowsSimilar()) {
+                cached = mResponseCache.getSimilar(cacheQuery, cachePolicy.similarityThreshold);
+            }
+        }
+
+        Histogram timeToFirstToken;
+        if (cached != null) {
+            timeToFirstToken = Metrics.histogram("ttft.cached_ms");
+        }
+        else {
+            timeToFirstToken = Metrics.histogram(client.isWarm() ? "ttft.warm_ms" : "ttft.cold_ms");
+        }
+        GenerationSession session = new GenerationSession(mInteracter, timeToFirstToken,
+                cached != null ? null : tier, inputType);
+        mSessionKey = flightKey;
+        mSession = session;
+
+        Publisher<String> publisher;
+        if (cached != null) {
+            MainHook.log("Replaying cached response");
+            publisher = new SimpleStringPublisher(cached);
+        }
+        else {
+            ResponseCache.Query recordQuery = cacheQuery;
+            publisher = mSingleFlight.share(flightKey, () -> {
+                Publisher<String> response = submitPrompt(client, prompt, systemMessage, tier, command,
+                        timeToFirstToken);
+                return recordQuery != null ? mResponseCache.record(recordQuery, response) : response;
+            });
+        }
+        publisher.subscribe(session);
+    }
 
-        publisher.subscribe(new Subscriber<String>() {
-            boolean completed = false;
+    private Publisher<String> submitPrompt(LanguageModelClient client, String prompt, String systemMessage,
+                                           ModelTier tier, String command, Histogram timeToFirstToken) {
+        LanguageModelClient hedgeClient = getHedgeClient(client);
 
-            @Override
-            public void onSubscribe(Subscription s) {
-                s.request(Long.MAX_VALUE);
+        List<LanguageModelClient> chain = getFailoverChain(client, hedgeClient);
+        Supplier<Publisher<String>> primary;
+        if (chain.size() == 1) {
+            primary = () -> submitWithContinuation(client, prompt, systemMessage, tier, command,
+                    RequestPriority.INTERACTIVE);
+        }
+        else {
+            List<Supplier<Publisher<String>>> sources = new ArrayList<>();
+            for (LanguageModelClient chainClient: chain) {
+                sources.add(() ->
+                        submitWithContinuation(chainClient, prompt, systemMessage, tier, command,
+                                RequestPriority.INTERACTIVE));
             }
+            primary = () -> new FailoverPublisher(sources);
+        }
 
-            @Override
-            public void onNext(String s) {
-                if (s.isEmpty()) {
-                    return;
-                }
+        if (hedgeClient == null) {
+            return primary.get();
+        }
 
-                MainHook.log("onNext: \"" + s + "\"");
+        return new HedgedPublisher(primary,
+                () -> submitWithContinuation(hedgeClient, prompt, systemMessage, tier, command,
+                        RequestPriority.SPECULATIVE),
+                getHedgeDelayMs(timeToFirstToken));
+    }
 
-                mInteracter.post(() -> mInteracter.getInputConnection().commitText(s, 1));
+    /**
+     * Sends the request once the provider's rate limiter lets it through and its breaker allows it.
+     * The response is aborted if it stalls past the provider's deadlines. Its token usage is
+     * accounted to {@code command}.
+     *
+     * @param assistantPrefix start of an earlier answer to continue from, or null
+     */
+    private Publisher<String> submitGuarded(LanguageModelClient client, String prompt, String systemMessage,
+                                            ModelTier tier, String command, RequestPriority priority,
+                                            String assistantPrefix) {
+        String subModel = client.getSubModel(tier);
+        int estimatedTokens = TierPolicy.estimateTokens(prompt) + TierPolicy.estimateTokens(systemMessage)
+                + TierPolicy.estimateTokens(assistantPrefix) + EXPECTED_ANSWER_TOKENS;
+        return mRateLimiters.limit(client.getLanguageModel(), priority, estimatedTokens, () -> {
+            long startNanos = System.nanoTime();
+            Publisher<String> publisher = mCircuitBreakers.guard(client.getLanguageModel(),
+                    () -> new WatchdogPublisher(client.getLanguageModel().name(), client.getDeadlines(), startNanos,
+                            mUsageTracker.meter(client.getLanguageModel(), subModel, command,
+                                    assistantPrefix == null
+                                            ? client.submitPrompt(prompt, systemMessage, subModel)
+                                            : client.continuePrompt(prompt, systemMessage, subModel, assistantPrefix))));
+            // Measured whatever the selection, so that Auto already knows the providers used so far
+            return mRouter.observe(client, subModel, startNanos, publisher);
+        });
+    }
+
+    private Publisher<String> submitWithRetry(LanguageModelClient client, String prompt, String systemMessage,
+                                              ModelTier tier, String command, RequestPriority priority,
+                                              String assistantPrefix) {
+        return new RetryingPublisher(client.getLanguageModel().name(),
+                () -> submitGuarded(client, prompt, systemMessage, tier, command, priority, assistantPrefix));
+    }
+
+    /**
+     * Retries failed attempts, and has the same provider go on with the answer if it breaks off.
+     */
+    private Publisher<String> submitWithContinuation(LanguageModelClient client, String prompt, String systemMessage,
+                                                     ModelTier tier, String command, RequestPriority priority) {
+        if (!client.supportsContinuation()) {
+            return submitWithRetry(client, prompt, systemMessage, tier, command, priority, null);
+        }
+        return new ContinuingPublisher(client.getLanguageModel().name(),
+                assistantPrefix -> submitWithRetry(client, prompt, systemMessage, tier, command, priority,
+                        assistantPrefix));
+    }
+
+    private LanguageModelClient resolveClient(LanguageModel selectedModel, ModelTier tier) {
+        if (selectedModel == LanguageModel.Auto) {
+            return mRouter.choose(getRoutingCandidates(), tier, mCircuitBreakers);
+        }
+        return mModelClient;
+    }
+
+    private List<LanguageModelClient> getRoutingCandidates() {
+        List<LanguageModelClient> candidates = new ArrayList<>();
+        for (LanguageModel model: LanguageModel.providers()) {
+            LanguageModelClient client = getClient(model);
+            if (hasApiKey(client)) {
+                candidates.add(client);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * While Auto is selected, probes a provider with stale measurements once the keyboard has been
+     * left alone for a minute. Each call pushes the probe back.
+     */
+    private void scheduleIdleProbe() {
+        if (mSelectedModel != LanguageModel.Auto) {
+            return;
+        }
+
+        synchronized (this) {
+            if (mIdleProbe != null) {
+                mIdleProbe.cancel(false);
+            }
+            try {
+                mIdleProbe = GenerationExecutors.get().timer().schedule(() -> {
+                    try {
+                        GenerationExecutors.get().io().execute(this::probeIfIdle);
+                    } catch (RejectedExecutionException e) {
+                        MainHook.log(e);
+                    }
+                }, IDLE_PROBE_DELAY_MS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                MainHook.log(e);
             }
+        }
+    }
+
+    private void probeIfIdle() {
+        GenerationSession session = mSession;
+        if (mSelectedModel != LanguageModel.Auto || (session != null && session.isActive())) {
+            return;
+        }
+
+        mRouter.probe(getRoutingCandidates(), mCircuitBreakers,
+                client -> submitGuarded(client, ProviderRouter.PROBE_PROMPT, null,
+                        ModelTier.STRONG, PROBE_USAGE_LABEL, RequestPriority.BACKGROUND, null));
+    }
+
+    private LanguageModelClient getHedgeClient(LanguageModelClient primary) {
+        LanguageModel hedgeModel = mHedgeModel;
+        if (!mHedgingEnabled || hedgeModel == null || hedgeModel == primary.getLanguageModel()) {
+            return null;
+        }
 
-            @Override
-            public void onError(Throwable t) {
-                XposedBridge.log(t);
+        LanguageModelClient hedgeClient = getClient(hedgeModel);
+        return hasApiKey(hedgeClient) ? hedgeClient : null;
+    }
 
-                mInteracter.post(() -> {
-                    mInteracter.toastLong(t.getClass().getSimpleName() + " : " + t.getMessage() + " (see logs)");
-                });
+    /**
+     * The selected client followed, if failover is on, by every other configured one: the backup
+     * model first, then the rest in declaration order. The hedge client is left out since it
+     * already runs alongside.
+     */
+    private List<LanguageModelClient> getFailoverChain(LanguageModelClient primary, LanguageModelClient hedgeClient) {
+        List<LanguageModelClient> chain = new ArrayList<>();
+        chain.add(primary);
+        if (!mFailoverEnabled) {
+            return chain;
+        }
 
-                onComplete();
+        List<LanguageModel> order = new ArrayList<>();
+        if (mHedgeModel != null) {
+            order.add(mHedgeModel);
+        }
+        for (LanguageModel model: LanguageModel.providers()) {
+            if (!order.contains(model)) {
+                order.add(model);
             }
+        }
 
-            @Override
-            public void onComplete() {
-                if (completed) {
-                    MainHook.log("Skipping duplicate onComplete");
-                    return;
-                }
-                completed = true;
-
-                mInteracter.post(() -> {
-                    mInteracter.setInputType(InputType.TYPE_CLASS_TEXT);
-                    mInteracter.setText("? ");
-                });
-                mInteracter.releaseEditTextOwnership(InstructionCategory.Prompt);
-                MainHook.log("Done");
+        for (LanguageModel model: order) {
+            if (model == primary.getLanguageModel()
+                    || (hedgeClient != null && model == hedgeClient.getLanguageModel())) {
+                continue;
             }
-        });
+            LanguageModelClient client = getClient(model);
+            if (hasApiKey(client)) {
+                chain.add(client);
+            }
+        }
+        return chain;
+    }
+
+    private static boolean hasApiKey(LanguageModelClient client) {
+        return client.getApiKey() != null && !client.getApiKey().isEmpty();
+    }
+
+    /**
+     * The configured delay, or else the p90 of the time to first token observed in the same
+     * conditions (warm or cold connection), so that only the slowest tenth of requests get hedged.
+     */
+    private long getHedgeDelayMs(Histogram timeToFirstToken) {
+        if (mHedgeDelayMs > 0) {
+            return mHedgeDelayMs;
+        }
+        if (timeToFirstToken.getCount() < MIN_HEDGE_DELAY_SAMPLES) {
+            return DEFAULT_HEDGE_DELAY_MS;
+        }
+        return Math.max(MIN_HEDGE_DELAY_MS, Math.min(MAX_HEDGE_DELAY_MS, timeToFirstToken.getPercentile(90)));
+    }
+
+    /**
+     * Called as soon as the user starts typing an instruction.
+     */
+    public void warmUp() {
+        scheduleIdleProbe();
+
+        LanguageModelClient client = resolveClient(mSelectedModel, ModelTier.STRONG);
+        if (client != null) {
+            client.warmUp();
+
+            LanguageModelClient hedgeClient = getHedgeClient(client);
+            if (hedgeClient != null) {
+                hedgeClient.warmUp();
+            }
+        }
+    }
+
+    /**
+     * Stops the generation in progress, if any.
+     *
+     * @return true if a generation was cancelled
+     */
+    public boolean cancelGeneration() {
+        GenerationSession session = mSession;
+        if (session == null || !session.isActive()) {
+            return false;
+        }
+
+        session.cancel();
+        return true;
+    }
+
+    /**
+     * Human readable state of the breakers, the rate limiters, the routing profiles, today's token
+     * usage and all metrics.
+     */
+    public String getDiagnostics() {
+        return "Circuit breakers\n" + mCircuitBreakers
+                + "\nRate limiters\n" + mRateLimiters
+                + "\nRouting\n" + mRouter
+                + "\nUsage\n" + mUsageTracker
+                + "\nMetrics\n" + Metrics.dump();
     }
 
     public LanguageModel getLanguageModel() {
-        return mModelClient.getLanguageModel();
+        return mSelectedModel;
+    }
+
+    public String getSubModel() {
+        LanguageModelClient client = mModelClient;
+        return client != null ? client.getSubModel() : mSelectedModel.defaultSubModel;
     }
 
     public LanguageModelClient getModelClient() {
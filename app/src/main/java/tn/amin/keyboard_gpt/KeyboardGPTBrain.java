@@ -4,7 +4,10 @@ import android.content.Context;
 import android.inputmethodservice.InputMethodService;
 import android.widget.TextView;
 
+import tn.amin.keyboard_gpt.cache.ResponseCache;
+import tn.amin.keyboard_gpt.instruction.InstructionCategory;
 import tn.amin.keyboard_gpt.instruction.InstructionTreater;
+import tn.amin.keyboard_gpt.usage.UsageTracker;
 
 public class KeyboardGPTBrain {
     private final SPManager mSPManager;
@@ -12,16 +15,33 @@ public class KeyboardGPTBrain {
     private final GenerativeAIController mAIController;
     private final InstructionTreater mInstructionTreater;
 
+    private InstructionCategory mLastCategory = InstructionCategory.None;
+
     public KeyboardGPTBrain(Context context) {
         mSPManager = new SPManagerCompat(context);
         mInteracter = new UiInteracter(context, mSPManager);
 
-        mAIController = new GenerativeAIController(mSPManager, mInteracter);
+        mAIController = new GenerativeAIController(mSPManager, mInteracter,
+                new ResponseCache(context.getCacheDir()), new UsageTracker(context.getFilesDir()));
         mInstructionTreater = new InstructionTreater(mSPManager, mInteracter, mAIController);
     }
 
-    public boolean consumeText(String text) {
-        return mInstructionTreater.isInstruction(text) || isEditTextOwned();
+    public boolean consumeText(CharSequence text) {
+        return onInstructionCategory(mInstructionTreater.getInstructionCategory(text)) || isEditTextOwned();
+    }
+
+    public boolean consumeText(CharSequence text, int editStart) {
+        return onInstructionCategory(mInstructionTreater.getInstructionCategory(text, editStart)) || isEditTextOwned();
+    }
+
+    private boolean onInstructionCategory(InstructionCategory category) {
+        if (category != mLastCategory) {
+            mLastCategory = category;
+            if (category != InstructionCategory.None) {
+                mAIController.warmUp();
+            }
+        }
+        return category != InstructionCategory.None;
     }
 
     public void setEditText(TextView editText) {
@@ -29,6 +49,10 @@ public class KeyboardGPTBrain {
     }
 
     public boolean performCommand() {
+        if (mAIController.cancelGeneration()) {
+            return true;
+        }
+
         String text = mInteracter.getEditText().getText().toString();
 
         return mInstructionTreater.treat(text);
@@ -44,6 +68,7 @@ public class KeyboardGPTBrain {
 
     public void onInputMethodDestroy(InputMethodService inputMethodService) {
         getInteracter().unregisterService(inputMethodService);
+        GenerationExecutors.shutdown();
     }
 
     public void onInputMethodCreate(InputMethodService inputMethodService) {
@@ -15,6 +15,7 @@ import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XposedBridge;
 import de.robv.android.xposed.XposedHelpers;
 import de.robv.android.xposed.callbacks.XC_LoadPackage;
+import tn.amin.keyboard_gpt.instruction.InstructionTreater;
 
 public class MainHook implements IXposedHookLoadPackage {
     private KeyboardGPTBrain brain;
@@ -124,7 +125,7 @@ public class MainHook implements IXposedHookLoadPackage {
                         brain.setEditText(editText);
                     }
 
-                    brain.consumeText(String.valueOf(text));
+                    brain.consumeText(text);
                 }
             }
         });
@@ -144,7 +145,7 @@ public class MainHook implements IXposedHookLoadPackage {
                                 brain.setEditText(editText);
                             }
 
-                            if (brain.consumeText(String.valueOf(text))) {
+                            if (brain.consumeText(text, (int) param.args[1])) {
                                 param.setResult(null);
                             }
                         }
@@ -159,7 +160,7 @@ public class MainHook implements IXposedHookLoadPackage {
                             CharSequence text = (CharSequence) param.args[0];
 
 //                    log("sendOnTextChanged \"" + text + "\"");
-                            if (brain.consumeText(String.valueOf(text))) {
+                            if (brain.consumeText(text, (int) param.args[1])) {
                                 param.setResult(null);
                             }
                         }
@@ -174,7 +175,7 @@ public class MainHook implements IXposedHookLoadPackage {
                             Editable text = (Editable) param.args[0];
 
 //                    log("sendAfterTextChanged \"" + text + "\"");
-                            if (brain.consumeText(String.valueOf(text))) {
+                            if (brain.consumeText(text, InstructionTreater.UNCHANGED)) {
                                 param.setResult(null);
                             }
                         }
@@ -192,7 +193,7 @@ public class MainHook implements IXposedHookLoadPackage {
                             CharSequence text = (CharSequence) param.args[0];
 
                             log("setText \"" + text + "\"");
-                            if (brain.consumeText(String.valueOf(text))) {
+                            if (brain.consumeText(text)) {
                                 param.setResult(null);
                             }
 
@@ -4,7 +4,6 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -12,6 +11,7 @@ import java.util.stream.Collectors;
 import tn.amin.keyboard_gpt.instruction.command.Commands;
 import tn.amin.keyboard_gpt.instruction.command.GenerativeAICommand;
 import tn.amin.keyboard_gpt.language_model.LanguageModel;
+import tn.amin.keyboard_gpt.resilience.Deadlines;
 
 public class SPManager implements ConfigInfoProvider {
     protected static final String PREF_NAME = "keyboard_gpt";
@@ -24,10 +24,28 @@ public class SPManager implements ConfigInfoProvider {
 
     protected static final String PREF_SUB_MODEL = "%s.sub_model";
 
+    protected static final String PREF_FAST_SUB_MODEL = "%s.fast_sub_model";
+
     protected static final String PREF_BASE_URL = "%s.base_url";
 
+    protected static final String PREF_DEADLINES = "%s.deadlines";
+
+    protected static final String PREF_DAILY_TOKEN_BUDGET = "%s.daily_token_budget";
+
     protected static final String PREF_GEN_AI_COMMANDS = "gen_ai_commands";
 
+    protected static final String PREF_HEDGING_ENABLED = "hedging.enabled";
+
+    protected static final String PREF_HEDGING_MODEL = "hedging.model";
+
+    protected static final String PREF_HEDGING_DELAY_MS = "hedging.delay_ms";
+
+    protected static final String PREF_FAILOVER_ENABLED = "failover.enabled";
+
+    protected static final String PREF_CIRCUIT_BREAKER = "%s.circuit_breaker";
+
+    protected static final String PREF_ROUTING_PROFILES = "routing.profiles";
+
     protected final SharedPreferences mSP;
 
     public SPManager(Context context) {
@@ -71,6 +89,16 @@ public class SPManager implements ConfigInfoProvider {
         return mSP.getString(key, null);
     }
 
+    public void setFastSubModel(LanguageModel model, String fastSubModel) {
+        String key = String.format(PREF_FAST_SUB_MODEL, model.name());
+        mSP.edit().putString(key, fastSubModel).apply();
+    }
+
+    public String getFastSubModel(LanguageModel model) {
+        String key = String.format(PREF_FAST_SUB_MODEL, model.name());
+        return mSP.getString(key, null);
+    }
+
     public void setBaseUrl(LanguageModel model, String baseUrl) {
         String key = String.format(PREF_BASE_URL, model.name());
         mSP.edit().putString(key, baseUrl).apply();
@@ -81,6 +109,26 @@ public class SPManager implements ConfigInfoProvider {
         return mSP.getString(key, null);
     }
 
+    public void setDeadlines(LanguageModel model, Deadlines deadlines) {
+        String key = String.format(PREF_DEADLINES, model.name());
+        mSP.edit().putString(key, deadlines.encode()).apply();
+    }
+
+    public Deadlines getDeadlines(LanguageModel model) {
+        String key = String.format(PREF_DEADLINES, model.name());
+        return Deadlines.decode(mSP.getString(key, null));
+    }
+
+    public void setDailyTokenBudget(LanguageModel model, long budgetTokens) {
+        String key = String.format(PREF_DAILY_TOKEN_BUDGET, model.name());
+        mSP.edit().putLong(key, budgetTokens).apply();
+    }
+
+    public long getDailyTokenBudget(LanguageModel model) {
+        String key = String.format(PREF_DAILY_TOKEN_BUDGET, model.name());
+        return mSP.getLong(key, 0);
+    }
+
     public void setGenerativeAICommandsRaw(String commands) {
         mSP.edit().putString(PREF_GEN_AI_COMMANDS, commands).apply();
     }
@@ -97,8 +145,55 @@ public class SPManager implements ConfigInfoProvider {
         return Commands.decodeCommands(mSP.getString(PREF_GEN_AI_COMMANDS, "[]"));
     }
 
+    public void setHedging(boolean enabled, LanguageModel model, long delayMs) {
+        mSP.edit()
+                .putBoolean(PREF_HEDGING_ENABLED, enabled)
+                .putString(PREF_HEDGING_MODEL, model != null ? model.name() : null)
+                .putLong(PREF_HEDGING_DELAY_MS, delayMs)
+                .apply();
+    }
+
+    public boolean isHedgingEnabled() {
+        return mSP.getBoolean(PREF_HEDGING_ENABLED, false);
+    }
+
+    public LanguageModel getHedgingModel() {
+        String modelName = mSP.getString(PREF_HEDGING_MODEL, null);
+        return modelName != null ? LanguageModel.valueOf(modelName) : null;
+    }
+
+    public long getHedgingDelayMs() {
+        return mSP.getLong(PREF_HEDGING_DELAY_MS, 0);
+    }
+
+    public void setFailoverEnabled(boolean enabled) {
+        mSP.edit().putBoolean(PREF_FAILOVER_ENABLED, enabled).apply();
+    }
+
+    public boolean isFailoverEnabled() {
+        return mSP.getBoolean(PREF_FAILOVER_ENABLED, false);
+    }
+
+    public void setCircuitBreakerState(LanguageModel model, String state) {
+        String key = String.format(PREF_CIRCUIT_BREAKER, model.name());
+        mSP.edit().putString(key, state).apply();
+    }
+
+    public String getCircuitBreakerState(LanguageModel model) {
+        String key = String.format(PREF_CIRCUIT_BREAKER, model.name());
+        return mSP.getString(key, null);
+    }
+
+    public void setRoutingProfiles(String profiles) {
+        mSP.edit().putString(PREF_ROUTING_PROFILES, profiles).apply();
+    }
+
+    public String getRoutingProfiles() {
+        return mSP.getString(PREF_ROUTING_PROFILES, "{}");
+    }
+
     public Map<LanguageModel, String> getApiKeyMap() {
-        return Arrays.stream(LanguageModel.values())
+        return LanguageModel.providers().stream()
                 .collect(Collectors.toMap(model -> model, model -> {
                     String apiKey = getApiKey(model);
                     if (apiKey == null)
@@ -110,15 +205,29 @@ public class SPManager implements ConfigInfoProvider {
     @Override
     public Bundle getConfigBundle() {
         Bundle bundle = new Bundle();
-        for (LanguageModel model: LanguageModel.values()) {
+        for (LanguageModel model: LanguageModel.providers()) {
             Bundle configBundle = new Bundle();
 
             configBundle.putString(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL_API_KEY, getApiKey(model));
             configBundle.putString(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL_SUB_MODEL, getSubModel(model));
+            configBundle.putString(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL_FAST_SUB_MODEL, getFastSubModel(model));
             configBundle.putString(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL_BASE_URL, getBaseUrl(model));
+            configBundle.putString(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL_DEADLINES, getDeadlines(model).encode());
+            configBundle.putLong(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL_DAILY_TOKEN_BUDGET, getDailyTokenBudget(model));
 
             bundle.putBundle(model.name(), configBundle);
         }
         return bundle;
     }
+
+    @Override
+    public Bundle getHedgingBundle() {
+        Bundle bundle = new Bundle();
+        LanguageModel model = getHedgingModel();
+        bundle.putBoolean(UiInteracter.EXTRA_CONFIG_HEDGING_ENABLED, isHedgingEnabled());
+        bundle.putString(UiInteracter.EXTRA_CONFIG_HEDGING_MODEL, model != null ? model.name() : null);
+        bundle.putLong(UiInteracter.EXTRA_CONFIG_HEDGING_DELAY_MS, getHedgingDelayMs());
+        bundle.putBoolean(UiInteracter.EXTRA_CONFIG_FAILOVER_ENABLED, isFailoverEnabled());
+        return bundle;
+    }
 }
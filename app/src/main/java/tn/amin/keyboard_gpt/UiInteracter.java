@@ -9,7 +9,9 @@ import android.inputmethodservice.InputMethodService;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.text.InputType;
 import android.view.View;
+import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputConnection;
 import android.widget.EditText;
 import android.widget.TextView;
@@ -24,6 +26,7 @@ import java.util.ArrayList;
 
 import de.robv.android.xposed.XposedBridge;
 import tn.amin.keyboard_gpt.language_model.LanguageModel;
+import tn.amin.keyboard_gpt.resilience.Deadlines;
 import tn.amin.keyboard_gpt.ui.DialogType;
 
 public class UiInteracter {
@@ -43,17 +46,38 @@ public class UiInteracter {
 
     public static final String EXTRA_CONFIG_LANGUAGE_MODEL_SUB_MODEL = "tn.amin.keyboard_gpt.config.model.SUB_MODEL";
 
+    public static final String EXTRA_CONFIG_LANGUAGE_MODEL_FAST_SUB_MODEL = "tn.amin.keyboard_gpt.config.model.FAST_SUB_MODEL";
+
+    public static final String EXTRA_CONFIG_LANGUAGE_MODEL_DEADLINES = "tn.amin.keyboard_gpt.config.model.DEADLINES";
+
+    public static final String EXTRA_CONFIG_LANGUAGE_MODEL_DAILY_TOKEN_BUDGET = "tn.amin.keyboard_gpt.config.model.DAILY_TOKEN_BUDGET";
+
+    public static final String EXTRA_CONFIG_HEDGING = "tn.amin.keyboard_gpt.config.hedging";
+
+    public static final String EXTRA_CONFIG_HEDGING_ENABLED = "tn.amin.keyboard_gpt.config.hedging.ENABLED";
+
+    public static final String EXTRA_CONFIG_HEDGING_MODEL = "tn.amin.keyboard_gpt.config.hedging.MODEL";
+
+    public static final String EXTRA_CONFIG_HEDGING_DELAY_MS = "tn.amin.keyboard_gpt.config.hedging.DELAY_MS";
+
+    public static final String EXTRA_CONFIG_FAILOVER_ENABLED = "tn.amin.keyboard_gpt.config.failover.ENABLED";
+
 
     public static final String EXTRA_WEBVIEW_TITLE = "tn.amin.keyboard_gpt.webview.TITLE";
 
     public static final String EXTRA_WEBVIEW_URL = "tn.amin.keyboard_gpt.webview.URL";
 
 
+    public static final String EXTRA_DIAGNOSTICS = "tn.amin.keyboard_gpt.diagnostics.TEXT";
+
+
     public static final String EXTRA_COMMAND_LIST = "tn.amin.keyboard_gpt.command.LIST";
 
     public static final String EXTRA_COMMAND_INDEX = "tn.amin.keyboard_gpt.command.INDEX";
 
 
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
     private final ConfigInfoProvider mConfigInfoProvider;
     private final ArrayList<ConfigChangeListener> mConfigChangeListeners = new ArrayList<>();
     private final ArrayList<DialogDismissListener> mOnDismissListeners = new ArrayList<>();
@@ -94,14 +118,34 @@ public class UiInteracter {
 
                                     String apiKey = languageModelBundle.getString(EXTRA_CONFIG_LANGUAGE_MODEL_API_KEY);
                                     String subModel = languageModelBundle.getString(EXTRA_CONFIG_LANGUAGE_MODEL_SUB_MODEL);
+                                    String fastSubModel = languageModelBundle.getString(EXTRA_CONFIG_LANGUAGE_MODEL_FAST_SUB_MODEL);
                                     String baseUrl = languageModelBundle.getString(EXTRA_CONFIG_LANGUAGE_MODEL_BASE_URL);
+                                    Deadlines deadlines = Deadlines.decode(
+                                            languageModelBundle.getString(EXTRA_CONFIG_LANGUAGE_MODEL_DEADLINES));
+                                    long dailyTokenBudget = languageModelBundle.getLong(EXTRA_CONFIG_LANGUAGE_MODEL_DAILY_TOKEN_BUDGET);
 
                                     mConfigChangeListeners.forEach((l) -> l.onApiKeyChange(configuredlanguageModel, apiKey));
                                     mConfigChangeListeners.forEach((l) -> l.onSubModelChange(configuredlanguageModel, subModel));
+                                    mConfigChangeListeners.forEach((l) -> l.onFastSubModelChange(configuredlanguageModel, fastSubModel));
                                     mConfigChangeListeners.forEach((l) -> l.onBaseUrlChange(configuredlanguageModel, baseUrl));
+                                    mConfigChangeListeners.forEach((l) -> l.onDeadlinesChange(configuredlanguageModel, deadlines));
+                                    mConfigChangeListeners.forEach((l) -> l.onDailyTokenBudgetChange(configuredlanguageModel, dailyTokenBudget));
                                 }
                                 isPrompt = true;
                                 break;
+                            case EXTRA_CONFIG_HEDGING:
+                                Bundle hedgingBundle = intent.getBundleExtra(EXTRA_CONFIG_HEDGING);
+                                boolean hedgingEnabled = hedgingBundle.getBoolean(EXTRA_CONFIG_HEDGING_ENABLED);
+                                String hedgingModelName = hedgingBundle.getString(EXTRA_CONFIG_HEDGING_MODEL);
+                                LanguageModel hedgingModel = hedgingModelName != null
+                                        ? LanguageModel.valueOf(hedgingModelName) : null;
+                                long hedgingDelayMs = hedgingBundle.getLong(EXTRA_CONFIG_HEDGING_DELAY_MS);
+                                mConfigChangeListeners.forEach((l) ->
+                                        l.onHedgingChange(hedgingEnabled, hedgingModel, hedgingDelayMs));
+                                boolean failoverEnabled = hedgingBundle.getBoolean(EXTRA_CONFIG_FAILOVER_ENABLED);
+                                mConfigChangeListeners.forEach((l) -> l.onFailoverChange(failoverEnabled));
+                                isPrompt = true;
+                                break;
                             case EXTRA_COMMAND_LIST:
                                 String commandsRaw = intent.getStringExtra(EXTRA_COMMAND_LIST);
                                 mConfigChangeListeners.forEach((l) -> l.onCommandsChange(commandsRaw));
@@ -128,6 +172,7 @@ public class UiInteracter {
         intent.putExtra(EXTRA_CONFIG_LANGUAGE_MODEL, mConfigInfoProvider.getConfigBundle());
         intent.putExtra(EXTRA_CONFIG_SELECTED_MODEL,
                 mConfigInfoProvider.getLanguageModel().name());
+        intent.putExtra(EXTRA_CONFIG_HEDGING, mConfigInfoProvider.getHedgingBundle());
 
         MainHook.log("Launching configure dialog");
         mContext.startActivity(intent);
@@ -151,6 +196,22 @@ public class UiInteracter {
         return true;
     }
 
+    public boolean showDiagnosticsDialog(String diagnostics) {
+        if (isDialogOnCooldown()) {
+            return false;
+        }
+
+        Intent intent = new Intent("tn.amin.keyboard_gpt.OVERLAY");
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        intent.putExtra(EXTRA_DIALOG_TYPE, DialogType.Diagnostics.name());
+        intent.putExtra(EXTRA_DIAGNOSTICS, diagnostics);
+
+        MainHook.log("Launching diagnostics");
+        mContext.startActivity(intent);
+
+        return true;
+    }
+
     public boolean showEditCommandsDialog(String rawCommands) {
         if (isDialogOnCooldown()) {
             return false;
@@ -184,6 +245,25 @@ public class UiInteracter {
         return mEditText.get();
     }
 
+    /**
+     * @return the input type of the keyboard's own field holding the instruction,
+     * {@link InputType#TYPE_NULL} if there is none
+     */
+    public int getInputType() {
+        TextView editText = getEditText();
+        return editText != null ? editText.getInputType() : InputType.TYPE_NULL;
+    }
+
+    /**
+     * @return the input type of the app's field the answer is committed to,
+     * {@link InputType#TYPE_NULL} if there is none. Call on the main thread.
+     */
+    public int getTargetInputType() {
+        InputMethodService inputMethodService = mInputMethodService;
+        EditorInfo editorInfo = inputMethodService != null ? inputMethodService.getCurrentInputEditorInfo() : null;
+        return editorInfo != null ? editorInfo.inputType : InputType.TYPE_NULL;
+    }
+
     public void registerConfigChangeListener(ConfigChangeListener listener) {
         mConfigChangeListeners.add(listener);
     }
@@ -245,7 +325,15 @@ public class UiInteracter {
     }
 
     public void post(Runnable runnable) {
-        new Handler(Looper.getMainLooper()).post(runnable);
+        mMainHandler.post(runnable);
+    }
+
+    public void postDelayed(Runnable runnable, long delayMillis) {
+        mMainHandler.postDelayed(runnable, delayMillis);
+    }
+
+    public void removeCallbacks(Runnable runnable) {
+        mMainHandler.removeCallbacks(runnable);
     }
 
     public InputConnection getInputConnection() {
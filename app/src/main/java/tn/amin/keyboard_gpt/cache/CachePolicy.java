@@ -0,0 +1,29 @@
+package tn.amin.keyboard_gpt.cache;
+
+/**
+ * How a generation may use the {@link ResponseCache}.
+ */
+public class CachePolicy {
+    public static final CachePolicy NONE = new CachePolicy(false, 0);
+    public static final CachePolicy EXACT = new CachePolicy(true, 0);
+
+    public final boolean useCache;
+
+    /**
+     * Minimum similarity for reusing the answer to a different prompt, or 0 for exact matches only.
+     */
+    public final double similarityThreshold;
+
+    private CachePolicy(boolean useCache, double similarityThreshold) {
+        this.useCache = useCache;
+        this.similarityThreshold = similarityThreshold;
+    }
+
+    public static CachePolicy similar(double threshold) {
+        return new CachePolicy(true, threshold);
+    }
+
+    public boolean allowsSimilar() {
+        return useCache && similarityThreshold > 0;
+    }
+}
@@ -0,0 +1,330 @@
+package tn.amin.keyboard_gpt.cache;
+
+import android.util.LruCache;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.RejectedExecutionException;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+import tn.amin.keyboard_gpt.MainHook;
+import tn.amin.keyboard_gpt.language_model.LanguageModel;
+import tn.amin.keyboard_gpt.metrics.Counter;
+import tn.amin.keyboard_gpt.metrics.Histogram;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+
+/**
+ * Complete responses keyed by model, sub-model, system message and normalized prompt. Lookups go
+ * to an in-memory LRU bounded by size first, then to files in the cache directory. Entries older
+ * than the TTL are treated as missing in both tiers. Stored prompts are also fingerprinted so that
+ * near-duplicates can be served with {@link #getSimilar}.
+ */
+public class ResponseCache {
+    private static final long TTL_MS = 24 * 60 * 60 * 1000;
+    private static final int MEMORY_BUDGET_BYTES = 1024 * 1024;
+    private static final long DISK_BUDGET_BYTES = 4 * 1024 * 1024;
+    private static final String DIRECTORY_NAME = "responses";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int SIMILARITY_INDEX_CAPACITY = 512;
+
+    private final File mDirectory;
+    private final LruCache<String, Entry> mMemory = new LruCache<String, Entry>(MEMORY_BUDGET_BYTES) {
+        @Override
+        protected int sizeOf(String key, Entry entry) {
+            return key.length() * 2 + entry.text.length() * 2;
+        }
+    };
+
+    private final SimilarityIndex mSimilarityIndex = new SimilarityIndex(SIMILARITY_INDEX_CAPACITY);
+
+    private final Counter mMemoryHits = Metrics.counter("cache.hits_memory");
+    private final Counter mDiskHits = Metrics.counter("cache.hits_disk");
+    private final Counter mMisses = Metrics.counter("cache.misses");
+    private final Counter mStores = Metrics.counter("cache.stores");
+    private final Histogram mLookupTime = Metrics.histogram("cache.lookup_us");
+    private final Counter mSimilarHits = Metrics.counter("cache.hits_similar");
+    private final Histogram mSimilarLookupTime = Metrics.histogram("cache.similar_lookup_us");
+
+    public ResponseCache(File cacheDir) {
+        mDirectory = new File(cacheDir, DIRECTORY_NAME);
+    }
+
+    public static Query query(LanguageModel model, String subModel, String systemMessage, String prompt) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        String[] scopeParts = { model.name(), subModel, systemMessage };
+        for (String part: scopeParts) {
+            if (part != null) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) 0);
+        }
+        long scope = 0;
+        try {
+            byte[] scopeHash = ((MessageDigest) digest.clone()).digest();
+            for (int i = 0; i < 8; i++) {
+                scope = (scope << 8) | (scopeHash[i] & 0xFF);
+            }
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+
+        digest.update(normalize(prompt).getBytes(StandardCharsets.UTF_8));
+        byte[] hash = digest.digest();
+        StringBuilder key = new StringBuilder(hash.length * 2);
+        for (byte b: hash) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16));
+            key.append(Character.forDigit(b & 0xF, 16));
+        }
+        return new Query(key.toString(), scope, prompt);
+    }
+
+    /**
+     * Trims and collapses whitespace, so prompts that only differ in spacing share an entry.
+     */
+    static String normalize(String prompt) {
+        StringBuilder normalized = new StringBuilder(prompt.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < prompt.length(); i++) {
+            char c = prompt.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                normalized.append(' ');
+                pendingSpace = false;
+            }
+            normalized.append(c);
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * @return the response cached for exactly this query, or null. May read from disk, so call off
+     * the main thread.
+     */
+    public String get(Query query) {
+        long start = System.nanoTime();
+        String text = lookup(query.key);
+        mLookupTime.record((System.nanoTime() - start) / 1000);
+        if (text == null) {
+            mMisses.inc();
+        }
+        return text;
+    }
+
+    /**
+     * @return the response to an earlier prompt of the same scope that is at least
+     * {@code threshold} similar to this one, or null
+     */
+    public String getSimilar(Query query, double threshold) {
+        long start = System.nanoTime();
+        String key = mSimilarityIndex.find(query.scope, query.prompt, threshold);
+        mSimilarLookupTime.record((System.nanoTime() - start) / 1000);
+        if (key == null) {
+            return null;
+        }
+
+        String text = lookup(key);
+        if (text != null) {
+            mSimilarHits.inc();
+        }
+        return text;
+    }
+
+    private String lookup(String key) {
+        Entry entry = mMemory.get(key);
+        if (entry != null && !entry.isExpired()) {
+            mMemoryHits.inc();
+            return entry.text;
+        }
+
+        entry = readFromDisk(key);
+        if (entry != null) {
+            mMemory.put(key, entry);
+            mDiskHits.inc();
+            return entry.text;
+        }
+        return null;
+    }
+
+    public void put(Query query, String text) {
+        put(query.key, text);
+        mSimilarityIndex.add(query.scope, query.prompt, query.key);
+    }
+
+    private void put(String key, String text) {
+        Entry entry = new Entry(text, System.currentTimeMillis());
+        mMemory.put(key, entry);
+        mStores.inc();
+
+        try {
+            GenerationExecutors.get().compute().execute(() -> writeToDisk(key, entry));
+        } catch (RejectedExecutionException e) {
+            MainHook.log("Skipped writing response to disk cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Passes {@code upstream} through, storing the full response for {@code query} once it
+     * completes. Failed or cancelled responses are not stored.
+     */
+    public Publisher<String> record(Query query, Publisher<String> upstream) {
+        return subscriber -> upstream.subscribe(new RecordingSubscriber(query, subscriber));
+    }
+
+    private Entry readFromDisk(String key) {
+        File file = new File(mDirectory, key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        long createdAt = file.lastModified();
+        if (System.currentTimeMillis() - createdAt > TTL_MS) {
+            file.delete();
+            return null;
+        }
+
+        byte[] bytes = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            int read;
+            while (offset < bytes.length && (read = in.read(bytes, offset, bytes.length - offset)) != -1) {
+                offset += read;
+            }
+        } catch (IOException e) {
+            MainHook.log("Failed to read cached response: " + e.getMessage());
+            return null;
+        }
+        return new Entry(new String(bytes, StandardCharsets.UTF_8), createdAt);
+    }
+
+    private void writeToDisk(String key, Entry entry) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return;
+        }
+
+        File temp = new File(mDirectory, key + TEMP_SUFFIX);
+        try (OutputStream out = new FileOutputStream(temp)) {
+            out.write(entry.text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            MainHook.log("Failed to write cached response: " + e.getMessage());
+            temp.delete();
+            return;
+        }
+
+        File file = new File(mDirectory, key);
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+        file.setLastModified(entry.createdAt);
+
+        trimDisk();
+    }
+
+    /**
+     * Drops expired files, then the oldest ones until the directory fits the disk budget. Temp
+     * files are left to the writer that is about to rename them.
+     */
+    private void trimDisk() {
+        File[] files = mDirectory.listFiles((dir, name) -> !name.endsWith(TEMP_SUFFIX));
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+        long now = System.currentTimeMillis();
+        long total = 0;
+        for (File file: files) {
+            total += file.length();
+            if (total > DISK_BUDGET_BYTES || now - file.lastModified() > TTL_MS) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * A prompt along with its cache key and the hash of everything besides the prompt that
+     * shapes the answer (model, sub-model and system message).
+     */
+    public static class Query {
+        final String key;
+        final long scope;
+        final String prompt;
+
+        Query(String key, long scope, String prompt) {
+            this.key = key;
+            this.scope = scope;
+            this.prompt = prompt;
+        }
+    }
+
+    private static class Entry {
+        final String text;
+        final long createdAt;
+
+        Entry(String text, long createdAt) {
+            this.text = text;
+            this.createdAt = createdAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - createdAt > TTL_MS;
+        }
+    }
+
+    private class RecordingSubscriber implements Subscriber<String> {
+        private final Query mQuery;
+        private final Subscriber<? super String> mDownstream;
+        private final StringBuilder mText = new StringBuilder();
+
+        RecordingSubscriber(Query query, Subscriber<? super String> downstream) {
+            mQuery = query;
+            mDownstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            mDownstream.onSubscribe(s);
+        }
+
+        @Override
+        public void onNext(String s) {
+            mText.append(s);
+            mDownstream.onNext(s);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            mDownstream.onError(t);
+        }
+
+        @Override
+        public void onComplete() {
+            if (mText.length() > 0) {
+                put(mQuery, mText.toString());
+            }
+            mDownstream.onComplete();
+        }
+    }
+}
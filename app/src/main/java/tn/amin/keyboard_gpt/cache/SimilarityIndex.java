@@ -0,0 +1,184 @@
+package tn.amin.keyboard_gpt.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Finds earlier prompts that are nearly the same as a new one. Prompts are reduced to a 64 bit
+ * SimHash over character trigrams of their lowercased alphanumeric content, so prompts that differ
+ * in case, punctuation, spacing or a typo get fingerprints a few bits apart. Fingerprints are
+ * bucketed by each of their 8 bytes: two fingerprints less than 8 bits apart share at least one
+ * byte, so only a handful of candidates are compared per lookup.
+ */
+class SimilarityIndex {
+    private static final int BANDS = 8;
+    private static final int BAND_BITS = 64 / BANDS;
+    private static final long BAND_MASK = (1L << BAND_BITS) - 1;
+    private static final int SHINGLE_SIZE = 3;
+
+    private final int mCapacity;
+
+    // Access ordered, the eldest entry is the least recently used
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<Long, ArrayList<Entry>> mBuckets = new HashMap<>();
+
+    SimilarityIndex(int capacity) {
+        mCapacity = capacity;
+    }
+
+    /**
+     * Remembers that {@code prompt} was answered by the entry stored under {@code key}.
+     */
+    synchronized void add(long scope, String prompt, String key) {
+        Entry previous = mEntries.remove(key);
+        if (previous != null) {
+            removeFromBuckets(previous);
+        }
+
+        String text = canonicalize(prompt);
+        Entry entry = new Entry(scope, fingerprint(text), text.length(), key);
+        mEntries.put(key, entry);
+        for (int band = 0; band < BANDS; band++) {
+            ArrayList<Entry> bucket = mBuckets.get(bucketKey(entry.scope, entry.fingerprint, band));
+            if (bucket == null) {
+                bucket = new ArrayList<>(2);
+                mBuckets.put(bucketKey(entry.scope, entry.fingerprint, band), bucket);
+            }
+            bucket.add(entry);
+        }
+
+        if (mEntries.size() > mCapacity) {
+            Iterator<Map.Entry<String, Entry>> eldest = mEntries.entrySet().iterator();
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            removeFromBuckets(evicted);
+        }
+    }
+
+    /**
+     * @return the key of the most similar earlier prompt in {@code scope} whose similarity
+     * (share of equal fingerprint bits, also bounded by the length ratio) is at least
+     * {@code threshold}, or null
+     */
+    synchronized String find(long scope, String prompt, double threshold) {
+        String text = canonicalize(prompt);
+        long fingerprint = fingerprint(text);
+
+        Entry best = null;
+        double bestSimilarity = threshold;
+        for (int band = 0; band < BANDS; band++) {
+            ArrayList<Entry> bucket = mBuckets.get(bucketKey(scope, fingerprint, band));
+            if (bucket == null) {
+                continue;
+            }
+            for (Entry entry: bucket) {
+                if (entry.scope != scope) {
+                    continue;
+                }
+                double similarity = similarity(fingerprint, text.length(), entry);
+                if (similarity >= bestSimilarity) {
+                    best = entry;
+                    bestSimilarity = similarity;
+                }
+            }
+        }
+
+        if (best == null) {
+            return null;
+        }
+        // Refresh recency
+        mEntries.get(best.key);
+        return best.key;
+    }
+
+    private static double similarity(long fingerprint, int length, Entry entry) {
+        double bits = 1 - Long.bitCount(fingerprint ^ entry.fingerprint) / 64.0;
+        int longer = Math.max(length, entry.length);
+        double lengthRatio = longer == 0 ? 1 : (double) Math.min(length, entry.length) / longer;
+        return Math.min(bits, lengthRatio);
+    }
+
+    private void removeFromBuckets(Entry entry) {
+        for (int band = 0; band < BANDS; band++) {
+            long bucketKey = bucketKey(entry.scope, entry.fingerprint, band);
+            ArrayList<Entry> bucket = mBuckets.get(bucketKey);
+            if (bucket != null && bucket.remove(entry) && bucket.isEmpty()) {
+                mBuckets.remove(bucketKey);
+            }
+        }
+    }
+
+    private static long bucketKey(long scope, long fingerprint, int band) {
+        long bits = (fingerprint >>> (band * BAND_BITS)) & BAND_MASK;
+        return mix(scope + band) ^ bits;
+    }
+
+    /**
+     * Lowercase letters and digits, with any run of other characters turned into one space.
+     */
+    static String canonicalize(String prompt) {
+        StringBuilder text = new StringBuilder(prompt.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < prompt.length(); i++) {
+            char c = prompt.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                pendingSpace = text.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                text.append(' ');
+                pendingSpace = false;
+            }
+            text.append(Character.toLowerCase(c));
+        }
+        return text.toString();
+    }
+
+    static long fingerprint(String text) {
+        int[] weights = new int[64];
+        int shingles = Math.max(1, text.length() - SHINGLE_SIZE + 1);
+        for (int i = 0; i < shingles; i++) {
+            long hash = 0xcbf29ce484222325L;
+            int end = Math.min(text.length(), i + SHINGLE_SIZE);
+            for (int j = i; j < end; j++) {
+                hash = (hash ^ text.charAt(j)) * 0x100000001b3L;
+            }
+            hash = mix(hash);
+
+            for (int bit = 0; bit < 64; bit++) {
+                weights[bit] += ((hash >>> bit) & 1) != 0 ? 1 : -1;
+            }
+        }
+
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+
+    private static class Entry {
+        final long scope;
+        final long fingerprint;
+        final int length;
+        final String key;
+
+        Entry(long scope, long fingerprint, int length, String key) {
+            this.scope = scope;
+            this.fingerprint = fingerprint;
+            this.length = length;
+            this.key = key;
+        }
+    }
+}
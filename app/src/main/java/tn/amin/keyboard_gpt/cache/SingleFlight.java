@@ -0,0 +1,50 @@
+package tn.amin.keyboard_gpt.cache;
+
+import org.reactivestreams.Publisher;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import tn.amin.keyboard_gpt.language_model.LanguageModel;
+import tn.amin.keyboard_gpt.language_model.publisher.MulticastPublisher;
+import tn.amin.keyboard_gpt.metrics.Counter;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+
+/**
+ * Requests that are still in flight, so that an identical request (e.g. a command triggered twice)
+ * joins the running response instead of being sent again.
+ */
+public class SingleFlight {
+    private final Map<String, MulticastPublisher> mFlights = new HashMap<>();
+
+    private final Counter mStarted = Metrics.counter("singleflight.started");
+    private final Counter mJoined = Metrics.counter("singleflight.joined");
+
+    public static String key(LanguageModel model, String subModel, String systemMessage, String prompt) {
+        return model.name() + '\0' + subModel + '\0' + systemMessage + '\0' + prompt;
+    }
+
+    /**
+     * @param submit sends the request if none with this key is in flight; must not block
+     * @return a publisher replaying what the shared response emitted so far, then following it
+     */
+    public synchronized Publisher<String> share(String key, Supplier<Publisher<String>> submit) {
+        MulticastPublisher flight = mFlights.get(key);
+        if (flight != null) {
+            mJoined.inc();
+            return flight;
+        }
+
+        mStarted.inc();
+        flight = new MulticastPublisher(submit, finished -> remove(key, finished));
+        mFlights.put(key, flight);
+        return flight;
+    }
+
+    private synchronized void remove(String key, MulticastPublisher flight) {
+        if (mFlights.get(key) == flight) {
+            mFlights.remove(key);
+        }
+    }
+}
@@ -6,8 +6,26 @@ public enum InstructionCategory {
     None(null),
     ;
 
+    private static final InstructionCategory[] FIRST_CHAR_TABLE = new InstructionCategory[128];
+
+    static {
+        for (InstructionCategory category: values()) {
+            if (category.prefix != null) {
+                FIRST_CHAR_TABLE[category.prefix.charAt(0)] = category;
+            }
+        }
+    }
+
     public final String prefix;
     InstructionCategory(String prefix) {
         this.prefix = prefix;
     }
+
+    /**
+     * Returns the category whose prefix starts with {@code c}, or null. Prefixes are ASCII,
+     * so anything outside the table can never start an instruction.
+     */
+    static InstructionCategory forFirstChar(char c) {
+        return c < FIRST_CHAR_TABLE.length ? FIRST_CHAR_TABLE[c] : null;
+    }
 }
@@ -1,5 +1,7 @@
 package tn.amin.keyboard_gpt.instruction;
 
+import java.lang.ref.WeakReference;
+
 import tn.amin.keyboard_gpt.GenerativeAIController;
 import tn.amin.keyboard_gpt.MainHook;
 import tn.amin.keyboard_gpt.SPManager;
@@ -8,26 +10,59 @@ import tn.amin.keyboard_gpt.instruction.command.CommandTreater;
 import tn.amin.keyboard_gpt.instruction.prompt.PromptTreater;
 
 public class InstructionTreater implements TextTreater {
+    public static final int UNCHANGED = Integer.MAX_VALUE;
+
     private final CommandTreater mCommandTreater;
     private final PromptTreater mPromptTreater;
 
+    private WeakReference<CharSequence> mLastText = null;
+    private InstructionCategory mLastCategory = InstructionCategory.None;
+    private int mLastValidFrom = UNCHANGED;
+
     public InstructionTreater(SPManager spManager, UiInteracter interacter, GenerativeAIController aiController) {
         mPromptTreater = new PromptTreater(spManager, interacter, aiController);
         mCommandTreater = new CommandTreater(spManager, interacter, aiController);
     }
 
-    public InstructionCategory getInstructionCategory(String text) {
+    public InstructionCategory getInstructionCategory(CharSequence text) {
         if (text == null) {
             return InstructionCategory.None;
         }
-        
-        for (InstructionCategory type: InstructionCategory.values()) {
-            if (type.prefix != null && text.startsWith(type.prefix)) {
-                return type;
-            }
+
+        return classify(text, indexOfFirstNonSpace(text));
+    }
+
+    /**
+     * Same as {@link #getInstructionCategory(CharSequence)}, but reuses the previous result when
+     * {@code text} is the same buffer and the edit starting at {@code editStart} lies after the
+     * characters that decided it. Pass {@link #UNCHANGED} when the buffer was not modified since
+     * the last call (e.g. afterTextChanged of the same edit).
+     */
+    public InstructionCategory getInstructionCategory(CharSequence text, int editStart) {
+        if (text == null) {
+            return InstructionCategory.None;
+        }
+
+        if (mLastText != null && mLastText.get() == text && editStart >= mLastValidFrom) {
+            return mLastCategory;
+        }
+
+        int start = indexOfFirstNonSpace(text);
+        InstructionCategory category = classify(text, start);
+
+        if (mLastText == null || mLastText.get() != text) {
+            mLastText = new WeakReference<>(text);
+        }
+        mLastCategory = category;
+        if (start >= text.length()) {
+            // Only whitespace so far: any insertion may introduce a prefix
+            mLastValidFrom = UNCHANGED;
+        }
+        else {
+            InstructionCategory candidate = InstructionCategory.forFirstChar(text.charAt(start));
+            mLastValidFrom = start + (candidate != null ? candidate.prefix.length() : 1);
         }
-        
-        return InstructionCategory.None;
+        return category;
     }
 
     public String removeInstructionPrefix(String text, InstructionCategory category) {
@@ -35,6 +70,7 @@ public class InstructionTreater implements TextTreater {
             return null;
         }
 
+        text = text.trim();
         if (text.length() < category.prefix.length()) {
             return null;
         }
@@ -42,10 +78,42 @@ public class InstructionTreater implements TextTreater {
         return text.substring(category.prefix.length()).trim();
     }
 
-    public boolean isInstruction(String text) {
+    public boolean isInstruction(CharSequence text) {
         return getInstructionCategory(text) != InstructionCategory.None;
     }
 
+    public boolean isInstruction(CharSequence text, int editStart) {
+        return getInstructionCategory(text, editStart) != InstructionCategory.None;
+    }
+
+    private static InstructionCategory classify(CharSequence text, int start) {
+        if (start >= text.length()) {
+            return InstructionCategory.None;
+        }
+
+        InstructionCategory category = InstructionCategory.forFirstChar(text.charAt(start));
+        if (category == null || text.length() - start < category.prefix.length()) {
+            return InstructionCategory.None;
+        }
+
+        for (int i = 1; i < category.prefix.length(); i++) {
+            if (text.charAt(start + i) != category.prefix.charAt(i)) {
+                return InstructionCategory.None;
+            }
+        }
+        return category;
+    }
+
+    private static int indexOfFirstNonSpace(CharSequence text) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return i;
+            }
+        }
+        return length;
+    }
+
     @Override
     public boolean treat(String text) {
         InstructionCategory category = getInstructionCategory(text);
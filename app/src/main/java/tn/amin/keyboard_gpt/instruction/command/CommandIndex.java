@@ -0,0 +1,150 @@
+package tn.amin.keyboard_gpt.instruction.command;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Char trie of command prefixes. Nodes are immutable and updates copy only the path to the
+ * changed prefix, so a lookup always walks a consistent snapshot and never takes a lock.
+ */
+public class CommandIndex {
+    private static final Node EMPTY = new Node(new char[0], new Node[0], null);
+
+    private final AtomicReference<Node> mRoot = new AtomicReference<>(EMPTY);
+
+    /**
+     * Returns the command with the longest prefix of {@code text} that is followed by
+     * end of text or a character which is neither a letter nor a digit, or null.
+     */
+    public AbstractCommand find(CharSequence text) {
+        Node node = mRoot.get();
+        AbstractCommand found = null;
+        int length = text.length();
+        for (int i = 0; ; i++) {
+            if (node.command != null
+                    && (i == length || !Character.isLetterOrDigit(text.charAt(i)))) {
+                found = node.command;
+            }
+            if (i == length) {
+                break;
+            }
+
+            node = node.child(text.charAt(i));
+            if (node == null) {
+                break;
+            }
+        }
+        return found;
+    }
+
+    public void put(AbstractCommand command) {
+        String prefix = command.getCommandPrefix();
+        Node root;
+        Node updated;
+        do {
+            root = mRoot.get();
+            updated = put(root, prefix, 0, command);
+        } while (!mRoot.compareAndSet(root, updated));
+    }
+
+    /**
+     * Removes {@code command} if it is still the one registered under its prefix.
+     */
+    public void remove(AbstractCommand command) {
+        String prefix = command.getCommandPrefix();
+        Node root;
+        Node updated;
+        do {
+            root = mRoot.get();
+            updated = remove(root, prefix, 0, command);
+            if (updated == root) {
+                return;
+            }
+        } while (!mRoot.compareAndSet(root, updated));
+    }
+
+    private static Node put(Node node, String prefix, int depth, AbstractCommand command) {
+        if (depth == prefix.length()) {
+            return new Node(node.keys, node.children, command);
+        }
+
+        char c = prefix.charAt(depth);
+        int index = Arrays.binarySearch(node.keys, c);
+        Node child = index >= 0 ? node.children[index] : EMPTY;
+        return node.withChild(c, index, put(child, prefix, depth + 1, command));
+    }
+
+    private static Node remove(Node node, String prefix, int depth, AbstractCommand command) {
+        if (depth == prefix.length()) {
+            if (node.command != command) {
+                return node;
+            }
+            return new Node(node.keys, node.children, null);
+        }
+
+        int index = Arrays.binarySearch(node.keys, prefix.charAt(depth));
+        if (index < 0) {
+            return node;
+        }
+
+        Node child = node.children[index];
+        Node updatedChild = remove(child, prefix, depth + 1, command);
+        if (updatedChild == child) {
+            return node;
+        }
+        if (updatedChild.isEmpty()) {
+            return node.withoutChild(index);
+        }
+        return node.withChild(prefix.charAt(depth), index, updatedChild);
+    }
+
+    private static class Node {
+        final char[] keys;
+        final Node[] children;
+        final AbstractCommand command;
+
+        Node(char[] keys, Node[] children, AbstractCommand command) {
+            this.keys = keys;
+            this.children = children;
+            this.command = command;
+        }
+
+        Node child(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        boolean isEmpty() {
+            return command == null && keys.length == 0;
+        }
+
+        Node withChild(char c, int index, Node child) {
+            if (index >= 0) {
+                Node[] children = this.children.clone();
+                children[index] = child;
+                return new Node(keys, children, command);
+            }
+
+            int insertAt = -(index + 1);
+            char[] keys = new char[this.keys.length + 1];
+            Node[] children = new Node[this.children.length + 1];
+            System.arraycopy(this.keys, 0, keys, 0, insertAt);
+            System.arraycopy(this.children, 0, children, 0, insertAt);
+            keys[insertAt] = c;
+            children[insertAt] = child;
+            System.arraycopy(this.keys, insertAt, keys, insertAt + 1, this.keys.length - insertAt);
+            System.arraycopy(this.children, insertAt, children, insertAt + 1, this.children.length - insertAt);
+            return new Node(keys, children, command);
+        }
+
+        Node withoutChild(int index) {
+            char[] keys = new char[this.keys.length - 1];
+            Node[] children = new Node[this.children.length - 1];
+            System.arraycopy(this.keys, 0, keys, 0, index);
+            System.arraycopy(this.children, 0, children, 0, index);
+            System.arraycopy(this.keys, index + 1, keys, index, keys.length - index);
+            System.arraycopy(this.children, index + 1, children, index, children.length - index);
+            return new Node(keys, children, command);
+        }
+    }
+}
@@ -1,27 +1,35 @@
 package tn.amin.keyboard_gpt.instruction.command;
 
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import tn.amin.keyboard_gpt.ConfigChangeListener;
 import tn.amin.keyboard_gpt.DialogDismissListener;
 import tn.amin.keyboard_gpt.GenerativeAIController;
+import tn.amin.keyboard_gpt.MainHook;
 import tn.amin.keyboard_gpt.SPManager;
 import tn.amin.keyboard_gpt.UiInteracter;
 import tn.amin.keyboard_gpt.instruction.InstructionCategory;
 import tn.amin.keyboard_gpt.instruction.TextTreater;
 import tn.amin.keyboard_gpt.language_model.LanguageModel;
+import tn.amin.keyboard_gpt.resilience.Deadlines;
 
 public class CommandTreater implements TextTreater, ConfigChangeListener, DialogDismissListener {
     private static final List<AbstractCommand> BUILTIN_COMMANDS = List.of(
-            new WebSearchCommand()
+            new WebSearchCommand(),
+            new DiagnosticsCommand()
             );
 
     private final SPManager mSPManager;
     private final UiInteracter mInteracter;
     private final GenerativeAIController mAIController;
 
-    private final ArrayList<AbstractCommand> mCommands = new ArrayList<>();
+    private final CommandIndex mCommandIndex = new CommandIndex();
+    private final HashMap<String, GenerativeAICommand> mGenerativeAICommands = new HashMap<>();
 
     public CommandTreater(SPManager spManager, UiInteracter interacter, GenerativeAIController aiController) {
         mSPManager = spManager;
@@ -31,8 +39,10 @@ public class CommandTreater implements TextTreater, ConfigChangeListener, Dialog
         mInteracter.registerConfigChangeListener(this);
         mInteracter.registerOnDismissListener(this);
 
-        mCommands.addAll(BUILTIN_COMMANDS);
-        mCommands.addAll(mSPManager.getGenerativeAICommands());
+        for (AbstractCommand command: BUILTIN_COMMANDS) {
+            mCommandIndex.put(command);
+        }
+        addGenerativeAICommands(byPrefix(mSPManager.getGenerativeAICommands()).values());
     }
 
     @Override
@@ -42,14 +52,10 @@ public class CommandTreater implements TextTreater, ConfigChangeListener, Dialog
             return false;
         }
 
-        for (AbstractCommand command: mCommands) {
-            if (text.startsWith(command.getCommandPrefix())
-                    && (text.length() == command.getCommandPrefix().length()
-                        || !Character.isLetterOrDigit(text.charAt(command.getCommandPrefix().length())))) {
-                text = text.substring(command.getCommandPrefix().length()).trim();
-                command.consume(text, mInteracter, mAIController);
-                return false;
-            }
+        AbstractCommand command = mCommandIndex.find(text);
+        if (command != null) {
+            text = text.substring(command.getCommandPrefix().length()).trim();
+            command.consume(text, mInteracter, mAIController);
         }
 
         return false;
@@ -70,18 +76,89 @@ public class CommandTreater implements TextTreater, ConfigChangeListener, Dialog
 
     }
 
+    @Override
+    public void onFastSubModelChange(LanguageModel languageModel, String fastSubModel) {
+
+    }
+
     @Override
     public void onBaseUrlChange(LanguageModel languageModel, String baseUrl) {
 
     }
 
+    @Override
+    public void onDeadlinesChange(LanguageModel languageModel, Deadlines deadlines) {
+
+    }
+
+    @Override
+    public void onDailyTokenBudgetChange(LanguageModel languageModel, long budgetTokens) {
+
+    }
+
+    @Override
+    public void onHedgingChange(boolean enabled, LanguageModel model, long delayMs) {
+
+    }
+
+    @Override
+    public void onFailoverChange(boolean enabled) {
+
+    }
+
     @Override
     public void onCommandsChange(String commandsRaw) {
-        ArrayList<GenerativeAICommand> commands = Commands.decodeCommands(commandsRaw);
-        if (mCommands.size() > BUILTIN_COMMANDS.size()) {
-            mCommands.subList(BUILTIN_COMMANDS.size(), mCommands.size()).clear();
+        Map<String, GenerativeAICommand> updated = byPrefix(Commands.decodeCommands(commandsRaw));
+
+        Iterator<GenerativeAICommand> iterator = mGenerativeAICommands.values().iterator();
+        while (iterator.hasNext()) {
+            GenerativeAICommand command = iterator.next();
+            if (!command.equals(updated.get(command.getCommandPrefix()))) {
+                mCommandIndex.remove(command);
+                iterator.remove();
+            }
+        }
+
+        addGenerativeAICommands(updated.values());
+    }
+
+    /**
+     * The commands that get registered, by prefix. When several commands share a prefix the
+     * first one in list order wins, and commands shadowing a builtin one are left out.
+     */
+    static Map<String, GenerativeAICommand> byPrefix(List<GenerativeAICommand> commands) {
+        Map<String, GenerativeAICommand> byPrefix = new LinkedHashMap<>();
+        for (GenerativeAICommand command: commands) {
+            String prefix = command.getCommandPrefix();
+            if (isBuiltinPrefix(prefix)) {
+                MainHook.log("Ignoring command \"" + prefix + "\" because it shadows a builtin command");
+                continue;
+            }
+            if (byPrefix.containsKey(prefix)) {
+                MainHook.log("Ignoring command \"" + prefix + "\" because an earlier command has the same prefix");
+                continue;
+            }
+            byPrefix.put(prefix, command);
         }
-        mCommands.addAll(commands);
+        return byPrefix;
+    }
+
+    private void addGenerativeAICommands(Collection<GenerativeAICommand> commands) {
+        for (GenerativeAICommand command: commands) {
+            if (!mGenerativeAICommands.containsKey(command.getCommandPrefix())) {
+                mGenerativeAICommands.put(command.getCommandPrefix(), command);
+                mCommandIndex.put(command);
+            }
+        }
+    }
+
+    private static boolean isBuiltinPrefix(String prefix) {
+        for (AbstractCommand command: BUILTIN_COMMANDS) {
+            if (command.getCommandPrefix().equals(prefix)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
@@ -7,15 +7,24 @@ import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.List;
 
+import tn.amin.keyboard_gpt.routing.ModelTier;
+
 public class Commands {
 
     public static String encodeCommands(List<GenerativeAICommand> commands) {
         JSONArray rootJson = new JSONArray();
         for (GenerativeAICommand command: commands) {
             try {
-                rootJson.put(new JSONObject()
+                JSONObject commandJson = new JSONObject()
                         .accumulate("prefix", command.getCommandPrefix())
-                        .accumulate("message", command.getTweakMessage()));
+                        .accumulate("message", command.getTweakMessage())
+                        .accumulate("cache", command.isCacheable())
+                        .accumulate("deterministic", command.isDeterministic())
+                        .accumulate("similarity", command.getSimilarityThreshold());
+                if (command.getModelTier() != null) {
+                    commandJson.accumulate("tier", command.getModelTier().key);
+                }
+                rootJson.put(commandJson);
             } catch (JSONException e) {
                 throw new RuntimeException(e);
             }
@@ -32,7 +41,12 @@ public class Commands {
                 JSONObject commandJson = (JSONObject) array.get(i);
                 String prefix = commandJson.getString("prefix");
                 String message = commandJson.getString("message");
-                result.add(new SimpleGenerativeAICommand(prefix, message));
+                boolean cacheable = commandJson.optBoolean("cache", true);
+                boolean deterministic = commandJson.optBoolean("deterministic", false);
+                double similarity = commandJson.optDouble("similarity",
+                        GenerativeAICommand.DEFAULT_SIMILARITY_THRESHOLD);
+                ModelTier tier = ModelTier.fromKey(commandJson.optString("tier", null));
+                result.add(new SimpleGenerativeAICommand(prefix, message, cacheable, deterministic, similarity, tier));
             }
             return result;
         } catch (JSONException e) {
@@ -0,0 +1,19 @@
+package tn.amin.keyboard_gpt.instruction.command;
+
+import tn.amin.keyboard_gpt.GenerativeAIController;
+import tn.amin.keyboard_gpt.UiInteracter;
+
+public class DiagnosticsCommand extends AbstractCommand {
+    /**
+     * Namespaced, since builtin commands take precedence over user commands with the same prefix.
+     */
+    @Override
+    public String getCommandPrefix() {
+        return "kgpt.diag";
+    }
+
+    @Override
+    public void consume(String text, UiInteracter interacter, GenerativeAIController aiController) {
+        interacter.showDiagnosticsDialog(aiController.getDiagnostics());
+    }
+}
@@ -2,10 +2,53 @@ package tn.amin.keyboard_gpt.instruction.command;
 
 import tn.amin.keyboard_gpt.GenerativeAIController;
 import tn.amin.keyboard_gpt.UiInteracter;
+import tn.amin.keyboard_gpt.cache.CachePolicy;
+import tn.amin.keyboard_gpt.routing.ModelTier;
 
 public abstract class GenerativeAICommand extends AbstractCommand {
+    public static final double DEFAULT_SIMILARITY_THRESHOLD = 0.9;
+
     abstract public String getTweakMessage();
 
+    /**
+     * Whether responses to this command may be served from the response cache.
+     */
+    public boolean isCacheable() {
+        return true;
+    }
+
+    /**
+     * Whether any answer to a nearly identical input is acceptable, so that responses to similar
+     * inputs may be reused.
+     */
+    public boolean isDeterministic() {
+        return false;
+    }
+
+    /**
+     * Minimum similarity between inputs for reusing a response, if the command is deterministic.
+     */
+    public double getSimilarityThreshold() {
+        return DEFAULT_SIMILARITY_THRESHOLD;
+    }
+
+    /**
+     * Sub-model tier this command always runs on, or null to pick one per request.
+     */
+    public ModelTier getModelTier() {
+        return null;
+    }
+
+    public CachePolicy getCachePolicy() {
+        if (!isCacheable()) {
+            return CachePolicy.NONE;
+        }
+        if (isDeterministic()) {
+            return CachePolicy.similar(getSimilarityThreshold());
+        }
+        return CachePolicy.EXACT;
+    }
+
     @Override
     public void consume(String text, UiInteracter interacter, GenerativeAIController aiController) {
         if (aiController.needModelClient()) {
@@ -22,7 +65,7 @@ public abstract class GenerativeAICommand extends AbstractCommand {
             return;
         }
 
-
-        new Thread(() -> aiController.generateResponse(text, getTweakMessage())).start();
+        aiController.generateResponseAsync(text, getTweakMessage(), getCachePolicy(), getModelTier(),
+                getCommandPrefix());
     }
 }
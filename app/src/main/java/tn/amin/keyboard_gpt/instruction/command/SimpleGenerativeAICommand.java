@@ -1,12 +1,29 @@
 package tn.amin.keyboard_gpt.instruction.command;
 
+import java.util.Objects;
+
+import tn.amin.keyboard_gpt.routing.ModelTier;
+
 public class SimpleGenerativeAICommand extends GenerativeAICommand {
     private final String mPrefix;
     private final String mTweakMessage;
+    private final boolean mCacheable;
+    private final boolean mDeterministic;
+    private final double mSimilarityThreshold;
+    private final ModelTier mModelTier;
 
     public SimpleGenerativeAICommand(String prefix, String tweakMessage) {
+        this(prefix, tweakMessage, true, false, DEFAULT_SIMILARITY_THRESHOLD, null);
+    }
+
+    public SimpleGenerativeAICommand(String prefix, String tweakMessage, boolean cacheable,
+                                     boolean deterministic, double similarityThreshold, ModelTier modelTier) {
         mPrefix = prefix;
         mTweakMessage = tweakMessage;
+        mCacheable = cacheable;
+        mDeterministic = deterministic;
+        mSimilarityThreshold = similarityThreshold;
+        mModelTier = modelTier;
     }
 
     @Override
@@ -18,4 +35,46 @@ public class SimpleGenerativeAICommand extends GenerativeAICommand {
     public String getTweakMessage() {
         return mTweakMessage;
     }
+
+    @Override
+    public boolean isCacheable() {
+        return mCacheable;
+    }
+
+    @Override
+    public boolean isDeterministic() {
+        return mDeterministic;
+    }
+
+    @Override
+    public double getSimilarityThreshold() {
+        return mSimilarityThreshold;
+    }
+
+    @Override
+    public ModelTier getModelTier() {
+        return mModelTier;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SimpleGenerativeAICommand)) {
+            return false;
+        }
+        SimpleGenerativeAICommand that = (SimpleGenerativeAICommand) o;
+        return Objects.equals(mPrefix, that.mPrefix)
+                && Objects.equals(mTweakMessage, that.mTweakMessage)
+                && mCacheable == that.mCacheable
+                && mDeterministic == that.mDeterministic
+                && mSimilarityThreshold == that.mSimilarityThreshold
+                && mModelTier == that.mModelTier;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mPrefix, mTweakMessage, mCacheable, mDeterministic, mSimilarityThreshold, mModelTier);
+    }
 }
@@ -43,7 +43,7 @@ public class PromptTreater implements TextTreater, DialogDismissListener {
             return true;
         }
 
-        new Thread(() -> mAIController.generateResponse(instruction)).start();
+        mAIController.generateResponseAsync(instruction);
 
         return false;
     }
@@ -57,7 +57,7 @@ public class PromptTreater implements TextTreater, DialogDismissListener {
         MainHook.log("Selected " + mAIController.getLanguageModel());
         mInteracter.post(() -> {
             mInteracter.toastShort("Selected " + mAIController.getLanguageModel()
-                    + " (" + mAIController.getModelClient().getSubModel() + ")");
+                    + " (" + mAIController.getSubModel() + ")");
         });
     }
 }
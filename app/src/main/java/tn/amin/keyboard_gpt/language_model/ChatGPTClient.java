@@ -1,25 +1,25 @@
 package tn.amin.keyboard_gpt.language_model;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.reactivestreams.Publisher;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.util.stream.Collectors;
 
-import tn.amin.keyboard_gpt.MainHook;
+import tn.amin.keyboard_gpt.language_model.http.HttpRequest;
 import tn.amin.keyboard_gpt.language_model.publisher.ExceptionPublisher;
-import tn.amin.keyboard_gpt.language_model.publisher.InputStreamPublisher;
 
 public class ChatGPTClient extends LanguageModelClient {
     @Override
-    public Publisher<String> submitPrompt(String prompt, String systemMessage) {
+    public Publisher<String> submitPrompt(String prompt, String systemMessage, String subModel) {
+        return submit(prompt, systemMessage, subModel, null);
+    }
+
+    /**
+     * @param assistantPrefix start of the answer for the model to go on from, or null. Sent as a
+     *                        trailing assistant message, which OpenAI answers anew rather than
+     *                        continuing, so only compatible APIs that prefill may pass one.
+     */
+    protected Publisher<String> submit(String prompt, String systemMessage, String subModel, String assistantPrefix) {
         if (getApiKey() == null || getApiKey().isEmpty()) {
             return LanguageModelClient.MISSING_API_KEY_PUBLISHER;
         }
@@ -28,79 +28,58 @@ public class ChatGPTClient extends LanguageModelClient {
             systemMessage = getDefaultSystemMessage();
         }
 
-        String url = getBaseUrl() + "/v1/chat/completions";
-        HttpURLConnection con;
+        HttpRequest request;
         try {
-            con = (HttpURLConnection) new URL(url).openConnection();
-            con.setRequestMethod("POST");
-            con.setRequestProperty("Content-Type", "application/json");
-            con.setRequestProperty("Authorization", "Bearer " + getApiKey());
-
-            JSONArray messagesJson = new JSONArray();
-            messagesJson.put(new JSONObject()
-                    .accumulate("role", "system")
-                    .accumulate("content", systemMessage));
-            messagesJson.put(new JSONObject()
-                    .accumulate("role", "user")
-                    .accumulate("content", prompt));
-            JSONObject rootJson = new JSONObject();
-            rootJson.put("model", getSubModel());
-            rootJson.put("messages", messagesJson);
-            rootJson.put("stream", true);
-
-            con.setDoOutput(true);
-
-            try (OutputStream os = con.getOutputStream()) {
-                byte[] input = rootJson.toString().getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
+            request = new HttpRequest(getBaseUrl() + "/v1/chat/completions", "POST");
+        } catch (MalformedURLException e) {
+            return new ExceptionPublisher(e);
+        }
+        request.header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + getApiKey());
+
+        String finalSystemMessage = systemMessage;
+        boolean includeUsage = isDefaultHost();
+        request.setBody(writer -> {
+            writer.beginObject()
+                    .name("model").value(subModel)
+                    .name("messages").beginArray()
+                        .beginObject()
+                            .name("role").value("system")
+                            .name("content").value(finalSystemMessage)
+                        .endObject()
+                        .beginObject()
+                            .name("role").value("user")
+                            .name("content").value(prompt)
+                        .endObject();
+            if (assistantPrefix != null) {
+                writer.beginObject()
+                        .name("role").value("assistant")
+                        .name("content").value(assistantPrefix)
+                        .endObject();
             }
-
-            int responseCode = con.getResponseCode();
-            MainHook.log("Received response with code " + responseCode);
-
-            if (responseCode == 200) {
-                return new InputStreamPublisher(con.getInputStream(), line -> {
-                    line = line.trim();
-//                    MainHook.log("line is " + line);
-                    if (line.isEmpty() || line.endsWith("[DONE]")) {
-                        return "";
-                    }
-                    if (line.startsWith("data:")) {
-                        line = line.substring("data:".length()).trim();
-                    }
-                    try {
-                        JSONObject choice = new JSONObject(line)
-                                .getJSONArray("choices")
-                                .getJSONObject(0);
-                        if (choice.has("delta")) {
-                            return extractContent(choice.getJSONObject("delta"));
-                        }
-                        return extractContent(choice.getJSONObject("message"));
-                    } catch (JSONException e) {
-                        MainHook.log(e);
-                        return "";
-                    }
-                });
+            writer.endArray()
+                    .name("stream").value(true);
+            if (includeUsage) {
+                // Adds a last chunk with the token usage, so counting costs no request
+                writer.name("stream_options").beginObject()
+                        .name("include_usage").value(true)
+                        .endObject();
             }
+            writer.endObject();
+        });
+        return stream(request, OpenAIEventDecoder.INSTANCE);
+    }
 
-            else {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(con.getErrorStream()));
-                String response = reader.lines().collect(Collectors.joining(""));
-                JSONObject responseJson = new JSONObject(response);
-                if (responseJson.has("error")) {
-                    JSONObject errorJson = responseJson
-                            .getJSONObject("error");
-                    String message = errorJson.getString("message");
-                    String type = errorJson.getString("type");
-
-                    throw new IllegalArgumentException("(" + type + ") " + message);
-                }
-                else {
-                    throw new IllegalArgumentException(response);
-                }
-            }
-        } catch (Exception e) {
-            return new ExceptionPublisher(e);
+    /**
+     * Whether requests go to the provider's own API. Other OpenAI-compatible servers may reject
+     * options they do not know, like {@code stream_options}.
+     */
+    private boolean isDefaultHost() {
+        try {
+            String host = new URL(getBaseUrl()).getHost();
+            return host.equalsIgnoreCase(new URL(getLanguageModel().defaultBaseUrl).getHost());
+        } catch (MalformedURLException e) {
+            return false;
         }
     }
 
@@ -108,12 +87,4 @@ public class ChatGPTClient extends LanguageModelClient {
     public LanguageModel getLanguageModel() {
         return LanguageModel.ChatGPT;
     }
-
-    private String extractContent(JSONObject message) throws JSONException {
-        if (!message.has("content")) {
-            return "";
-        }
-
-        return message.getString("content");
-    }
 }
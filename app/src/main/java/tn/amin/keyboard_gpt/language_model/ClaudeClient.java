@@ -1,25 +1,36 @@
 package tn.amin.keyboard_gpt.language_model;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.reactivestreams.Publisher;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.util.stream.Collectors;
+import java.net.MalformedURLException;
 
-import tn.amin.keyboard_gpt.MainHook;
+import tn.amin.keyboard_gpt.language_model.http.HttpRequest;
 import tn.amin.keyboard_gpt.language_model.publisher.ExceptionPublisher;
-import tn.amin.keyboard_gpt.language_model.publisher.InputStreamPublisher;
 
 public class ClaudeClient extends LanguageModelClient {
+    private static final String API_VERSION = "2023-06-01";
+    private static final long MAX_TOKENS = 4096;
+
+    @Override
+    public Publisher<String> submitPrompt(String prompt, String systemMessage, String subModel) {
+        return submit(prompt, systemMessage, subModel, null);
+    }
+
+    @Override
+    public Publisher<String> continuePrompt(String prompt, String systemMessage, String subModel,
+                                            String assistantPrefix) {
+        return submit(prompt, systemMessage, subModel, assistantPrefix);
+    }
+
     @Override
-    public Publisher<String> submitPrompt(String prompt, String systemMessage) {
+    public boolean supportsContinuation() {
+        return true;
+    }
+
+    /**
+     * @param assistantPrefix start of the answer for the model to go on from, or null
+     */
+    private Publisher<String> submit(String prompt, String systemMessage, String subModel, String assistantPrefix) {
         if (getApiKey() == null || getApiKey().isEmpty()) {
             return LanguageModelClient.MISSING_API_KEY_PUBLISHER;
         }
@@ -28,93 +39,55 @@ public class ClaudeClient extends LanguageModelClient {
             systemMessage = getDefaultSystemMessage();
         }
 
-        String url = getBaseUrl() + "/v1/messages";
-        HttpURLConnection con;
+        HttpRequest request;
         try {
-            con = (HttpURLConnection) new URL(url).openConnection();
-            con.setRequestMethod("POST");
-            con.setRequestProperty("content-type", "application/json");
-            con.setRequestProperty("x-api-key", getApiKey());
-
-            JSONArray messagesJson = new JSONArray();
-            messagesJson.put(new JSONObject()
-                    .accumulate("role", "system")
-                    .accumulate("content", systemMessage));
-            messagesJson.put(new JSONObject()
-                    .accumulate("role", "user")
-                    .accumulate("content", prompt));
-
-            JSONObject rootJson = new JSONObject();
-            rootJson.put("model", getSubModel());
-            rootJson.put("messages", messagesJson);
-            rootJson.put("stream", true);
-
-            con.setDoOutput(true);
-
-            try (OutputStream os = con.getOutputStream()) {
-                byte[] input = rootJson.toString().getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
-            }
-
-            int responseCode = con.getResponseCode();
-            MainHook.log("Received response with code " + responseCode);
-
-            if (responseCode == 200) {
-                return new InputStreamPublisher(con.getInputStream(), line -> {
-                    line = line.trim();
-                    MainHook.log("line is " + line);
-                    if (line.isEmpty() || line.endsWith("[DONE]")) {
-                        return "";
-                    }
-                    if (line.startsWith("data:")) {
-                        line = line.substring("data:".length()).trim();
-                    }
-                    try {
-                        JSONObject choice = new JSONObject(line)
-                                .getJSONArray("choices")
-                                .getJSONObject(0);
-                        if (choice.has("delta")) {
-                            return extractContent(choice.getJSONObject("delta"));
-                        }
-                        return extractContent(choice.getJSONObject("message"));
-                    } catch (JSONException e) {
-                        MainHook.log(e);
-                        return "";
-                    }
-                });
-            }
-
-            else {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(con.getErrorStream()));
-                String response = reader.lines().collect(Collectors.joining(""));
-                JSONObject responseJson = new JSONObject(response);
-                if (responseJson.has("error")) {
-                    JSONObject errorJson = responseJson
-                            .getJSONObject("error");
-                    String message = errorJson.getString("message");
-                    String type = errorJson.getString("type");
-
-                    throw new IllegalArgumentException("(" + type + ") " + message);
-                }
-                else {
-                    throw new IllegalArgumentException(response);
-                }
-            }
-        } catch (Exception e) {
+            request = new HttpRequest(getBaseUrl() + "/v1/messages", "POST");
+        } catch (MalformedURLException e) {
             return new ExceptionPublisher(e);
         }
+        request.header("content-type", "application/json")
+                .header("x-api-key", getApiKey())
+                .header("anthropic-version", API_VERSION);
+
+        String finalSystemMessage = systemMessage;
+        request.setBody(writer -> {
+            writer.beginObject()
+                    .name("model").value(subModel)
+                    .name("max_tokens").value(MAX_TOKENS);
+            // Empty text blocks are refused
+            if (!finalSystemMessage.isEmpty()) {
+                // Command instructions repeat verbatim, so the provider can serve them from its
+                // prompt cache. Prompts below the model's minimum are not cached.
+                writer.name("system").beginArray()
+                            .beginObject()
+                                .name("type").value("text")
+                                .name("text").value(finalSystemMessage)
+                                .name("cache_control").beginObject()
+                                    .name("type").value("ephemeral")
+                                .endObject()
+                            .endObject()
+                        .endArray();
+            }
+            writer.name("messages").beginArray()
+                        .beginObject()
+                            .name("role").value("user")
+                            .name("content").value(prompt)
+                        .endObject();
+            if (assistantPrefix != null) {
+                writer.beginObject()
+                        .name("role").value("assistant")
+                        .name("content").value(assistantPrefix)
+                        .endObject();
+            }
+            writer.endArray()
+                    .name("stream").value(true)
+                    .endObject();
+        });
+        return stream(request, ClaudeEventDecoder.INSTANCE);
     }
 
     @Override
     public LanguageModel getLanguageModel() {
-        return LanguageModel.ChatGPT;
-    }
-
-    private String extractContent(JSONObject message) throws JSONException {
-        if (!message.has("content")) {
-            return "";
-        }
-
-        return message.getString("content");
+        return LanguageModel.Claude;
     }
 }
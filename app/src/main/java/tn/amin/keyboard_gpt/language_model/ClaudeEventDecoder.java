@@ -0,0 +1,76 @@
+package tn.amin.keyboard_gpt.language_model;
+
+import java.io.IOException;
+
+import tn.amin.keyboard_gpt.language_model.http.JsonScanner;
+import tn.amin.keyboard_gpt.language_model.publisher.SsePublisher;
+
+/**
+ * Decodes the events of Anthropic's streaming Messages API. Text arrives in
+ * {@code content_block_delta} events; the token usage, including how much of the prompt came from
+ * the prompt cache, is reported by {@code message_start} and {@code message_delta}.
+ */
+class ClaudeEventDecoder implements SsePublisher.EventDecoder {
+    static final ClaudeEventDecoder INSTANCE = new ClaudeEventDecoder();
+
+    private static final JsonScanner.Path DELTA_TEXT = JsonScanner.Path.of("delta", "text");
+    private static final JsonScanner.Path TYPE = JsonScanner.Path.of("type");
+    private static final JsonScanner.Path START_USAGE = JsonScanner.Path.of("message", "usage");
+    private static final JsonScanner.Path DELTA_USAGE = JsonScanner.Path.of("usage");
+    private static final JsonScanner.Path INPUT_TOKENS = JsonScanner.Path.of("input_tokens");
+    private static final JsonScanner.Path CACHE_READ_TOKENS = JsonScanner.Path.of("cache_read_input_tokens");
+    private static final JsonScanner.Path CACHE_CREATION_TOKENS = JsonScanner.Path.of("cache_creation_input_tokens");
+    private static final JsonScanner.Path OUTPUT_TOKENS = JsonScanner.Path.of("output_tokens");
+    private static final JsonScanner.Path STOP_REASON = JsonScanner.Path.of("delta", "stop_reason");
+    private static final JsonScanner.Path ERROR = JsonScanner.Path.of("error");
+    private static final JsonScanner.Path MESSAGE = JsonScanner.Path.of("message");
+
+    @Override
+    public String decode(JsonScanner event) throws IOException {
+        int text = event.find(DELTA_TEXT);
+        if (text >= 0) {
+            return event.getString(text);
+        }
+
+        if ("error".equals(event.getString(event.find(TYPE)))) {
+            int error = event.find(ERROR);
+            String message = event.getString(event.find(error, MESSAGE));
+            String errorType = event.getString(event.find(error, TYPE));
+            throw new IOException("(" + errorType + ") " + (message != null ? message : event.getRaw(error)));
+        }
+        return null;
+    }
+
+    @Override
+    public void readUsage(JsonScanner event, TokenUsage usage) {
+        int found;
+        String eventType = event.getString(event.find(TYPE));
+        if ("message_start".equals(eventType)) {
+            found = event.find(START_USAGE);
+        }
+        else if ("message_delta".equals(eventType)) {
+            found = event.find(DELTA_USAGE);
+        }
+        else {
+            return;
+        }
+        if (found < 0) {
+            return;
+        }
+
+        usage.setInputTokens(event.getLong(event.find(found, INPUT_TOKENS), -1));
+        usage.setCacheReadTokens(event.getLong(event.find(found, CACHE_READ_TOKENS), -1));
+        usage.setCacheCreationTokens(event.getLong(event.find(found, CACHE_CREATION_TOKENS), -1));
+        // Cumulative, the last count is the total
+        usage.setOutputTokens(event.getLong(event.find(found, OUTPUT_TOKENS), -1));
+    }
+
+    @Override
+    public String getTruncationReason(JsonScanner event) {
+        int stopReason = event.find(STOP_REASON);
+        if (stopReason >= 0 && "max_tokens".equals(event.getString(stopReason))) {
+            return "max_tokens";
+        }
+        return null;
+    }
+}
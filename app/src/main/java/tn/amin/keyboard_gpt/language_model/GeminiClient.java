@@ -1,64 +1,90 @@
 package tn.amin.keyboard_gpt.language_model;
 
-import com.google.ai.client.generativeai.GenerativeModel;
-import com.google.ai.client.generativeai.java.GenerativeModelFutures;
-import com.google.ai.client.generativeai.type.BlockThreshold;
-import com.google.ai.client.generativeai.type.Content;
-import com.google.ai.client.generativeai.type.GenerateContentResponse;
-import com.google.ai.client.generativeai.type.GenerationConfig;
-import com.google.ai.client.generativeai.type.HarmCategory;
-import com.google.ai.client.generativeai.type.SafetySetting;
-
 import org.reactivestreams.Publisher;
 
-import java.util.ArrayList;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import tn.amin.keyboard_gpt.language_model.publisher.GeminiPublisherWrapper;
+import tn.amin.keyboard_gpt.language_model.http.HttpRequest;
+import tn.amin.keyboard_gpt.language_model.publisher.ExceptionPublisher;
 
 public class GeminiClient extends LanguageModelClient {
+    // The same for every request, so encoded once
+    private static final byte[] GENERATION_CONFIG = ("{"
+            + "\"temperature\":0.15,"
+            + "\"topK\":32,"
+            + "\"topP\":1,"
+            + "\"maxOutputTokens\":4096"
+            + "}").getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] SAFETY_SETTINGS = ("["
+            + "{\"category\":\"HARM_CATEGORY_HARASSMENT\",\"threshold\":\"BLOCK_NONE\"},"
+            + "{\"category\":\"HARM_CATEGORY_HATE_SPEECH\",\"threshold\":\"BLOCK_NONE\"},"
+            + "{\"category\":\"HARM_CATEGORY_SEXUALLY_EXPLICIT\",\"threshold\":\"BLOCK_NONE\"},"
+            + "{\"category\":\"HARM_CATEGORY_DANGEROUS_CONTENT\",\"threshold\":\"BLOCK_NONE\"}"
+            + "]").getBytes(StandardCharsets.UTF_8);
+
+    // Streaming endpoint of each sub-model, for the current base URL
+    private final Map<String, String> mStreamUrls = new ConcurrentHashMap<>();
+
+    @Override
+    public void setBaseUrl(String baseUrl) {
+        super.setBaseUrl(baseUrl);
+        mStreamUrls.clear();
+    }
+
     @Override
-    public Publisher<String> submitPrompt(String prompt, String systemMessage) {
+    public Publisher<String> submitPrompt(String prompt, String systemMessage, String subModel) {
         if (getApiKey() == null || getApiKey().isEmpty()) {
-            return MISSING_API_KEY_PUBLISHER;
+            return LanguageModelClient.MISSING_API_KEY_PUBLISHER;
         }
 
         if (systemMessage == null) {
             systemMessage = getDefaultSystemMessage();
         }
 
-        GenerationConfig.Builder configBuilder = new GenerationConfig.Builder();
-        configBuilder.temperature = 0.15f;
-        configBuilder.topK = 32;
-        configBuilder.topP = 1f;
-        configBuilder.maxOutputTokens = 4096;
-
-        ArrayList<SafetySetting> safetySettings = new ArrayList<>();
-        safetySettings.add(new SafetySetting(HarmCategory.HARASSMENT, BlockThreshold.NONE));
-        safetySettings.add(new SafetySetting(HarmCategory.HATE_SPEECH, BlockThreshold.NONE));
-        safetySettings.add(new SafetySetting(HarmCategory.SEXUALLY_EXPLICIT, BlockThreshold.NONE));
-        safetySettings.add(new SafetySetting(HarmCategory.DANGEROUS_CONTENT, BlockThreshold.NONE));
-
-        GenerativeModel gm = new GenerativeModel(
-                getSubModel(),
-                getApiKey(),
-                configBuilder.build(),
-                safetySettings
-        );
-
-        GenerativeModelFutures model = GenerativeModelFutures.from(gm);
-
-        Content userContent = new Content.Builder()
-                .addText(prompt)
-                .build();
+        HttpRequest request;
+        try {
+            request = new HttpRequest(mStreamUrls.computeIfAbsent(subModel, this::buildStreamUrl), "POST");
+        } catch (MalformedURLException e) {
+            return new ExceptionPublisher(e);
+        }
+        request.header("Content-Type", "application/json")
+                .header("x-goog-api-key", getApiKey());
 
-        Publisher<GenerateContentResponse> publisher;
-        Content.Builder systemContentBuilder = new Content.Builder()
-                .addText(systemMessage);
-        systemContentBuilder.setRole("model");
-        Content systemContent = systemContentBuilder.build();
+        String finalSystemMessage = systemMessage;
+        request.setBody(writer -> {
+            writer.beginObject()
+                    .name("systemInstruction").beginObject()
+                        .name("parts").beginArray()
+                            .beginObject()
+                                .name("text").value(finalSystemMessage)
+                            .endObject()
+                        .endArray()
+                    .endObject()
+                    .name("contents").beginArray()
+                        .beginObject()
+                            .name("role").value("user")
+                            .name("parts").beginArray()
+                                .beginObject()
+                                    .name("text").value(prompt)
+                                .endObject()
+                            .endArray()
+                        .endObject()
+                    .endArray()
+                    .name("generationConfig").rawValue(GENERATION_CONFIG)
+                    .name("safetySettings").rawValue(SAFETY_SETTINGS)
+                    .endObject();
+        });
+        return stream(request, GeminiEventDecoder.INSTANCE);
+    }
 
-        publisher = model.generateContentStream(systemContent, userContent);
-        return new GeminiPublisherWrapper(publisher);
+    private String buildStreamUrl(String subModel) {
+        // The API's own model names carry this prefix, accept both forms
+        String model = subModel.startsWith("models/") ? subModel.substring("models/".length()) : subModel;
+        return getBaseUrl() + "/v1beta/models/" + model + ":streamGenerateContent?alt=sse";
     }
 
     @Override
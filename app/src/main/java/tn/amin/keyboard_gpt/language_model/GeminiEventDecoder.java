@@ -0,0 +1,78 @@
+package tn.amin.keyboard_gpt.language_model;
+
+import java.io.IOException;
+
+import tn.amin.keyboard_gpt.language_model.http.JsonScanner;
+import tn.amin.keyboard_gpt.language_model.publisher.SsePublisher;
+
+/**
+ * Decodes the chunks of Gemini's {@code streamGenerateContent} with {@code alt=sse}.
+ */
+class GeminiEventDecoder implements SsePublisher.EventDecoder {
+    static final GeminiEventDecoder INSTANCE = new GeminiEventDecoder();
+
+    private static final JsonScanner.Path TEXT = JsonScanner.Path.of("candidates", 0, "content", "parts", 0, "text");
+    private static final JsonScanner.Path FINISH_REASON = JsonScanner.Path.of("candidates", 0, "finishReason");
+    private static final JsonScanner.Path BLOCK_REASON = JsonScanner.Path.of("promptFeedback", "blockReason");
+    private static final JsonScanner.Path ERROR = JsonScanner.Path.of("error");
+    private static final JsonScanner.Path MESSAGE = JsonScanner.Path.of("message");
+    private static final JsonScanner.Path STATUS = JsonScanner.Path.of("status");
+    private static final JsonScanner.Path USAGE = JsonScanner.Path.of("usageMetadata");
+    private static final JsonScanner.Path PROMPT_TOKENS = JsonScanner.Path.of("promptTokenCount");
+    private static final JsonScanner.Path CACHED_TOKENS = JsonScanner.Path.of("cachedContentTokenCount");
+    private static final JsonScanner.Path CANDIDATES_TOKENS = JsonScanner.Path.of("candidatesTokenCount");
+    private static final JsonScanner.Path THOUGHTS_TOKENS = JsonScanner.Path.of("thoughtsTokenCount");
+
+    @Override
+    public String decode(JsonScanner event) throws IOException {
+        int text = event.find(TEXT);
+        if (text >= 0) {
+            return event.getString(text);
+        }
+
+        // Without any candidate, the answer would otherwise just be empty
+        int blockReason = event.find(BLOCK_REASON);
+        if (blockReason >= 0) {
+            throw new IOException("Prompt was blocked (" + event.getString(blockReason) + ")");
+        }
+
+        int error = event.find(ERROR);
+        if (error >= 0) {
+            String message = event.getString(event.find(error, MESSAGE));
+            String status = event.getString(event.find(error, STATUS));
+            throw new IOException("(" + status + ") " + (message != null ? message : event.getRaw(error)));
+        }
+        return null;
+    }
+
+    @Override
+    public String getTruncationReason(JsonScanner event) {
+        // Comes along with the last text
+        int finishReason = event.find(FINISH_REASON);
+        if (finishReason >= 0 && "MAX_TOKENS".equals(event.getString(finishReason))) {
+            return "MAX_TOKENS";
+        }
+        return null;
+    }
+
+    @Override
+    public void readUsage(JsonScanner event, TokenUsage usage) {
+        // Every chunk carries the counts so far, the last one has the totals
+        int found = event.find(USAGE);
+        if (found < 0) {
+            return;
+        }
+
+        long promptTokens = event.getLong(event.find(found, PROMPT_TOKENS), -1);
+        long cachedTokens = event.getLong(event.find(found, CACHED_TOKENS), 0);
+        if (promptTokens >= 0) {
+            usage.setInputTokens(promptTokens - cachedTokens);
+            usage.setCacheReadTokens(cachedTokens);
+        }
+        // Thinking models bill their thoughts as output
+        long candidatesTokens = event.getLong(event.find(found, CANDIDATES_TOKENS), -1);
+        if (candidatesTokens >= 0) {
+            usage.setOutputTokens(candidatesTokens + event.getLong(event.find(found, THOUGHTS_TOKENS), 0));
+        }
+    }
+}
@@ -1,6 +1,20 @@
 package tn.amin.keyboard_gpt.language_model;
 
+import org.reactivestreams.Publisher;
+
 public class GroqClient extends ChatGPTClient {
+    @Override
+    public Publisher<String> continuePrompt(String prompt, String systemMessage, String subModel,
+                                            String assistantPrefix) {
+        // Groq continues a trailing assistant message instead of answering it
+        return submit(prompt, systemMessage, subModel, assistantPrefix);
+    }
+
+    @Override
+    public boolean supportsContinuation() {
+        return true;
+    }
+
     @Override
     public LanguageModel getLanguageModel() {
         return LanguageModel.Groq;
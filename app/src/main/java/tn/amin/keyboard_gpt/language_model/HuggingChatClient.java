@@ -7,10 +7,10 @@ import org.reactivestreams.Publisher;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.UUID;
 
 import de.robv.android.xposed.XposedBridge;
+import tn.amin.keyboard_gpt.language_model.http.HttpTransport;
 import tn.amin.keyboard_gpt.language_model.publisher.ExceptionPublisher;
 import tn.amin.keyboard_gpt.language_model.publisher.InputStreamPublisher;
 
@@ -19,13 +19,13 @@ public class HuggingChatClient extends LanguageModelClient {
     private static final String BASE_URL = "https://huggingface.co";
 
     @Override
-    public Publisher<String> submitPrompt(String prompt, String systemMessage) {
+    public Publisher<String> submitPrompt(String prompt, String systemMessage, String subModel) {
         String url;
         HttpURLConnection con;
         try {
             url = BASE_URL + "/chat/conversation";
-            con = (HttpURLConnection) new URL(url).openConnection();
-            con.setRequestMethod("POST");
+            con = HttpTransport.get().open(url, "POST");
+            applyDeadlines(con);
             con.setRequestProperty("Content-Type", "application/json");
 
             JSONObject body = new JSONObject();
@@ -34,14 +34,17 @@ public class HuggingChatClient extends LanguageModelClient {
             con.setDoOutput(true);
             con.getOutputStream().write(body.toString().getBytes());
 
-            String convIdResponse = new BufferedReader(new InputStreamReader(con.getInputStream()))
-                    .lines().reduce((a, b) -> a+b).get();
+            String convIdResponse;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(con.getInputStream()))) {
+                convIdResponse = reader.lines().reduce((a, b) -> a+b).get();
+            }
+            HttpTransport.get().release(con);
             String conversationId = new JSONObject(convIdResponse)
                     .getString("conversationId");
 
             url += "/" + conversationId;
-            con = (HttpURLConnection) new URL(url).openConnection();
-            con.setRequestMethod("POST");
+            con = HttpTransport.get().open(url, "POST");
+            applyDeadlines(con);
             con.setRequestProperty("Content-Type", "application/json");
             con.setRequestProperty("Origin", "https://huggingface.co");
 
@@ -65,7 +68,7 @@ public class HuggingChatClient extends LanguageModelClient {
             con.setDoOutput(true);
             con.getOutputStream().write(requestBody.toString().getBytes());
 
-            return new InputStreamPublisher(con.getInputStream(), line -> {
+            return new InputStreamPublisher(con, line -> {
                 try {
                     line = line.replace("\\u0000", "");
                     JSONObject lineJson = new JSONObject(line);
@@ -2,24 +2,38 @@ package tn.amin.keyboard_gpt.language_model;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 public enum LanguageModel {
-    Gemini("Gemini", "gemini-1.5-flash", "Not configurable"),
-    ChatGPT("ChatGPT", "gpt-4o-mini", "https://api.openai.com"),
-    Groq("Groq", "llama3-8b-8192", "https://api.groq.com/openai"),
-    Claude("Claude", "claude-3-5-sonnet-20240620", "https://api.anthropic.com"),
+    Gemini("Gemini", "gemini-1.5-flash", "gemini-1.5-flash-8b", "https://generativelanguage.googleapis.com"),
+    ChatGPT("ChatGPT", "gpt-4o-mini", "gpt-4.1-nano", "https://api.openai.com"),
+    Groq("Groq", "llama3-8b-8192", "llama-3.1-8b-instant", "https://api.groq.com/openai"),
+    Claude("Claude", "claude-3-5-sonnet-20240620", "claude-3-haiku-20240307", "https://api.anthropic.com"),
 //    HuggingChat("Hugging Chat"),
+    // Not a provider: each prompt goes to whichever configured provider is currently fastest
+    Auto("Auto", "fastest", "fastest", "Not configurable"),
     ;
 
     public final String label;
     public final String defaultSubModel;
+    public final String defaultFastSubModel;
     public final String defaultBaseUrl;
 
-    LanguageModel(String label, String defaultSubModel, String defaultBaseUrl) {
+    LanguageModel(String label, String defaultSubModel, String defaultFastSubModel, String defaultBaseUrl) {
         this.label = label;
         this.defaultSubModel = defaultSubModel;
+        this.defaultFastSubModel = defaultFastSubModel;
         this.defaultBaseUrl = defaultBaseUrl;
     }
+
+    /**
+     * @return the models backed by an actual provider, in declaration order
+     */
+    public static List<LanguageModel> providers() {
+        return Arrays.stream(values())
+                .filter(model -> model != Auto)
+                .collect(Collectors.toList());
+    }
 }
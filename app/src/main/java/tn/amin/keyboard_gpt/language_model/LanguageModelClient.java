@@ -2,16 +2,69 @@ package tn.amin.keyboard_gpt.language_model;
 
 import androidx.annotation.NonNull;
 
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.reactivestreams.Publisher;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import tn.amin.keyboard_gpt.MainHook;
+import tn.amin.keyboard_gpt.language_model.http.HttpRequest;
+import tn.amin.keyboard_gpt.language_model.http.HttpTransport;
+import tn.amin.keyboard_gpt.language_model.http.RateLimitHeaders;
+import tn.amin.keyboard_gpt.language_model.publisher.AsyncSsePublisher;
+import tn.amin.keyboard_gpt.language_model.publisher.ExceptionPublisher;
+import tn.amin.keyboard_gpt.language_model.publisher.SimpleStringPublisher;
+import tn.amin.keyboard_gpt.language_model.publisher.SsePublisher;
+import tn.amin.keyboard_gpt.resilience.Deadlines;
+import tn.amin.keyboard_gpt.routing.ModelTier;
+
 public abstract class LanguageModelClient {
+    public interface RateLimitListener {
+        void onRateLimits(LanguageModel model, RateLimitHeaders.Limits limits);
+    }
+
     private String mApiKey = null;
 
     private String mSubModel = null;
 
+    private String mFastSubModel = null;
+
     private String mBaseUrl = null;
 
-    abstract public Publisher<String> submitPrompt(String prompt, String systemMessage);
+    private RateLimitListener mRateLimitListener = null;
+
+    private Deadlines mDeadlines = Deadlines.DEFAULT;
+
+    public Publisher<String> submitPrompt(String prompt, String systemMessage) {
+        return submitPrompt(prompt, systemMessage, getSubModel());
+    }
+
+    /**
+     * Returns right away without touching the network. The request is sent once the publisher is
+     * subscribed to and asked for text, so callers may submit from any thread.
+     */
+    abstract public Publisher<String> submitPrompt(String prompt, String systemMessage, String subModel);
+
+    /**
+     * Asks for the rest of an answer that was cut short, {@code assistantPrefix} being the part
+     * already received. Only supported if {@link #supportsContinuation()}.
+     */
+    public Publisher<String> continuePrompt(String prompt, String systemMessage, String subModel,
+                                            String assistantPrefix) {
+        return new ExceptionPublisher(new UnsupportedOperationException(
+                getLanguageModel().label + " cannot continue an answer"));
+    }
+
+    public boolean supportsContinuation() {
+        return false;
+    }
 
     abstract public LanguageModel getLanguageModel();
 
@@ -27,16 +80,165 @@ public abstract class LanguageModelClient {
         mBaseUrl = baseUrl;
     }
 
+    public void setFastSubModel(String fastSubModel) {
+        mFastSubModel = fastSubModel;
+    }
+
+    public void setDeadlines(Deadlines deadlines) {
+        mDeadlines = deadlines != null ? deadlines : Deadlines.DEFAULT;
+    }
+
+    public Deadlines getDeadlines() {
+        return mDeadlines;
+    }
+
+    /**
+     * Bounds connecting and every blocking read of {@code con}, so that a request cannot hang even
+     * if nothing watches it.
+     */
+    protected void applyDeadlines(HttpURLConnection con) {
+        Deadlines deadlines = mDeadlines;
+        con.setConnectTimeout((int) deadlines.connectMs);
+        con.setReadTimeout((int) deadlines.getReadTimeoutMs());
+    }
+
+    protected void applyDeadlines(HttpRequest request) {
+        Deadlines deadlines = mDeadlines;
+        request.setTimeouts(deadlines.connectMs, deadlines.getReadTimeoutMs());
+    }
+
+    /**
+     * Streams the events of the text/event-stream response to {@code request}, sent once there is
+     * demand. Direct requests go through the event loop and hold no thread while waiting for the
+     * provider; through a proxy, the stream takes an io thread like before.
+     */
+    protected Publisher<String> stream(HttpRequest request, SsePublisher.EventDecoder decoder) {
+        applyDeadlines(request);
+
+        if (HttpTransport.get().isDirect(request.getUrl())) {
+            return new AsyncSsePublisher(request, new AsyncSsePublisher.ResponseHandler() {
+                @Override
+                public void onHeaders(int statusCode, Map<String, String> headers) {
+                    MainHook.log("Received response with code " + statusCode);
+                    reportRateLimits(RateLimitHeaders.getLimits(headers));
+                }
+
+                @Override
+                public IOException toError(int statusCode, Map<String, String> headers, String body) {
+                    return parseError(statusCode, RateLimitHeaders.getRetryAfterMs(headers), body);
+                }
+            }, decoder);
+        }
+
+        HttpURLConnection con;
+        try {
+            con = request.openConnection();
+        } catch (IOException e) {
+            return new ExceptionPublisher(e);
+        }
+        return new SsePublisher(con, c -> {
+            HttpTransport.get().sendJson(c, request.getBody());
+
+            int responseCode = c.getResponseCode();
+            MainHook.log("Received response with code " + responseCode);
+            reportRateLimits(c);
+
+            if (responseCode != 200) {
+                throw readError(c, responseCode);
+            }
+            return c.getInputStream();
+        }, decoder);
+    }
+
+    public void setRateLimitListener(RateLimitListener listener) {
+        mRateLimitListener = listener;
+    }
+
+    /**
+     * Passes on the limits the provider announced in the headers of a response.
+     */
+    protected void reportRateLimits(HttpURLConnection con) {
+        reportRateLimits(RateLimitHeaders.getLimits(con));
+    }
+
+    private void reportRateLimits(RateLimitHeaders.Limits limits) {
+        RateLimitListener listener = mRateLimitListener;
+        if (listener != null && !limits.isEmpty()) {
+            listener.onRateLimits(getLanguageModel(), limits);
+        }
+    }
+
+    /**
+     * Reads the error body of a response that was not successful, preferring the message of an
+     * {@code error} object when there is one.
+     */
+    protected LanguageModelException readError(HttpURLConnection con, int responseCode) throws IOException {
+        long retryAfterMs = RateLimitHeaders.getRetryAfterMs(con);
+        String response = "";
+        InputStream errorStream = con.getErrorStream();
+        if (errorStream != null) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(errorStream))) {
+                response = reader.lines().collect(Collectors.joining(""));
+            }
+        }
+        HttpTransport.get().release(con);
+        return parseError(responseCode, retryAfterMs, response);
+    }
+
+    private static LanguageModelException parseError(int responseCode, long retryAfterMs, String response) {
+        try {
+            JSONObject responseJson = new JSONObject(response);
+            if (responseJson.has("error")) {
+                JSONObject errorJson = responseJson.getJSONObject("error");
+                String message = errorJson.getString("message");
+                // OpenAI names the kind of error "type", Google "status"
+                String type = errorJson.optString("type", errorJson.optString("status", "error"));
+                return new LanguageModelException(responseCode, "(" + type + ") " + message, retryAfterMs);
+            }
+        } catch (JSONException e) {
+            // e.g. an HTML page from a proxy in front of the API
+        }
+        return new LanguageModelException(responseCode, response, retryAfterMs);
+    }
+
     public String getSubModel() {
         return mSubModel != null ? mSubModel : getLanguageModel().defaultSubModel;
     }
 
+    public String getFastSubModel() {
+        return mFastSubModel != null && !mFastSubModel.isEmpty()
+                ? mFastSubModel : getLanguageModel().defaultFastSubModel;
+    }
+
+    public String getSubModel(ModelTier tier) {
+        return tier == ModelTier.FAST ? getFastSubModel() : getSubModel();
+    }
+
     public String getApiKey() {
         return mApiKey;
     }
 
     public String getBaseUrl() {
-        return mBaseUrl != null ? mBaseUrl : getLanguageModel().defaultBaseUrl;
+        // Older versions saved the "Not configurable" placeholder of providers without a base URL
+        return mBaseUrl != null && mBaseUrl.startsWith("http") ? mBaseUrl : getLanguageModel().defaultBaseUrl;
+    }
+
+    /**
+     * Prepares a connection to the provider ahead of a likely request.
+     */
+    public void warmUp() {
+        String baseUrl = getBaseUrl();
+        if (baseUrl != null && baseUrl.startsWith("http")) {
+            HttpTransport.get().warmUp(baseUrl);
+        }
+    }
+
+    /**
+     * Whether the next request is expected to reuse a pooled connection.
+     */
+    public boolean isWarm() {
+        String baseUrl = getBaseUrl();
+        return baseUrl != null && HttpTransport.get().hasIdleConnection(baseUrl);
     }
 
     public static LanguageModelClient forModel(LanguageModel model) {
@@ -56,10 +258,7 @@ public abstract class LanguageModelClient {
         }
     }
 
-    static Publisher<String> MISSING_API_KEY_PUBLISHER = subscriber -> {
-        subscriber.onNext("Missing API Key");
-        subscriber.onComplete();
-    };
+    static final Publisher<String> MISSING_API_KEY_PUBLISHER = new SimpleStringPublisher("Missing API Key");
 
     @NonNull
     @Override
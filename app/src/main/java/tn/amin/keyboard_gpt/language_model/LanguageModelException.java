@@ -0,0 +1,40 @@
+package tn.amin.keyboard_gpt.language_model;
+
+import java.io.IOException;
+
+/**
+ * The provider answered with an HTTP error.
+ */
+public class LanguageModelException extends IOException {
+    private final int mStatusCode;
+    private final long mRetryAfterMs;
+
+    public LanguageModelException(int statusCode, String message) {
+        this(statusCode, message, -1);
+    }
+
+    /**
+     * @param retryAfterMs how long the provider asked to wait before retrying, -1 if it did not
+     */
+    public LanguageModelException(int statusCode, String message, long retryAfterMs) {
+        super(message);
+        mStatusCode = statusCode;
+        mRetryAfterMs = retryAfterMs;
+    }
+
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    public long getRetryAfterMs() {
+        return mRetryAfterMs;
+    }
+
+    /**
+     * Whether the error says something about the provider's health, rather than about the request
+     * (bad key, invalid model, ...).
+     */
+    public boolean isProviderFault() {
+        return mStatusCode >= 500 || mStatusCode == 408 || mStatusCode == 429;
+    }
+}
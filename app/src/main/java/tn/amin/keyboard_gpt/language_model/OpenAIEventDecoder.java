@@ -0,0 +1,70 @@
+package tn.amin.keyboard_gpt.language_model;
+
+import java.io.IOException;
+
+import tn.amin.keyboard_gpt.language_model.http.JsonScanner;
+import tn.amin.keyboard_gpt.language_model.publisher.SsePublisher;
+
+/**
+ * Decodes chat completion chunks of OpenAI compatible APIs.
+ */
+class OpenAIEventDecoder implements SsePublisher.EventDecoder {
+    static final OpenAIEventDecoder INSTANCE = new OpenAIEventDecoder();
+
+    private static final JsonScanner.Path DELTA_CONTENT = JsonScanner.Path.of("choices", 0, "delta", "content");
+    private static final JsonScanner.Path FINISH_REASON = JsonScanner.Path.of("choices", 0, "finish_reason");
+    private static final JsonScanner.Path ERROR = JsonScanner.Path.of("error");
+    private static final JsonScanner.Path MESSAGE = JsonScanner.Path.of("message");
+    private static final JsonScanner.Path TYPE = JsonScanner.Path.of("type");
+    private static final JsonScanner.Path USAGE = JsonScanner.Path.of("usage");
+    // Groq reports usage in its own extension instead
+    private static final JsonScanner.Path GROQ_USAGE = JsonScanner.Path.of("x_groq", "usage");
+    private static final JsonScanner.Path PROMPT_TOKENS = JsonScanner.Path.of("prompt_tokens");
+    private static final JsonScanner.Path CACHED_TOKENS = JsonScanner.Path.of("prompt_tokens_details", "cached_tokens");
+    private static final JsonScanner.Path COMPLETION_TOKENS = JsonScanner.Path.of("completion_tokens");
+
+    @Override
+    public String decode(JsonScanner event) throws IOException {
+        int content = event.find(DELTA_CONTENT);
+        if (content >= 0) {
+            return event.getString(content);
+        }
+
+        int error = event.find(ERROR);
+        if (error >= 0) {
+            String message = event.getString(event.find(error, MESSAGE));
+            String type = event.getString(event.find(error, TYPE));
+            throw new IOException("(" + type + ") " + (message != null ? message : event.getRaw(error)));
+        }
+        return null;
+    }
+
+    @Override
+    public String getTruncationReason(JsonScanner event) {
+        int finishReason = event.find(FINISH_REASON);
+        if (finishReason >= 0 && "length".equals(event.getString(finishReason))) {
+            return "length";
+        }
+        return null;
+    }
+
+    @Override
+    public void readUsage(JsonScanner event, TokenUsage usage) {
+        // Only the last chunk carries it, with stream_options.include_usage
+        int found = event.find(USAGE);
+        if (found < 0) {
+            found = event.find(GROQ_USAGE);
+        }
+        if (found < 0) {
+            return;
+        }
+
+        long promptTokens = event.getLong(event.find(found, PROMPT_TOKENS), -1);
+        long cachedTokens = event.getLong(event.find(found, CACHED_TOKENS), 0);
+        if (promptTokens >= 0) {
+            usage.setInputTokens(promptTokens - cachedTokens);
+            usage.setCacheReadTokens(cachedTokens);
+        }
+        usage.setOutputTokens(event.getLong(event.find(found, COMPLETION_TOKENS), -1));
+    }
+}
@@ -0,0 +1,81 @@
+package tn.amin.keyboard_gpt.language_model;
+
+/**
+ * Tokens one response consumed, as reported by the provider within its stream. Providers repeat
+ * or update their counts as the stream goes on, so a later count replaces an earlier one. Input
+ * tokens only count the part of the prompt that was not read from the provider's prompt cache.
+ */
+public class TokenUsage {
+    /**
+     * Implemented by a subscriber that wants the usage of the response it subscribed to. It is
+     * told once the stream ended, before the terminal signal.
+     */
+    public interface Listener {
+        void onUsage(TokenUsage usage);
+    }
+
+    private long mInputTokens = -1;
+    private long mCacheReadTokens = -1;
+    private long mCacheCreationTokens = -1;
+    private long mOutputTokens = -1;
+
+    /**
+     * Ignored if negative, i.e. not reported.
+     */
+    public void setInputTokens(long tokens) {
+        if (tokens >= 0) {
+            mInputTokens = tokens;
+        }
+    }
+
+    public void setCacheReadTokens(long tokens) {
+        if (tokens >= 0) {
+            mCacheReadTokens = tokens;
+        }
+    }
+
+    public void setCacheCreationTokens(long tokens) {
+        if (tokens >= 0) {
+            mCacheCreationTokens = tokens;
+        }
+    }
+
+    public void setOutputTokens(long tokens) {
+        if (tokens >= 0) {
+            mOutputTokens = tokens;
+        }
+    }
+
+    public long getInputTokens() {
+        return Math.max(0, mInputTokens);
+    }
+
+    public long getCacheReadTokens() {
+        return Math.max(0, mCacheReadTokens);
+    }
+
+    public long getCacheCreationTokens() {
+        return Math.max(0, mCacheCreationTokens);
+    }
+
+    public long getOutputTokens() {
+        return Math.max(0, mOutputTokens);
+    }
+
+    public long getTotalTokens() {
+        return getInputTokens() + getCacheReadTokens() + getCacheCreationTokens() + getOutputTokens();
+    }
+
+    /**
+     * Whether the provider did not report anything.
+     */
+    public boolean isEmpty() {
+        return mInputTokens < 0 && mCacheReadTokens < 0 && mCacheCreationTokens < 0 && mOutputTokens < 0;
+    }
+
+    @Override
+    public String toString() {
+        return getInputTokens() + " in, " + getCacheReadTokens() + " cache read, "
+                + getCacheCreationTokens() + " cache write, " + getOutputTokens() + " out";
+    }
+}
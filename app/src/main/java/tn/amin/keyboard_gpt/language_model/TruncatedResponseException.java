@@ -0,0 +1,13 @@
+package tn.amin.keyboard_gpt.language_model;
+
+import java.io.IOException;
+
+/**
+ * The provider ended the answer early because it hit its output token limit. The response itself
+ * was received in full, so sending the same request again would be cut short the same way.
+ */
+public class TruncatedResponseException extends IOException {
+    public TruncatedResponseException(String finishReason) {
+        super("Answer was cut short (" + finishReason + ")");
+    }
+}
@@ -0,0 +1,207 @@
+package tn.amin.keyboard_gpt.language_model.http;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import tn.amin.keyboard_gpt.MainHook;
+
+/**
+ * One thread multiplexing every open socket with a {@link Selector}, so that a response stream
+ * holds no thread while it waits for bytes. Channels are registered and handled on the loop
+ * thread only; other threads hand work over with {@link #execute(Runnable)}. The thread is
+ * started by the first task and exits once it had no channels and no tasks for a while.
+ */
+public class EventLoop {
+    private static final long IDLE_MS = 30 * 1000;
+
+    /**
+     * Owner of a registered channel, called on the loop thread.
+     */
+    public interface Handler {
+        void onReady(SelectionKey key) throws IOException;
+
+        /**
+         * Closes the channel after {@link #onReady} failed or the loop was shut down. May be
+         * called again once closed.
+         */
+        void abort(IOException e);
+    }
+
+    private final ThreadFactory mThreadFactory;
+    private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+    private Selector mSelector = null;
+    private Thread mThread = null;
+    private boolean mShutdown = false;
+
+    public EventLoop(ThreadFactory threadFactory) {
+        mThreadFactory = threadFactory;
+    }
+
+    /**
+     * Runs {@code task} on the loop thread, after the tasks queued before it.
+     *
+     * @throws RejectedExecutionException if the loop was shut down or no selector can be opened
+     */
+    public void execute(Runnable task) {
+        synchronized (this) {
+            if (mShutdown) {
+                throw new RejectedExecutionException("Event loop is shut down");
+            }
+            mTasks.add(task);
+            if (mThread != null) {
+                mSelector.wakeup();
+                return;
+            }
+
+            Selector selector;
+            try {
+                selector = Selector.open();
+            } catch (IOException e) {
+                mTasks.clear();
+                throw new RejectedExecutionException(e);
+            }
+            mSelector = selector;
+            mThread = mThreadFactory.newThread(() -> loop(selector));
+            mThread.start();
+        }
+    }
+
+    public synchronized boolean inLoop() {
+        return Thread.currentThread() == mThread;
+    }
+
+    /**
+     * Registers {@code channel} with the selector. Must be called on the loop thread.
+     */
+    public SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException {
+        Selector selector;
+        synchronized (this) {
+            if (Thread.currentThread() != mThread) {
+                throw new IllegalStateException("Not on the event loop thread");
+            }
+            selector = mSelector;
+        }
+        return channel.register(selector, ops, handler);
+    }
+
+    /**
+     * Aborts every registered channel and stops the thread. Tasks still queued are dropped.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (mShutdown) {
+                return;
+            }
+            mShutdown = true;
+            mTasks.clear();
+            if (mSelector != null) {
+                mSelector.wakeup();
+            }
+        }
+    }
+
+    private void loop(Selector selector) {
+        long idleSince = System.nanoTime();
+        while (true) {
+            try {
+                // A wakeup() after this check makes the select return at once
+                if (hasTasks()) {
+                    selector.selectNow();
+                }
+                else {
+                    selector.select(IDLE_MS);
+                }
+            } catch (IOException e) {
+                MainHook.log("Event loop select failed: " + e.getMessage());
+                abortAll(selector, e);
+                exit(selector);
+                return;
+            }
+
+            for (SelectionKey key: selector.selectedKeys()) {
+                Handler handler = (Handler) key.attachment();
+                try {
+                    if (key.isValid()) {
+                        handler.onReady(key);
+                    }
+                } catch (IOException e) {
+                    handler.abort(e);
+                } catch (RuntimeException e) {
+                    handler.abort(new IOException(e));
+                }
+            }
+            selector.selectedKeys().clear();
+
+            boolean ranTasks = false;
+            Runnable task;
+            while ((task = pollTask()) != null) {
+                ranTasks = true;
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    MainHook.log("Event loop task failed");
+                    MainHook.log(e);
+                }
+            }
+
+            boolean shutdown;
+            synchronized (this) {
+                shutdown = mShutdown;
+                if (!shutdown) {
+                    if (ranTasks || !selector.keys().isEmpty()) {
+                        idleSince = System.nanoTime();
+                    }
+                    else if ((System.nanoTime() - idleSince) / 1_000_000 >= IDLE_MS && mTasks.isEmpty()) {
+                        exit(selector);
+                        return;
+                    }
+                }
+            }
+            if (shutdown) {
+                abortAll(selector, new IOException("Event loop is shut down"));
+                exit(selector);
+                return;
+            }
+        }
+    }
+
+    private synchronized boolean hasTasks() {
+        return !mTasks.isEmpty();
+    }
+
+    private synchronized Runnable pollTask() {
+        return mTasks.poll();
+    }
+
+    private static void abortAll(Selector selector, IOException e) {
+        List<SelectionKey> keys = new ArrayList<>(selector.keys());
+        for (SelectionKey key: keys) {
+            ((Handler) key.attachment()).abort(e);
+        }
+    }
+
+    /**
+     * Forgets the thread, so that the next task starts a new one.
+     */
+    private void exit(Selector selector) {
+        synchronized (this) {
+            if (mSelector == selector) {
+                mSelector = null;
+                mThread = null;
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package tn.amin.keyboard_gpt.language_model.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+import tn.amin.keyboard_gpt.MainHook;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+
+/**
+ * One request sent on the {@link EventLoop}, its response handed to the listener on the loop
+ * thread as bytes arrive. No thread is held while waiting for the server. Pausing stops reading
+ * from the socket until resumed. Once the response was read to the end, a keep-alive connection
+ * goes back to the pool of {@link HttpTransport}; a pooled connection that turns out to be closed
+ * before any response byte arrived is replaced by a new one once.
+ */
+public class HttpCall {
+    public interface Listener {
+        /**
+         * @param headers case-insensitive
+         */
+        void onResponse(int statusCode, Map<String, String> headers) throws IOException;
+
+        /**
+         * @param body part of the response body, to be consumed before returning
+         */
+        void onBody(ByteBuffer body) throws IOException;
+
+        void onComplete();
+
+        /**
+         * The call failed, including when one of the other methods threw. Not called after
+         * {@link #cancel()}.
+         */
+        void onFailure(IOException e);
+    }
+
+    private final EventLoop mLoop;
+    private final HttpRequest mRequest;
+    private final Listener mListener;
+    private final HttpResponseParser mParser;
+    private final ConnectionListener mConnectionListener = new ConnectionListener();
+
+    private volatile boolean mCancelled = false;
+
+    // Only used on the loop thread
+    private ByteBuffer mRequestBytes = null;
+    private NioConnection mConnection = null;
+    private boolean mReused = false;
+    private boolean mResponseStarted = false;
+    private boolean mPaused = false;
+    private boolean mFinished = false;
+    private long mLastReadNanos = 0;
+    private ScheduledFuture<?> mReadTimeout = null;
+
+    public HttpCall(EventLoop loop, HttpRequest request, Listener listener) {
+        mLoop = loop;
+        mRequest = request;
+        mListener = listener;
+        mParser = new HttpResponseParser(request.getMethod().equals("HEAD"));
+    }
+
+    /**
+     * Sends the request. May be called from any thread.
+     *
+     * @throws RejectedExecutionException if the event loop is shut down
+     */
+    public void start() {
+        mLoop.execute(this::open);
+    }
+
+    /**
+     * Stops reading the response until {@link #resume()}. On the loop thread.
+     */
+    public void pause() {
+        mPaused = true;
+        if (mConnection != null) {
+            mConnection.setReading(false);
+        }
+    }
+
+    /**
+     * On the loop thread.
+     */
+    public void resume() {
+        if (!mPaused) {
+            return;
+        }
+        mPaused = false;
+        // Waiting for the reader is no stall of the server
+        mLastReadNanos = System.nanoTime();
+        if (mConnection != null) {
+            mConnection.setReading(true);
+        }
+    }
+
+    /**
+     * Closes the connection without telling the listener. May be called from any thread.
+     */
+    public void cancel() {
+        if (mCancelled) {
+            return;
+        }
+        mCancelled = true;
+
+        long cancelTime = System.nanoTime();
+        Runnable close = () -> {
+            if (mFinished) {
+                return;
+            }
+            finish();
+            if (mConnection != null) {
+                mConnection.close();
+                mConnection = null;
+            }
+            long elapsedMs = (System.nanoTime() - cancelTime) / 1_000_000;
+            Metrics.histogram("cancel.socket_closed_ms").record(elapsedMs);
+            MainHook.log("Connection closed " + elapsedMs + "ms after cancel");
+        };
+
+        try {
+            mLoop.execute(close);
+        } catch (RejectedExecutionException e) {
+            // The loop closed every connection on shutdown
+        }
+    }
+
+    private void open() {
+        if (mFinished || mCancelled) {
+            return;
+        }
+
+        try {
+            if (mRequestBytes == null) {
+                mRequestBytes = encode();
+            }
+
+            NioConnection idle = HttpTransport.get().takeIdle(mRequest.getUrl());
+            if (idle != null) {
+                mReused = true;
+                mConnection = idle;
+                idle.setListener(mConnectionListener);
+                HttpTransport.get().recordConnect(mRequest.getUrl(), 0, true);
+                send();
+            }
+            else {
+                connect();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void connect() throws IOException {
+        URL url = mRequest.getUrl();
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        mReused = false;
+        mConnection = new NioConnection(mLoop, url.getHost(), port, url.getProtocol().equals("https"),
+                mConnectionListener);
+        mConnection.connect(mRequest.getConnectTimeoutMs());
+    }
+
+    private void send() {
+        mLastReadNanos = System.nanoTime();
+        scheduleReadTimeout(mRequest.getReadTimeoutMs());
+        if (mPaused) {
+            mConnection.setReading(false);
+        }
+        mConnection.write(mRequestBytes.duplicate());
+    }
+
+    /**
+     * Serializes the request head and body.
+     */
+    private ByteBuffer encode() throws IOException {
+        ByteArrayOutputStream body = null;
+        if (mRequest.getBody() != null) {
+            body = new ByteArrayOutputStream();
+            JsonWriter writer = new JsonWriter(body);
+            mRequest.getBody().writeTo(writer);
+            writer.flush();
+        }
+
+        URL url = mRequest.getUrl();
+        StringBuilder head = new StringBuilder();
+        head.append(mRequest.getMethod()).append(' ')
+                .append(url.getFile().isEmpty() ? "/" : url.getFile())
+                .append(" HTTP/1.1\r\n");
+
+        head.append("Host: ").append(url.getHost());
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+            head.append(':').append(url.getPort());
+        }
+        head.append("\r\n");
+
+        boolean hasUserAgent = false;
+        for (Map.Entry<String, String> header: mRequest.getHeaders().entrySet()) {
+            appendHeader(head, header.getKey(), header.getValue());
+            hasUserAgent |= header.getKey().equalsIgnoreCase("User-Agent");
+        }
+        if (!hasUserAgent) {
+            // As HttpURLConnection would send
+            String agent = System.getProperty("http.agent");
+            appendHeader(head, "User-Agent", agent != null ? agent : "KeyboardGPT");
+        }
+        if (body != null) {
+            appendHeader(head, "Content-Length", String.valueOf(body.size()));
+        }
+        head.append("\r\n");
+
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        int bodySize = body != null ? body.size() : 0;
+        ByteBuffer bytes = ByteBuffer.allocate(headBytes.length + bodySize);
+        bytes.put(headBytes);
+        if (body != null) {
+            bytes.put(body.toByteArray());
+            HttpTransport.get().recordRequestBytes(bodySize);
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    private static void appendHeader(StringBuilder head, String name, String value) throws IOException {
+        if (name.indexOf('\r') >= 0 || name.indexOf('\n') >= 0
+                || value.indexOf('\r') >= 0 || value.indexOf('\n') >= 0) {
+            throw new IOException("Line break in header " + name);
+        }
+        head.append(name).append(": ").append(value).append("\r\n");
+    }
+
+    private void scheduleReadTimeout(long delayMs) {
+        if (mRequest.getReadTimeoutMs() <= 0) {
+            return;
+        }
+        try {
+            mReadTimeout = GenerationExecutors.get().timer().schedule(() -> {
+                try {
+                    mLoop.execute(this::checkReadTimeout);
+                } catch (RejectedExecutionException ignored) {
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    private void checkReadTimeout() {
+        mReadTimeout = null;
+        if (mFinished) {
+            return;
+        }
+
+        long timeoutMs = mRequest.getReadTimeoutMs();
+        long waitedMs = (System.nanoTime() - mLastReadNanos) / 1_000_000;
+        if (mPaused) {
+            scheduleReadTimeout(timeoutMs);
+        }
+        else if (waitedMs >= timeoutMs) {
+            fail(new SocketTimeoutException("Read timed out"));
+        }
+        else {
+            scheduleReadTimeout(timeoutMs - waitedMs);
+        }
+    }
+
+    /**
+     * Marks the call as over, further events of the connection are ignored.
+     */
+    private void finish() {
+        mFinished = true;
+        if (mReadTimeout != null) {
+            mReadTimeout.cancel(false);
+            mReadTimeout = null;
+        }
+    }
+
+    private void fail(IOException e) {
+        if (mFinished) {
+            return;
+        }
+        finish();
+        if (mConnection != null) {
+            mConnection.close();
+            mConnection = null;
+        }
+        if (!mCancelled) {
+            mListener.onFailure(e);
+        }
+    }
+
+    private void complete(boolean reusable) {
+        finish();
+        NioConnection connection = mConnection;
+        mConnection = null;
+        if (reusable && connection.isOpen()) {
+            HttpTransport.get().releaseIdle(mRequest.getUrl(), connection);
+        }
+        else {
+            connection.close();
+        }
+        mListener.onComplete();
+    }
+
+    /**
+     * A pooled connection the server closed while it was idle fails before the response starts.
+     */
+    private boolean retryOnNewConnection() {
+        if (!mReused || mResponseStarted || mCancelled) {
+            return false;
+        }
+
+        MainHook.log("Pooled connection to " + mRequest.getUrl().getHost() + " was closed, reconnecting");
+        if (mReadTimeout != null) {
+            mReadTimeout.cancel(false);
+            mReadTimeout = null;
+        }
+        mConnection.close();
+        try {
+            connect();
+        } catch (IOException e) {
+            fail(e);
+        }
+        return true;
+    }
+
+    private class ConnectionListener implements NioConnection.Listener, HttpResponseParser.Listener {
+        @Override
+        public void onConnected() {
+            if (mFinished) {
+                return;
+            }
+            HttpTransport.get().recordConnect(mRequest.getUrl(), mConnection.getConnectMs(), false);
+            send();
+        }
+
+        @Override
+        public void onData(ByteBuffer data) throws IOException {
+            if (mFinished) {
+                data.position(data.limit());
+                return;
+            }
+
+            mResponseStarted = true;
+            mLastReadNanos = System.nanoTime();
+            try {
+                mParser.feed(data, this);
+            } catch (IOException e) {
+                data.position(data.limit());
+                fail(e);
+                return;
+            }
+
+            if (mParser.isDone() && !mFinished) {
+                // Anything after the response means the connection is out of step
+                boolean reusable = mParser.isKeepAlive() && !data.hasRemaining();
+                data.position(data.limit());
+                complete(reusable);
+            }
+        }
+
+        @Override
+        public void onEndOfStream() {
+            if (mFinished || retryOnNewConnection()) {
+                return;
+            }
+
+            try {
+                mParser.endOfInput();
+                complete(false);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            if (mFinished || retryOnNewConnection()) {
+                return;
+            }
+            fail(e);
+        }
+
+        @Override
+        public void onHead(int statusCode, Map<String, String> headers) throws IOException {
+            mListener.onResponse(statusCode, headers);
+        }
+
+        @Override
+        public void onBody(ByteBuffer body) throws IOException {
+            if (!mFinished) {
+                mListener.onBody(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package tn.amin.keyboard_gpt.language_model.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What to send, kept apart from how: {@link HttpCall} sends it on the event loop, while
+ * {@link #openConnection()} sets up an HttpURLConnection for when the request goes through a proxy.
+ */
+public class HttpRequest {
+    private final URL mUrl;
+    private final String mMethod;
+    private final Map<String, String> mHeaders = new LinkedHashMap<>();
+    private JsonWriter.Body mBody = null;
+    private long mConnectTimeoutMs = 0;
+    private long mReadTimeoutMs = 0;
+
+    public HttpRequest(String url, String method) throws MalformedURLException {
+        mUrl = new URL(url);
+        mMethod = method;
+        if (!mUrl.getProtocol().equals("http") && !mUrl.getProtocol().equals("https")) {
+            throw new MalformedURLException("Not an http URL: " + url);
+        }
+    }
+
+    public HttpRequest header(String name, String value) {
+        mHeaders.put(name, value);
+        return this;
+    }
+
+    /**
+     * @param body written when the request is sent, as JSON
+     */
+    public HttpRequest setBody(JsonWriter.Body body) {
+        mBody = body;
+        return this;
+    }
+
+    /**
+     * @param connectTimeoutMs for connecting, including the TLS handshake, 0 for none
+     * @param readTimeoutMs    longest wait for the next bytes of the response, 0 for none
+     */
+    public HttpRequest setTimeouts(long connectTimeoutMs, long readTimeoutMs) {
+        mConnectTimeoutMs = connectTimeoutMs;
+        mReadTimeoutMs = readTimeoutMs;
+        return this;
+    }
+
+    public URL getUrl() {
+        return mUrl;
+    }
+
+    public String getMethod() {
+        return mMethod;
+    }
+
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(mHeaders);
+    }
+
+    public JsonWriter.Body getBody() {
+        return mBody;
+    }
+
+    public long getConnectTimeoutMs() {
+        return mConnectTimeoutMs;
+    }
+
+    public long getReadTimeoutMs() {
+        return mReadTimeoutMs;
+    }
+
+    /**
+     * Sets up, without connecting, an HttpURLConnection carrying the method, headers and timeouts
+     * of this request. The body is sent with {@link HttpTransport#sendJson}.
+     */
+    public HttpURLConnection openConnection() throws IOException {
+        HttpURLConnection con = HttpTransport.get().open(mUrl.toString(), mMethod);
+        con.setConnectTimeout((int) mConnectTimeoutMs);
+        con.setReadTimeout((int) mReadTimeoutMs);
+        for (Map.Entry<String, String> header: mHeaders.entrySet()) {
+            con.setRequestProperty(header.getKey(), header.getValue());
+        }
+        return con;
+    }
+}
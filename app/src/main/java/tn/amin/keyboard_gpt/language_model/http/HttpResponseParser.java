@@ -0,0 +1,260 @@
+package tn.amin.keyboard_gpt.language_model.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Push parser for an HTTP/1.1 response as it comes off the socket. The status line and headers
+ * are collected first, then the body is handed on in slices of the fed buffers, with chunked
+ * transfer coding removed. Bodies framed by neither Content-Length nor chunks run until the
+ * connection closes, which {@link #endOfInput} signals.
+ */
+public class HttpResponseParser {
+    private static final int MAX_LINE_LENGTH = 16 * 1024;
+
+    private enum State {
+        STATUS_LINE,
+        HEADERS,
+        FIXED_BODY,
+        CHUNK_SIZE,
+        CHUNK_DATA,
+        CHUNK_DATA_END,
+        TRAILERS,
+        BODY_UNTIL_CLOSE,
+        DONE,
+    }
+
+    public interface Listener {
+        /**
+         * @param headers case-insensitive, the last value of a repeated header wins
+         */
+        void onHead(int statusCode, Map<String, String> headers) throws IOException;
+
+        /**
+         * @param body a slice of the fed bytes, to be consumed before returning
+         */
+        void onBody(ByteBuffer body) throws IOException;
+    }
+
+    private final boolean mHeadRequest;
+    private final StringBuilder mLine = new StringBuilder();
+
+    private State mState = State.STATUS_LINE;
+    private boolean mHttp11 = true;
+    private int mStatusCode = 0;
+    private Map<String, String> mHeaders = newHeaders();
+    private long mRemaining = 0;
+    private boolean mKeepAlive = true;
+
+    /**
+     * @param headRequest the response answers a HEAD request, so it never has a body
+     */
+    public HttpResponseParser(boolean headRequest) {
+        mHeadRequest = headRequest;
+    }
+
+    private static Map<String, String> newHeaders() {
+        return new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    }
+
+    /**
+     * Parses as much of {@code in} as belongs to the response. Bytes after its end are left in
+     * {@code in}.
+     */
+    public void feed(ByteBuffer in, Listener listener) throws IOException {
+        while (in.hasRemaining() && mState != State.DONE) {
+            switch (mState) {
+                case STATUS_LINE:
+                case HEADERS:
+                case CHUNK_SIZE:
+                case CHUNK_DATA_END:
+                case TRAILERS:
+                    if (readLine(in)) {
+                        onLine(listener);
+                    }
+                    break;
+                case FIXED_BODY:
+                case CHUNK_DATA:
+                    int length = (int) Math.min(in.remaining(), mRemaining);
+                    passBody(in, length, listener);
+                    mRemaining -= length;
+                    if (mRemaining == 0) {
+                        mState = mState == State.FIXED_BODY ? State.DONE : State.CHUNK_DATA_END;
+                    }
+                    break;
+                case BODY_UNTIL_CLOSE:
+                    passBody(in, in.remaining(), listener);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * The connection was closed by the server.
+     *
+     * @throws EOFException if the response was not complete yet
+     */
+    public void endOfInput() throws IOException {
+        if (mState == State.BODY_UNTIL_CLOSE) {
+            mState = State.DONE;
+        }
+        if (mState != State.DONE) {
+            throw new EOFException("Connection closed before the end of the response");
+        }
+    }
+
+    public boolean isDone() {
+        return mState == State.DONE;
+    }
+
+    /**
+     * Whether the connection may carry another request once the response is done.
+     */
+    public boolean isKeepAlive() {
+        return mKeepAlive;
+    }
+
+    private static void passBody(ByteBuffer in, int length, Listener listener) throws IOException {
+        int limit = in.limit();
+        int end = in.position() + length;
+        in.limit(end);
+        try {
+            listener.onBody(in);
+        } finally {
+            in.limit(limit);
+            in.position(end);
+        }
+    }
+
+    /**
+     * Appends {@code in} to the current line up to its line feed.
+     *
+     * @return whether the line is complete
+     */
+    private boolean readLine(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            char c = (char) (in.get() & 0xff);
+            if (c == '\n') {
+                int length = mLine.length();
+                if (length > 0 && mLine.charAt(length - 1) == '\r') {
+                    mLine.setLength(length - 1);
+                }
+                return true;
+            }
+            if (mLine.length() == MAX_LINE_LENGTH) {
+                throw new ProtocolException("Line too long in response");
+            }
+            mLine.append(c);
+        }
+        return false;
+    }
+
+    private void onLine(Listener listener) throws IOException {
+        String line = mLine.toString();
+        mLine.setLength(0);
+
+        switch (mState) {
+            case STATUS_LINE:
+                parseStatusLine(line);
+                mState = State.HEADERS;
+                break;
+            case HEADERS:
+                if (line.isEmpty()) {
+                    onHeadersEnd(listener);
+                }
+                else {
+                    parseHeader(line);
+                }
+                break;
+            case CHUNK_SIZE:
+                parseChunkSize(line);
+                break;
+            case CHUNK_DATA_END:
+                if (!line.isEmpty()) {
+                    throw new ProtocolException("Missing line break after chunk");
+                }
+                mState = State.CHUNK_SIZE;
+                break;
+            case TRAILERS:
+                if (line.isEmpty()) {
+                    mState = State.DONE;
+                }
+                break;
+        }
+    }
+
+    private void parseStatusLine(String line) throws IOException {
+        // HTTP/1.1 200 OK
+        if (!line.startsWith("HTTP/1.") || line.length() < 12 || line.charAt(8) != ' ') {
+            throw new ProtocolException("Unexpected status line: " + line);
+        }
+        mHttp11 = line.charAt(7) != '0';
+        try {
+            mStatusCode = Integer.parseInt(line.substring(9, 12));
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Unexpected status line: " + line);
+        }
+    }
+
+    private void parseHeader(String line) throws IOException {
+        int colon = line.indexOf(':');
+        if (colon <= 0) {
+            throw new ProtocolException("Malformed header: " + line);
+        }
+        mHeaders.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+    }
+
+    private void onHeadersEnd(Listener listener) throws IOException {
+        if (mStatusCode >= 100 && mStatusCode < 200) {
+            // Interim response, the real one follows
+            mHeaders = newHeaders();
+            mState = State.STATUS_LINE;
+            return;
+        }
+
+        String connection = mHeaders.get("Connection");
+        mKeepAlive = connection == null ? mHttp11 : connection.equalsIgnoreCase("keep-alive");
+
+        String transferEncoding = mHeaders.get("Transfer-Encoding");
+        String contentLength = mHeaders.get("Content-Length");
+        if (mHeadRequest || mStatusCode == 204 || mStatusCode == 304) {
+            mState = State.DONE;
+        }
+        else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).endsWith("chunked")) {
+            mState = State.CHUNK_SIZE;
+        }
+        else if (contentLength != null) {
+            try {
+                mRemaining = Long.parseLong(contentLength);
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Malformed Content-Length: " + contentLength);
+            }
+            mState = mRemaining > 0 ? State.FIXED_BODY : State.DONE;
+        }
+        else {
+            mKeepAlive = false;
+            mState = State.BODY_UNTIL_CLOSE;
+        }
+
+        listener.onHead(mStatusCode, mHeaders);
+    }
+
+    private void parseChunkSize(String line) throws IOException {
+        int end = line.indexOf(';');
+        String size = (end >= 0 ? line.substring(0, end) : line).trim();
+        try {
+            mRemaining = Long.parseLong(size, 16);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Malformed chunk size: " + line);
+        }
+        if (mRemaining < 0) {
+            throw new ProtocolException("Malformed chunk size: " + line);
+        }
+        mState = mRemaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+    }
+}
@@ -0,0 +1,520 @@
+package tn.amin.keyboard_gpt.language_model.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+import tn.amin.keyboard_gpt.MainHook;
+import tn.amin.keyboard_gpt.metrics.Counter;
+import tn.amin.keyboard_gpt.metrics.Histogram;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+import tn.amin.keyboard_gpt.resilience.StallException;
+
+/**
+ * Connection layer shared by all HTTP based clients. The platform HttpURLConnection keeps idle
+ * sockets in a keep-alive pool as long as response bodies are read to the end and closed, so a
+ * connection opened here must either be {@link #release released} once its body is consumed, or
+ * disconnected when aborted. Requests that go {@link #isDirect direct} to the host are sent with
+ * {@link HttpCall} on the event loop instead, whose idle connections are pooled here as well.
+ * Connect times are tracked per host to estimate the handshake time saved by pooled connections.
+ */
+public class HttpTransport {
+    // Matches the platform default http.keepAliveDuration
+    private static final long KEEP_ALIVE_MS = 5 * 60 * 1000;
+    // Matches the platform default http.maxConnections
+    private static final int MAX_IDLE_PER_HOST = 5;
+
+    private static final long WARM_UP_COOLDOWN_MS = 20 * 1000;
+    private static final long WARM_UP_WINDOW_MS = 10 * 60 * 1000;
+    private static final int WARM_UP_BUDGET = 10;
+    private static final int WARM_UP_TIMEOUT_MS = 10 * 1000;
+
+    private static final HttpTransport sInstance = new HttpTransport();
+
+    private final ConcurrentHashMap<String, HostStats> mHostStats = new ConcurrentHashMap<>();
+    // Callbacks waiting for the lookup of each host in progress
+    private final Map<String, List<BiConsumer<InetAddress, IOException>>> mLookups = new HashMap<>();
+
+    private long mWarmUpWindowStart = 0;
+    private int mWarmUpsInWindow = 0;
+
+    private final Counter mNewConnections = Metrics.counter("http.connections_new");
+    private final Counter mReusedConnections = Metrics.counter("http.connections_reused");
+    private final Histogram mConnectTime = Metrics.histogram("http.connect_ms");
+    private final Histogram mHandshakeSaved = Metrics.histogram("http.handshake_saved_ms");
+    private final Counter mWarmUps = Metrics.counter("http.warm_ups");
+    private final Histogram mRequestBytes = Metrics.histogram("http.request_bytes");
+
+    public static HttpTransport get() {
+        return sInstance;
+    }
+
+    public HttpURLConnection open(String url, String method) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(url).openConnection();
+        con.setRequestMethod(method);
+        con.setRequestProperty("Connection", "keep-alive");
+        return con;
+    }
+
+    /**
+     * Whether requests to {@code url} go straight to its host. Only HttpURLConnection knows how to
+     * go through a proxy, so {@link HttpCall} is for direct requests only.
+     */
+    public boolean isDirect(URL url) {
+        ProxySelector selector = ProxySelector.getDefault();
+        if (selector == null) {
+            return true;
+        }
+        try {
+            List<Proxy> proxies = selector.select(url.toURI());
+            return proxies.isEmpty() || proxies.get(0).type() == Proxy.Type.DIRECT;
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Establishes the connection, reusing a pooled one when available.
+     *
+     * @throws StallException if the connect timeout of {@code con} elapsed
+     */
+    public void connect(HttpURLConnection con) throws IOException {
+        HostStats stats = getHostStats(con.getURL());
+        boolean expectReuse = stats.takeIdle();
+
+        long start = System.nanoTime();
+        try {
+            con.connect();
+        } catch (SocketTimeoutException e) {
+            throw new StallException(con.getURL().getHost(), StallException.Phase.CONNECT, con.getConnectTimeout());
+        }
+        recordConnect(con.getURL(), (System.nanoTime() - start) / 1_000_000, expectReuse);
+    }
+
+    /**
+     * @param elapsedMs time to get the connection, including the handshake of a new one
+     */
+    void recordConnect(URL url, long elapsedMs, boolean reused) {
+        HostStats stats = getHostStats(url);
+        mConnectTime.record(elapsedMs);
+
+        if (reused) {
+            long savedMs = Math.max(0, stats.getColdConnectMs() - elapsedMs);
+            mReusedConnections.inc();
+            mHandshakeSaved.record(savedMs);
+            MainHook.log("Reused connection to " + url.getHost() + ", saved ~" + savedMs + "ms");
+        }
+        else {
+            mNewConnections.inc();
+            stats.recordColdConnect(elapsedMs);
+        }
+    }
+
+    void recordRequestBytes(long count) {
+        mRequestBytes.record(count);
+    }
+
+    /**
+     * Connects and streams {@code body} as the request entity. The body is serialized twice:
+     * once into a counter to announce a fixed Content-Length, then straight to the socket, so
+     * neither the connection nor the caller holds a copy of the whole payload.
+     */
+    public void sendJson(HttpURLConnection con, JsonWriter.Body body) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream();
+        JsonWriter measuringWriter = new JsonWriter(counter);
+        body.writeTo(measuringWriter);
+        measuringWriter.flush();
+
+        con.setDoOutput(true);
+        con.setFixedLengthStreamingMode(counter.mCount);
+        connect(con);
+
+        try (OutputStream os = con.getOutputStream()) {
+            JsonWriter writer = new JsonWriter(os);
+            body.writeTo(writer);
+            writer.flush();
+        }
+        mRequestBytes.record(counter.mCount);
+    }
+
+    /**
+     * Marks the connection as returned to the keep-alive pool. Only call once the response body
+     * was read to the end and closed.
+     */
+    public void release(HttpURLConnection con) {
+        getHostStats(con.getURL()).putIdle();
+    }
+
+    /**
+     * Takes an idle connection to the host of {@code url} from the pool. On the event loop thread.
+     *
+     * @return null if there is none
+     */
+    NioConnection takeIdle(URL url) {
+        return getHostStats(url).takeIdleConnection();
+    }
+
+    /**
+     * Keeps {@code connection}, done with a response, for the next request to the host of
+     * {@code url}. On the event loop thread. It is closed instead if the pool is full, and leaves
+     * the pool as soon as the server closes it or it expires.
+     */
+    void releaseIdle(URL url, NioConnection connection) {
+        HostStats stats = getHostStats(url);
+        if (!stats.putIdleConnection(connection)) {
+            connection.close();
+            return;
+        }
+
+        connection.setListener(new NioConnection.Listener() {
+            @Override
+            public void onConnected() {
+            }
+
+            @Override
+            public void onData(ByteBuffer data) {
+                // Nothing was asked, the connection is out of step
+                data.position(data.limit());
+                drop();
+            }
+
+            @Override
+            public void onEndOfStream() {
+                drop();
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                stats.removeIdleConnection(connection);
+            }
+
+            private void drop() {
+                stats.removeIdleConnection(connection);
+                connection.close();
+            }
+        });
+        // Notices the server closing it while idle
+        connection.setReading(true);
+    }
+
+    /**
+     * Looks up {@code host} on the io pool and passes the address, or the error, to
+     * {@code callback} on that thread. Connections opened at the same time share one lookup.
+     */
+    void resolve(String host, BiConsumer<InetAddress, IOException> callback) {
+        synchronized (mLookups) {
+            List<BiConsumer<InetAddress, IOException>> waiting = mLookups.get(host);
+            if (waiting != null) {
+                waiting.add(callback);
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+            mLookups.put(host, waiting);
+        }
+
+        Runnable lookup = () -> {
+            InetAddress address = null;
+            IOException error = null;
+            try {
+                address = InetAddress.getByName(host);
+            } catch (IOException e) {
+                error = e;
+            }
+            finishLookup(host, address, error);
+        };
+
+        try {
+            GenerationExecutors.get().io().execute(lookup);
+        } catch (RejectedExecutionException e) {
+            finishLookup(host, null, new IOException("No thread to look up " + host, e));
+        }
+    }
+
+    private void finishLookup(String host, InetAddress address, IOException error) {
+        List<BiConsumer<InetAddress, IOException>> waiting;
+        synchronized (mLookups) {
+            waiting = mLookups.remove(host);
+        }
+        for (BiConsumer<InetAddress, IOException> callback: waiting) {
+            callback.accept(address, error);
+        }
+    }
+
+    /**
+     * Whether a pooled connection to the host of {@code url} is expected to be available.
+     */
+    public boolean hasIdleConnection(String url) {
+        try {
+            return getHostStats(new URL(url)).hasIdle();
+        } catch (MalformedURLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Resolves the host of {@code baseUrl} and leaves a handshaken connection to it in the pool,
+     * so that the next request skips connection setup. Does nothing if the host already has an
+     * idle connection, was warmed up recently, or the warm-up budget is spent.
+     */
+    public void warmUp(String baseUrl) {
+        URL url;
+        try {
+            url = new URL(baseUrl);
+        } catch (MalformedURLException e) {
+            return;
+        }
+
+        HostStats stats = getHostStats(url);
+        if (stats.hasIdle() || !stats.tryStartWarmUp() || !tryConsumeWarmUpBudget()) {
+            return;
+        }
+
+        if (isDirect(url)) {
+            warmUpOnLoop(url);
+            return;
+        }
+
+        Runnable warmUp = () -> {
+            long start = System.nanoTime();
+            try {
+                InetAddress.getAllByName(url.getHost());
+
+                HttpURLConnection con = open(baseUrl, "HEAD");
+                con.setConnectTimeout(WARM_UP_TIMEOUT_MS);
+                con.setReadTimeout(WARM_UP_TIMEOUT_MS);
+
+                long connectStart = System.nanoTime();
+                con.connect();
+                stats.recordColdConnect((System.nanoTime() - connectStart) / 1_000_000);
+
+                int responseCode = con.getResponseCode();
+                InputStream body = responseCode >= 400 ? con.getErrorStream() : con.getInputStream();
+                if (body != null) {
+                    try (InputStream in = body) {
+                        byte[] buffer = new byte[512];
+                        while (in.read(buffer) != -1) {
+                            // Discard
+                        }
+                    }
+                }
+                release(con);
+
+                mWarmUps.inc();
+                MainHook.log("Warmed up " + url.getHost() + " in "
+                        + (System.nanoTime() - start) / 1_000_000 + "ms");
+            } catch (IOException e) {
+                MainHook.log("Warm up of " + url.getHost() + " failed: " + e.getMessage());
+            }
+        };
+
+        try {
+            GenerationExecutors.get().io().execute(warmUp);
+        } catch (RejectedExecutionException e) {
+            // Busy with real requests, no point warming up
+        }
+    }
+
+    /**
+     * Connects and handshakes without sending anything, leaving the connection in the pool for
+     * {@link HttpCall}.
+     */
+    private void warmUpOnLoop(URL url) {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        WarmUp warmUp = new WarmUp(url);
+        try {
+            warmUp.mConnection = new NioConnection(GenerationExecutors.get().network(), url.getHost(), port,
+                    url.getProtocol().equals("https"), warmUp);
+        } catch (IOException e) {
+            warmUp.onFailure(e);
+            return;
+        }
+        warmUp.mConnection.connect(WARM_UP_TIMEOUT_MS);
+    }
+
+    private class WarmUp implements NioConnection.Listener {
+        private final URL mUrl;
+        private final long mStart = System.nanoTime();
+        private NioConnection mConnection;
+
+        WarmUp(URL url) {
+            mUrl = url;
+        }
+
+        @Override
+        public void onConnected() {
+            getHostStats(mUrl).recordColdConnect(mConnection.getConnectMs());
+            releaseIdle(mUrl, mConnection);
+
+            mWarmUps.inc();
+            MainHook.log("Warmed up " + mUrl.getHost() + " in " + (System.nanoTime() - mStart) / 1_000_000 + "ms");
+        }
+
+        @Override
+        public void onData(ByteBuffer data) {
+            data.position(data.limit());
+        }
+
+        @Override
+        public void onEndOfStream() {
+            mConnection.close();
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            MainHook.log("Warm up of " + mUrl.getHost() + " failed: " + e.getMessage());
+        }
+    }
+
+    private synchronized boolean tryConsumeWarmUpBudget() {
+        long now = System.currentTimeMillis();
+        if (now - mWarmUpWindowStart > WARM_UP_WINDOW_MS) {
+            mWarmUpWindowStart = now;
+            mWarmUpsInWindow = 0;
+        }
+        if (mWarmUpsInWindow >= WARM_UP_BUDGET) {
+            return false;
+        }
+        mWarmUpsInWindow++;
+        return true;
+    }
+
+    private HostStats getHostStats(URL url) {
+        String key = url.getProtocol() + "://" + url.getAuthority();
+        HostStats stats = mHostStats.get(key);
+        if (stats == null) {
+            stats = mHostStats.computeIfAbsent(key, k -> new HostStats());
+        }
+        return stats;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long mCount = 0;
+
+        @Override
+        public void write(int b) {
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            mCount += len;
+        }
+    }
+
+    private static class IdleConnection {
+        final NioConnection connection;
+        final long releasedMs;
+
+        IdleConnection(NioConnection connection, long releasedMs) {
+            this.connection = connection;
+            this.releasedMs = releasedMs;
+        }
+    }
+
+    private static class HostStats {
+        // Most recently released last
+        private final ArrayDeque<IdleConnection> mIdleConnections = new ArrayDeque<>();
+        private int mIdleCount = 0;
+        private long mLastReleaseMs = 0;
+        private long mColdConnectMs = -1;
+        private long mLastWarmUpMs = 0;
+
+        synchronized boolean hasIdle() {
+            long now = System.currentTimeMillis();
+            IdleConnection last = mIdleConnections.peekLast();
+            return (mIdleCount > 0 && now - mLastReleaseMs <= KEEP_ALIVE_MS)
+                    || (last != null && now - last.releasedMs <= KEEP_ALIVE_MS);
+        }
+
+        synchronized boolean tryStartWarmUp() {
+            long now = System.currentTimeMillis();
+            if (now - mLastWarmUpMs < WARM_UP_COOLDOWN_MS) {
+                return false;
+            }
+            mLastWarmUpMs = now;
+            return true;
+        }
+
+        synchronized boolean takeIdle() {
+            if (System.currentTimeMillis() - mLastReleaseMs > KEEP_ALIVE_MS) {
+                mIdleCount = 0;
+            }
+            if (mIdleCount == 0) {
+                return false;
+            }
+            mIdleCount--;
+            return true;
+        }
+
+        synchronized void putIdle() {
+            mIdleCount++;
+            mLastReleaseMs = System.currentTimeMillis();
+        }
+
+        /**
+         * @return the freshest connection, expired ones are closed on the way
+         */
+        NioConnection takeIdleConnection() {
+            long now = System.currentTimeMillis();
+            List<NioConnection> expired = new ArrayList<>();
+            NioConnection taken = null;
+            synchronized (this) {
+                IdleConnection idle;
+                while (taken == null && (idle = mIdleConnections.pollLast()) != null) {
+                    if (now - idle.releasedMs > KEEP_ALIVE_MS || !idle.connection.isOpen()) {
+                        expired.add(idle.connection);
+                    }
+                    else {
+                        taken = idle.connection;
+                    }
+                }
+            }
+            for (NioConnection connection: expired) {
+                connection.close();
+            }
+            return taken;
+        }
+
+        /**
+         * @return false if the pool is full
+         */
+        synchronized boolean putIdleConnection(NioConnection connection) {
+            if (mIdleConnections.size() >= MAX_IDLE_PER_HOST) {
+                return false;
+            }
+            mIdleConnections.addLast(new IdleConnection(connection, System.currentTimeMillis()));
+            return true;
+        }
+
+        synchronized void removeIdleConnection(NioConnection connection) {
+            mIdleConnections.removeIf(idle -> idle.connection == connection);
+        }
+
+        synchronized void recordColdConnect(long elapsedMs) {
+            mColdConnectMs = mColdConnectMs < 0 ? elapsedMs : (mColdConnectMs * 3 + elapsedMs) / 4;
+        }
+
+        synchronized long getColdConnectMs() {
+            return Math.max(0, mColdConnectMs);
+        }
+    }
+}
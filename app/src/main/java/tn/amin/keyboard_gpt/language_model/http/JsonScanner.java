@@ -0,0 +1,357 @@
+package tn.amin.keyboard_gpt.language_model.http;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Extracts single values from a UTF-8 JSON document without building a tree. Lookups walk the
+ * bytes, skipping everything outside the requested {@link Path}, and only the extracted value is
+ * materialized. An instance is meant to be reused for every event of a stream.
+ */
+public class JsonScanner {
+    private byte[] mBuffer;
+    private int mStart;
+    private int mEnd;
+
+    private char[] mChars = new char[256];
+
+    public void reset(byte[] buffer, int offset, int length) {
+        mBuffer = buffer;
+        mStart = offset;
+        mEnd = offset + length;
+    }
+
+    /**
+     * @return the offset of the value at {@code path}, or -1 if there is none
+     */
+    public int find(Path path) {
+        return find(mStart, path);
+    }
+
+    /**
+     * Same as {@link #find(Path)} but starting from the value at {@code position}.
+     */
+    public int find(int position, Path path) {
+        if (position < 0) {
+            return -1;
+        }
+
+        int pos = skipWhitespace(position);
+        for (int i = 0; i < path.mKeys.length; i++) {
+            byte[] key = path.mKeys[i];
+            if (key == null) {
+                pos = findIndex(pos, path.mIndices[i]);
+            }
+            else {
+                pos = findKey(pos, key);
+            }
+            if (pos < 0) {
+                return -1;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Whether the document starts with {@code prefix}, ignoring leading whitespace.
+     */
+    public boolean startsWith(byte[] prefix) {
+        int pos = skipWhitespace(mStart);
+        if (mEnd - pos < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (mBuffer[pos + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the string at {@code position}, or null if there is no string there
+     */
+    public String getString(int position) {
+        if (position < 0 || byteAt(position) != '"') {
+            return null;
+        }
+
+        int length = 0;
+        int pos = position + 1;
+        while (pos < mEnd) {
+            int b = mBuffer[pos] & 0xff;
+            if (b == '"') {
+                return new String(mChars, 0, length);
+            }
+
+            ensureCharCapacity(length + 2);
+            if (b == '\\') {
+                if (pos + 1 >= mEnd) {
+                    break;
+                }
+                byte escaped = mBuffer[pos + 1];
+                pos += 2;
+                switch (escaped) {
+                    case 'n': mChars[length++] = '\n'; break;
+                    case 't': mChars[length++] = '\t'; break;
+                    case 'r': mChars[length++] = '\r'; break;
+                    case 'b': mChars[length++] = '\b'; break;
+                    case 'f': mChars[length++] = '\f'; break;
+                    case 'u':
+                        int codeUnit = pos + 4 <= mEnd ? parseHex(pos) : -1;
+                        if (codeUnit < 0) {
+                            return null;
+                        }
+                        mChars[length++] = (char) codeUnit;
+                        pos += 4;
+                        break;
+                    default: mChars[length++] = (char) escaped; break;
+                }
+            }
+            else if (b < 0x80) {
+                mChars[length++] = (char) b;
+                pos++;
+            }
+            else {
+                int sequenceLength = b >= 0xf0 ? 4 : b >= 0xe0 ? 3 : b >= 0xc0 ? 2 : 1;
+                int codePoint = decodeUtf8(pos, sequenceLength);
+                pos += sequenceLength;
+                if (codePoint < 0) {
+                    mChars[length++] = '\uFFFD';
+                }
+                else {
+                    length += Character.toChars(codePoint, mChars, length);
+                }
+            }
+        }
+        // Unterminated string
+        return null;
+    }
+
+    /**
+     * @return the integer at {@code position}, or {@code defaultValue} if there is no number there
+     */
+    public long getLong(int position, long defaultValue) {
+        if (position < 0) {
+            return defaultValue;
+        }
+
+        int pos = position;
+        boolean negative = byteAt(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+        if (byteAt(pos) < '0' || byteAt(pos) > '9') {
+            return defaultValue;
+        }
+
+        long value = 0;
+        while (pos < mEnd && mBuffer[pos] >= '0' && mBuffer[pos] <= '9') {
+            value = value * 10 + (mBuffer[pos] - '0');
+            pos++;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Returns the raw JSON text of the value at {@code position}, for logging and error messages.
+     */
+    public String getRaw(int position) {
+        if (position < 0) {
+            return null;
+        }
+        int end = skipValue(position);
+        return new String(mBuffer, position, Math.max(0, end - position), StandardCharsets.UTF_8);
+    }
+
+    private int findKey(int pos, byte[] key) {
+        if (byteAt(pos) != '{') {
+            return -1;
+        }
+
+        pos = skipWhitespace(pos + 1);
+        while (byteAt(pos) == '"') {
+            boolean matches = keyEquals(pos, key);
+            pos = skipWhitespace(skipString(pos));
+            if (byteAt(pos) != ':') {
+                return -1;
+            }
+            pos = skipWhitespace(pos + 1);
+            if (matches) {
+                return pos;
+            }
+
+            pos = skipWhitespace(skipValue(pos));
+            if (byteAt(pos) != ',') {
+                return -1;
+            }
+            pos = skipWhitespace(pos + 1);
+        }
+        return -1;
+    }
+
+    private int findIndex(int pos, int index) {
+        if (byteAt(pos) != '[') {
+            return -1;
+        }
+
+        pos = skipWhitespace(pos + 1);
+        if (byteAt(pos) == ']') {
+            return -1;
+        }
+        for (int i = 0; i < index; i++) {
+            pos = skipWhitespace(skipValue(pos));
+            if (byteAt(pos) != ',') {
+                return -1;
+            }
+            pos = skipWhitespace(pos + 1);
+        }
+        return pos;
+    }
+
+    private boolean keyEquals(int pos, byte[] key) {
+        int start = pos + 1;
+        if (start + key.length >= mEnd || mBuffer[start + key.length] != '"') {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (mBuffer[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int skipValue(int pos) {
+        int b = byteAt(pos);
+        if (b == '"') {
+            return skipString(pos);
+        }
+        if (b == '{' || b == '[') {
+            int depth = 0;
+            while (pos < mEnd) {
+                b = mBuffer[pos];
+                if (b == '"') {
+                    pos = skipString(pos);
+                    continue;
+                }
+                if (b == '{' || b == '[') {
+                    depth++;
+                }
+                else if (b == '}' || b == ']') {
+                    depth--;
+                    if (depth == 0) {
+                        return pos + 1;
+                    }
+                }
+                pos++;
+            }
+            return mEnd;
+        }
+
+        // Number, true, false or null
+        while (pos < mEnd) {
+            b = mBuffer[pos];
+            if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    private int skipString(int pos) {
+        pos++;
+        while (pos < mEnd) {
+            byte b = mBuffer[pos];
+            if (b == '\\') {
+                pos += 2;
+                continue;
+            }
+            if (b == '"') {
+                return pos + 1;
+            }
+            pos++;
+        }
+        return mEnd;
+    }
+
+    private int skipWhitespace(int pos) {
+        while (pos < mEnd) {
+            byte b = mBuffer[pos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    private int byteAt(int pos) {
+        return pos < mEnd ? mBuffer[pos] : -1;
+    }
+
+    /**
+     * @return the value of the 4 hex digits at {@code pos}, or -1 if any is not a hex digit
+     */
+    private int parseHex(int pos) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(mBuffer[pos + i], 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private int decodeUtf8(int pos, int sequenceLength) {
+        if (sequenceLength == 1 || pos + sequenceLength > mEnd) {
+            return -1;
+        }
+
+        int codePoint = mBuffer[pos] & (0xff >> (sequenceLength + 1));
+        for (int i = 1; i < sequenceLength; i++) {
+            int b = mBuffer[pos + i] & 0xff;
+            if ((b & 0xc0) != 0x80) {
+                return -1;
+            }
+            codePoint = (codePoint << 6) | (b & 0x3f);
+        }
+        return codePoint <= Character.MAX_CODE_POINT ? codePoint : -1;
+    }
+
+    private void ensureCharCapacity(int capacity) {
+        if (capacity <= mChars.length) {
+            return;
+        }
+        char[] chars = new char[Math.max(mChars.length * 2, capacity)];
+        System.arraycopy(mChars, 0, chars, 0, mChars.length);
+        mChars = chars;
+    }
+
+    /**
+     * Precompiled sequence of object keys and array indices.
+     */
+    public static class Path {
+        private final byte[][] mKeys;
+        private final int[] mIndices;
+
+        private Path(Object... segments) {
+            mKeys = new byte[segments.length][];
+            mIndices = new int[segments.length];
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i] instanceof Integer) {
+                    mIndices[i] = (Integer) segments[i];
+                }
+                else {
+                    mKeys[i] = ((String) segments[i]).getBytes(StandardCharsets.UTF_8);
+                }
+            }
+        }
+
+        public static Path of(Object... segments) {
+            return new Path(segments);
+        }
+    }
+}
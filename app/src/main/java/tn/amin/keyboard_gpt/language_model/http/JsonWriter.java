@@ -0,0 +1,217 @@
+package tn.amin.keyboard_gpt.language_model.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes UTF-8 JSON straight to an OutputStream through a small buffer, escaping strings as they
+ * are encoded. Commas are inserted automatically; callers are trusted to nest and pair names with
+ * values correctly.
+ */
+public class JsonWriter {
+    private static final int BUFFER_SIZE = 4096;
+    private static final int MAX_DEPTH = 32;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private final OutputStream mOut;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mCount = 0;
+
+    // Whether the container at each depth already holds an element
+    private final boolean[] mHasElement = new boolean[MAX_DEPTH];
+    private int mDepth = 0;
+    private boolean mAfterName = false;
+
+    public JsonWriter(OutputStream out) {
+        mOut = out;
+    }
+
+    /**
+     * A request body that serializes itself. It may be written more than once, e.g. to measure
+     * its length first, so it must write the same document every time.
+     */
+    public interface Body {
+        void writeTo(JsonWriter writer) throws IOException;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        beforeValue();
+        writeString(name);
+        writeByte(':');
+        mAfterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null) {
+            writeAscii("null");
+        }
+        else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        writeAscii(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        writeAscii(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * Writes a value that is already encoded, e.g. a constant part of a request serialized once.
+     */
+    public JsonWriter rawValue(byte[] json) throws IOException {
+        beforeValue();
+        flush();
+        mOut.write(json);
+        return this;
+    }
+
+    /**
+     * Writes out anything still buffered. Does not flush or close the underlying stream.
+     */
+    public void flush() throws IOException {
+        if (mCount > 0) {
+            mOut.write(mBuffer, 0, mCount);
+            mCount = 0;
+        }
+    }
+
+    private JsonWriter open(char bracket) throws IOException {
+        beforeValue();
+        if (mDepth == MAX_DEPTH) {
+            throw new IOException("JSON nested too deeply");
+        }
+        writeByte(bracket);
+        mHasElement[mDepth++] = false;
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        if (mDepth == 0) {
+            throw new IllegalStateException("Nothing to close");
+        }
+        mDepth--;
+        writeByte(bracket);
+        return this;
+    }
+
+    private void beforeValue() throws IOException {
+        if (mAfterName) {
+            mAfterName = false;
+            return;
+        }
+        if (mDepth > 0) {
+            if (mHasElement[mDepth - 1]) {
+                writeByte(',');
+            }
+            mHasElement[mDepth - 1] = true;
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        writeByte('"');
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    writeByte('\\');
+                    writeByte(c);
+                }
+                else if (c >= 0x20) {
+                    writeByte(c);
+                }
+                else {
+                    writeControl(c);
+                }
+            }
+            else if (c < 0x800) {
+                writeByte(0xC0 | (c >> 6));
+                writeByte(0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                writeByte(0xF0 | (codePoint >> 18));
+                writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+                writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+                writeByte(0x80 | (codePoint & 0x3F));
+            }
+            else {
+                if (Character.isSurrogate(c)) {
+                    // Unpaired surrogate, not encodable
+                    c = '\uFFFD';
+                }
+                writeByte(0xE0 | (c >> 12));
+                writeByte(0x80 | ((c >> 6) & 0x3F));
+                writeByte(0x80 | (c & 0x3F));
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeControl(char c) throws IOException {
+        writeByte('\\');
+        switch (c) {
+            case '\n':
+                writeByte('n');
+                break;
+            case '\r':
+                writeByte('r');
+                break;
+            case '\t':
+                writeByte('t');
+                break;
+            case '\b':
+                writeByte('b');
+                break;
+            case '\f':
+                writeByte('f');
+                break;
+            default:
+                writeByte('u');
+                writeByte('0');
+                writeByte('0');
+                writeByte(HEX[c >> 4]);
+                writeByte(HEX[c & 0xF]);
+        }
+    }
+
+    private void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            writeByte(s.charAt(i));
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (mCount == BUFFER_SIZE) {
+            flush();
+        }
+        mBuffer[mCount++] = (byte) b;
+    }
+}
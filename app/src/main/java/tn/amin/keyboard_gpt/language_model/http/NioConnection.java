@@ -0,0 +1,547 @@
+package tn.amin.keyboard_gpt.language_model.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+import tn.amin.keyboard_gpt.resilience.StallException;
+
+/**
+ * A socket driven by the {@link EventLoop}, encrypted with an {@link SSLEngine} for https. Apart
+ * from {@link #connect}, methods must be called on the loop thread, which is also where the
+ * listener is called. Reading can be paused, which leaves unread bytes in the socket buffer so
+ * that TCP flow control slows the server down.
+ */
+class NioConnection implements EventLoop.Handler {
+    private static final int PLAIN_BUFFER_SIZE = 16 * 1024;
+    // Steps taken per wake-up before giving other sockets a turn
+    private static final int MAX_STEPS = 16;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    interface Listener {
+        /**
+         * The socket is connected, and done with the TLS handshake for https.
+         */
+        void onConnected() throws IOException;
+
+        /**
+         * @param data received bytes, all of which must be consumed before returning
+         */
+        void onData(ByteBuffer data) throws IOException;
+
+        /**
+         * The server closed its side of the connection.
+         */
+        void onEndOfStream() throws IOException;
+
+        /**
+         * The connection failed and was closed. Not called after {@link #close()}.
+         */
+        void onFailure(IOException e);
+    }
+
+    private final EventLoop mLoop;
+    private final String mHost;
+    private final int mPort;
+    // Null for plain http
+    private final SSLEngine mEngine;
+    private final ArrayDeque<ByteBuffer> mWrites = new ArrayDeque<>();
+
+    private Listener mListener;
+    private SocketChannel mChannel = null;
+    private SelectionKey mKey = null;
+    private ScheduledFuture<?> mConnectTimeout = null;
+    private ByteBuffer mNetIn;
+    private ByteBuffer mNetOut;
+    private ByteBuffer mAppIn;
+
+    private long mConnectStartNanos = 0;
+    private long mConnectMs = -1;
+    private boolean mSocketConnected = false;
+    private boolean mConnected = false;
+    private boolean mReading = true;
+    private boolean mEndOfStream = false;
+    private boolean mEndSignalled = false;
+    private boolean mClosed = false;
+    private boolean mPumping = false;
+
+    /**
+     * @param host as in a URL, IPv6 addresses in brackets
+     */
+    NioConnection(EventLoop loop, String host, int port, boolean tls, Listener listener) throws IOException {
+        mLoop = loop;
+        mHost = host.startsWith("[") && host.endsWith("]") ? host.substring(1, host.length() - 1) : host;
+        mPort = port;
+        mListener = listener;
+        mEngine = tls ? createEngine(mHost, port) : null;
+    }
+
+    private static SSLEngine createEngine(String host, int port) throws IOException {
+        SSLEngine engine;
+        try {
+            engine = SSLContext.getDefault().createSSLEngine(host, port);
+        } catch (NoSuchAlgorithmException e) {
+            throw new SSLException(e);
+        }
+        engine.setUseClientMode(true);
+        // Unlike HttpsURLConnection, an engine checks the certificate against the host only if asked
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        engine.setSSLParameters(parameters);
+        return engine;
+    }
+
+    String getHost() {
+        return mHost;
+    }
+
+    /**
+     * Resolves the host, then connects and handshakes on the loop. May be called from any thread.
+     *
+     * @param timeoutMs for all of it, failing with a {@link StallException} once elapsed, 0 for none
+     */
+    void connect(long timeoutMs) {
+        mConnectStartNanos = System.nanoTime();
+        if (timeoutMs > 0) {
+            scheduleConnectTimeout(timeoutMs);
+        }
+
+        HttpTransport.get().resolve(mHost, (address, error) -> post(() -> {
+            if (mClosed) {
+                return;
+            }
+            if (error != null) {
+                fail(error);
+                return;
+            }
+            try {
+                startConnect(address);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }));
+    }
+
+    private void scheduleConnectTimeout(long timeoutMs) {
+        try {
+            ScheduledFuture<?> timeout = GenerationExecutors.get().timer().schedule(() -> post(() -> {
+                if (!mConnected) {
+                    fail(new StallException(mHost, StallException.Phase.CONNECT, timeoutMs));
+                }
+            }), timeoutMs, TimeUnit.MILLISECONDS);
+            post(() -> {
+                if (mConnected || mClosed) {
+                    timeout.cancel(false);
+                }
+                else {
+                    mConnectTimeout = timeout;
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+            // Shutting down, the loop aborts the connection
+        }
+    }
+
+    private void startConnect(InetAddress address) throws IOException {
+        mChannel = SocketChannel.open();
+        mChannel.configureBlocking(false);
+        mChannel.socket().setTcpNoDelay(true);
+        boolean connected = mChannel.connect(new InetSocketAddress(address, mPort));
+        mKey = mLoop.register(mChannel, connected ? 0 : SelectionKey.OP_CONNECT, this);
+        if (connected) {
+            onSocketConnected();
+        }
+    }
+
+    private void onSocketConnected() throws IOException {
+        mSocketConnected = true;
+        if (mEngine == null) {
+            mAppIn = ByteBuffer.allocate(PLAIN_BUFFER_SIZE);
+            onConnected();
+        }
+        else {
+            mNetIn = ByteBuffer.allocate(mEngine.getSession().getPacketBufferSize());
+            mNetOut = ByteBuffer.allocate(mEngine.getSession().getPacketBufferSize());
+            mAppIn = ByteBuffer.allocate(mEngine.getSession().getApplicationBufferSize());
+            mEngine.beginHandshake();
+        }
+        pump();
+    }
+
+    private void onConnected() throws IOException {
+        mConnected = true;
+        mConnectMs = (System.nanoTime() - mConnectStartNanos) / 1_000_000;
+        if (mConnectTimeout != null) {
+            mConnectTimeout.cancel(false);
+            mConnectTimeout = null;
+        }
+        mListener.onConnected();
+    }
+
+    /**
+     * How long connecting and the handshake took, -1 if not connected yet.
+     */
+    long getConnectMs() {
+        return mConnectMs;
+    }
+
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    boolean isOpen() {
+        return !mClosed && !mEndOfStream;
+    }
+
+    /**
+     * Queues {@code data} to be sent once connected. The buffer must not be changed afterwards.
+     */
+    void write(ByteBuffer data) {
+        mWrites.add(data);
+        if (mSocketConnected) {
+            pumpSafely();
+        }
+    }
+
+    /**
+     * Stops or resumes reading from the socket.
+     */
+    void setReading(boolean reading) {
+        if (mReading == reading) {
+            return;
+        }
+        mReading = reading;
+        if (mSocketConnected) {
+            pumpSafely();
+        }
+    }
+
+    @Override
+    public void onReady(SelectionKey key) throws IOException {
+        if (!mSocketConnected) {
+            if (key.isConnectable() && mChannel.finishConnect()) {
+                onSocketConnected();
+            }
+            return;
+        }
+        pump();
+    }
+
+    @Override
+    public void abort(IOException e) {
+        fail(e);
+    }
+
+    /**
+     * Closes the socket without telling the listener.
+     */
+    void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+
+        if (mConnectTimeout != null) {
+            mConnectTimeout.cancel(false);
+        }
+        if (mKey != null) {
+            mKey.cancel();
+        }
+        if (mChannel == null) {
+            return;
+        }
+
+        try {
+            if (mEngine != null && mConnected) {
+                // Best effort, the socket is closed right after
+                mEngine.closeOutbound();
+                mNetOut.clear();
+                mEngine.wrap(EMPTY, mNetOut);
+                mNetOut.flip();
+                mChannel.write(mNetOut);
+            }
+        } catch (IOException ignored) {
+        }
+        try {
+            mChannel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void fail(IOException e) {
+        if (mClosed) {
+            return;
+        }
+        close();
+        mListener.onFailure(e);
+    }
+
+    private void post(Runnable task) {
+        try {
+            mLoop.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Nothing else runs for this connection anymore
+            fail(new IOException("Event loop is shut down", e));
+        }
+    }
+
+    private void pumpSafely() {
+        try {
+            pump();
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            fail(new IOException(e));
+        }
+    }
+
+    /**
+     * Moves bytes between the socket, the engine and the listener until nothing is left to do
+     * without waiting for the socket.
+     */
+    private void pump() throws IOException {
+        if (mPumping) {
+            // Called back from the listener, the running pump takes the change into account
+            return;
+        }
+
+        mPumping = true;
+        try {
+            for (int i = 0; i < MAX_STEPS; i++) {
+                if (mClosed || !step()) {
+                    if (!mClosed) {
+                        updateInterest();
+                    }
+                    return;
+                }
+            }
+        } finally {
+            mPumping = false;
+        }
+        // Buffered bytes might not wake the selector up again
+        post(this::pumpSafely);
+        updateInterest();
+    }
+
+    /**
+     * @return whether anything moved
+     */
+    private boolean step() throws IOException {
+        boolean progress = flush();
+        if (mEngine == null) {
+            return readPlain() || progress;
+        }
+
+        switch (mEngine.getHandshakeStatus()) {
+            case NEED_TASK:
+                Runnable task;
+                while ((task = mEngine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+                return true;
+            case NEED_WRAP:
+                progress |= wrap(EMPTY);
+                break;
+            case NEED_UNWRAP:
+                progress |= unwrap() || readNet();
+                break;
+            default:
+                if (!mConnected) {
+                    onConnected();
+                    return true;
+                }
+                ByteBuffer write = mWrites.peek();
+                if (write != null) {
+                    progress |= wrap(write);
+                    if (!write.hasRemaining()) {
+                        mWrites.poll();
+                    }
+                }
+                if (mReading) {
+                    progress |= deliver() || unwrap() || readNet();
+                }
+                break;
+        }
+
+        if (!progress && mConnected && mReading) {
+            signalEnd();
+        }
+        return progress;
+    }
+
+    private boolean flush() throws IOException {
+        if (mEngine == null) {
+            boolean progress = false;
+            ByteBuffer write;
+            while ((write = mWrites.peek()) != null) {
+                progress |= mChannel.write(write) > 0;
+                if (write.hasRemaining()) {
+                    break;
+                }
+                mWrites.poll();
+            }
+            return progress;
+        }
+
+        if (mNetOut.position() == 0) {
+            return false;
+        }
+        mNetOut.flip();
+        int written;
+        try {
+            written = mChannel.write(mNetOut);
+        } finally {
+            mNetOut.compact();
+        }
+        return written > 0;
+    }
+
+    private boolean readPlain() throws IOException {
+        if (!mReading || mEndOfStream) {
+            return false;
+        }
+
+        int read = mChannel.read(mAppIn);
+        if (read < 0) {
+            mEndOfStream = true;
+            signalEnd();
+            return false;
+        }
+        return read > 0 && deliver();
+    }
+
+    /**
+     * Reads encrypted bytes for the engine.
+     */
+    private boolean readNet() throws IOException {
+        if (mEndOfStream) {
+            return false;
+        }
+
+        int read = mChannel.read(mNetIn);
+        if (read < 0) {
+            mEndOfStream = true;
+            if (!mConnected) {
+                throw new EOFException("Connection closed during the TLS handshake with " + mHost);
+            }
+            try {
+                mEngine.closeInbound();
+            } catch (SSLException ignored) {
+                // No close_notify, whether the response is complete is up to its framing
+            }
+            return true;
+        }
+        return read > 0;
+    }
+
+    private boolean unwrap() throws IOException {
+        if (mNetIn.position() == 0 || mEngine.isInboundDone()) {
+            return false;
+        }
+
+        mNetIn.flip();
+        SSLEngineResult result;
+        try {
+            result = mEngine.unwrap(mNetIn, mAppIn);
+        } finally {
+            mNetIn.compact();
+        }
+
+        switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                mAppIn = grow(mAppIn, mEngine.getSession().getApplicationBufferSize());
+                return true;
+            case BUFFER_UNDERFLOW:
+                // Waits for the rest of the record, unless it cannot fit
+                if (mNetIn.hasRemaining()) {
+                    return false;
+                }
+                mNetIn = grow(mNetIn, mEngine.getSession().getPacketBufferSize());
+                return true;
+            case CLOSED:
+                // close_notify from the server
+                mEndOfStream = true;
+                return true;
+            default:
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+        }
+    }
+
+    private boolean wrap(ByteBuffer source) throws IOException {
+        SSLEngineResult result = mEngine.wrap(source, mNetOut);
+        switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                if (mNetOut.position() > 0) {
+                    // Waits for the socket to take what was wrapped before
+                    return false;
+                }
+                mNetOut = grow(mNetOut, mEngine.getSession().getPacketBufferSize());
+                return true;
+            case CLOSED:
+                if (result.bytesProduced() == 0 && source.hasRemaining()) {
+                    throw new SSLException("Connection to " + mHost + " was closed");
+                }
+                return result.bytesProduced() > 0;
+            default:
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+        }
+    }
+
+    private boolean deliver() throws IOException {
+        if (mAppIn.position() == 0) {
+            return false;
+        }
+        mAppIn.flip();
+        try {
+            mListener.onData(mAppIn);
+        } finally {
+            mAppIn.clear();
+        }
+        return true;
+    }
+
+    private void signalEnd() throws IOException {
+        if (mEndOfStream && !mEndSignalled && !mClosed) {
+            mEndSignalled = true;
+            mListener.onEndOfStream();
+        }
+    }
+
+    private void updateInterest() {
+        int ops = 0;
+        boolean writing = mEngine == null ? !mWrites.isEmpty() : mNetOut.position() > 0;
+        if (writing) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        if (!mEndOfStream && (mReading || !mConnected)) {
+            ops |= SelectionKey.OP_READ;
+        }
+        mKey.interestOps(ops);
+    }
+
+    /**
+     * @return a copy of {@code buffer}, being filled, with room for {@code extra} more bytes
+     */
+    private static ByteBuffer grow(ByteBuffer buffer, int extra) {
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + extra));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+}
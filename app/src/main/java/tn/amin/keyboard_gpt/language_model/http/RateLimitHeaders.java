@@ -0,0 +1,188 @@
+package tn.amin.keyboard_gpt.language_model.http;
+
+import java.net.HttpURLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the rate limits of a provider, and when it is willing to take requests again, from the
+ * headers of its response. Besides the standard {@code Retry-After}, OpenAI-compatible APIs send
+ * {@code x-ratelimit-*} counts, {@code retry-after-ms} and reset durations, and Anthropic sends
+ * {@code anthropic-ratelimit-*} counts and reset timestamps.
+ */
+public class RateLimitHeaders {
+    private static final String[] RESET_DURATION_HEADERS = {
+            "x-ratelimit-reset-requests",
+            "x-ratelimit-reset-tokens",
+    };
+
+    private static final String[] RESET_TIMESTAMP_HEADERS = {
+            "anthropic-ratelimit-requests-reset",
+            "anthropic-ratelimit-tokens-reset",
+            "anthropic-ratelimit-input-tokens-reset",
+            "anthropic-ratelimit-output-tokens-reset",
+    };
+
+    /**
+     * Request and token limits as announced by the provider, -1 where it did not say.
+     */
+    public static class Limits {
+        public final long requestLimit;
+        public final long requestsRemaining;
+        public final long tokenLimit;
+        public final long tokensRemaining;
+
+        Limits(long requestLimit, long requestsRemaining, long tokenLimit, long tokensRemaining) {
+            this.requestLimit = requestLimit;
+            this.requestsRemaining = requestsRemaining;
+            this.tokenLimit = tokenLimit;
+            this.tokensRemaining = tokensRemaining;
+        }
+
+        public boolean isEmpty() {
+            return requestLimit < 0 && requestsRemaining < 0 && tokenLimit < 0 && tokensRemaining < 0;
+        }
+    }
+
+    // Durations like "1s", "6m0s" or "20ms"
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+
+    public static Limits getLimits(HttpURLConnection con) {
+        return getLimits(con::getHeaderField);
+    }
+
+    /**
+     * @param headers case-insensitive, as handed out by {@link HttpCall}
+     */
+    public static Limits getLimits(Map<String, String> headers) {
+        return getLimits(headers::get);
+    }
+
+    private static Limits getLimits(Function<String, String> headers) {
+        return new Limits(
+                getLong(headers, "x-ratelimit-limit-requests", "anthropic-ratelimit-requests-limit"),
+                getLong(headers, "x-ratelimit-remaining-requests", "anthropic-ratelimit-requests-remaining"),
+                getLong(headers, "x-ratelimit-limit-tokens", "anthropic-ratelimit-tokens-limit"),
+                getLong(headers, "x-ratelimit-remaining-tokens", "anthropic-ratelimit-tokens-remaining"));
+    }
+
+    private static long getLong(Function<String, String> headers, String... names) {
+        for (String name: names) {
+            String value = headers.apply(name);
+            if (value != null) {
+                try {
+                    return Long.parseLong(value.trim());
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return how long to wait before retrying, or -1 if the response does not say
+     */
+    public static long getRetryAfterMs(HttpURLConnection con) {
+        return getRetryAfterMs(con::getHeaderField);
+    }
+
+    /**
+     * @param headers case-insensitive, as handed out by {@link HttpCall}
+     */
+    public static long getRetryAfterMs(Map<String, String> headers) {
+        return getRetryAfterMs(headers::get);
+    }
+
+    private static long getRetryAfterMs(Function<String, String> headers) {
+        long now = System.currentTimeMillis();
+
+        String retryAfterMs = headers.apply("retry-after-ms");
+        if (retryAfterMs != null) {
+            try {
+                return Math.max(0, (long) Double.parseDouble(retryAfterMs.trim()));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+
+        String retryAfter = headers.apply("Retry-After");
+        if (retryAfter != null) {
+            long delayMs = parseRetryAfter(retryAfter.trim(), now);
+            if (delayMs >= 0) {
+                return delayMs;
+            }
+        }
+
+        // Without an explicit hint, wait for the latest limit to reset
+        long resetMs = -1;
+        for (String header: RESET_DURATION_HEADERS) {
+            String value = headers.apply(header);
+            if (value != null) {
+                resetMs = Math.max(resetMs, parseDuration(value.trim()));
+            }
+        }
+        for (String header: RESET_TIMESTAMP_HEADERS) {
+            String value = headers.apply(header);
+            if (value != null) {
+                long resetAt = parseTimestamp(value.trim(), "yyyy-MM-dd'T'HH:mm:ssXXX");
+                if (resetAt > 0) {
+                    resetMs = Math.max(resetMs, Math.max(0, resetAt - now));
+                }
+            }
+        }
+        return resetMs;
+    }
+
+    /**
+     * Parses either a number of seconds or an HTTP date.
+     */
+    static long parseRetryAfter(String value, long now) {
+        try {
+            return Math.max(0, (long) (Double.parseDouble(value) * 1000));
+        } catch (NumberFormatException ignored) {
+        }
+
+        long retryAt = parseTimestamp(value, "EEE, dd MMM yyyy HH:mm:ss zzz");
+        return retryAt > 0 ? Math.max(0, retryAt - now) : -1;
+    }
+
+    static long parseDuration(String value) {
+        Matcher matcher = DURATION_PART.matcher(value);
+        double totalMs = 0;
+        boolean found = false;
+        while (matcher.find()) {
+            found = true;
+            double amount = Double.parseDouble(matcher.group(1));
+            switch (matcher.group(2)) {
+                case "h":
+                    totalMs += amount * 60 * 60 * 1000;
+                    break;
+                case "m":
+                    totalMs += amount * 60 * 1000;
+                    break;
+                case "s":
+                    totalMs += amount * 1000;
+                    break;
+                default:
+                    totalMs += amount;
+                    break;
+            }
+        }
+        return found ? (long) totalMs : -1;
+    }
+
+    private static long parseTimestamp(String value, String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(value).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
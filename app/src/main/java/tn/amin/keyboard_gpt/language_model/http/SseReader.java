@@ -0,0 +1,236 @@
+package tn.amin.keyboard_gpt.language_model.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Pull parser for text/event-stream bodies working directly on bytes. Only {@code data} fields are
+ * kept; other fields and comments are skipped. Buffers are reused across events, so reading a
+ * stream does not allocate per line. Event data is handed out as raw UTF-8, which means multi-byte
+ * characters split across network reads are only decoded once the whole event is available.
+ * Without an InputStream, bytes are pushed in with {@link #feed(ByteBuffer)} as they arrive and
+ * {@link #next()} returns {@link #NEEDS_INPUT} when they end within an event.
+ */
+public class SseReader {
+    /**
+     * Returned by {@link #next()} when the bytes fed so far end before the next event does.
+     */
+    public static final int NEEDS_INPUT = -2;
+
+    private static final byte[] DATA_FIELD = { 'd', 'a', 't', 'a' };
+
+    // Null when bytes are fed
+    private final InputStream mInputStream;
+
+    private byte[] mBuffer = new byte[8192];
+    private int mPosition = 0;
+    private int mLimit = 0;
+    private boolean mSkipLineFeed = false;
+    private boolean mEndOfStream = false;
+
+    private byte[] mData = new byte[1024];
+    private int mDataLength = 0;
+    // Kept across calls that return NEEDS_INPUT in the middle of an event
+    private boolean mHasData = false;
+    private boolean mEventReturned = false;
+
+    public SseReader(InputStream inputStream) {
+        mInputStream = inputStream;
+    }
+
+    /**
+     * Reads bytes handed to {@link #feed(ByteBuffer)} instead of a stream.
+     */
+    public SseReader() {
+        this(null);
+    }
+
+    /**
+     * Appends the remaining bytes of {@code source} to what is left to parse.
+     */
+    public void feed(ByteBuffer source) {
+        int length = source.remaining();
+        makeRoom(length);
+        source.get(mBuffer, mLimit, length);
+        mLimit += length;
+    }
+
+    /**
+     * Marks the end of the fed bytes, a last event without a blank line after it is then returned.
+     */
+    public void endOfStream() {
+        mEndOfStream = true;
+    }
+
+    /**
+     * Reads up to the end of the next event that carries data.
+     *
+     * @return the length of the event data available through {@link #getData()}, -1 at end of
+     * stream, or {@link #NEEDS_INPUT} if more bytes must be fed first
+     */
+    public int next() throws IOException {
+        if (mEventReturned) {
+            mEventReturned = false;
+            mDataLength = 0;
+            mHasData = false;
+        }
+
+        while (true) {
+            int lineEnd = findLineEnd();
+            if (lineEnd < 0) {
+                if (fill()) {
+                    continue;
+                }
+                if (!mEndOfStream) {
+                    return NEEDS_INPUT;
+                }
+                // Last line without terminator
+                if (mPosition == mLimit) {
+                    return mHasData ? returnEvent() : -1;
+                }
+                lineEnd = mLimit;
+            }
+
+            int lineStart = mPosition;
+            mPosition = lineEnd;
+            consumeLineTerminator();
+
+            if (lineEnd == lineStart) {
+                if (mHasData) {
+                    return returnEvent();
+                }
+                continue;
+            }
+
+            if (isDataField(lineStart, lineEnd)) {
+                int valueStart = lineStart + DATA_FIELD.length + 1;
+                if (valueStart < lineEnd && mBuffer[valueStart] == ' ') {
+                    valueStart++;
+                }
+                if (mHasData) {
+                    appendData((byte) '\n');
+                }
+                appendData(mBuffer, valueStart, lineEnd - valueStart);
+                mHasData = true;
+            }
+        }
+    }
+
+    private int returnEvent() {
+        mEventReturned = true;
+        return mDataLength;
+    }
+
+    /**
+     * Data of the last event returned by {@link #next()}. Overwritten by the following call.
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    private int findLineEnd() {
+        if (mSkipLineFeed && mPosition < mLimit) {
+            mSkipLineFeed = false;
+            if (mBuffer[mPosition] == '\n') {
+                mPosition++;
+            }
+        }
+
+        for (int i = mPosition; i < mLimit; i++) {
+            byte b = mBuffer[i];
+            if (b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void consumeLineTerminator() {
+        if (mPosition >= mLimit) {
+            return;
+        }
+
+        byte terminator = mBuffer[mPosition++];
+        if (terminator == '\r') {
+            if (mPosition < mLimit) {
+                if (mBuffer[mPosition] == '\n') {
+                    mPosition++;
+                }
+            }
+            else {
+                mSkipLineFeed = true;
+            }
+        }
+    }
+
+    private boolean isDataField(int start, int end) {
+        if (end - start < DATA_FIELD.length + 1 || mBuffer[start + DATA_FIELD.length] != ':') {
+            return false;
+        }
+        for (int i = 0; i < DATA_FIELD.length; i++) {
+            if (mBuffer[start + i] != DATA_FIELD[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads more bytes after the unread ones.
+     *
+     * @return false if the stream ended, or if bytes are fed instead
+     */
+    private boolean fill() throws IOException {
+        if (mEndOfStream || mInputStream == null) {
+            return false;
+        }
+
+        makeRoom(1);
+        int read = mInputStream.read(mBuffer, mLimit, mBuffer.length - mLimit);
+        if (read < 0) {
+            mEndOfStream = true;
+            return false;
+        }
+        mLimit += read;
+        return true;
+    }
+
+    /**
+     * Moves unread bytes to the front of the buffer, growing it if {@code extra} bytes do not fit
+     * after them.
+     */
+    private void makeRoom(int extra) {
+        int remaining = mLimit - mPosition;
+        if (mPosition > 0) {
+            System.arraycopy(mBuffer, mPosition, mBuffer, 0, remaining);
+            mPosition = 0;
+            mLimit = remaining;
+        }
+        if (mLimit + extra > mBuffer.length) {
+            byte[] buffer = new byte[Math.max(mBuffer.length * 2, mLimit + extra)];
+            System.arraycopy(mBuffer, 0, buffer, 0, mLimit);
+            mBuffer = buffer;
+        }
+    }
+
+    private void appendData(byte b) {
+        ensureDataCapacity(1);
+        mData[mDataLength++] = b;
+    }
+
+    private void appendData(byte[] source, int offset, int length) {
+        ensureDataCapacity(length);
+        System.arraycopy(source, offset, mData, mDataLength, length);
+        mDataLength += length;
+    }
+
+    private void ensureDataCapacity(int extra) {
+        if (mDataLength + extra <= mData.length) {
+            return;
+        }
+        byte[] data = new byte[Math.max(mData.length * 2, mDataLength + extra)];
+        System.arraycopy(mData, 0, data, 0, mDataLength);
+        mData = data;
+    }
+}
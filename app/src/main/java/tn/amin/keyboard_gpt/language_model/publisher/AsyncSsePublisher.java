@@ -0,0 +1,296 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+import tn.amin.keyboard_gpt.language_model.TokenUsage;
+import tn.amin.keyboard_gpt.language_model.TruncatedResponseException;
+import tn.amin.keyboard_gpt.language_model.http.EventLoop;
+import tn.amin.keyboard_gpt.language_model.http.HttpCall;
+import tn.amin.keyboard_gpt.language_model.http.HttpRequest;
+import tn.amin.keyboard_gpt.language_model.http.JsonScanner;
+import tn.amin.keyboard_gpt.language_model.http.SseReader;
+
+/**
+ * Publishes the text carried by each event of a text/event-stream response, like
+ * {@link SsePublisher}, without holding a thread. The request is sent with an {@link HttpCall} on
+ * the first request for text, and the body is fed to an {@link SseReader} on the event loop as
+ * it arrives. When decoded text waits for demand, the call stops reading from the socket so that
+ * TCP flow control slows the provider down. All signals come from the event loop thread.
+ */
+public class AsyncSsePublisher implements Publisher<String> {
+    // Enough for any error message, the rest is skipped
+    private static final int MAX_ERROR_BODY = 64 * 1024;
+
+    private final HttpRequest mRequest;
+    private final ResponseHandler mHandler;
+    private final SsePublisher.EventDecoder mDecoder;
+
+    public interface ResponseHandler {
+        /**
+         * Called on every response, before its body is read.
+         */
+        void onHeaders(int statusCode, Map<String, String> headers);
+
+        /**
+         * @param body of a response with a status other than 200
+         * @return what the stream fails with
+         */
+        IOException toError(int statusCode, Map<String, String> headers, String body);
+    }
+
+    public AsyncSsePublisher(HttpRequest request, ResponseHandler handler, SsePublisher.EventDecoder decoder) {
+        mRequest = request;
+        mHandler = handler;
+        mDecoder = decoder;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super String> subscriber) {
+        StreamSubscription subscription = new StreamSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.onSubscribed();
+    }
+
+    private class StreamSubscription implements Subscription, HttpCall.Listener {
+        private final Subscriber<? super String> mSubscriber;
+        private final Demand mDemand = new Demand();
+        private final AtomicBoolean mStarted = new AtomicBoolean(false);
+        private final AtomicBoolean mTerminated = new AtomicBoolean(false);
+        private volatile boolean mCancelled = false;
+        private volatile EventLoop mLoop = null;
+        private volatile HttpCall mCall = null;
+        // Set once onSubscribe returned, before which nothing may be emitted (rule 1.3)
+        private volatile boolean mSubscribed = false;
+
+        // Only used on the loop thread
+        private final SseReader mReader = new SseReader();
+        private final JsonScanner mScanner = new JsonScanner();
+        private final TokenUsage mUsage = new TokenUsage();
+        private int mStatusCode = 0;
+        private Map<String, String> mHeaders = null;
+        private ByteArrayOutputStream mErrorBody = null;
+        // Decoded text waiting for demand
+        private String mPending = null;
+        private TruncatedResponseException mTruncated = null;
+
+        StreamSubscription(Subscriber<? super String> subscriber) {
+            mSubscriber = subscriber;
+        }
+
+        void onSubscribed() {
+            mSubscribed = true;
+            if (mDemand.get() > 0) {
+                start();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (mCancelled) {
+                return;
+            }
+            if (!mDemand.add(n)) {
+                cancel();
+                EventLoop loop = mLoop;
+                if (loop == null || !post(loop, () -> terminate(Demand.invalid(n)))) {
+                    // Nothing runs on the loop for this stream
+                    terminate(Demand.invalid(n));
+                }
+                return;
+            }
+
+            if (!mSubscribed) {
+                return;
+            }
+            EventLoop loop = mLoop;
+            if (loop != null) {
+                post(loop, this::drain);
+            }
+            else {
+                start();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+            HttpCall call = mCall;
+            if (call != null) {
+                call.cancel();
+            }
+        }
+
+        private void start() {
+            if (mCancelled || !mStarted.compareAndSet(false, true)) {
+                return;
+            }
+
+            EventLoop loop = GenerationExecutors.get().network();
+            HttpCall call = new HttpCall(loop, mRequest, this);
+            mLoop = loop;
+            mCall = call;
+            if (mCancelled) {
+                return;
+            }
+
+            try {
+                call.start();
+            } catch (RejectedExecutionException e) {
+                mCancelled = true;
+                terminate(e);
+            }
+        }
+
+        /**
+         * @return false if the loop is shut down, which also aborted the call
+         */
+        private boolean post(EventLoop loop, Runnable task) {
+            try {
+                loop.execute(task);
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Passes on decoded text as long as there is demand, reading events from what was received
+         * so far. The socket is only read while the next event is needed.
+         */
+        private void drain() {
+            while (!mCancelled && !mTerminated.get()) {
+                if (mPending != null) {
+                    if (!mDemand.take()) {
+                        mCall.pause();
+                        return;
+                    }
+                    String text = mPending;
+                    mPending = null;
+                    mSubscriber.onNext(text);
+                    continue;
+                }
+
+                int length;
+                try {
+                    length = mReader.next();
+                    if (length >= 0) {
+                        decode(length);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    mCall.cancel();
+                    finish(e);
+                    return;
+                }
+
+                if (length == SseReader.NEEDS_INPUT) {
+                    mCall.resume();
+                    return;
+                }
+                if (length < 0) {
+                    finish(mTruncated);
+                    return;
+                }
+            }
+        }
+
+        private void decode(int length) throws IOException {
+            mScanner.reset(mReader.getData(), 0, length);
+            if (mScanner.startsWith(SsePublisher.DONE)) {
+                return;
+            }
+
+            String text = mDecoder.decode(mScanner);
+            if (text != null && !text.isEmpty()) {
+                mPending = text;
+            }
+
+            mDecoder.readUsage(mScanner, mUsage);
+            String truncationReason = mDecoder.getTruncationReason(mScanner);
+            if (truncationReason != null) {
+                // Reported once the body was read to the end, so the connection can be reused
+                mTruncated = new TruncatedResponseException(truncationReason);
+            }
+        }
+
+        @Override
+        public void onResponse(int statusCode, Map<String, String> headers) {
+            mStatusCode = statusCode;
+            mHeaders = headers;
+            mHandler.onHeaders(statusCode, headers);
+            if (statusCode != 200) {
+                mErrorBody = new ByteArrayOutputStream();
+            }
+        }
+
+        @Override
+        public void onBody(ByteBuffer body) {
+            if (mErrorBody == null) {
+                mReader.feed(body);
+                drain();
+                return;
+            }
+
+            byte[] bytes = new byte[Math.min(body.remaining(), MAX_ERROR_BODY - mErrorBody.size())];
+            body.get(bytes);
+            mErrorBody.write(bytes, 0, bytes.length);
+            body.position(body.limit());
+        }
+
+        @Override
+        public void onComplete() {
+            if (mErrorBody != null) {
+                String body = new String(mErrorBody.toByteArray(), StandardCharsets.UTF_8);
+                finish(mHandler.toError(mStatusCode, mHeaders, body));
+                return;
+            }
+            mReader.endOfStream();
+            drain();
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            finish(e);
+        }
+
+        /**
+         * Reports the token usage, then ends the stream unless it was cancelled.
+         *
+         * @param error null to complete
+         */
+        private void finish(Throwable error) {
+            if (mCancelled || mTerminated.get()) {
+                return;
+            }
+
+            // Tokens reported before a failure were consumed all the same
+            if (!mUsage.isEmpty() && mSubscriber instanceof TokenUsage.Listener) {
+                ((TokenUsage.Listener) mSubscriber).onUsage(mUsage);
+            }
+            terminate(error);
+        }
+
+        private void terminate(Throwable error) {
+            if (!mTerminated.compareAndSet(false, true)) {
+                return;
+            }
+
+            if (error != null) {
+                mSubscriber.onError(error);
+            }
+            else {
+                mSubscriber.onComplete();
+            }
+        }
+    }
+}
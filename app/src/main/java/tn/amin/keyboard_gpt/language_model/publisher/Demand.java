@@ -0,0 +1,62 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Items a subscriber requested and was not sent yet. Requests add up, and reaching
+ * {@link Long#MAX_VALUE} means the demand is unbounded from then on (rule 3.17).
+ */
+public class Demand {
+    private final AtomicLong mOutstanding = new AtomicLong();
+
+    /**
+     * @return false if {@code n} is not positive, in which case the subscription must be cancelled
+     * and the subscriber failed with {@link #invalid} (rule 3.9)
+     */
+    public boolean add(long n) {
+        if (n <= 0) {
+            return false;
+        }
+
+        long current;
+        long next;
+        do {
+            current = mOutstanding.get();
+            if (current == Long.MAX_VALUE) {
+                return true;
+            }
+            next = current + n;
+            if (next < 0) {
+                next = Long.MAX_VALUE;
+            }
+        } while (!mOutstanding.compareAndSet(current, next));
+        return true;
+    }
+
+    /**
+     * Accounts for one item about to be sent.
+     *
+     * @return false if none was requested
+     */
+    public boolean take() {
+        long current;
+        do {
+            current = mOutstanding.get();
+            if (current == Long.MAX_VALUE) {
+                return true;
+            }
+            if (current == 0) {
+                return false;
+            }
+        } while (!mOutstanding.compareAndSet(current, current - 1));
+        return true;
+    }
+
+    public long get() {
+        return mOutstanding.get();
+    }
+
+    public static IllegalArgumentException invalid(long n) {
+        return new IllegalArgumentException("Requested " + n + " items, demand must be positive (rule 3.9)");
+    }
+}
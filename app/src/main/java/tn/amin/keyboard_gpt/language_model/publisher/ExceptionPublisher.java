@@ -2,8 +2,23 @@ package tn.amin.keyboard_gpt.language_model.publisher;
 
 import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 
+/**
+ * Fails every subscriber with the same error, without waiting for demand (rule 1.4).
+ */
 public class ExceptionPublisher implements Publisher<String> {
+    private static final Subscription NO_OP_SUBSCRIPTION = new Subscription() {
+        @Override
+        public void request(long n) {
+            // Already terminated, requests are ignored (rule 3.6)
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
     private final Throwable mThrowable;
 
     public ExceptionPublisher(Throwable throwable) {
@@ -12,7 +27,7 @@ public class ExceptionPublisher implements Publisher<String> {
 
     @Override
     public void subscribe(Subscriber<? super String> s) {
+        s.onSubscribe(NO_OP_SUBSCRIPTION);
         s.onError(mThrowable);
-        s.onComplete();
     }
 }
@@ -0,0 +1,112 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Supplier;
+
+import tn.amin.keyboard_gpt.MainHook;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+
+/**
+ * Tries sources in order, moving on to the next one when a source fails before emitting anything.
+ * Once a source has emitted, its result is final. When every source failed, the last error is
+ * passed on.
+ */
+public class FailoverPublisher implements Publisher<String> {
+    private final List<Supplier<Publisher<String>>> mSources;
+
+    /**
+     * @param sources each submits the request to one source; must not block
+     */
+    public FailoverPublisher(List<Supplier<Publisher<String>>> sources) {
+        mSources = sources;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super String> subscriber) {
+        Chain chain = new Chain(subscriber);
+        subscriber.onSubscribe(chain);
+        chain.next(null);
+    }
+
+    private class Chain extends SubscriptionArbiter {
+        private final Subscriber<? super String> mDownstream;
+        private int mIndex = 0;
+
+        Chain(Subscriber<? super String> downstream) {
+            super(downstream);
+            mDownstream = downstream;
+        }
+
+        void next(Throwable lastError) {
+            if (isCancelled()) {
+                return;
+            }
+
+            if (mIndex >= mSources.size()) {
+                mDownstream.onError(lastError != null ? lastError : new IOException("No language model available"));
+                return;
+            }
+
+            if (lastError != null) {
+                Metrics.counter("failover.attempts").inc();
+                MainHook.log("Failing over after: " + lastError.getMessage());
+            }
+
+            mSources.get(mIndex++).get().subscribe(new Attempt(this));
+        }
+    }
+
+    private static class Attempt implements Subscriber<String> {
+        private final Chain mChain;
+        private boolean mEmitted = false;
+        private boolean mTerminated = false;
+
+        Attempt(Chain chain) {
+            mChain = chain;
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            mChain.setUpstream(s);
+        }
+
+        @Override
+        public void onNext(String s) {
+            if (mTerminated || mChain.isCancelled()) {
+                return;
+            }
+            mEmitted = true;
+            mChain.produced();
+            mChain.mDownstream.onNext(s);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (mTerminated || mChain.isCancelled()) {
+                return;
+            }
+            mTerminated = true;
+
+            if (mEmitted) {
+                mChain.mDownstream.onError(t);
+            }
+            else {
+                mChain.next(t);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (mTerminated || mChain.isCancelled()) {
+                return;
+            }
+            mTerminated = true;
+            mChain.mDownstream.onComplete();
+        }
+    }
+}
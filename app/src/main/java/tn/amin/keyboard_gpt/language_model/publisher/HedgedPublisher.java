@@ -0,0 +1,301 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+import tn.amin.keyboard_gpt.MainHook;
+import tn.amin.keyboard_gpt.metrics.Counter;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+
+/**
+ * Sends a request to a primary source and, if it has not produced anything after a delay, the
+ * same request to a secondary source. The first source to emit wins and the other one is
+ * cancelled. A source that fails before emitting anything hands over to the other one, launching
+ * it right away if needed.
+ */
+public class HedgedPublisher implements Publisher<String> {
+    private static final Counter sRequests = Metrics.counter("hedge.requests");
+    private static final Counter sFired = Metrics.counter("hedge.fired");
+    private static final Counter sSecondaryWins = Metrics.counter("hedge.secondary_won");
+
+    private final Supplier<Publisher<String>> mPrimary;
+    private final Supplier<Publisher<String>> mSecondary;
+    private final long mDelayMs;
+
+    /**
+     * @param primary   submits the request to the primary source; must not block
+     * @param secondary submits the request to the secondary source; must not block
+     */
+    public HedgedPublisher(Supplier<Publisher<String>> primary, Supplier<Publisher<String>> secondary,
+                           long delayMs) {
+        mPrimary = primary;
+        mSecondary = secondary;
+        mDelayMs = delayMs;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super String> subscriber) {
+        Race race = new Race(subscriber);
+        subscriber.onSubscribe(race);
+        race.start();
+    }
+
+    private class Race implements Subscription {
+        private final Subscriber<? super String> mDownstream;
+        private final Contender[] mContenders = { new Contender(this, 0), new Contender(this, 1) };
+        private final Demand mDemand = new Demand();
+
+        // Guarded by this
+        private Contender mWinner = null;
+        private boolean mCancelled = false;
+        private boolean mSecondaryLaunched = false;
+        private int mFailed = 0;
+        private ScheduledFuture<?> mHedgeTimer = null;
+
+        Race(Subscriber<? super String> downstream) {
+            mDownstream = downstream;
+        }
+
+        void start() {
+            sRequests.inc();
+            launch(0);
+
+            try {
+                ScheduledFuture<?> timer = GenerationExecutors.get().timer()
+                        .schedule(this::onHedgeDelay, mDelayMs, TimeUnit.MILLISECONDS);
+                synchronized (this) {
+                    mHedgeTimer = timer;
+                }
+            } catch (RejectedExecutionException e) {
+                MainHook.log("Could not schedule hedge: " + e.getMessage());
+            }
+        }
+
+        private void onHedgeDelay() {
+            synchronized (this) {
+                if (mCancelled || mWinner != null || mSecondaryLaunched) {
+                    return;
+                }
+            }
+            MainHook.log("No token after " + mDelayMs + "ms, hedging");
+            sFired.inc();
+            launch(1);
+        }
+
+        private void launch(int index) {
+            synchronized (this) {
+                if (index == 1) {
+                    if (mSecondaryLaunched) {
+                        return;
+                    }
+                    mSecondaryLaunched = true;
+                }
+            }
+
+            Supplier<Publisher<String>> source = index == 0 ? mPrimary : mSecondary;
+            Contender contender = mContenders[index];
+            source.get().subscribe(contender);
+        }
+
+        /**
+         * @return whether {@code contender} is, or has just become, the winner
+         */
+        boolean claim(Contender contender) {
+            Contender loser;
+            synchronized (this) {
+                if (mWinner != null) {
+                    return mWinner == contender;
+                }
+                if (mCancelled) {
+                    return false;
+                }
+                mWinner = contender;
+                loser = mContenders[1 - contender.mIndex];
+                if (mHedgeTimer != null) {
+                    mHedgeTimer.cancel(false);
+                }
+            }
+
+            if (contender.mIndex == 1) {
+                sSecondaryWins.inc();
+                MainHook.log("Hedge won, " + sSecondaryWins.get() + " of " + sFired.get() + " hedges so far");
+            }
+            loser.cancel();
+            return true;
+        }
+
+        void onContenderError(Contender contender, Throwable t) {
+            boolean launchSecondary = false;
+            boolean propagate;
+            synchronized (this) {
+                if (mWinner != null) {
+                    propagate = mWinner == contender;
+                }
+                else {
+                    mFailed++;
+                    if (contender.mIndex == 0 && !mSecondaryLaunched) {
+                        launchSecondary = true;
+                        propagate = false;
+                    }
+                    else {
+                        // Only give up once every launched contender failed
+                        propagate = mFailed == (mSecondaryLaunched ? 2 : 1) && !mCancelled;
+                    }
+                }
+            }
+
+            if (launchSecondary) {
+                MainHook.log("Primary failed before emitting, hedging right away: " + t.getMessage());
+                sFired.inc();
+                launch(1);
+            }
+            else if (propagate) {
+                mDownstream.onError(t);
+            }
+        }
+
+        /**
+         * Passes demand on to the winner, or to every contender still running while there is none.
+         * Only the winner's items reach downstream, so both may be asked for the same items.
+         */
+        @Override
+        public void request(long n) {
+            List<Subscription> upstreams = new ArrayList<>(2);
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+                if (mDemand.add(n)) {
+                    for (Contender contender: mContenders) {
+                        Subscription upstream = contender.getSubscription();
+                        if (upstream != null && !isOver(contender)) {
+                            upstreams.add(upstream);
+                        }
+                    }
+                }
+                else {
+                    upstreams = null;
+                }
+            }
+
+            if (upstreams == null) {
+                cancel();
+                mDownstream.onError(Demand.invalid(n));
+                return;
+            }
+            for (Subscription upstream: upstreams) {
+                upstream.request(n);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+                if (mHedgeTimer != null) {
+                    mHedgeTimer.cancel(false);
+                }
+            }
+            mContenders[0].cancel();
+            mContenders[1].cancel();
+        }
+
+        synchronized boolean isOver(Contender contender) {
+            return mCancelled || (mWinner != null && mWinner != contender);
+        }
+    }
+
+    private static class Contender implements Subscriber<String> {
+        private final Race mRace;
+        private final int mIndex;
+        private Subscription mSubscription = null;
+        private boolean mCancelled = false;
+        // Only touched by the thread delivering this contender's signals
+        private boolean mTerminated = false;
+
+        Contender(Race race, int index) {
+            mRace = race;
+            mIndex = index;
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            boolean over;
+            long outstanding;
+            // Read together with the subscription, so that a concurrent request is counted once
+            synchronized (mRace) {
+                synchronized (this) {
+                    mSubscription = s;
+                }
+                over = mRace.isOver(this);
+                outstanding = mRace.mDemand.get();
+            }
+
+            if (over) {
+                s.cancel();
+            }
+            else if (outstanding > 0) {
+                s.request(outstanding);
+            }
+        }
+
+        synchronized Subscription getSubscription() {
+            return mSubscription;
+        }
+
+        @Override
+        public void onNext(String s) {
+            if (!mTerminated && mRace.claim(this)) {
+                mRace.mDemand.take();
+                mRace.mDownstream.onNext(s);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (mTerminated) {
+                return;
+            }
+            mTerminated = true;
+            mRace.onContenderError(this, t);
+        }
+
+        @Override
+        public void onComplete() {
+            if (mTerminated) {
+                return;
+            }
+            mTerminated = true;
+            // A source that completes without emitting still wins, there is nothing to wait for
+            if (mRace.claim(this)) {
+                mRace.mDownstream.onComplete();
+            }
+        }
+
+        void cancel() {
+            Subscription subscription;
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+                subscription = mSubscription;
+            }
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+    }
+}
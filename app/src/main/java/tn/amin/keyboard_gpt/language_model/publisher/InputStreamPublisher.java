@@ -1,64 +1,32 @@
 package tn.amin.keyboard_gpt.language_model.publisher;
 
-import org.reactivestreams.Publisher;
-import org.reactivestreams.Subscriber;
-import org.reactivestreams.Subscription;
-
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
 import java.util.function.Function;
 
-public class InputStreamPublisher implements Publisher<String> {
-    private final InputStream mInputStream;
+public class InputStreamPublisher extends StreamPublisher {
     private final Function<String, String> mReplace;
-    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
 
     public InputStreamPublisher(InputStream inputStream, Function<String, String> replace) {
-        mInputStream = inputStream;
+        super(inputStream, null);
         mReplace = replace;
     }
 
-    @Override
-    public void subscribe(Subscriber<? super String> subscriber) {
-        Subscription subscription = new Subscription() {
-            private volatile boolean cancelled = false;
-
-            @Override
-            public void request(long n) {
-                if (n <= 0) {
-                    subscriber.onError(new IllegalArgumentException("Demand must be positive"));
-                    return;
-                }
-
-                executor.submit(() -> {
-                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(mInputStream))) {
-                        String line;
-                        while (!cancelled && (line = reader.readLine()) != null) {
-                            subscriber.onNext(mReplace.apply(line));
-                        }
-                        if (!cancelled) {
-                            subscriber.onComplete();
-                        }
-                    } catch (IOException e) {
-                        if (!cancelled) {
-                            subscriber.onError(e);
-                        }
-                    }
-                });
-            }
-
-            @Override
-            public void cancel() {
-                cancelled = true;
-                executor.shutdown();
-            }
-
-        };
+    public InputStreamPublisher(HttpURLConnection connection, Function<String, String> replace) throws IOException {
+        super(connection.getInputStream(), connection);
+        mReplace = replace;
+    }
 
-        subscriber.onSubscribe(subscription);
+    @Override
+    protected void read(InputStream inputStream, Emitter emitter) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        String line;
+        while (!emitter.isCancelled() && (line = reader.readLine()) != null) {
+            emitter.emit(mReplace.apply(line));
+        }
     }
 }
@@ -0,0 +1,270 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Shares one upstream response between any number of subscribers. The upstream is subscribed to
+ * with the first subscriber, and everything it emitted is kept so that later subscribers first get
+ * the prefix they missed. Each subscriber reads through the kept items at its own pace, as far as
+ * its demand goes, and the upstream is asked for as far as the subscriber furthest ahead goes.
+ * Once the last subscriber cancelled, the upstream is cancelled right away and the publisher
+ * finishes, so that the same request sent again starts a fresh response.
+ */
+public class MulticastPublisher implements Publisher<String> {
+    private final Supplier<Publisher<String>> mSource;
+    private final Consumer<MulticastPublisher> mOnFinished;
+
+    // Guarded by this
+    private final List<String> mBuffer = new ArrayList<>();
+    private final List<Member> mMembers = new ArrayList<>();
+    private boolean mConnected = false;
+    private boolean mTerminated = false;
+    private Throwable mError = null;
+    private boolean mCancelled = false;
+    private Subscription mUpstream = null;
+    // Items asked from upstream so far, Long.MAX_VALUE once unbounded
+    private long mUpstreamRequested = 0;
+
+    /**
+     * @param source     submits the request; must not block
+     * @param onFinished called once the shared response completed, failed or was cancelled, after
+     *                   which it should no longer be handed out
+     */
+    public MulticastPublisher(Supplier<Publisher<String>> source, Consumer<MulticastPublisher> onFinished) {
+        mSource = source;
+        mOnFinished = onFinished;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super String> subscriber) {
+        Member member = new Member(subscriber);
+        boolean connect = false;
+        boolean tooLate;
+        synchronized (this) {
+            tooLate = mCancelled;
+            if (!tooLate) {
+                mMembers.add(member);
+                connect = !mConnected;
+                mConnected = true;
+            }
+        }
+
+        if (tooLate) {
+            // The shared upstream is gone, this subscriber gets its own
+            mSource.get().subscribe(subscriber);
+            return;
+        }
+
+        subscriber.onSubscribe(member);
+        synchronized (this) {
+            member.mSubscribed = true;
+        }
+        // A finished upstream completes the member right away, without waiting for demand
+        drain(member);
+        if (connect) {
+            mSource.get().subscribe(new Upstream());
+        }
+    }
+
+    /**
+     * Sends {@code member} the kept items it has demand for, then the terminal signal once it
+     * caught up with a finished upstream. Items are picked under the lock and sent outside it, by a
+     * single thread at a time per member: a call made while another one is sending returns, and
+     * the sending one picks up what it left.
+     */
+    private void drain(Member member) {
+        synchronized (this) {
+            if (!member.mSubscribed || member.mDraining || member.mDone) {
+                return;
+            }
+            member.mDraining = true;
+        }
+
+        while (true) {
+            List<String> items = new ArrayList<>();
+            boolean finish = false;
+            Throwable error;
+            synchronized (this) {
+                while (!member.mDone && member.mIndex < mBuffer.size() && member.mDemand.take()) {
+                    items.add(mBuffer.get(member.mIndex++));
+                }
+                if (!member.mDone && mTerminated && member.mIndex == mBuffer.size()) {
+                    member.mDone = true;
+                    mMembers.remove(member);
+                    finish = true;
+                }
+                error = mError;
+                if (items.isEmpty() && !finish) {
+                    member.mDraining = false;
+                    return;
+                }
+            }
+
+            for (String item: items) {
+                member.mDownstream.onNext(item);
+            }
+            if (finish) {
+                if (error != null) {
+                    member.mDownstream.onError(error);
+                }
+                else {
+                    member.mDownstream.onComplete();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Asks upstream for the items the member furthest ahead has demand for and were not asked for
+     * yet. Called without holding the lock, since upstream may emit right away.
+     */
+    private void requestUpstream() {
+        Subscription upstream;
+        long n;
+        synchronized (this) {
+            upstream = mUpstream;
+            if (upstream == null || mTerminated || mCancelled || mUpstreamRequested == Long.MAX_VALUE) {
+                return;
+            }
+
+            long wanted = 0;
+            for (Member member: mMembers) {
+                long demand = member.mDemand.get();
+                if (demand >= Long.MAX_VALUE - member.mIndex) {
+                    wanted = Long.MAX_VALUE;
+                    break;
+                }
+                wanted = Math.max(wanted, member.mIndex + demand);
+            }
+            if (wanted <= mUpstreamRequested) {
+                return;
+            }
+            n = wanted == Long.MAX_VALUE ? Long.MAX_VALUE : wanted - mUpstreamRequested;
+            mUpstreamRequested = wanted;
+        }
+        upstream.request(n);
+    }
+
+    private void drainAll() {
+        List<Member> members;
+        synchronized (this) {
+            members = new ArrayList<>(mMembers);
+        }
+        for (Member member: members) {
+            drain(member);
+        }
+    }
+
+    private void leave(Member member) {
+        Subscription upstream;
+        synchronized (this) {
+            member.mDone = true;
+            if (!mMembers.remove(member) || !mMembers.isEmpty() || mTerminated || mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            upstream = mUpstream;
+        }
+
+        mOnFinished.accept(this);
+        if (upstream != null) {
+            upstream.cancel();
+        }
+    }
+
+    private class Upstream implements Subscriber<String> {
+        @Override
+        public void onSubscribe(Subscription s) {
+            boolean cancelled;
+            synchronized (MulticastPublisher.this) {
+                mUpstream = s;
+                cancelled = mCancelled;
+            }
+
+            if (cancelled) {
+                s.cancel();
+                return;
+            }
+            // Members may have requested before the upstream was there
+            requestUpstream();
+        }
+
+        @Override
+        public void onNext(String s) {
+            synchronized (MulticastPublisher.this) {
+                if (mTerminated) {
+                    return;
+                }
+                mBuffer.add(s);
+            }
+            drainAll();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            terminate(t);
+        }
+
+        @Override
+        public void onComplete() {
+            terminate(null);
+        }
+
+        private void terminate(Throwable error) {
+            synchronized (MulticastPublisher.this) {
+                if (mTerminated) {
+                    return;
+                }
+                mTerminated = true;
+                mError = error;
+            }
+            drainAll();
+            mOnFinished.accept(MulticastPublisher.this);
+        }
+    }
+
+    private class Member implements Subscription {
+        private final Subscriber<? super String> mDownstream;
+        private final Demand mDemand = new Demand();
+
+        // Guarded by the publisher
+        private int mIndex = 0;
+        private boolean mSubscribed = false;
+        private boolean mDraining = false;
+        private boolean mDone = false;
+
+        Member(Subscriber<? super String> downstream) {
+            mDownstream = downstream;
+        }
+
+        @Override
+        public void request(long n) {
+            if (!mDemand.add(n)) {
+                boolean done;
+                synchronized (MulticastPublisher.this) {
+                    done = mDone;
+                }
+                if (!done) {
+                    leave(this);
+                    mDownstream.onError(Demand.invalid(n));
+                }
+                return;
+            }
+            drain(this);
+            requestUpstream();
+        }
+
+        @Override
+        public void cancel() {
+            leave(this);
+        }
+    }
+}
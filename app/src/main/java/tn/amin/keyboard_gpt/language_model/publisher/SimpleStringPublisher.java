@@ -2,7 +2,13 @@ package tn.amin.keyboard_gpt.language_model.publisher;
 
 import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Publishes a single string, then completes. Nothing is sent before it is requested.
+ */
 public class SimpleStringPublisher implements Publisher<String> {
     private final String mString;
 
@@ -10,10 +16,36 @@ public class SimpleStringPublisher implements Publisher<String> {
         mString = string;
     }
 
-
     @Override
     public void subscribe(Subscriber<? super String> s) {
-        s.onNext(mString);
-        s.onComplete();
+        s.onSubscribe(new SingleSubscription(s));
+    }
+
+    private class SingleSubscription implements Subscription {
+        private final Subscriber<? super String> mSubscriber;
+        private final AtomicBoolean mDone = new AtomicBoolean(false);
+
+        SingleSubscription(Subscriber<? super String> subscriber) {
+            mSubscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (!mDone.compareAndSet(false, true)) {
+                return;
+            }
+
+            if (n <= 0) {
+                mSubscriber.onError(Demand.invalid(n));
+                return;
+            }
+            mSubscriber.onNext(mString);
+            mSubscriber.onComplete();
+        }
+
+        @Override
+        public void cancel() {
+            mDone.set(true);
+        }
     }
 }
@@ -0,0 +1,89 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+import tn.amin.keyboard_gpt.language_model.TokenUsage;
+import tn.amin.keyboard_gpt.language_model.TruncatedResponseException;
+import tn.amin.keyboard_gpt.language_model.http.JsonScanner;
+import tn.amin.keyboard_gpt.language_model.http.SseReader;
+
+/**
+ * Publishes the text carried by each event of a text/event-stream response.
+ */
+public class SsePublisher extends StreamPublisher {
+    static final byte[] DONE = { '[', 'D', 'O', 'N', 'E', ']' };
+
+    private final EventDecoder mDecoder;
+
+    /**
+     * @param connection set up but not connected yet, {@code exchange} sends the request on it once
+     *                   the stream is subscribed to and asked for text
+     */
+    public SsePublisher(HttpURLConnection connection, Exchange exchange, EventDecoder decoder) {
+        super(connection, exchange);
+        mDecoder = decoder;
+    }
+
+    public interface EventDecoder {
+        /**
+         * @param event scanner positioned on the JSON data of one event
+         * @return the text carried by the event, or null if there is none
+         * @throws IOException if the event reports an error
+         */
+        String decode(JsonScanner event) throws IOException;
+
+        /**
+         * Called after {@link #decode(JsonScanner)}, since the last text may arrive along with the
+         * reason the answer ended.
+         *
+         * @return the provider's reason if the event says the answer was cut short, else null
+         */
+        String getTruncationReason(JsonScanner event);
+
+        /**
+         * Takes the token counts the event reports, if any, into {@code usage}.
+         */
+        void readUsage(JsonScanner event, TokenUsage usage);
+    }
+
+    @Override
+    protected void read(InputStream inputStream, Emitter emitter) throws IOException {
+        SseReader reader = new SseReader(inputStream);
+        JsonScanner scanner = new JsonScanner();
+        TruncatedResponseException truncated = null;
+        TokenUsage usage = new TokenUsage();
+        int length;
+        try {
+            while (!emitter.isCancelled() && (length = reader.next()) >= 0) {
+                scanner.reset(reader.getData(), 0, length);
+                if (scanner.startsWith(DONE)) {
+                    // Keep reading so the body is consumed and the connection can be reused
+                    continue;
+                }
+
+                String text = mDecoder.decode(scanner);
+                if (text != null && !text.isEmpty()) {
+                    emitter.emit(text);
+                }
+
+                mDecoder.readUsage(scanner, usage);
+                String truncationReason = mDecoder.getTruncationReason(scanner);
+                if (truncationReason != null) {
+                    // Reported once the body was read to the end, so the connection can be reused
+                    truncated = new TruncatedResponseException(truncationReason);
+                }
+            }
+        } finally {
+            // Tokens reported before a failure were consumed all the same
+            if (!usage.isEmpty()) {
+                emitter.reportUsage(usage);
+            }
+        }
+
+        if (truncated != null && !emitter.isCancelled()) {
+            throw truncated;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+import tn.amin.keyboard_gpt.MainHook;
+import tn.amin.keyboard_gpt.language_model.TokenUsage;
+import tn.amin.keyboard_gpt.language_model.TruncatedResponseException;
+import tn.amin.keyboard_gpt.language_model.http.HttpTransport;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+
+/**
+ * Publishes text decoded from a response body. A single task on the shared io pool runs from the
+ * first request on: when built from an {@link Exchange} it sends the request first, so that a
+ * stream holds one io thread from connect to the end of the body and nothing blocks before
+ * there is demand. The reader waits for demand before passing each piece of text on. When built
+ * from a connection, the connection goes back to the keep-alive pool once the body was fully read,
+ * and is disconnected on cancel.
+ */
+public abstract class StreamPublisher implements Publisher<String> {
+    private final InputStream mInputStream;
+    private final HttpURLConnection mConnection;
+    private final Exchange mExchange;
+
+    protected StreamPublisher(InputStream inputStream, HttpURLConnection connection) {
+        mInputStream = inputStream;
+        mConnection = connection;
+        mExchange = null;
+    }
+
+    /**
+     * @param connection set up but not connected yet
+     */
+    protected StreamPublisher(HttpURLConnection connection, Exchange exchange) {
+        mInputStream = null;
+        mConnection = connection;
+        mExchange = exchange;
+    }
+
+    /**
+     * Sends the request on a connection that was set up beforehand, off the caller's thread.
+     */
+    public interface Exchange {
+        /**
+         * @return the response body to read
+         * @throws IOException if there is no body to read, e.g. the provider answered with an
+         *                     error status
+         */
+        InputStream send(HttpURLConnection connection) throws IOException;
+    }
+
+    /**
+     * Reads {@code inputStream} to the end, passing decoded text to {@code emitter}.
+     * Implementations should return early once the emitter is cancelled, and only throw a
+     * {@link TruncatedResponseException} after reading to the end.
+     */
+    protected abstract void read(InputStream inputStream, Emitter emitter) throws IOException;
+
+    protected interface Emitter {
+        void emit(String text);
+
+        boolean isCancelled();
+
+        /**
+         * Hands the token usage of the response to the subscriber if it is a
+         * {@link TokenUsage.Listener}.
+         */
+        void reportUsage(TokenUsage usage);
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super String> subscriber) {
+        StreamSubscription subscription = new StreamSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.onSubscribed();
+    }
+
+    private class StreamSubscription implements Subscription, Emitter {
+        private final Subscriber<? super String> mSubscriber;
+        private final Demand mDemand = new Demand();
+        private final AtomicBoolean mStarted = new AtomicBoolean(false);
+        private final AtomicBoolean mTerminated = new AtomicBoolean(false);
+        private volatile boolean mCancelled = false;
+        // Set once onSubscribe returned, before which the reader must not emit (rule 1.3)
+        private volatile boolean mSubscribed = false;
+
+        StreamSubscription(Subscriber<? super String> subscriber) {
+            mSubscriber = subscriber;
+        }
+
+        void onSubscribed() {
+            mSubscribed = true;
+            if (mDemand.get() > 0) {
+                start();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (mCancelled) {
+                return;
+            }
+            if (!mDemand.add(n)) {
+                cancel();
+                if (mTerminated.compareAndSet(false, true)) {
+                    mSubscriber.onError(Demand.invalid(n));
+                }
+                return;
+            }
+
+            synchronized (this) {
+                notifyAll();
+            }
+            if (mSubscribed) {
+                start();
+            }
+        }
+
+        private void start() {
+            if (mCancelled || !mStarted.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                GenerationExecutors.get().io().execute(this::readLoop);
+            } catch (RejectedExecutionException e) {
+                cancel();
+                if (mTerminated.compareAndSet(false, true)) {
+                    mSubscriber.onError(e);
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            synchronized (this) {
+                notifyAll();
+            }
+            disconnect();
+        }
+
+        /**
+         * Blocks the reader until the subscriber wants more, which leaves unread data in the
+         * socket buffer and lets TCP flow control slow the provider down.
+         */
+        @Override
+        public void emit(String text) {
+            synchronized (this) {
+                while (!mCancelled && !mDemand.take()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        cancel();
+                    }
+                }
+            }
+
+            if (!mCancelled) {
+                mSubscriber.onNext(text);
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public void reportUsage(TokenUsage usage) {
+            if (!mTerminated.get() && mSubscriber instanceof TokenUsage.Listener) {
+                ((TokenUsage.Listener) mSubscriber).onUsage(usage);
+            }
+        }
+
+        private void readLoop() {
+            if (mCancelled) {
+                return;
+            }
+
+            InputStream body = mInputStream;
+            if (mExchange != null) {
+                try {
+                    body = mExchange.send(mConnection);
+                } catch (IOException | RuntimeException e) {
+                    terminate(e);
+                    return;
+                }
+                if (mCancelled) {
+                    // Cancelled while connecting, when disconnecting had nothing to close yet
+                    mConnection.disconnect();
+                    return;
+                }
+            }
+
+            try (InputStream in = body) {
+                read(in, this);
+            } catch (TruncatedResponseException e) {
+                // The body was read to the end, only the answer is incomplete
+                if (mConnection != null && !mCancelled) {
+                    HttpTransport.get().release(mConnection);
+                }
+                terminate(e);
+                return;
+            } catch (IOException | RuntimeException e) {
+                terminate(e);
+                return;
+            }
+
+            if (mConnection != null && !mCancelled) {
+                HttpTransport.get().release(mConnection);
+            }
+            terminate(null);
+        }
+
+        /**
+         * Sends the one terminal signal, unless the subscriber cancelled.
+         */
+        private void terminate(Throwable error) {
+            if (mCancelled || !mTerminated.compareAndSet(false, true)) {
+                return;
+            }
+
+            if (error != null) {
+                mSubscriber.onError(error);
+            }
+            else {
+                mSubscriber.onComplete();
+            }
+        }
+    }
+
+    /**
+     * Aborts the connection so a read blocked on the socket returns right away. Runs on the timer
+     * thread since the io threads may all be blocked reading.
+     */
+    private void disconnect() {
+        if (mConnection == null) {
+            return;
+        }
+
+        long cancelTime = System.nanoTime();
+        Runnable disconnect = () -> {
+            mConnection.disconnect();
+            long elapsedMs = (System.nanoTime() - cancelTime) / 1_000_000;
+            Metrics.histogram("cancel.socket_closed_ms").record(elapsedMs);
+            MainHook.log("Connection closed " + elapsedMs + "ms after cancel");
+        };
+
+        try {
+            GenerationExecutors.get().timer().execute(disconnect);
+        } catch (RejectedExecutionException e) {
+            disconnect.run();
+        }
+    }
+}
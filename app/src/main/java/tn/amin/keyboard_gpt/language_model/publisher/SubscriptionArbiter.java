@@ -0,0 +1,96 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Subscription handed downstream by publishers that go through several upstreams in turn, e.g.
+ * one per attempt. Requests are recorded and forwarded to the current upstream, and a new upstream
+ * is asked for whatever is still outstanding, so downstream never gets more than it requested.
+ * Subclasses call {@link #produced()} for every item they pass on.
+ */
+public class SubscriptionArbiter implements Subscription {
+    private final Subscriber<?> mDownstream;
+    private final Demand mDemand = new Demand();
+
+    // Guarded by this
+    private Subscription mUpstream = null;
+    private volatile boolean mCancelled = false;
+
+    public SubscriptionArbiter(Subscriber<?> downstream) {
+        mDownstream = downstream;
+    }
+
+    /**
+     * Switches to {@code upstream}, cancelling it right away if downstream already cancelled.
+     */
+    public void setUpstream(Subscription upstream) {
+        long outstanding;
+        synchronized (this) {
+            if (!mCancelled) {
+                mUpstream = upstream;
+            }
+            outstanding = mDemand.get();
+        }
+
+        if (mCancelled) {
+            upstream.cancel();
+        }
+        else if (outstanding > 0) {
+            upstream.request(outstanding);
+        }
+    }
+
+    public void produced() {
+        mDemand.take();
+    }
+
+    /**
+     * @return items requested by downstream and not produced yet, {@link Long#MAX_VALUE} if
+     * unbounded
+     */
+    public long getOutstanding() {
+        return mDemand.get();
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public void request(long n) {
+        if (mCancelled) {
+            return;
+        }
+        if (n <= 0) {
+            cancel();
+            mDownstream.onError(Demand.invalid(n));
+            return;
+        }
+
+        Subscription upstream;
+        synchronized (this) {
+            mDemand.add(n);
+            upstream = mUpstream;
+        }
+        if (upstream != null) {
+            upstream.request(n);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        Subscription upstream;
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            upstream = mUpstream;
+        }
+
+        if (upstream != null) {
+            upstream.cancel();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package tn.amin.keyboard_gpt.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Counter {
+    private final AtomicLong mValue = new AtomicLong();
+
+    public void inc() {
+        mValue.incrementAndGet();
+    }
+
+    public void add(long delta) {
+        mValue.addAndGet(delta);
+    }
+
+    public long get() {
+        return mValue.get();
+    }
+}
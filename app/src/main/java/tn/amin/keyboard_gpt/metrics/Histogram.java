@@ -0,0 +1,72 @@
+package tn.amin.keyboard_gpt.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram with power-of-two buckets. Bucket i holds values in [2^(i-1), 2^i),
+ * which is coarse but enough for latency percentiles and costs no allocation per record.
+ */
+public class Histogram {
+    private static final int BUCKET_COUNT = 40;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(value));
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+
+        long max;
+        do {
+            max = mMax.get();
+        } while (value > max && !mMax.compareAndSet(max, value));
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing the given percentile (0-100),
+     * or -1 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long count = mCount.get();
+        if (count == 0) {
+            return -1;
+        }
+
+        long rank = (long) Math.ceil(count * percentile / 100d);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank) {
+                return Math.min(i == 0 ? 0 : 1L << i, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + getCount() + " mean=" + getMean() + " p50=" + getPercentile(50)
+                + " p90=" + getPercentile(90) + " max=" + getMax();
+    }
+}
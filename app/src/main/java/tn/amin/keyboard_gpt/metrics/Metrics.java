@@ -0,0 +1,40 @@
+package tn.amin.keyboard_gpt.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide registry of named counters and histograms. Durations are recorded in milliseconds.
+ */
+public class Metrics {
+    private static final ConcurrentHashMap<String, Counter> sCounters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histogram> sHistograms = new ConcurrentHashMap<>();
+
+    public static Counter counter(String name) {
+        Counter counter = sCounters.get(name);
+        if (counter == null) {
+            counter = sCounters.computeIfAbsent(name, n -> new Counter());
+        }
+        return counter;
+    }
+
+    public static Histogram histogram(String name) {
+        Histogram histogram = sHistograms.get(name);
+        if (histogram == null) {
+            histogram = sHistograms.computeIfAbsent(name, n -> new Histogram());
+        }
+        return histogram;
+    }
+
+    public static String dump() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Counter> entry: new TreeMap<>(sCounters).entrySet()) {
+            builder.append(entry.getKey()).append(" = ").append(entry.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> entry: new TreeMap<>(sHistograms).entrySet()) {
+            builder.append(entry.getKey()).append(" : ").append(entry.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,236 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import java.util.Locale;
+
+/**
+ * Tracks the health of one provider from the outcome of its recent requests. Once enough of the
+ * last calls failed or were too slow to produce a first token, the breaker opens and requests are
+ * refused right away. After a cool-down a single trial request is let through (half-open): if it
+ * succeeds the breaker closes, otherwise it opens again for twice as long.
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN,
+    }
+
+    public interface Listener {
+        void onStateChange(CircuitBreaker breaker);
+    }
+
+    private static final int WINDOW_SIZE = 10;
+    private static final int MIN_CALLS = 4;
+    private static final double FAILURE_RATE_THRESHOLD = 0.5;
+    private static final long SLOW_CALL_MS = 10 * 1000;
+    private static final long BASE_OPEN_MS = 30 * 1000;
+    private static final long MAX_OPEN_MS = 5 * 60 * 1000;
+
+    private final String mName;
+    private final Listener mListener;
+
+    // Ring of recent outcomes, true for failed or slow calls
+    private final boolean[] mWindow = new boolean[WINDOW_SIZE];
+    private int mWindowCount = 0;
+    private int mWindowNext = 0;
+    private int mBadCount = 0;
+
+    private State mState = State.CLOSED;
+    private long mOpenUntil = 0;
+    private int mTrips = 0;
+    private boolean mTrialInFlight = false;
+
+    public CircuitBreaker(String name, Listener listener) {
+        mName = name;
+        mListener = listener;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return whether a request may be sent now. In half-open state this hands out the single trial
+     * permit, so every granted request must be followed by one of the {@code on*} calls.
+     */
+    public synchronized boolean tryAcquire() {
+        switch (mState) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() < mOpenUntil) {
+                    return false;
+                }
+                mState = State.HALF_OPEN;
+                mTrialInFlight = true;
+                notifyStateChange();
+                return true;
+            case HALF_OPEN:
+            default:
+                if (mTrialInFlight) {
+                    return false;
+                }
+                mTrialInFlight = true;
+                return true;
+        }
+    }
+
+    /**
+     * Like {@link #tryAcquire()} but without taking a permit, for deciding where to send a request.
+     */
+    public synchronized boolean isAvailable() {
+        switch (mState) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return System.currentTimeMillis() >= mOpenUntil;
+            case HALF_OPEN:
+            default:
+                return !mTrialInFlight;
+        }
+    }
+
+    /**
+     * @param firstTokenMs time until the first token, or the whole call if nothing was emitted
+     */
+    public void onSuccess(long firstTokenMs) {
+        record(firstTokenMs >= SLOW_CALL_MS);
+    }
+
+    public void onFailure() {
+        record(true);
+    }
+
+    /**
+     * For calls that ended without telling anything about the provider, e.g. cancelled ones.
+     */
+    public synchronized void onIgnored() {
+        if (mState == State.HALF_OPEN) {
+            mTrialInFlight = false;
+        }
+    }
+
+    private void record(boolean bad) {
+        boolean changed = false;
+        synchronized (this) {
+            switch (mState) {
+                case HALF_OPEN:
+                    mTrialInFlight = false;
+                    if (bad) {
+                        open();
+                    }
+                    else {
+                        close();
+                    }
+                    changed = true;
+                    break;
+                case OPEN:
+                    // Outcome of a call sent before the breaker opened
+                    break;
+                case CLOSED:
+                    if (mWindowCount == WINDOW_SIZE && mWindow[mWindowNext]) {
+                        mBadCount--;
+                    }
+                    mWindow[mWindowNext] = bad;
+                    mWindowNext = (mWindowNext + 1) % WINDOW_SIZE;
+                    mWindowCount = Math.min(WINDOW_SIZE, mWindowCount + 1);
+                    if (bad) {
+                        mBadCount++;
+                    }
+
+                    if (mWindowCount >= MIN_CALLS && mBadCount >= mWindowCount * FAILURE_RATE_THRESHOLD) {
+                        open();
+                        changed = true;
+                    }
+                    break;
+            }
+        }
+
+        if (changed) {
+            notifyStateChange();
+        }
+    }
+
+    private void open() {
+        mTrips++;
+        long duration = Math.min(MAX_OPEN_MS, BASE_OPEN_MS << Math.min(mTrips - 1, 10));
+        mOpenUntil = System.currentTimeMillis() + duration;
+        mState = State.OPEN;
+        resetWindow();
+    }
+
+    private void close() {
+        mTrips = 0;
+        mState = State.CLOSED;
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        mWindowCount = 0;
+        mWindowNext = 0;
+        mBadCount = 0;
+    }
+
+    private void notifyStateChange() {
+        if (mListener != null) {
+            mListener.onStateChange(this);
+        }
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * @return how long requests will still be refused, 0 if they are not
+     */
+    public synchronized long getRemainingOpenMs() {
+        return mState == State.OPEN ? Math.max(0, mOpenUntil - System.currentTimeMillis()) : 0;
+    }
+
+    /**
+     * Serializes what must survive a restart: the state, when it ends and how often it tripped.
+     */
+    public synchronized String encode() {
+        return mState.name() + ":" + mOpenUntil + ":" + mTrips;
+    }
+
+    public synchronized void restore(String encoded) {
+        String[] parts = encoded.split(":");
+        if (parts.length != 3) {
+            return;
+        }
+
+        State state;
+        long openUntil;
+        int trips;
+        try {
+            state = State.valueOf(parts[0]);
+            openUntil = Long.parseLong(parts[1]);
+            trips = Integer.parseInt(parts[2]);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+
+        // A trial in flight did not survive the restart, so let another one through
+        mState = state == State.HALF_OPEN ? State.OPEN : state;
+        mOpenUntil = state == State.HALF_OPEN ? 0 : openUntil;
+        mTrips = trips;
+        resetWindow();
+    }
+
+    @Override
+    public synchronized String toString() {
+        switch (mState) {
+            case OPEN:
+                long remainingMs = Math.max(0, mOpenUntil - System.currentTimeMillis());
+                return String.format(Locale.ROOT, "%s: OPEN for %ds more (trip %d)",
+                        mName, remainingMs / 1000, mTrips);
+            case HALF_OPEN:
+                return mName + ": HALF_OPEN (trial " + (mTrialInFlight ? "in flight" : "pending") + ")";
+            case CLOSED:
+            default:
+                return mName + ": CLOSED (" + mBadCount + " of last " + mWindowCount + " calls bad)";
+        }
+    }
+}
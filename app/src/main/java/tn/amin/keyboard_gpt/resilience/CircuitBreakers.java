@@ -0,0 +1,86 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import org.reactivestreams.Publisher;
+
+import java.util.EnumMap;
+import java.util.function.Supplier;
+
+import tn.amin.keyboard_gpt.MainHook;
+import tn.amin.keyboard_gpt.SPManager;
+import tn.amin.keyboard_gpt.language_model.LanguageModel;
+import tn.amin.keyboard_gpt.language_model.publisher.ExceptionPublisher;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+
+/**
+ * One {@link CircuitBreaker} per provider, persisted across restarts.
+ */
+public class CircuitBreakers implements CircuitBreaker.Listener {
+    private final SPManager mSPManager;
+    private final EnumMap<LanguageModel, CircuitBreaker> mBreakers = new EnumMap<>(LanguageModel.class);
+
+    public CircuitBreakers(SPManager spManager) {
+        mSPManager = spManager;
+
+        for (LanguageModel model: LanguageModel.providers()) {
+            CircuitBreaker breaker = new CircuitBreaker(model.label, this);
+            String saved = mSPManager.getCircuitBreakerState(model);
+            if (saved != null) {
+                breaker.restore(saved);
+            }
+            mBreakers.put(model, breaker);
+        }
+    }
+
+    public CircuitBreaker get(LanguageModel model) {
+        return mBreakers.get(model);
+    }
+
+    /**
+     * Submits through {@code submit} if the breaker of {@code model} allows it, reporting the
+     * outcome back to the breaker. Otherwise fails right away with a {@link CircuitOpenException}.
+     */
+    public Publisher<String> guard(LanguageModel model, Supplier<Publisher<String>> submit) {
+        CircuitBreaker breaker = mBreakers.get(model);
+        if (!breaker.tryAcquire()) {
+            Metrics.counter("breaker.rejected." + model.name()).inc();
+            return new ExceptionPublisher(new CircuitOpenException(breaker));
+        }
+
+        long startNanos = System.nanoTime();
+        Publisher<String> upstream;
+        try {
+            upstream = submit.get();
+        } catch (RuntimeException e) {
+            if (ErrorKind.of(e) == ErrorKind.LOCAL) {
+                breaker.onIgnored();
+            }
+            else {
+                breaker.onFailure();
+            }
+            return new ExceptionPublisher(e);
+        }
+        return new GuardedPublisher(breaker, startNanos, upstream);
+    }
+
+    @Override
+    public void onStateChange(CircuitBreaker breaker) {
+        MainHook.log("Circuit breaker " + breaker);
+        for (LanguageModel model: LanguageModel.providers()) {
+            if (mBreakers.get(model) == breaker) {
+                if (breaker.getState() == CircuitBreaker.State.OPEN) {
+                    Metrics.counter("breaker.opened." + model.name()).inc();
+                }
+                mSPManager.setCircuitBreakerState(model, breaker.encode());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (CircuitBreaker breaker: mBreakers.values()) {
+            builder.append(breaker).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,13 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import java.io.IOException;
+
+/**
+ * A request was refused without being sent because the provider's breaker is open.
+ */
+public class CircuitOpenException extends IOException {
+    public CircuitOpenException(CircuitBreaker breaker) {
+        super(breaker.getName() + " is unavailable, retrying in "
+                + (breaker.getRemainingOpenMs() + 999) / 1000 + "s");
+    }
+}
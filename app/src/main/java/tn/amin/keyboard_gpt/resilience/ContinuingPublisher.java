@@ -0,0 +1,163 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.function.Function;
+
+import tn.amin.keyboard_gpt.MainHook;
+import tn.amin.keyboard_gpt.language_model.TruncatedResponseException;
+import tn.amin.keyboard_gpt.language_model.publisher.SubscriptionArbiter;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+
+/**
+ * Picks an answer back up when it breaks off midway, either because the provider hit its output
+ * limit or because the stream failed after some text went through. The text received so far is
+ * sent back as the start of the assistant's answer and whatever the provider adds is appended, so
+ * the field keeps filling as if nothing happened. Errors before the first token are left to
+ * {@link RetryingPublisher}.
+ */
+public class ContinuingPublisher implements Publisher<String> {
+    static final int MAX_CONTINUATIONS = 2;
+
+    private final String mName;
+    private final Function<String, Publisher<String>> mSubmit;
+
+    /**
+     * @param name   provider name the continuation counters are kept under
+     * @param submit sends the request, continuing from the given assistant prefix unless it is
+     *               null; must not block
+     */
+    public ContinuingPublisher(String name, Function<String, Publisher<String>> submit) {
+        mName = name;
+        mSubmit = submit;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super String> subscriber) {
+        Continuation continuation = new Continuation(subscriber);
+        subscriber.onSubscribe(continuation);
+        continuation.submit(null);
+    }
+
+    private class Continuation extends SubscriptionArbiter {
+        private final Subscriber<? super String> mDownstream;
+        private final StringBuilder mReceived = new StringBuilder();
+        private int mContinuations = 0;
+        // Whitespace already passed on but left out of the prefix, to skip where the next part repeats it
+        private int mSkippedWhitespace = 0;
+
+        Continuation(Subscriber<? super String> downstream) {
+            super(downstream);
+            mDownstream = downstream;
+        }
+
+        void submit(String assistantPrefix) {
+            if (isCancelled()) {
+                return;
+            }
+            mSubmit.apply(assistantPrefix).subscribe(new Part(this));
+        }
+
+        void onPartFailed(Throwable t) {
+            if (isCancelled()) {
+                return;
+            }
+
+            boolean truncated = t instanceof TruncatedResponseException;
+            if (mReceived.length() == 0 || !(truncated || ErrorKind.of(t).retryable)) {
+                mDownstream.onError(t);
+                return;
+            }
+
+            if (mContinuations >= MAX_CONTINUATIONS) {
+                Metrics.counter("continuation.exhausted." + mName).inc();
+                mDownstream.onError(t);
+                return;
+            }
+
+            mContinuations++;
+            Metrics.counter("continuation.attempts." + mName).inc();
+            MainHook.log("Continuing " + mName + " after " + mReceived.length() + " chars: " + t.getMessage());
+
+            // Some providers refuse an assistant prefix ending with whitespace. What is cut off is
+            // already in the field, so the continuation must not add it a second time
+            String prefix = trimTrailingWhitespace(mReceived);
+            mSkippedWhitespace = mReceived.length() - prefix.length();
+            submit(prefix);
+        }
+
+        /**
+         * @return {@code s} without the leading whitespace that was already passed on
+         */
+        String skipRepeatedWhitespace(String s) {
+            int start = 0;
+            while (mSkippedWhitespace > 0 && start < s.length() && Character.isWhitespace(s.charAt(start))) {
+                start++;
+                mSkippedWhitespace--;
+            }
+            if (start < s.length()) {
+                // Anything else ends what the model could be repeating
+                mSkippedWhitespace = 0;
+            }
+            return s.substring(start);
+        }
+    }
+
+    private static String trimTrailingWhitespace(CharSequence text) {
+        int end = text.length();
+        while (end > 0 && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.subSequence(0, end).toString();
+    }
+
+    private static class Part implements Subscriber<String> {
+        private final Continuation mContinuation;
+        private boolean mTerminated = false;
+
+        Part(Continuation continuation) {
+            mContinuation = continuation;
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            mContinuation.setUpstream(s);
+        }
+
+        @Override
+        public void onNext(String s) {
+            if (mTerminated || mContinuation.isCancelled()) {
+                return;
+            }
+            mContinuation.produced();
+            s = mContinuation.skipRepeatedWhitespace(s);
+            if (s.isEmpty()) {
+                // Nothing left to pass on, ask for another item in its place
+                mContinuation.request(1);
+                return;
+            }
+            mContinuation.mReceived.append(s);
+            mContinuation.mDownstream.onNext(s);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (mTerminated || mContinuation.isCancelled()) {
+                return;
+            }
+            mTerminated = true;
+            mContinuation.onPartFailed(t);
+        }
+
+        @Override
+        public void onComplete() {
+            if (mTerminated || mContinuation.isCancelled()) {
+                return;
+            }
+            mTerminated = true;
+            mContinuation.mDownstream.onComplete();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * How long each phase of a request to one provider may take before it is considered stalled.
+ */
+public class Deadlines {
+    public static final long DEFAULT_CONNECT_MS = 10 * 1000;
+    public static final long DEFAULT_FIRST_TOKEN_MS = 30 * 1000;
+    public static final long DEFAULT_INTER_TOKEN_MS = 15 * 1000;
+
+    public static final Deadlines DEFAULT =
+            new Deadlines(DEFAULT_CONNECT_MS, DEFAULT_FIRST_TOKEN_MS, DEFAULT_INTER_TOKEN_MS);
+
+    // Establishing the connection, TLS handshake included
+    public final long connectMs;
+    // From sending the request to the first token, response headers included
+    public final long firstTokenMs;
+    // Longest silence allowed between two tokens
+    public final long interTokenMs;
+
+    public Deadlines(long connectMs, long firstTokenMs, long interTokenMs) {
+        this.connectMs = connectMs > 0 ? connectMs : DEFAULT_CONNECT_MS;
+        this.firstTokenMs = firstTokenMs > 0 ? firstTokenMs : DEFAULT_FIRST_TOKEN_MS;
+        this.interTokenMs = interTokenMs > 0 ? interTokenMs : DEFAULT_INTER_TOKEN_MS;
+    }
+
+    /**
+     * Timeout for a single blocking socket read. Only a backstop for when the watchdog cannot run,
+     * so it covers the longest wait any phase allows.
+     */
+    public long getReadTimeoutMs() {
+        return Math.max(firstTokenMs, interTokenMs);
+    }
+
+    public String encode() {
+        return connectMs + ":" + firstTokenMs + ":" + interTokenMs;
+    }
+
+    /**
+     * @return the deadlines in {@code encoded}, or the defaults if it is null or malformed
+     */
+    public static Deadlines decode(String encoded) {
+        if (encoded == null) {
+            return DEFAULT;
+        }
+
+        String[] parts = encoded.split(":");
+        if (parts.length != 3) {
+            return DEFAULT;
+        }
+
+        try {
+            return new Deadlines(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+        } catch (NumberFormatException ignored) {
+            return DEFAULT;
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "connect %dms, first token %dms, between tokens %dms",
+                connectMs, firstTokenMs, interTokenMs);
+    }
+}
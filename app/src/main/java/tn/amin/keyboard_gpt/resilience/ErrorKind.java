@@ -0,0 +1,64 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+
+import tn.amin.keyboard_gpt.language_model.LanguageModelException;
+import tn.amin.keyboard_gpt.language_model.TruncatedResponseException;
+
+/**
+ * What a failed request says about whether sending it again could work.
+ */
+public enum ErrorKind {
+    // Too many requests, possibly with a hint on when to come back
+    RATE_LIMITED(true),
+    // The provider is up but cannot take the request right now
+    OVERLOADED(true),
+    // Connection problems and server errors that usually go away
+    TRANSIENT(true),
+    // Bad key, bad request, exhausted quota or truncated answer: retrying would fail the same way
+    PERMANENT(false),
+    // Refused on the device before reaching the provider (full io pool, open breaker, rate limiter
+    // giving up), so it says nothing about the provider's health
+    LOCAL(false),
+    ;
+
+    public final boolean retryable;
+
+    ErrorKind(boolean retryable) {
+        this.retryable = retryable;
+    }
+
+    public static ErrorKind of(Throwable t) {
+        if (t instanceof LanguageModelException) {
+            LanguageModelException e = (LanguageModelException) t;
+            switch (e.getStatusCode()) {
+                case 429:
+                    // OpenAI answers 429 when the account is out of credits too
+                    String message = e.getMessage();
+                    return message != null && message.contains("insufficient_quota") ? PERMANENT : RATE_LIMITED;
+                case 503:
+                case 529:
+                    return OVERLOADED;
+                case 408:
+                case 500:
+                case 502:
+                case 504:
+                    return TRANSIENT;
+                default:
+                    return PERMANENT;
+            }
+        }
+        if (t instanceof RejectedExecutionException || t instanceof CircuitOpenException
+                || t instanceof RateLimitExceededException) {
+            return LOCAL;
+        }
+        if (t instanceof TruncatedResponseException) {
+            return PERMANENT;
+        }
+        if (t instanceof IOException) {
+            return TRANSIENT;
+        }
+        return PERMANENT;
+    }
+}
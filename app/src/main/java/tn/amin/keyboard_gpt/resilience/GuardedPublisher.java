@@ -0,0 +1,105 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import tn.amin.keyboard_gpt.language_model.LanguageModelException;
+import tn.amin.keyboard_gpt.language_model.TruncatedResponseException;
+
+/**
+ * Passes a response through while reporting how it went to a {@link CircuitBreaker}. Latency is
+ * measured from {@code startNanos} to the first token, so it includes connection setup.
+ */
+class GuardedPublisher implements Publisher<String> {
+    private final CircuitBreaker mBreaker;
+    private final long mStartNanos;
+    private final Publisher<String> mUpstream;
+
+    GuardedPublisher(CircuitBreaker breaker, long startNanos, Publisher<String> upstream) {
+        mBreaker = breaker;
+        mStartNanos = startNanos;
+        mUpstream = upstream;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super String> subscriber) {
+        mUpstream.subscribe(new GuardedSubscriber(subscriber));
+    }
+
+    private class GuardedSubscriber implements Subscriber<String>, Subscription {
+        private final Subscriber<? super String> mDownstream;
+        private final AtomicBoolean mReported = new AtomicBoolean(false);
+        private Subscription mSubscription;
+        private long mFirstTokenMs = -1;
+
+        GuardedSubscriber(Subscriber<? super String> downstream) {
+            mDownstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            mSubscription = s;
+            mDownstream.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(String s) {
+            if (mFirstTokenMs < 0) {
+                mFirstTokenMs = (System.nanoTime() - mStartNanos) / 1_000_000;
+            }
+            mDownstream.onNext(s);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (mReported.compareAndSet(false, true)) {
+                if (ErrorKind.of(t) == ErrorKind.LOCAL) {
+                    mBreaker.onIgnored();
+                }
+                else if (isProviderFault(t)) {
+                    mBreaker.onFailure();
+                }
+                else {
+                    mBreaker.onSuccess(0);
+                }
+                mDownstream.onError(t);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (mReported.compareAndSet(false, true)) {
+                long latencyMs = mFirstTokenMs >= 0 ? mFirstTokenMs : (System.nanoTime() - mStartNanos) / 1_000_000;
+                mBreaker.onSuccess(latencyMs);
+                mDownstream.onComplete();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            mSubscription.request(n);
+        }
+
+        @Override
+        public void cancel() {
+            if (mReported.compareAndSet(false, true)) {
+                mBreaker.onIgnored();
+            }
+            mSubscription.cancel();
+        }
+    }
+
+    private static boolean isProviderFault(Throwable t) {
+        if (t instanceof LanguageModelException) {
+            return ((LanguageModelException) t).isProviderFault();
+        }
+        if (t instanceof TruncatedResponseException) {
+            // The provider answered fine, just not in full
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,12 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import java.io.IOException;
+
+/**
+ * A request waited too long for the provider's client-side rate limiter and was never sent.
+ */
+public class RateLimitExceededException extends IOException {
+    public RateLimitExceededException(String name, long waitedMs) {
+        super(name + " is rate limited, gave up after waiting " + waitedMs + "ms");
+    }
+}
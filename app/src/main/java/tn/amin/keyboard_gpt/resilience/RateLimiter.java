@@ -0,0 +1,322 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+import tn.amin.keyboard_gpt.MainHook;
+import tn.amin.keyboard_gpt.language_model.http.RateLimitHeaders;
+import tn.amin.keyboard_gpt.language_model.publisher.SubscriptionArbiter;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+
+/**
+ * Client-side limits for one provider, so that requests queue locally instead of getting
+ * throttled. A request is sent once a requests/minute and a tokens/minute bucket both have room
+ * for it and fewer requests than the concurrency limit are in flight. The concurrency limit grows
+ * by one per window of successful requests and halves on every 429 (AIMD). Waiting requests are let
+ * through by {@link RequestPriority}, then in arrival order. Bucket sizes start permissive and are
+ * replaced by what the provider announces in its response headers.
+ */
+public class RateLimiter {
+    private static final double DEFAULT_REQUESTS_PER_MINUTE = 60;
+    private static final double DEFAULT_TOKENS_PER_MINUTE = 100_000;
+    private static final double INITIAL_CONCURRENCY = 4;
+    private static final double MIN_CONCURRENCY = 1;
+    private static final double MAX_CONCURRENCY = 16;
+    private static final long MAX_QUEUE_MS = 10 * 1000;
+    private static final long MINUTE_MS = 60 * 1000;
+
+    private final String mName;
+    private final long mMaxQueueMs;
+
+    private double mRequestCapacity = DEFAULT_REQUESTS_PER_MINUTE;
+    private double mRequests = DEFAULT_REQUESTS_PER_MINUTE;
+    private double mTokenCapacity = DEFAULT_TOKENS_PER_MINUTE;
+    private double mTokens = DEFAULT_TOKENS_PER_MINUTE;
+    private long mLastRefill = System.currentTimeMillis();
+
+    private double mConcurrencyLimit = INITIAL_CONCURRENCY;
+    private int mInFlight = 0;
+
+    private long mSequence = 0;
+    private final PriorityQueue<Ticket> mQueue = new PriorityQueue<>();
+    private ScheduledFuture<?> mWakeup = null;
+
+    public RateLimiter(String name) {
+        this(name, MAX_QUEUE_MS);
+    }
+
+    /**
+     * @param maxQueueMs how long a request may wait before failing with a {@link RateLimitExceededException}
+     */
+    RateLimiter(String name, long maxQueueMs) {
+        mName = name;
+        mMaxQueueMs = maxQueueMs;
+    }
+
+    /**
+     * @param estimatedTokens prompt and expected answer, counted against the tokens/minute bucket
+     * @param submit          sends the request once let through; must not block
+     */
+    public Publisher<String> limit(RequestPriority priority, int estimatedTokens, Supplier<Publisher<String>> submit) {
+        return subscriber -> {
+            Ticket ticket;
+            synchronized (this) {
+                ticket = new Ticket(subscriber, priority, estimatedTokens, submit, mSequence++);
+            }
+            subscriber.onSubscribe(ticket);
+            enqueue(ticket);
+        };
+    }
+
+    /**
+     * Adopts the limits announced by the provider. Only lowers what is left in the buckets, since
+     * requests let through meanwhile may not be counted by the provider yet.
+     */
+    public synchronized void onRateLimits(RateLimitHeaders.Limits limits) {
+        refill(System.currentTimeMillis());
+        if (limits.requestLimit > 0) {
+            mRequestCapacity = limits.requestLimit;
+        }
+        if (limits.requestsRemaining >= 0) {
+            mRequests = Math.min(mRequests, limits.requestsRemaining);
+        }
+        if (limits.tokenLimit > 0) {
+            mTokenCapacity = limits.tokenLimit;
+        }
+        if (limits.tokensRemaining >= 0) {
+            mTokens = Math.min(mTokens, limits.tokensRemaining);
+        }
+        mRequests = Math.min(mRequests, mRequestCapacity);
+        mTokens = Math.min(mTokens, mTokenCapacity);
+    }
+
+    private void enqueue(Ticket ticket) {
+        synchronized (this) {
+            if (ticket.isCancelled()) {
+                return;
+            }
+            mQueue.add(ticket);
+        }
+
+        try {
+            ticket.mTimeout = GenerationExecutors.get().timer()
+                    .schedule(() -> expire(ticket), mMaxQueueMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            MainHook.log(e);
+        }
+        dispatch();
+    }
+
+    private void expire(Ticket ticket) {
+        synchronized (this) {
+            if (!mQueue.remove(ticket)) {
+                return;
+            }
+        }
+        Metrics.counter("limiter.expired." + mName).inc();
+        ticket.mDownstream.onError(new RateLimitExceededException(mName, mMaxQueueMs));
+    }
+
+    private void dispatch() {
+        List<Ticket> started = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            refill(now);
+
+            while (!mQueue.isEmpty() && mInFlight < Math.floor(mConcurrencyLimit)) {
+                Ticket ticket = mQueue.peek();
+                // A request larger than the whole bucket would never fit otherwise
+                double tokens = Math.min(ticket.mEstimatedTokens, mTokenCapacity);
+                if (mRequests < 1 || mTokens < tokens) {
+                    double waitForRequest = (1 - mRequests) * MINUTE_MS / mRequestCapacity;
+                    double waitForTokens = (tokens - mTokens) * MINUTE_MS / mTokenCapacity;
+                    scheduleWakeup((long) Math.ceil(Math.max(waitForRequest, waitForTokens)));
+                    break;
+                }
+
+                mQueue.poll();
+                mRequests -= 1;
+                mTokens -= tokens;
+                mInFlight++;
+                started.add(ticket);
+            }
+        }
+
+        for (Ticket ticket: started) {
+            ticket.start();
+        }
+    }
+
+    private void refill(long now) {
+        long elapsedMs = now - mLastRefill;
+        if (elapsedMs <= 0) {
+            return;
+        }
+        mRequests = Math.min(mRequestCapacity, mRequests + elapsedMs * mRequestCapacity / MINUTE_MS);
+        mTokens = Math.min(mTokenCapacity, mTokens + elapsedMs * mTokenCapacity / MINUTE_MS);
+        mLastRefill = now;
+    }
+
+    private void scheduleWakeup(long delayMs) {
+        if (mWakeup != null && !mWakeup.isDone()) {
+            return;
+        }
+
+        try {
+            mWakeup = GenerationExecutors.get().timer()
+                    .schedule(this::dispatch, Math.max(1, delayMs), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            MainHook.log(e);
+        }
+    }
+
+    /**
+     * @param succeeded whether the request completed, growing the concurrency limit
+     * @param throttled whether the provider refused the request with a 429, halving it
+     */
+    private void release(boolean succeeded, boolean throttled) {
+        synchronized (this) {
+            mInFlight--;
+            if (throttled) {
+                mConcurrencyLimit = Math.max(MIN_CONCURRENCY, mConcurrencyLimit / 2);
+                MainHook.log("Throttled by " + mName + ", concurrency limit now " + mConcurrencyLimit);
+            }
+            else if (succeeded) {
+                mConcurrencyLimit = Math.min(MAX_CONCURRENCY, mConcurrencyLimit + 1 / mConcurrencyLimit);
+            }
+        }
+        dispatch();
+    }
+
+    synchronized double getConcurrencyLimit() {
+        return mConcurrencyLimit;
+    }
+
+    @Override
+    public synchronized String toString() {
+        refill(System.currentTimeMillis());
+        return String.format(Locale.ROOT, "%s: %d/%.1f in flight, %.0f/%.0f requests, %.0f/%.0f tokens, %d queued",
+                mName, mInFlight, mConcurrencyLimit, mRequests, mRequestCapacity, mTokens, mTokenCapacity,
+                mQueue.size());
+    }
+
+    private class Ticket extends SubscriptionArbiter implements Comparable<Ticket>, Subscriber<String> {
+        private final Subscriber<? super String> mDownstream;
+        private final RequestPriority mPriority;
+        private final int mEstimatedTokens;
+        private final Supplier<Publisher<String>> mSubmit;
+        private final long mSequence;
+        private final long mQueuedAt = System.nanoTime();
+        private final AtomicBoolean mReleased = new AtomicBoolean(false);
+
+        private volatile boolean mSubscribed = false;
+        private volatile ScheduledFuture<?> mTimeout = null;
+
+        Ticket(Subscriber<? super String> downstream, RequestPriority priority, int estimatedTokens,
+               Supplier<Publisher<String>> submit, long sequence) {
+            super(downstream);
+            mDownstream = downstream;
+            mPriority = priority;
+            mEstimatedTokens = estimatedTokens;
+            mSubmit = submit;
+            mSequence = sequence;
+        }
+
+        void start() {
+            ScheduledFuture<?> timeout = mTimeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            long waitedMs = (System.nanoTime() - mQueuedAt) / 1_000_000;
+            Metrics.histogram("limiter.wait_ms." + mName).record(waitedMs);
+
+            if (isCancelled()) {
+                finish(false, false);
+                return;
+            }
+            mSubmit.get().subscribe(this);
+        }
+
+        /**
+         * @return false if the ticket was already finished
+         */
+        private boolean finish(boolean succeeded, boolean throttled) {
+            if (mReleased.compareAndSet(false, true)) {
+                release(succeeded, throttled);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public int compareTo(Ticket other) {
+            int byPriority = mPriority.compareTo(other.mPriority);
+            return byPriority != 0 ? byPriority : Long.compare(mSequence, other.mSequence);
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            mSubscribed = true;
+            setUpstream(s);
+            if (isCancelled()) {
+                finish(false, false);
+            }
+        }
+
+        @Override
+        public void onNext(String s) {
+            if (isCancelled()) {
+                return;
+            }
+            produced();
+            mDownstream.onNext(s);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (finish(false, ErrorKind.of(t) == ErrorKind.RATE_LIMITED)) {
+                mDownstream.onError(t);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (finish(true, false)) {
+                mDownstream.onComplete();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            super.cancel();
+            boolean wasQueued;
+            synchronized (RateLimiter.this) {
+                wasQueued = mQueue.remove(this);
+            }
+            if (wasQueued) {
+                ScheduledFuture<?> timeout = mTimeout;
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+                return;
+            }
+
+            // The upstream itself was cancelled above
+            if (mSubscribed) {
+                finish(false, false);
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import org.reactivestreams.Publisher;
+
+import java.util.EnumMap;
+import java.util.function.Supplier;
+
+import tn.amin.keyboard_gpt.language_model.LanguageModel;
+import tn.amin.keyboard_gpt.language_model.LanguageModelClient;
+import tn.amin.keyboard_gpt.language_model.http.RateLimitHeaders;
+
+/**
+ * One {@link RateLimiter} per provider, learning its limits from the responses of the clients it
+ * listens to.
+ */
+public class RateLimiters implements LanguageModelClient.RateLimitListener {
+    private final EnumMap<LanguageModel, RateLimiter> mLimiters = new EnumMap<>(LanguageModel.class);
+
+    public RateLimiters() {
+        for (LanguageModel model: LanguageModel.providers()) {
+            mLimiters.put(model, new RateLimiter(model.name()));
+        }
+    }
+
+    public RateLimiter get(LanguageModel model) {
+        return mLimiters.get(model);
+    }
+
+    public Publisher<String> limit(LanguageModel model, RequestPriority priority, int estimatedTokens,
+                                   Supplier<Publisher<String>> submit) {
+        return mLimiters.get(model).limit(priority, estimatedTokens, submit);
+    }
+
+    @Override
+    public void onRateLimits(LanguageModel model, RateLimitHeaders.Limits limits) {
+        RateLimiter limiter = mLimiters.get(model);
+        if (limiter != null) {
+            limiter.onRateLimits(limits);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (RateLimiter limiter: mLimiters.values()) {
+            builder.append(limiter).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,13 @@
+package tn.amin.keyboard_gpt.resilience;
+
+/**
+ * Order in which requests waiting for a rate limiter are let through, most urgent first.
+ */
+public enum RequestPriority {
+    // The user is watching the field for the answer
+    INTERACTIVE,
+    // Duplicates of an interactive request, e.g. hedges, that only help if capacity allows
+    SPECULATIVE,
+    // Nobody is waiting, e.g. latency probes
+    BACKGROUND,
+}
@@ -0,0 +1,176 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+import tn.amin.keyboard_gpt.MainHook;
+import tn.amin.keyboard_gpt.language_model.LanguageModelException;
+import tn.amin.keyboard_gpt.language_model.publisher.SubscriptionArbiter;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+
+/**
+ * Submits a request again when it fails with a retryable {@link ErrorKind} before emitting
+ * anything. Waits what the provider asked for if it did, otherwise backs off exponentially with
+ * jitter. Gives up after a few attempts or when the next one would start past the deadline. Once a
+ * token went through, errors are passed on as they are since the text is already in the field.
+ */
+public class RetryingPublisher implements Publisher<String> {
+    static final int MAX_ATTEMPTS = 4;
+    static final long BASE_DELAY_MS = 500;
+    static final long MAX_DELAY_MS = 8000;
+    static final long DEADLINE_MS = 20 * 1000;
+
+    // Added to the provider's own delay so that waiting clients do not all come back at once
+    static final long RETRY_AFTER_JITTER_MS = 250;
+
+    private final String mName;
+    private final Supplier<Publisher<String>> mSource;
+
+    /**
+     * @param name   provider name the retry counters are kept under
+     * @param source submits the request; must not block
+     */
+    public RetryingPublisher(String name, Supplier<Publisher<String>> source) {
+        mName = name;
+        mSource = source;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super String> subscriber) {
+        Retry retry = new Retry(subscriber);
+        subscriber.onSubscribe(retry);
+        retry.attempt();
+    }
+
+    /**
+     * @param attempts attempts made so far, including the one that failed with {@code t}
+     */
+    static long getDelayMs(Throwable t, int attempts) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (t instanceof LanguageModelException) {
+            long retryAfterMs = ((LanguageModelException) t).getRetryAfterMs();
+            if (retryAfterMs >= 0) {
+                return retryAfterMs + random.nextLong(RETRY_AFTER_JITTER_MS);
+            }
+        }
+
+        // Half of the backoff is fixed, the other half random
+        long backoffMs = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << (attempts - 1));
+        return backoffMs / 2 + random.nextLong(backoffMs / 2 + 1);
+    }
+
+    private class Retry extends SubscriptionArbiter {
+        private final Subscriber<? super String> mDownstream;
+        private final long mDeadline = System.currentTimeMillis() + DEADLINE_MS;
+        private int mAttempts = 0;
+        private volatile ScheduledFuture<?> mPending = null;
+
+        Retry(Subscriber<? super String> downstream) {
+            super(downstream);
+            mDownstream = downstream;
+        }
+
+        void attempt() {
+            if (isCancelled()) {
+                return;
+            }
+
+            mAttempts++;
+            mSource.get().subscribe(new Attempt(this));
+        }
+
+        void onAttemptFailed(Throwable t) {
+            if (isCancelled()) {
+                return;
+            }
+
+            ErrorKind kind = ErrorKind.of(t);
+            if (!kind.retryable) {
+                mDownstream.onError(t);
+                return;
+            }
+
+            long delayMs = getDelayMs(t, mAttempts);
+            if (mAttempts >= MAX_ATTEMPTS || System.currentTimeMillis() + delayMs >= mDeadline) {
+                Metrics.counter("retry.exhausted." + mName).inc();
+                mDownstream.onError(t);
+                return;
+            }
+
+            Metrics.counter("retry.attempts." + mName).inc();
+            MainHook.log("Retrying " + mName + " in " + delayMs + "ms after " + kind + ": " + t.getMessage());
+            try {
+                mPending = GenerationExecutors.get().timer()
+                        .schedule(this::attempt, delayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                mDownstream.onError(t);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            super.cancel();
+            ScheduledFuture<?> pending = mPending;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+        }
+    }
+
+    private static class Attempt implements Subscriber<String> {
+        private final Retry mRetry;
+        private boolean mEmitted = false;
+        private boolean mTerminated = false;
+
+        Attempt(Retry retry) {
+            mRetry = retry;
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            mRetry.setUpstream(s);
+        }
+
+        @Override
+        public void onNext(String s) {
+            if (mTerminated || mRetry.isCancelled()) {
+                return;
+            }
+            mEmitted = true;
+            mRetry.produced();
+            mRetry.mDownstream.onNext(s);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (mTerminated || mRetry.isCancelled()) {
+                return;
+            }
+            mTerminated = true;
+
+            if (mEmitted) {
+                mRetry.mDownstream.onError(t);
+            }
+            else {
+                mRetry.onAttemptFailed(t);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (mTerminated || mRetry.isCancelled()) {
+                return;
+            }
+            mTerminated = true;
+            mRetry.mDownstream.onComplete();
+        }
+    }
+}
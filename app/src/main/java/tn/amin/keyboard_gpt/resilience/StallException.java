@@ -0,0 +1,32 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import java.net.SocketTimeoutException;
+
+/**
+ * A request was aborted because one of its phases overran its {@link Deadlines deadline}.
+ */
+public class StallException extends SocketTimeoutException {
+    public enum Phase {
+        CONNECT("connect"),
+        FIRST_TOKEN("first_token"),
+        INTER_TOKEN("inter_token"),
+        ;
+
+        public final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    private final Phase mPhase;
+
+    public StallException(String name, Phase phase, long deadlineMs) {
+        super(name + " stalled in " + phase.key + " phase, no progress within " + deadlineMs + "ms");
+        mPhase = phase;
+    }
+
+    public Phase getPhase() {
+        return mPhase;
+    }
+}
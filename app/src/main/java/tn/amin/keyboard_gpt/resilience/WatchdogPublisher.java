@@ -0,0 +1,207 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+import tn.amin.keyboard_gpt.MainHook;
+import tn.amin.keyboard_gpt.language_model.publisher.SubscriptionArbiter;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+
+/**
+ * Aborts a response that stops making progress. The first token must arrive within the
+ * first-token deadline counted from {@code startNanos}, then no two tokens may be further apart
+ * than the inter-token deadline. A stalled response is cancelled, which disconnects a read blocked
+ * on the socket, and fails with a {@link StallException} naming the phase. Socket timeouts raised
+ * by the client are reported the same way. Time spent waiting for downstream demand is not held
+ * against the provider: while there is none nothing can stall, and once it comes back the deadline
+ * is counted from then. Time to first token and gaps between tokens are recorded per provider.
+ */
+public class WatchdogPublisher implements Publisher<String> {
+    private final String mName;
+    private final Deadlines mDeadlines;
+    private final long mStartNanos;
+    private final Publisher<String> mUpstream;
+
+    /**
+     * @param startNanos when the request was submitted, so that connection setup counts towards
+     *                   the first-token deadline
+     */
+    public WatchdogPublisher(String name, Deadlines deadlines, long startNanos, Publisher<String> upstream) {
+        mName = name;
+        mDeadlines = deadlines;
+        mStartNanos = startNanos;
+        mUpstream = upstream;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super String> subscriber) {
+        Watch watch = new Watch(subscriber);
+        subscriber.onSubscribe(watch);
+        watch.arm(mDeadlines.firstTokenMs - (System.nanoTime() - mStartNanos) / 1_000_000);
+        mUpstream.subscribe(watch);
+    }
+
+    private class Watch extends SubscriptionArbiter implements Subscriber<String> {
+        private final Subscriber<? super String> mDownstream;
+        private final AtomicBoolean mTerminated = new AtomicBoolean(false);
+        private volatile ScheduledFuture<?> mCheck = null;
+        // Zero until the first token arrived
+        private volatile long mLastTokenNanos = 0;
+        // When downstream last asked for items after having no outstanding demand
+        private volatile long mDemandNanos = 0;
+
+        Watch(Subscriber<? super String> downstream) {
+            super(downstream);
+            mDownstream = downstream;
+        }
+
+        /**
+         * Checks for progress once {@code delayMs} elapsed. A single check is pending at a time and
+         * pushes itself back while tokens keep coming, rather than rescheduling on every token.
+         */
+        void arm(long delayMs) {
+            if (mTerminated.get()) {
+                return;
+            }
+
+            try {
+                mCheck = GenerationExecutors.get().timer()
+                        .schedule(this::check, Math.max(0, delayMs), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The socket read timeout still bounds the stall
+                MainHook.log(e);
+            }
+        }
+
+        private void check() {
+            long now = System.nanoTime();
+            long lastTokenNanos = mLastTokenNanos;
+            StallException.Phase phase;
+            long deadlineMs;
+            long waitingSinceNanos;
+            if (lastTokenNanos == 0) {
+                phase = StallException.Phase.FIRST_TOKEN;
+                deadlineMs = mDeadlines.firstTokenMs;
+                waitingSinceNanos = mStartNanos;
+            }
+            else {
+                phase = StallException.Phase.INTER_TOKEN;
+                deadlineMs = mDeadlines.interTokenMs;
+                waitingSinceNanos = lastTokenNanos;
+            }
+
+            if (getOutstanding() == 0) {
+                // Downstream is not asking for more, so the silence is not the provider's
+                arm(deadlineMs);
+                return;
+            }
+            long demandNanos = mDemandNanos;
+            if (demandNanos != 0 && demandNanos - waitingSinceNanos > 0) {
+                waitingSinceNanos = demandNanos;
+            }
+            long remainingMs = deadlineMs - (now - waitingSinceNanos) / 1_000_000;
+            if (remainingMs > 0) {
+                arm(remainingMs);
+                return;
+            }
+
+            if (mTerminated.compareAndSet(false, true)) {
+                super.cancel();
+                reportStall(new StallException(mName, phase, deadlineMs));
+            }
+        }
+
+        private void reportStall(StallException e) {
+            Metrics.counter("stall." + e.getPhase().key + "." + mName).inc();
+            MainHook.log(e.getMessage());
+            mDownstream.onError(e);
+        }
+
+        private void disarm() {
+            ScheduledFuture<?> check = mCheck;
+            if (check != null) {
+                check.cancel(false);
+            }
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            setUpstream(s);
+        }
+
+        @Override
+        public void onNext(String s) {
+            if (mTerminated.get()) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            long lastTokenNanos = mLastTokenNanos;
+            if (lastTokenNanos == 0) {
+                Metrics.histogram("phase.first_token_ms." + mName).record((now - mStartNanos) / 1_000_000);
+            }
+            else {
+                Metrics.histogram("phase.inter_token_ms." + mName).record((now - lastTokenNanos) / 1_000_000);
+            }
+            mLastTokenNanos = now;
+            produced();
+            mDownstream.onNext(s);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (!mTerminated.compareAndSet(false, true)) {
+                return;
+            }
+            disarm();
+
+            if (t instanceof StallException) {
+                reportStall((StallException) t);
+            }
+            else if (t instanceof SocketTimeoutException) {
+                // A socket read outlived the backstop timeout before the watchdog noticed
+                boolean beforeFirstToken = mLastTokenNanos == 0;
+                reportStall(new StallException(mName,
+                        beforeFirstToken ? StallException.Phase.FIRST_TOKEN : StallException.Phase.INTER_TOKEN,
+                        mDeadlines.getReadTimeoutMs()));
+            }
+            else {
+                mDownstream.onError(t);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (!mTerminated.compareAndSet(false, true)) {
+                return;
+            }
+            disarm();
+            Metrics.histogram("phase.total_ms." + mName).record((System.nanoTime() - mStartNanos) / 1_000_000);
+            mDownstream.onComplete();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n > 0 && getOutstanding() == 0) {
+                mDemandNanos = System.nanoTime();
+            }
+            super.request(n);
+        }
+
+        @Override
+        public void cancel() {
+            if (mTerminated.compareAndSet(false, true)) {
+                disarm();
+            }
+            super.cancel();
+        }
+    }
+}
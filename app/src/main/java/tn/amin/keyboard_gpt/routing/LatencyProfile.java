@@ -0,0 +1,104 @@
+package tn.amin.keyboard_gpt.routing;
+
+import java.util.Locale;
+
+/**
+ * Time to first token and streaming rate of one provider/sub-model. Both are means where each
+ * sample loses half of its weight every {@link #HALF_LIFE_MS}, blended with a neutral prior. An
+ * option that has not been measured lately therefore drifts back to average and gets tried again.
+ */
+class LatencyProfile {
+    static final long HALF_LIFE_MS = 30 * 60 * 1000;
+
+    private static final double PRIOR_TTFT_MS = 1500;
+    private static final double PRIOR_TOKENS_PER_SEC = 50;
+    private static final double PRIOR_WEIGHT = 0.5;
+
+    // Response length the score is computed for, in tokens
+    private static final double TYPICAL_TOKENS = 100;
+
+    private double mTtftSum = 0;
+    private double mTtftWeight = 0;
+    private double mRateSum = 0;
+    private double mRateWeight = 0;
+    private long mUpdatedAt = 0;
+
+    synchronized void recordTimeToFirstToken(long ttftMs, long now) {
+        decay(now);
+        mTtftSum += ttftMs;
+        mTtftWeight += 1;
+    }
+
+    synchronized void recordTokensPerSec(double tokensPerSec, long now) {
+        decay(now);
+        mRateSum += tokensPerSec;
+        mRateWeight += 1;
+    }
+
+    private void decay(long now) {
+        double factor = factor(now);
+        mTtftSum *= factor;
+        mTtftWeight *= factor;
+        mRateSum *= factor;
+        mRateWeight *= factor;
+        mUpdatedAt = Math.max(mUpdatedAt, now);
+    }
+
+    private double factor(long now) {
+        return mUpdatedAt > 0 && now > mUpdatedAt
+                ? Math.pow(0.5, (double) (now - mUpdatedAt) / HALF_LIFE_MS) : 1;
+    }
+
+    synchronized double getTimeToFirstTokenMs(long now) {
+        double factor = factor(now);
+        return (mTtftSum * factor + PRIOR_TTFT_MS * PRIOR_WEIGHT) / (mTtftWeight * factor + PRIOR_WEIGHT);
+    }
+
+    synchronized double getTokensPerSec(long now) {
+        double factor = factor(now);
+        return (mRateSum * factor + PRIOR_TOKENS_PER_SEC * PRIOR_WEIGHT) / (mRateWeight * factor + PRIOR_WEIGHT);
+    }
+
+    /**
+     * @return how many recent first-token samples back the estimate, fading with time
+     */
+    synchronized double getConfidence(long now) {
+        return mTtftWeight * factor(now);
+    }
+
+    /**
+     * Expected time to stream a typical response, lower is better.
+     */
+    double getScoreMs(long now) {
+        return getTimeToFirstTokenMs(now) + TYPICAL_TOKENS * 1000 / getTokensPerSec(now);
+    }
+
+    synchronized String encode() {
+        return String.format(Locale.ROOT, "%.1f:%.4f:%.1f:%.4f:%d",
+                mTtftSum, mTtftWeight, mRateSum, mRateWeight, mUpdatedAt);
+    }
+
+    static LatencyProfile decode(String encoded) {
+        LatencyProfile profile = new LatencyProfile();
+        String[] parts = encoded.split(":");
+        if (parts.length != 5) {
+            return profile;
+        }
+
+        try {
+            profile.mTtftSum = Double.parseDouble(parts[0]);
+            profile.mTtftWeight = Double.parseDouble(parts[1]);
+            profile.mRateSum = Double.parseDouble(parts[2]);
+            profile.mRateWeight = Double.parseDouble(parts[3]);
+            profile.mUpdatedAt = Long.parseLong(parts[4]);
+        } catch (NumberFormatException ignored) {
+            return new LatencyProfile();
+        }
+        return profile;
+    }
+
+    String describe(long now) {
+        return String.format(Locale.ROOT, "ttft %.0fms, %.1f tok/s, confidence %.2f",
+                getTimeToFirstTokenMs(now), getTokensPerSec(now), getConfidence(now));
+    }
+}
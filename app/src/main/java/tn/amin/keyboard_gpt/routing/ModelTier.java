@@ -0,0 +1,30 @@
+package tn.amin.keyboard_gpt.routing;
+
+/**
+ * Which of the two sub-models of a provider answers a request.
+ */
+public enum ModelTier {
+    // Small model for short, simple requests where latency matters most
+    FAST("fast"),
+    // The configured sub-model
+    STRONG("strong"),
+    ;
+
+    public final String key;
+
+    ModelTier(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @return the tier stored under {@code key}, or null if there is none
+     */
+    public static ModelTier fromKey(String key) {
+        for (ModelTier tier: values()) {
+            if (tier.key.equals(key)) {
+                return tier;
+            }
+        }
+        return null;
+    }
+}
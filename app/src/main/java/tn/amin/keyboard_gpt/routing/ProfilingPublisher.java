@@ -0,0 +1,69 @@
+package tn.amin.keyboard_gpt.routing;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Passes a response through while reporting its time to first token and, once it completed, its
+ * streaming rate to a {@link ProviderRouter}.
+ */
+class ProfilingPublisher implements Publisher<String> {
+    private final ProviderRouter mRouter;
+    private final String mKey;
+    private final long mStartNanos;
+    private final Publisher<String> mUpstream;
+
+    ProfilingPublisher(ProviderRouter router, String key, long startNanos, Publisher<String> upstream) {
+        mRouter = router;
+        mKey = key;
+        mStartNanos = startNanos;
+        mUpstream = upstream;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super String> subscriber) {
+        mUpstream.subscribe(new ProfilingSubscriber(subscriber));
+    }
+
+    private class ProfilingSubscriber implements Subscriber<String> {
+        private final Subscriber<? super String> mDownstream;
+        private long mFirstTokenNanos = -1;
+        private long mChars = 0;
+
+        ProfilingSubscriber(Subscriber<? super String> downstream) {
+            mDownstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            mDownstream.onSubscribe(s);
+        }
+
+        @Override
+        public void onNext(String s) {
+            if (mFirstTokenNanos < 0 && !s.isEmpty()) {
+                mFirstTokenNanos = System.nanoTime();
+                mRouter.onTimeToFirstToken(mKey, (mFirstTokenNanos - mStartNanos) / 1_000_000);
+            }
+            else {
+                // The first chunk arrives at the start of the stream, not during it
+                mChars += s.length();
+            }
+            mDownstream.onNext(s);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            mDownstream.onError(t);
+        }
+
+        @Override
+        public void onComplete() {
+            if (mFirstTokenNanos >= 0) {
+                mRouter.onStreamComplete(mKey, mChars, (System.nanoTime() - mFirstTokenNanos) / 1_000_000);
+            }
+            mDownstream.onComplete();
+        }
+    }
+}
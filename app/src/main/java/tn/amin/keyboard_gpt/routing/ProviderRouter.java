@@ -0,0 +1,246 @@
+package tn.amin.keyboard_gpt.routing;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+import tn.amin.keyboard_gpt.MainHook;
+import tn.amin.keyboard_gpt.SPManager;
+import tn.amin.keyboard_gpt.language_model.LanguageModelClient;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+import tn.amin.keyboard_gpt.resilience.CircuitBreaker;
+import tn.amin.keyboard_gpt.resilience.CircuitBreakers;
+
+/**
+ * Picks the provider for {@link tn.amin.keyboard_gpt.language_model.LanguageModel#Auto} from a
+ * {@link LatencyProfile} per provider/sub-model, fed by every response that goes through
+ * {@link #observe}. Profiles are persisted so routing does not start from scratch after a restart.
+ */
+public class ProviderRouter {
+    public static final String PROBE_PROMPT = "Reply with OK";
+
+    private static final long SAVE_DELAY_MS = 5000;
+
+    // Options backed by fewer recent samples than this are worth a probe
+    private static final double PROBE_CONFIDENCE = 0.25;
+
+    // Streams shorter than this say little about the rate
+    private static final long MIN_STREAM_MS = 200;
+    private static final int MIN_STREAM_CHARS = 40;
+    private static final double CHARS_PER_TOKEN = 4;
+
+    private final SPManager mSPManager;
+    private final Map<String, LatencyProfile> mProfiles = new TreeMap<>();
+    private ScheduledFuture<?> mPendingSave = null;
+
+    public ProviderRouter(SPManager spManager) {
+        mSPManager = spManager;
+
+        try {
+            JSONObject saved = new JSONObject(mSPManager.getRoutingProfiles());
+            Iterator<String> keys = saved.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                mProfiles.put(key, LatencyProfile.decode(saved.getString(key)));
+            }
+        } catch (JSONException e) {
+            MainHook.log(e);
+        }
+    }
+
+    /**
+     * @return the candidate expected to stream a response the soonest among those whose breaker
+     * lets requests through, or the first candidate if none does. Null if there are no candidates.
+     */
+    public LanguageModelClient choose(List<LanguageModelClient> candidates, ModelTier tier,
+                                      CircuitBreakers breakers) {
+        long now = System.currentTimeMillis();
+        LanguageModelClient best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (LanguageModelClient client: candidates) {
+            if (!isHealthy(client, breakers)) {
+                continue;
+            }
+
+            double score = getProfile(getKey(client, client.getSubModel(tier))).getScoreMs(now);
+            if (score < bestScore) {
+                best = client;
+                bestScore = score;
+            }
+        }
+
+        if (best == null) {
+            return candidates.isEmpty() ? null : candidates.get(0);
+        }
+
+        MainHook.log("Routing to " + best.getLanguageModel().label + " (" + best.getSubModel(tier) + "), expected " + Math.round(bestScore) + "ms");
+        Metrics.counter("routing.chosen." + best.getLanguageModel().name()).inc();
+        return best;
+    }
+
+    /**
+     * @return the healthy candidate whose profile is the least backed by recent measurements, if
+     * any of them needs a probe
+     */
+    public LanguageModelClient getProbeCandidate(List<LanguageModelClient> candidates, CircuitBreakers breakers) {
+        long now = System.currentTimeMillis();
+        LanguageModelClient stalest = null;
+        double lowestConfidence = PROBE_CONFIDENCE;
+        for (LanguageModelClient client: candidates) {
+            if (!isHealthy(client, breakers)) {
+                continue;
+            }
+
+            double confidence = getProfile(client).getConfidence(now);
+            if (confidence < lowestConfidence) {
+                stalest = client;
+                lowestConfidence = confidence;
+            }
+        }
+        return stalest;
+    }
+
+    /**
+     * Sends a tiny prompt through {@code submit} to the candidate that most needs it, if any, and
+     * drops the stream at its first token so that a probe costs a handful of tokens at most.
+     */
+    public void probe(List<LanguageModelClient> candidates, CircuitBreakers breakers,
+                      Function<LanguageModelClient, Publisher<String>> submit) {
+        LanguageModelClient client = getProbeCandidate(candidates, breakers);
+        if (client == null) {
+            return;
+        }
+
+        MainHook.log("Probing " + client);
+        Metrics.counter("routing.probes").inc();
+        submit.apply(client).subscribe(new ProbeSubscriber());
+    }
+
+    private static boolean isHealthy(LanguageModelClient client, CircuitBreakers breakers) {
+        CircuitBreaker breaker = breakers.get(client.getLanguageModel());
+        return breaker == null || breaker.isAvailable();
+    }
+
+    /**
+     * Passes {@code upstream} through while measuring it into the profile of {@code subModel} of
+     * {@code client}.
+     *
+     * @param startNanos when the request was submitted
+     */
+    public Publisher<String> observe(LanguageModelClient client, String subModel, long startNanos,
+                                     Publisher<String> upstream) {
+        return new ProfilingPublisher(this, getKey(client, subModel), startNanos, upstream);
+    }
+
+    void onTimeToFirstToken(String key, long ttftMs) {
+        getProfile(key).recordTimeToFirstToken(ttftMs, System.currentTimeMillis());
+        scheduleSave();
+    }
+
+    void onStreamComplete(String key, long chars, long streamMs) {
+        if (streamMs < MIN_STREAM_MS || chars < MIN_STREAM_CHARS) {
+            return;
+        }
+
+        double tokensPerSec = chars / CHARS_PER_TOKEN * 1000 / streamMs;
+        getProfile(key).recordTokensPerSec(tokensPerSec, System.currentTimeMillis());
+        scheduleSave();
+    }
+
+    private LatencyProfile getProfile(LanguageModelClient client) {
+        return getProfile(getKey(client, client.getSubModel()));
+    }
+
+    private synchronized LatencyProfile getProfile(String key) {
+        LatencyProfile profile = mProfiles.get(key);
+        if (profile == null) {
+            profile = new LatencyProfile();
+            mProfiles.put(key, profile);
+        }
+        return profile;
+    }
+
+    private static String getKey(LanguageModelClient client, String subModel) {
+        return client.getLanguageModel().name() + "/" + subModel;
+    }
+
+    /**
+     * Coalesces the writes of responses finishing close to each other.
+     */
+    private synchronized void scheduleSave() {
+        if (mPendingSave != null && !mPendingSave.isDone()) {
+            return;
+        }
+
+        try {
+            mPendingSave = GenerationExecutors.get().timer().schedule(this::save, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            MainHook.log(e);
+        }
+    }
+
+    private void save() {
+        JSONObject json = new JSONObject();
+        synchronized (this) {
+            try {
+                for (Map.Entry<String, LatencyProfile> entry: mProfiles.entrySet()) {
+                    json.put(entry.getKey(), entry.getValue().encode());
+                }
+            } catch (JSONException e) {
+                MainHook.log(e);
+                return;
+            }
+        }
+        mSPManager.setRoutingProfiles(json.toString());
+    }
+
+    private static class ProbeSubscriber implements Subscriber<String> {
+        private Subscription mSubscription = null;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            mSubscription = s;
+            s.request(1);
+        }
+
+        @Override
+        public void onNext(String s) {
+            // The time to first token is all a probe is after
+            if (mSubscription != null) {
+                mSubscription.cancel();
+                mSubscription = null;
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            MainHook.log("Probe failed: " + t.getMessage());
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        long now = System.currentTimeMillis();
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, LatencyProfile> entry: mProfiles.entrySet()) {
+            builder.append(entry.getKey()).append(": ").append(entry.getValue().describe(now)).append('\n');
+        }
+        return builder.toString();
+    }
+}
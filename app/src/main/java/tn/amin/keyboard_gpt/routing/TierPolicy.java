@@ -0,0 +1,57 @@
+package tn.amin.keyboard_gpt.routing;
+
+import android.text.InputType;
+
+/**
+ * Decides per request whether the fast or the strong sub-model answers. In order: the tier the
+ * command asks for, then long prompts always going to the strong model, then the kind of field
+ * being typed into, and finally the size of the prompt.
+ */
+public class TierPolicy {
+    // Prompts up to this size go to the fast model unless the field calls for more
+    private static final int FAST_MAX_TOKENS = 48;
+
+    // Prompts from this size on always go to the strong model
+    private static final int STRONG_MIN_TOKENS = 400;
+
+    private static final int CHARS_PER_TOKEN = 4;
+
+    /**
+     * @param commandTier tier required by the command, null to let the policy decide
+     * @param inputType input type of the field the answer goes to, {@link InputType#TYPE_NULL} if unknown
+     */
+    public static ModelTier choose(ModelTier commandTier, String prompt, String systemMessage, int inputType) {
+        if (commandTier != null) {
+            return commandTier;
+        }
+
+        int tokens = estimateTokens(prompt) + estimateTokens(systemMessage);
+        if (tokens >= STRONG_MIN_TOKENS) {
+            return ModelTier.STRONG;
+        }
+
+        if ((inputType & InputType.TYPE_MASK_CLASS) == InputType.TYPE_CLASS_TEXT) {
+            if ((inputType & InputType.TYPE_TEXT_FLAG_MULTI_LINE) != 0) {
+                // Room for a composed answer, e.g. an email or a post
+                return ModelTier.STRONG;
+            }
+
+            switch (inputType & InputType.TYPE_MASK_VARIATION) {
+                case InputType.TYPE_TEXT_VARIATION_LONG_MESSAGE:
+                    return ModelTier.STRONG;
+                case InputType.TYPE_TEXT_VARIATION_URI:
+                case InputType.TYPE_TEXT_VARIATION_EMAIL_ADDRESS:
+                case InputType.TYPE_TEXT_VARIATION_EMAIL_SUBJECT:
+                case InputType.TYPE_TEXT_VARIATION_PERSON_NAME:
+                case InputType.TYPE_TEXT_VARIATION_FILTER:
+                    return ModelTier.FAST;
+            }
+        }
+
+        return tokens <= FAST_MAX_TOKENS ? ModelTier.FAST : ModelTier.STRONG;
+    }
+
+    public static int estimateTokens(String text) {
+        return text != null ? (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN : 0;
+    }
+}
@@ -5,20 +5,26 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Intent;
 import android.graphics.Color;
+import android.graphics.Typeface;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.InsetDrawable;
 import android.os.Bundle;
 import android.util.Log;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.LinearLayout;
+import android.widget.RadioGroup;
+import android.widget.ScrollView;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.Nullable;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.stream.Stream;
 
 import tn.amin.keyboard_gpt.R;
@@ -29,12 +35,16 @@ import tn.amin.keyboard_gpt.instruction.command.Commands;
 import tn.amin.keyboard_gpt.instruction.command.GenerativeAICommand;
 import tn.amin.keyboard_gpt.instruction.command.SimpleGenerativeAICommand;
 import tn.amin.keyboard_gpt.language_model.LanguageModel;
+import tn.amin.keyboard_gpt.resilience.Deadlines;
+import tn.amin.keyboard_gpt.routing.ModelTier;
 
 public class DialogActivity extends Activity {
     private DialogType mLastDialogType = null;
 
     private Bundle mLanguageModelsConfig;
 
+    private Bundle mHedgingConfig;
+
     private LanguageModel mSelectedModel;
 
     private ArrayList<GenerativeAICommand> mCommands;
@@ -61,6 +71,9 @@ public class DialogActivity extends Activity {
             case ConfigureModel:
                 dialog = buildConfigureModelDialog();
                 break;
+            case Hedging:
+                dialog = buildHedgingDialog();
+                break;
             case WebSearch:
                 dialog = buildWebSearchDialog();
                 break;
@@ -70,6 +83,9 @@ public class DialogActivity extends Activity {
             case EditCommand:
                 dialog = buildEditCommandDialog();
                 break;
+            case Diagnostics:
+                dialog = buildDiagnosticsDialog();
+                break;
             default:
                 dialog = buildChoseModelDialog();
                 break;
@@ -106,12 +122,25 @@ public class DialogActivity extends Activity {
 
         EditText prefixEditText = layout.findViewById(R.id.edit_prefix);
         EditText messageEditText = layout.findViewById(R.id.edit_message);
+        CheckBox cacheCheckBox = layout.findViewById(R.id.check_cache);
+        CheckBox deterministicCheckBox = layout.findViewById(R.id.check_deterministic);
+        EditText similarityEditText = layout.findViewById(R.id.edit_similarity);
+        RadioGroup tierRadioGroup = layout.findViewById(R.id.radio_tier);
 
         String title;
         if (mCommandIndex >= 0) {
             GenerativeAICommand command = mCommands.get(mCommandIndex);
             prefixEditText.setText(command.getCommandPrefix());
             messageEditText.setText(command.getTweakMessage());
+            cacheCheckBox.setChecked(command.isCacheable());
+            deterministicCheckBox.setChecked(command.isDeterministic());
+            similarityEditText.setText(String.valueOf(command.getSimilarityThreshold()));
+            if (command.getModelTier() == ModelTier.FAST) {
+                tierRadioGroup.check(R.id.radio_tier_fast);
+            }
+            else if (command.getModelTier() == ModelTier.STRONG) {
+                tierRadioGroup.check(R.id.radio_tier_strong);
+            }
             title = "Edit " + InstructionCategory.Command.prefix + command.getCommandPrefix();
         }
         else {
@@ -124,6 +153,10 @@ public class DialogActivity extends Activity {
                 .setPositiveButton("Ok", (dialog, which) -> {
                     String prefix = prefixEditText.getText().toString().trim();
                     String message = messageEditText.getText().toString();
+                    double similarity = parseSimilarity(similarityEditText.getText().toString());
+                    int checkedTier = tierRadioGroup.getCheckedRadioButtonId();
+                    ModelTier tier = checkedTier == R.id.radio_tier_fast ? ModelTier.FAST
+                            : checkedTier == R.id.radio_tier_strong ? ModelTier.STRONG : null;
                     long similarCount = mCommands.stream().filter((c) -> prefix.equals(c.getCommandPrefix())).count();
                     if ((mCommandIndex == -1 && similarCount >= 1)
                             || (mCommandIndex >= 0 && similarCount >= 2)) {
@@ -138,7 +171,9 @@ public class DialogActivity extends Activity {
                         mCommandIndex = mCommands.size();
                     }
 
-                    mCommands.add(mCommandIndex, new SimpleGenerativeAICommand(prefix, message));
+                    mCommands.add(mCommandIndex,
+                            new SimpleGenerativeAICommand(prefix, message, cacheCheckBox.isChecked(),
+                                    deterministicCheckBox.isChecked(), similarity, tier));
 
                     dialog.dismiss();
                 })
@@ -161,6 +196,35 @@ public class DialogActivity extends Activity {
         return dialogBuilder.create();
     }
 
+    private static double parseSimilarity(String text) {
+        try {
+            double similarity = Double.parseDouble(text.trim());
+            if (similarity > 0 && similarity <= 1) {
+                return similarity;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        return GenerativeAICommand.DEFAULT_SIMILARITY_THRESHOLD;
+    }
+
+    private Dialog buildDiagnosticsDialog() {
+        TextView textView = new TextView(this);
+        textView.setText(getIntent().getStringExtra(UiInteracter.EXTRA_DIAGNOSTICS));
+        textView.setTypeface(Typeface.MONOSPACE);
+        textView.setTextIsSelectable(true);
+        textView.setPadding(40, 20, 40, 20);
+
+        ScrollView scrollView = new ScrollView(this);
+        scrollView.addView(textView);
+
+        return new AlertDialog.Builder(this)
+                .setTitle("Diagnostics")
+                .setView(scrollView)
+                .setPositiveButton("Close", (dialog, which) -> dialog.dismiss())
+                .setOnDismissListener(d -> returnToKeyboard(DialogType.Diagnostics))
+                .create();
+    }
+
     private Dialog buildWebSearchDialog() {
         String title = getIntent().getStringExtra(UiInteracter.EXTRA_WEBVIEW_TITLE);
         if (title == null) {
@@ -198,19 +262,35 @@ public class DialogActivity extends Activity {
 
         String subModel = modelConfig.getString(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL_SUB_MODEL);
         subModel = subModel != null ? subModel : mSelectedModel.defaultSubModel;
+        String fastSubModel = modelConfig.getString(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL_FAST_SUB_MODEL);
+        fastSubModel = fastSubModel != null && !fastSubModel.isEmpty()
+                ? fastSubModel : mSelectedModel.defaultFastSubModel;
         String apiKey = modelConfig.getString(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL_API_KEY);
         String baseUrl = modelConfig.getString(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL_BASE_URL);
         baseUrl = baseUrl != null ? baseUrl : mSelectedModel.defaultBaseUrl;
+        Deadlines deadlines = Deadlines.decode(
+                modelConfig.getString(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL_DEADLINES));
+        long dailyTokenBudget = modelConfig.getLong(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL_DAILY_TOKEN_BUDGET);
 
         LinearLayout layout = (LinearLayout)
                 getLayoutInflater().inflate(R.layout.dialog_configue_model, null);
 
         EditText apiKeyEditText = layout.findViewById(R.id.edit_apikey);
         EditText subModelEditText = layout.findViewById(R.id.edit_model);
+        EditText fastSubModelEditText = layout.findViewById(R.id.edit_fast_model);
         EditText baseUrlEditText = layout.findViewById(R.id.edit_baseurl);
+        EditText connectTimeoutEditText = layout.findViewById(R.id.edit_connect_timeout);
+        EditText firstTokenTimeoutEditText = layout.findViewById(R.id.edit_first_token_timeout);
+        EditText interTokenTimeoutEditText = layout.findViewById(R.id.edit_inter_token_timeout);
+        EditText dailyTokenBudgetEditText = layout.findViewById(R.id.edit_daily_token_budget);
         apiKeyEditText.setText(apiKey);
         subModelEditText.setText(subModel);
+        fastSubModelEditText.setText(fastSubModel);
         baseUrlEditText.setText(baseUrl);
+        connectTimeoutEditText.setText(String.valueOf(deadlines.connectMs));
+        firstTokenTimeoutEditText.setText(String.valueOf(deadlines.firstTokenMs));
+        interTokenTimeoutEditText.setText(String.valueOf(deadlines.interTokenMs));
+        dailyTokenBudgetEditText.setText(String.valueOf(dailyTokenBudget));
 
         return new AlertDialog.Builder(this)
                 .setTitle(mSelectedModel.label + " configuration")
@@ -220,8 +300,18 @@ public class DialogActivity extends Activity {
                             apiKeyEditText.getText().toString());
                     modelConfig.putString(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL_SUB_MODEL,
                             subModelEditText.getText().toString());
+                    modelConfig.putString(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL_FAST_SUB_MODEL,
+                            fastSubModelEditText.getText().toString());
                     modelConfig.putString(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL_BASE_URL,
                             baseUrlEditText.getText().toString());
+                    // Empty or invalid fields fall back to the default deadline
+                    Deadlines newDeadlines = new Deadlines(parseLong(connectTimeoutEditText),
+                            parseLong(firstTokenTimeoutEditText), parseLong(interTokenTimeoutEditText));
+                    modelConfig.putString(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL_DEADLINES,
+                            newDeadlines.encode());
+                    // Empty or invalid means no budget
+                    modelConfig.putLong(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL_DAILY_TOKEN_BUDGET,
+                            parseLong(dailyTokenBudgetEditText));
                     dialog.dismiss();
                 })
                 .setNegativeButton("Cancel", (dialog, which) -> {
@@ -232,6 +322,65 @@ public class DialogActivity extends Activity {
                 .create();
     }
 
+    private static long parseLong(EditText editText) {
+        try {
+            return Long.parseLong(editText.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private Dialog buildHedgingDialog() {
+        ensureHasReadModelData();
+
+        LinearLayout layout = (LinearLayout)
+                getLayoutInflater().inflate(R.layout.dialog_hedging, null);
+
+        CheckBox enabledCheckBox = layout.findViewById(R.id.check_hedging);
+        EditText delayEditText = layout.findViewById(R.id.edit_hedging_delay);
+        CheckBox failoverCheckBox = layout.findViewById(R.id.check_failover);
+        enabledCheckBox.setChecked(mHedgingConfig.getBoolean(UiInteracter.EXTRA_CONFIG_HEDGING_ENABLED));
+        failoverCheckBox.setChecked(mHedgingConfig.getBoolean(UiInteracter.EXTRA_CONFIG_FAILOVER_ENABLED));
+        long delayMs = mHedgingConfig.getLong(UiInteracter.EXTRA_CONFIG_HEDGING_DELAY_MS);
+        if (delayMs > 0) {
+            delayEditText.setText(String.valueOf(delayMs));
+        }
+
+        List<LanguageModel> models = LanguageModel.providers();
+        CharSequence[] names = models.stream()
+                .map((model) -> model.label).toArray(CharSequence[]::new);
+        String modelName = mHedgingConfig.getString(UiInteracter.EXTRA_CONFIG_HEDGING_MODEL);
+        int[] checkedModel = { modelName != null ? models.indexOf(LanguageModel.valueOf(modelName)) : -1 };
+
+        return new AlertDialog.Builder(this)
+                .setTitle("Backup model")
+                .setSingleChoiceItems(names, checkedModel[0], (dialog, which) -> checkedModel[0] = which)
+                .setView(layout)
+                .setPositiveButton("Ok", (dialog, which) -> {
+                    long newDelayMs;
+                    try {
+                        newDelayMs = Math.max(0, Long.parseLong(delayEditText.getText().toString().trim()));
+                    } catch (NumberFormatException e) {
+                        newDelayMs = 0;
+                    }
+
+                    mHedgingConfig.putBoolean(UiInteracter.EXTRA_CONFIG_HEDGING_ENABLED,
+                            enabledCheckBox.isChecked() && checkedModel[0] >= 0);
+                    mHedgingConfig.putString(UiInteracter.EXTRA_CONFIG_HEDGING_MODEL, checkedModel[0] >= 0
+                            ? models.get(checkedModel[0]).name() : null);
+                    mHedgingConfig.putLong(UiInteracter.EXTRA_CONFIG_HEDGING_DELAY_MS, newDelayMs);
+                    mHedgingConfig.putBoolean(UiInteracter.EXTRA_CONFIG_FAILOVER_ENABLED,
+                            failoverCheckBox.isChecked());
+                    dialog.dismiss();
+                })
+                .setNegativeButton("Cancel", (dialog, which) -> {
+                    showDialog(buildChoseModelDialog(), DialogType.ChoseModel);
+                    dialog.dismiss();
+                })
+                .setOnDismissListener(d -> returnToKeyboard(DialogType.Hedging))
+                .create();
+    }
+
     private Dialog buildChoseModelDialog() {
         ensureHasReadModelData();
 
@@ -242,12 +391,21 @@ public class DialogActivity extends Activity {
                 .setTitle("Select Language Model")
                 .setSingleChoiceItems(names, mSelectedModel.ordinal(), (dialog, which) -> {
                     mSelectedModel = LanguageModel.values()[which];
+                    if (mSelectedModel == LanguageModel.Auto) {
+                        // Routes between the providers configured so far, nothing to set up
+                        dialog.dismiss();
+                        return;
+                    }
 
                     Dialog apiKeyDialog = buildConfigureModelDialog();
                     showDialog(apiKeyDialog, DialogType.ConfigureModel);
 
                     dialog.dismiss();
                 })
+                .setNeutralButton("Hedging", (dialog, which) -> {
+                    showDialog(buildHedgingDialog(), DialogType.Hedging);
+                    dialog.dismiss();
+                })
                 .setOnDismissListener(d -> returnToKeyboard(DialogType.ChoseModel))
                 .create();
     }
@@ -261,6 +419,8 @@ public class DialogActivity extends Activity {
                 broadcastIntent.putExtra(UiInteracter.EXTRA_CONFIG_SELECTED_MODEL, mSelectedModel.name());
             if (mLanguageModelsConfig != null)
                 broadcastIntent.putExtra(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL, mLanguageModelsConfig);
+            if (mHedgingConfig != null)
+                broadcastIntent.putExtra(UiInteracter.EXTRA_CONFIG_HEDGING, mHedgingConfig);
             if (mCommands != null)
                 broadcastIntent.putExtra(UiInteracter.EXTRA_COMMAND_LIST, Commands.encodeCommands(mCommands));
 
@@ -276,6 +436,9 @@ public class DialogActivity extends Activity {
         if (mLanguageModelsConfig == null)
             mLanguageModelsConfig =
                     getIntent().getBundleExtra(UiInteracter.EXTRA_CONFIG_LANGUAGE_MODEL);
+        if (mHedgingConfig == null)
+            mHedgingConfig =
+                    getIntent().getBundleExtra(UiInteracter.EXTRA_CONFIG_HEDGING);
     }
 
     private void ensureHasCommands() {
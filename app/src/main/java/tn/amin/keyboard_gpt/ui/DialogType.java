@@ -3,9 +3,11 @@ package tn.amin.keyboard_gpt.ui;
 public enum DialogType {
     ChoseModel(true),
     ConfigureModel(true),
+    Hedging(true),
     WebSearch(false),
     EditCommandsList(false),
     EditCommand(false),
+    Diagnostics(false),
     ;
 
     final boolean isModelConfig;
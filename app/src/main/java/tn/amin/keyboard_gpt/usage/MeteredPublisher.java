@@ -0,0 +1,74 @@
+package tn.amin.keyboard_gpt.usage;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import tn.amin.keyboard_gpt.language_model.LanguageModel;
+import tn.amin.keyboard_gpt.language_model.TokenUsage;
+
+/**
+ * Passes a response through while taking the token usage its provider reports to a
+ * {@link UsageTracker}, along with how long the stream took from its first token. Must subscribe
+ * to the client's publisher directly, since only its own subscriber is told the usage.
+ */
+class MeteredPublisher implements Publisher<String> {
+    private final UsageTracker mTracker;
+    private final LanguageModel mModel;
+    private final String mSubModel;
+    private final String mCommand;
+    private final Publisher<String> mUpstream;
+
+    MeteredPublisher(UsageTracker tracker, LanguageModel model, String subModel, String command,
+                     Publisher<String> upstream) {
+        mTracker = tracker;
+        mModel = model;
+        mSubModel = subModel;
+        mCommand = command;
+        mUpstream = upstream;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super String> subscriber) {
+        mUpstream.subscribe(new MeteredSubscriber(subscriber));
+    }
+
+    private class MeteredSubscriber implements Subscriber<String>, TokenUsage.Listener {
+        private final Subscriber<? super String> mDownstream;
+        private volatile long mFirstTokenNanos = -1;
+
+        MeteredSubscriber(Subscriber<? super String> downstream) {
+            mDownstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            mDownstream.onSubscribe(s);
+        }
+
+        @Override
+        public void onNext(String s) {
+            if (mFirstTokenNanos < 0) {
+                mFirstTokenNanos = System.nanoTime();
+            }
+            mDownstream.onNext(s);
+        }
+
+        @Override
+        public void onUsage(TokenUsage usage) {
+            long firstTokenNanos = mFirstTokenNanos;
+            long streamMs = firstTokenNanos < 0 ? -1 : (System.nanoTime() - firstTokenNanos) / 1_000_000;
+            mTracker.record(mModel, mSubModel, mCommand, usage, streamMs);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            mDownstream.onError(t);
+        }
+
+        @Override
+        public void onComplete() {
+            mDownstream.onComplete();
+        }
+    }
+}
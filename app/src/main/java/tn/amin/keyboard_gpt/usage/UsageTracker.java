@@ -0,0 +1,403 @@
+package tn.amin.keyboard_gpt.usage;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.reactivestreams.Publisher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+import tn.amin.keyboard_gpt.MainHook;
+import tn.amin.keyboard_gpt.language_model.LanguageModel;
+import tn.amin.keyboard_gpt.language_model.TokenUsage;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+
+/**
+ * Tokens spent per provider, sub-model and command, taken from the usage the providers report
+ * within their streams so that counting costs no extra request. The current day is kept in memory
+ * and rolled up into one small file per day, which survives restarts and is kept for
+ * {@link #RETENTION_DAYS}. A provider with a daily token budget raises an alarm once when its
+ * spending for the day reaches {@link #WARNING_RATIO} of the budget, and once more when it is used
+ * up.
+ */
+public class UsageTracker {
+    public interface BudgetListener {
+        /**
+         * @param exhausted whether the budget is used up, rather than only close to it
+         */
+        void onBudgetAlarm(LanguageModel model, long spentTokens, long budgetTokens, boolean exhausted);
+    }
+
+    private static final String DIRECTORY_NAME = "usage";
+    private static final long SAVE_DELAY_MS = 5000;
+    private static final int RETENTION_DAYS = 90;
+    private static final double WARNING_RATIO = 0.8;
+
+    // Streams shorter than this say little about the rate
+    private static final long MIN_STREAM_MS = 200;
+
+    private static final int ALARM_NONE = 0;
+    private static final int ALARM_WARNING = 1;
+    private static final int ALARM_EXHAUSTED = 2;
+
+    private final File mDirectory;
+
+    // Guarded by this
+    private final SimpleDateFormat mDayFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.ROOT);
+    private String mDay = null;
+    private final Map<String, Totals> mTotals = new TreeMap<>();
+    private final Map<LanguageModel, Long> mSpent = new EnumMap<>(LanguageModel.class);
+    private final Map<LanguageModel, Long> mBudgets = new EnumMap<>(LanguageModel.class);
+    private final Map<LanguageModel, Integer> mAlarms = new EnumMap<>(LanguageModel.class);
+    private ScheduledFuture<?> mPendingSave = null;
+
+    private volatile BudgetListener mBudgetListener = null;
+
+    public UsageTracker(File filesDir) {
+        mDirectory = new File(filesDir, DIRECTORY_NAME);
+    }
+
+    public void setBudgetListener(BudgetListener listener) {
+        mBudgetListener = listener;
+    }
+
+    /**
+     * @param budgetTokens tokens {@code model} may spend per day before the alarm goes off, 0 for
+     *                     no budget
+     */
+    public synchronized void setDailyBudget(LanguageModel model, long budgetTokens) {
+        mBudgets.put(model, Math.max(0, budgetTokens));
+        // A raised budget may go off again, a lowered one goes off with the next response
+        mAlarms.put(model, Math.min(getAlarm(model), getAlarmLevel(model)));
+    }
+
+    /**
+     * Passes {@code upstream} through, recording the token usage its provider reports and the
+     * rate at which it streamed.
+     *
+     * @param command label of what the request was made for, e.g. the command prefix
+     */
+    public Publisher<String> meter(LanguageModel model, String subModel, String command, Publisher<String> upstream) {
+        return new MeteredPublisher(this, model, subModel, command, upstream);
+    }
+
+    /**
+     * @param streamMs time from the first token to the end of the stream, or -1 if no token came
+     */
+    void record(LanguageModel model, String subModel, String command, TokenUsage usage, long streamMs) {
+        String name = model.name();
+        Metrics.counter("usage.requests." + name).inc();
+        Metrics.counter("usage.input_tokens." + name).add(usage.getInputTokens());
+        Metrics.counter("usage.cache_read_tokens." + name).add(usage.getCacheReadTokens());
+        Metrics.counter("usage.cache_creation_tokens." + name).add(usage.getCacheCreationTokens());
+        Metrics.counter("usage.output_tokens." + name).add(usage.getOutputTokens());
+        if (streamMs >= MIN_STREAM_MS && usage.getOutputTokens() > 0) {
+            Metrics.histogram("throughput.tokens_per_s." + name).record(usage.getOutputTokens() * 1000 / streamMs);
+        }
+        MainHook.log("Usage of " + name + " (" + subModel + ") for " + command + ": " + usage);
+
+        long spent;
+        long budget;
+        int alarm;
+        synchronized (this) {
+            roll(System.currentTimeMillis());
+
+            String key = name + '\0' + subModel + '\0' + command;
+            Totals totals = mTotals.get(key);
+            if (totals == null) {
+                totals = new Totals(model, subModel, command);
+                mTotals.put(key, totals);
+            }
+            totals.add(usage);
+            mSpent.put(model, getSpent(model) + usage.getTotalTokens());
+
+            spent = getSpent(model);
+            budget = getBudget(model);
+            alarm = getAlarmLevel(model);
+            if (alarm <= getAlarm(model)) {
+                alarm = ALARM_NONE;
+            }
+            else {
+                mAlarms.put(model, alarm);
+            }
+            scheduleSave();
+        }
+
+        BudgetListener listener = mBudgetListener;
+        if (alarm != ALARM_NONE && listener != null) {
+            listener.onBudgetAlarm(model, spent, budget, alarm == ALARM_EXHAUSTED);
+        }
+    }
+
+    private long getSpent(LanguageModel model) {
+        Long spent = mSpent.get(model);
+        return spent != null ? spent : 0;
+    }
+
+    private long getBudget(LanguageModel model) {
+        Long budget = mBudgets.get(model);
+        return budget != null ? budget : 0;
+    }
+
+    private int getAlarm(LanguageModel model) {
+        Integer alarm = mAlarms.get(model);
+        return alarm != null ? alarm : ALARM_NONE;
+    }
+
+    /**
+     * @return the alarm the current spending of {@code model} calls for
+     */
+    private int getAlarmLevel(LanguageModel model) {
+        long budget = getBudget(model);
+        long spent = getSpent(model);
+        if (budget <= 0) {
+            return ALARM_NONE;
+        }
+        if (spent >= budget) {
+            return ALARM_EXHAUSTED;
+        }
+        return spent >= budget * WARNING_RATIO ? ALARM_WARNING : ALARM_NONE;
+    }
+
+    /**
+     * Switches to the day of {@code now}, writing out the one that ended and picking up what was
+     * already spent today before a restart.
+     */
+    private void roll(long now) {
+        String day = mDayFormat.format(new Date(now));
+        if (day.equals(mDay)) {
+            return;
+        }
+
+        if (mDay != null) {
+            writeToDisk(mDay, encode());
+        }
+        mDay = day;
+        mTotals.clear();
+        mSpent.clear();
+        readFromDisk(day);
+
+        // Alarms already raised today are not raised again
+        mAlarms.clear();
+        for (LanguageModel model: mBudgets.keySet()) {
+            mAlarms.put(model, getAlarmLevel(model));
+        }
+    }
+
+    private void readFromDisk(String day) {
+        File file = new File(mDirectory, day + ".json");
+        if (!file.isFile()) {
+            return;
+        }
+
+        byte[] bytes = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            int read;
+            while (offset < bytes.length && (read = in.read(bytes, offset, bytes.length - offset)) != -1) {
+                offset += read;
+            }
+        } catch (IOException e) {
+            MainHook.log("Failed to read usage: " + e.getMessage());
+            return;
+        }
+
+        try {
+            JSONArray entries = new JSONArray(new String(bytes, StandardCharsets.UTF_8));
+            for (int i = 0; i < entries.length(); i++) {
+                Totals totals = Totals.decode(entries.getJSONObject(i));
+                if (totals == null) {
+                    continue;
+                }
+                mTotals.put(totals.model.name() + '\0' + totals.subModel + '\0' + totals.command, totals);
+                mSpent.put(totals.model, getSpent(totals.model) + totals.getTotalTokens());
+            }
+        } catch (JSONException e) {
+            MainHook.log(e);
+        }
+    }
+
+    private String encode() {
+        JSONArray entries = new JSONArray();
+        try {
+            for (Totals totals: mTotals.values()) {
+                entries.put(totals.encode());
+            }
+        } catch (JSONException e) {
+            MainHook.log(e);
+        }
+        return entries.toString();
+    }
+
+    /**
+     * Coalesces the writes of responses finishing close to each other.
+     */
+    private synchronized void scheduleSave() {
+        if (mPendingSave != null && !mPendingSave.isDone()) {
+            return;
+        }
+
+        try {
+            mPendingSave = GenerationExecutors.get().timer().schedule(() -> {
+                try {
+                    GenerationExecutors.get().compute().execute(this::save);
+                } catch (RejectedExecutionException e) {
+                    MainHook.log("Skipped writing usage to disk: " + e.getMessage());
+                }
+            }, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            MainHook.log(e);
+        }
+    }
+
+    private void save() {
+        String day;
+        String json;
+        synchronized (this) {
+            day = mDay;
+            json = encode();
+        }
+        writeToDisk(day, json);
+    }
+
+    private synchronized void writeToDisk(String day, String json) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return;
+        }
+
+        File temp = new File(mDirectory, day + ".json.tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            MainHook.log("Failed to write usage: " + e.getMessage());
+            temp.delete();
+            return;
+        }
+
+        if (!temp.renameTo(new File(mDirectory, day + ".json"))) {
+            temp.delete();
+            return;
+        }
+
+        trimDisk();
+    }
+
+    /**
+     * Drops the days past retention.
+     */
+    private void trimDisk() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long oldest = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(RETENTION_DAYS);
+        for (File file: files) {
+            if (file.lastModified() < oldest) {
+                file.delete();
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        roll(System.currentTimeMillis());
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("Today (").append(mDay).append(")\n");
+        for (Totals totals: mTotals.values()) {
+            builder.append(totals).append('\n');
+        }
+        for (Map.Entry<LanguageModel, Long> entry: mBudgets.entrySet()) {
+            if (entry.getValue() > 0) {
+                builder.append(entry.getKey().name()).append(" budget: ")
+                        .append(getSpent(entry.getKey())).append('/').append(entry.getValue()).append(" tokens\n");
+            }
+        }
+        return builder.toString();
+    }
+
+    private static class Totals {
+        final LanguageModel model;
+        final String subModel;
+        final String command;
+        long requests = 0;
+        long inputTokens = 0;
+        long cacheReadTokens = 0;
+        long cacheCreationTokens = 0;
+        long outputTokens = 0;
+
+        Totals(LanguageModel model, String subModel, String command) {
+            this.model = model;
+            this.subModel = subModel;
+            this.command = command;
+        }
+
+        void add(TokenUsage usage) {
+            requests++;
+            inputTokens += usage.getInputTokens();
+            cacheReadTokens += usage.getCacheReadTokens();
+            cacheCreationTokens += usage.getCacheCreationTokens();
+            outputTokens += usage.getOutputTokens();
+        }
+
+        long getTotalTokens() {
+            return inputTokens + cacheReadTokens + cacheCreationTokens + outputTokens;
+        }
+
+        JSONObject encode() throws JSONException {
+            return new JSONObject()
+                    .put("model", model.name())
+                    .put("subModel", subModel)
+                    .put("command", command)
+                    .put("requests", requests)
+                    .put("input", inputTokens)
+                    .put("cacheRead", cacheReadTokens)
+                    .put("cacheCreation", cacheCreationTokens)
+                    .put("output", outputTokens);
+        }
+
+        /**
+         * @return null if the entry belongs to a model that no longer exists
+         */
+        static Totals decode(JSONObject json) throws JSONException {
+            LanguageModel model;
+            try {
+                model = LanguageModel.valueOf(json.getString("model"));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+
+            Totals totals = new Totals(model, json.getString("subModel"), json.getString("command"));
+            totals.requests = json.getLong("requests");
+            totals.inputTokens = json.getLong("input");
+            totals.cacheReadTokens = json.getLong("cacheRead");
+            totals.cacheCreationTokens = json.getLong("cacheCreation");
+            totals.outputTokens = json.getLong("output");
+            return totals;
+        }
+
+        @Override
+        public String toString() {
+            return model.name() + "/" + subModel + " " + command + ": " + requests + " requests, "
+                    + inputTokens + " in, " + cacheReadTokens + " cache read, "
+                    + cacheCreationTokens + " cache write, " + outputTokens + " out";
+        }
+    }
+}
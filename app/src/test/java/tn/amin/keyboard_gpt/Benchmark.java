@@ -0,0 +1,8 @@
+package tn.amin.keyboard_gpt;
+
+/**
+ * JUnit category of timed benchmarks. Their results depend on the load of the machine, so they
+ * are left out of the unit tests and only run through the {@code benchmark} task.
+ */
+public interface Benchmark {
+}
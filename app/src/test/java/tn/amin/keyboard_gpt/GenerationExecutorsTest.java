@@ -0,0 +1,115 @@
+package tn.amin.keyboard_gpt;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GenerationExecutorsTest {
+    private static final int MAX_THREADS = GenerationExecutors.IO_THREADS + GenerationExecutors.COMPUTE_THREADS
+            + GenerationExecutors.TIMER_THREADS + GenerationExecutors.NETWORK_THREADS;
+    // Running and queued
+    private static final int MAX_IO_TASKS = GenerationExecutors.IO_THREADS + GenerationExecutors.IO_QUEUE_SIZE;
+    private static final int GENERATIONS = 2000;
+    // As many generations at once as the io pool runs
+    private static final int BATCH = GenerationExecutors.IO_THREADS;
+
+    @After
+    public void tearDown() {
+        GenerationExecutors.shutdown();
+    }
+
+    /**
+     * Many generations, each with a stream on io, some parsing on compute and a deadline on the
+     * timer, never take more threads than the pools are sized for, and the count does not creep
+     * up as generations go by.
+     */
+    @Test
+    public void threadCountStaysConstantOverManyGenerations() throws InterruptedException {
+        int peak = 0;
+        int afterFirstBatch = -1;
+        for (int done = 0; done < GENERATIONS; done += BATCH) {
+            CountDownLatch latch = new CountDownLatch(BATCH * 3);
+            for (int i = 0; i < BATCH; i++) {
+                GenerationExecutors.get().io().execute(() -> {
+                    sleep(1);
+                    latch.countDown();
+                });
+                GenerationExecutors.get().compute().execute(latch::countDown);
+                GenerationExecutors.get().timer().schedule(latch::countDown, 1, TimeUnit.MILLISECONDS);
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+            int threads = countPoolThreads();
+            peak = Math.max(peak, threads);
+            if (afterFirstBatch < 0) {
+                afterFirstBatch = threads;
+            }
+        }
+
+        assertTrue("Peak of " + peak + " threads", peak <= MAX_THREADS);
+        // Less would only mean threads of an earlier shutdown were still exiting
+        int last = countPoolThreads();
+        assertTrue(last + " threads after " + afterFirstBatch, last <= afterFirstBatch);
+    }
+
+    @Test
+    public void rejectsWorkBeyondTheQueue() {
+        CountDownLatch release = new CountDownLatch(1);
+        int accepted = 0;
+        try {
+            for (int i = 0; i < MAX_IO_TASKS * 2; i++) {
+                GenerationExecutors.get().io().execute(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                accepted++;
+            }
+        } catch (RejectedExecutionException e) {
+            // Expected once threads and queue are full
+        } finally {
+            release.countDown();
+        }
+
+        assertEquals(MAX_IO_TASKS, accepted);
+        assertTrue(countPoolThreads() <= MAX_THREADS);
+    }
+
+    @Test
+    public void shutdownStartsFreshPools() throws InterruptedException {
+        GenerationExecutors first = GenerationExecutors.get();
+        GenerationExecutors.shutdown();
+        GenerationExecutors second = GenerationExecutors.get();
+        assertTrue(first != second);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        second.io().execute(latch::countDown);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    private static int countPoolThreads() {
+        int count = 0;
+        for (Thread thread: Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith("KeyboardGPT-")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
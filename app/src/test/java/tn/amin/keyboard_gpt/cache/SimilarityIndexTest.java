@@ -0,0 +1,76 @@
+package tn.amin.keyboard_gpt.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SimilarityIndexTest {
+    private static final String PROMPT = "Please fix the grammar of this sentence: me and him goes to the store yesterday";
+
+    @Test
+    public void findsNearDuplicates() {
+        SimilarityIndex index = new SimilarityIndex(16);
+        index.add(1, PROMPT, "key");
+
+        // Case, punctuation and spacing only
+        assertEquals("key", index.find(1, "please FIX the grammar of this sentence -- me and him goes to the store, yesterday!", 0.9));
+        // A typo
+        assertEquals("key", index.find(1, "Please fix the grammar of this sentence: me and him goes to the stor yesterday", 0.8));
+    }
+
+    @Test
+    public void rejectsDifferentPrompts() {
+        SimilarityIndex index = new SimilarityIndex(16);
+        index.add(1, PROMPT, "key");
+
+        assertNull(index.find(1, "Translate to French: where is the nearest train station", 0.9));
+    }
+
+    @Test
+    public void rejectsPromptsOfVeryDifferentLength() {
+        SimilarityIndex index = new SimilarityIndex(16);
+        index.add(1, PROMPT, "key");
+
+        // The same text repeated keeps most trigrams, but is twice as long
+        assertNull(index.find(1, PROMPT + " " + PROMPT, 0.9));
+    }
+
+    @Test
+    public void keepsScopesApart() {
+        SimilarityIndex index = new SimilarityIndex(16);
+        index.add(1, PROMPT, "key");
+
+        assertNull(index.find(2, PROMPT, 0.9));
+        assertEquals("key", index.find(1, PROMPT, 0.9));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        SimilarityIndex index = new SimilarityIndex(2);
+        index.add(1, "first prompt about cooking pasta at home", "first");
+        index.add(1, "second prompt about repairing a bicycle", "second");
+        // Touch the first so that the second is the eldest
+        assertEquals("first", index.find(1, "first prompt about cooking pasta at home", 0.9));
+        index.add(1, "third prompt about planting tomatoes", "third");
+
+        assertEquals("first", index.find(1, "first prompt about cooking pasta at home", 0.9));
+        assertNull(index.find(1, "second prompt about repairing a bicycle", 0.9));
+        assertEquals("third", index.find(1, "third prompt about planting tomatoes", 0.9));
+    }
+
+    @Test
+    public void replacesEntryStoredUnderSameKey() {
+        SimilarityIndex index = new SimilarityIndex(16);
+        index.add(1, PROMPT, "key");
+        index.add(1, "something else entirely, about the weather tomorrow", "key");
+
+        assertNull(index.find(1, PROMPT, 0.9));
+        assertEquals("key", index.find(1, "something else entirely about the weather tomorrow", 0.9));
+    }
+
+    @Test
+    public void canonicalizesToLowercaseWords() {
+        assertEquals("hello world 42", SimilarityIndex.canonicalize("  Hello,   WORLD!! 42 "));
+    }
+}
@@ -0,0 +1,73 @@
+package tn.amin.keyboard_gpt.instruction.command;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Random;
+
+import tn.amin.keyboard_gpt.Benchmark;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lookup cost with 10 to 10,000 registered commands. A lookup walks the characters of the
+ * matched prefix, so it should not grow with the number of commands. Every size looks up the
+ * same ten commands, as a user only ever types a few of them.
+ */
+@Category(Benchmark.class)
+public class CommandIndexBenchmarkTest {
+    private static final int[] SIZES = { 10, 100, 1000, 10000 };
+    private static final int LOOKUPS = 200_000;
+    private static final int ROUNDS = 5;
+    private static final int QUERIED = 10;
+
+    @Test
+    public void lookupCostIsFlat() {
+        long[] nanosPerLookup = new long[SIZES.length];
+        StringBuilder results = new StringBuilder();
+        for (int i = 0; i < SIZES.length; i++) {
+            nanosPerLookup[i] = measure(SIZES[i]);
+            results.append(SIZES[i]).append(" commands: ").append(nanosPerLookup[i]).append(" ns/lookup\n");
+        }
+
+        long smallest = Math.max(1, nanosPerLookup[0]);
+        assertTrue("Lookup cost grew:\n" + results, nanosPerLookup[SIZES.length - 1] < smallest * 5 + 100);
+    }
+
+    private static long measure(int size) {
+        // Same seed for every size, so the first commands are the same
+        Random random = new Random(42);
+        CommandIndex index = new CommandIndex();
+        String[] texts = new String[QUERIED];
+        for (int i = 0; i < size; i++) {
+            String prefix = randomPrefix(random, i);
+            index.put(new SimpleGenerativeAICommand(prefix, "tweak"));
+            if (i < QUERIED) {
+                texts[i] = prefix + " some text to transform";
+            }
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                assertNotNull(index.find(texts[i % QUERIED]));
+            }
+            best = Math.min(best, (System.nanoTime() - start) / LOOKUPS);
+        }
+        return best;
+    }
+
+    /**
+     * Prefixes of 4 to 8 letters, made unique by a suffix so that none is cut short.
+     */
+    private static String randomPrefix(Random random, int i) {
+        StringBuilder prefix = new StringBuilder();
+        int length = 4 + random.nextInt(5);
+        for (int j = 0; j < length; j++) {
+            prefix.append((char) ('a' + random.nextInt(26)));
+        }
+        return prefix.append('.').append(i).toString();
+    }
+}
@@ -0,0 +1,107 @@
+package tn.amin.keyboard_gpt.instruction.command;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class CommandIndexTest {
+    private static GenerativeAICommand command(String prefix) {
+        return new SimpleGenerativeAICommand(prefix, "tweak " + prefix);
+    }
+
+    @Test
+    public void longestPrefixWins() {
+        CommandIndex index = new CommandIndex();
+        GenerativeAICommand short_ = command("tr");
+        GenerativeAICommand long_ = command("tr.fr");
+        index.put(short_);
+        index.put(long_);
+
+        assertSame(long_, index.find("tr.fr hello"));
+        assertSame(short_, index.find("tr hello"));
+        // "tr." is followed by a letter, so only "tr" applies
+        assertSame(short_, index.find("tr.en hello"));
+    }
+
+    @Test
+    public void prefixFollowedByLetterOrDigitDoesNotMatch() {
+        CommandIndex index = new CommandIndex();
+        GenerativeAICommand fix = command("fix");
+        index.put(fix);
+
+        assertNull(index.find("fixed it"));
+        assertNull(index.find("fix2 it"));
+        assertSame(fix, index.find("fix"));
+        assertSame(fix, index.find("fix it"));
+        assertSame(fix, index.find("fix, it"));
+        assertNull(index.find("fi"));
+        assertNull(index.find(""));
+    }
+
+    @Test
+    public void addEditAndDelete() {
+        CommandIndex index = new CommandIndex();
+        GenerativeAICommand first = command("sum");
+        index.put(first);
+        assertSame(first, index.find("sum text"));
+
+        GenerativeAICommand edited = new SimpleGenerativeAICommand("sum", "other tweak");
+        index.put(edited);
+        assertSame(edited, index.find("sum text"));
+
+        // Removing the replaced command leaves its successor alone
+        index.remove(first);
+        assertSame(edited, index.find("sum text"));
+
+        index.remove(edited);
+        assertNull(index.find("sum text"));
+    }
+
+    @Test
+    public void deletingLongerPrefixKeepsShorterOne() {
+        CommandIndex index = new CommandIndex();
+        GenerativeAICommand shorter = command("a");
+        GenerativeAICommand longer = command("ab");
+        index.put(shorter);
+        index.put(longer);
+
+        index.remove(longer);
+        assertNull(index.find("ab c"));
+        assertSame(shorter, index.find("a b"));
+
+        index.remove(shorter);
+        assertNull(index.find("a b"));
+    }
+
+    @Test
+    public void builtinCommandsAreNotShadowed() {
+        Map<String, GenerativeAICommand> byPrefix = CommandTreater.byPrefix(Arrays.asList(
+                command("s"), command("search")));
+        assertFalse(byPrefix.containsKey("s"));
+
+        CommandIndex index = new CommandIndex();
+        WebSearchCommand webSearch = new WebSearchCommand();
+        index.put(webSearch);
+        for (GenerativeAICommand command: byPrefix.values()) {
+            index.put(command);
+        }
+        assertSame(webSearch, index.find("s cats"));
+        assertSame(byPrefix.get("search"), index.find("search cats"));
+    }
+
+    @Test
+    public void firstOfDuplicatePrefixesWins() {
+        GenerativeAICommand first = command("dup");
+        GenerativeAICommand second = new SimpleGenerativeAICommand("dup", "other tweak");
+        Map<String, GenerativeAICommand> byPrefix = CommandTreater.byPrefix(Arrays.asList(first, second));
+
+        assertEquals(1, byPrefix.size());
+        assertSame(first, byPrefix.get("dup"));
+    }
+}
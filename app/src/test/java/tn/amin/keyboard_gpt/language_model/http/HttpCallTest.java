@@ -0,0 +1,199 @@
+package tn.amin.keyboard_gpt.language_model.http;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpCallTest {
+    private static class Response implements HttpCall.Listener {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final CountDownLatch responded = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile int statusCode = 0;
+        volatile Map<String, String> headers;
+        volatile boolean completed = false;
+        volatile IOException error;
+
+        @Override
+        public void onResponse(int statusCode, Map<String, String> headers) {
+            this.statusCode = statusCode;
+            this.headers = headers;
+            responded.countDown();
+        }
+
+        @Override
+        public void onBody(ByteBuffer body) {
+            while (body.hasRemaining()) {
+                this.body.write(body.get());
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            error = e;
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("call did not end", done.await(5, TimeUnit.SECONDS));
+        }
+
+        String body() {
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private StandInServer mServer;
+
+    @After
+    public void tearDown() throws IOException {
+        if (mServer != null) {
+            mServer.close();
+        }
+    }
+
+    private static HttpCall call(HttpRequest request, Response response) {
+        return new HttpCall(GenerationExecutors.get().network(), request, response);
+    }
+
+    @Test
+    public void sendsRequestAndReadsChunkedBody() throws Exception {
+        mServer = new StandInServer((request, out) -> {
+            StandInServer.writeChunkedHead(out, 200, "Content-Type", "text/event-stream");
+            StandInServer.writeChunk(out, "data: one\n\n");
+            StandInServer.writeChunk(out, "data: two\n\n");
+            StandInServer.writeLastChunk(out);
+            return true;
+        });
+
+        HttpRequest request = new HttpRequest(mServer.url("/v1/chat"), "POST")
+                .header("Authorization", "Bearer key")
+                .setBody(writer -> writer.beginObject().name("model").value("m").endObject());
+        Response response = new Response();
+        call(request, response).start();
+        response.await();
+
+        assertNull(response.error);
+        assertTrue(response.completed);
+        assertEquals(200, response.statusCode);
+        assertEquals("text/event-stream", response.headers.get("content-type"));
+        assertEquals("data: one\n\ndata: two\n\n", response.body());
+
+        StandInServer.Request sent = mServer.requests.poll(1, TimeUnit.SECONDS);
+        assertTrue(sent.head.startsWith("POST /v1/chat HTTP/1.1\r\n"));
+        assertTrue(sent.head.contains("Authorization: Bearer key\r\n"));
+        assertEquals("{\"model\":\"m\"}", sent.body);
+    }
+
+    @Test
+    public void reusesKeepAliveConnection() throws Exception {
+        mServer = new StandInServer((request, out) -> {
+            StandInServer.writeChunkedHead(out, 200);
+            StandInServer.writeChunk(out, "ok");
+            StandInServer.writeLastChunk(out);
+            return true;
+        });
+
+        for (int i = 0; i < 2; i++) {
+            Response response = new Response();
+            call(new HttpRequest(mServer.url("/"), "GET"), response).start();
+            response.await();
+            assertNull(response.error);
+            assertEquals("ok", response.body());
+        }
+        assertEquals(1, mServer.connections.get());
+        assertEquals(2, mServer.requests.size());
+    }
+
+    @Test
+    public void cancelClosesConnection() throws Exception {
+        mServer = new StandInServer((request, out) -> {
+            StandInServer.writeChunkedHead(out, 200);
+            // Writing fails once the client closed the connection
+            for (int i = 0; i < 500; i++) {
+                StandInServer.writeChunk(out, "data: token\n\n");
+                Thread.sleep(10);
+            }
+            return false;
+        });
+
+        Response response = new Response();
+        HttpCall call = call(new HttpRequest(mServer.url("/"), "GET"), response);
+        call.start();
+        assertTrue(response.responded.await(5, TimeUnit.SECONDS));
+        call.cancel();
+
+        assertTrue(mServer.closedByClient.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(1, response.done.getCount());
+    }
+
+    @Test
+    public void failsWhenServerStalls() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        mServer = new StandInServer((request, out) -> {
+            StandInServer.writeChunkedHead(out, 200);
+            release.await(5, TimeUnit.SECONDS);
+            return false;
+        });
+
+        Response response = new Response();
+        call(new HttpRequest(mServer.url("/"), "GET").setTimeouts(0, 100), response).start();
+        response.await();
+        release.countDown();
+
+        assertTrue(response.error instanceof SocketTimeoutException);
+    }
+
+    @Test
+    public void passesErrorStatusWithBody() throws Exception {
+        mServer = new StandInServer((request, out) -> {
+            StandInServer.writeChunkedHead(out, 429, "Retry-After", "3");
+            StandInServer.writeChunk(out, "{\"error\":\"slow down\"}");
+            StandInServer.writeLastChunk(out);
+            return true;
+        });
+
+        Response response = new Response();
+        call(new HttpRequest(mServer.url("/"), "GET"), response).start();
+        response.await();
+
+        assertTrue(response.completed);
+        assertEquals(429, response.statusCode);
+        assertEquals("3", response.headers.get("retry-after"));
+        assertEquals("{\"error\":\"slow down\"}", response.body());
+    }
+
+    @Test
+    public void failsWhenConnectionRefused() throws Exception {
+        mServer = new StandInServer((request, out) -> false);
+        String url = mServer.url("/");
+        mServer.close();
+        mServer = null;
+
+        Response response = new Response();
+        call(new HttpRequest(url, "GET"), response).start();
+        response.await();
+
+        assertTrue(response.error != null);
+    }
+}
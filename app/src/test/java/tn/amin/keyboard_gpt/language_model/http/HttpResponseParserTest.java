@@ -0,0 +1,164 @@
+package tn.amin.keyboard_gpt.language_model.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpResponseParserTest {
+    private static class Response implements HttpResponseParser.Listener {
+        final HttpResponseParser parser;
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int statusCode = 0;
+        Map<String, String> headers;
+        int heads = 0;
+
+        Response(boolean headRequest) {
+            parser = new HttpResponseParser(headRequest);
+        }
+
+        @Override
+        public void onHead(int statusCode, Map<String, String> headers) {
+            this.statusCode = statusCode;
+            this.headers = headers;
+            heads++;
+        }
+
+        @Override
+        public void onBody(ByteBuffer body) {
+            while (body.hasRemaining()) {
+                this.body.write(body.get());
+            }
+        }
+
+        String body() {
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Feeds {@code raw} {@code chunkSize} bytes at a time.
+     *
+     * @return what was left after the response
+     */
+    private static String feed(Response response, String raw, int chunkSize) throws IOException {
+        byte[] bytes = raw.getBytes(StandardCharsets.UTF_8);
+        StringBuilder left = new StringBuilder();
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            ByteBuffer in = ByteBuffer.wrap(bytes, offset, Math.min(chunkSize, bytes.length - offset));
+            response.parser.feed(in, response);
+            left.append(new String(bytes, in.position(), in.remaining(), StandardCharsets.UTF_8));
+        }
+        return left.toString();
+    }
+
+    private static Response parse(String raw, int chunkSize) throws IOException {
+        Response response = new Response(false);
+        feed(response, raw, chunkSize);
+        return response;
+    }
+
+    @Test
+    public void readsAContentLengthBody() throws IOException {
+        String raw = "HTTP/1.1 429 Too Many Requests\r\n"
+                + "Content-Length: 10\r\n"
+                + "retry-after-ms: 1500\r\n"
+                + "X-Multi: first\r\n"
+                + "x-multi: second\r\n\r\n"
+                + "{\"a\":\"\u00e9\"}";
+        for (int chunkSize = 1; chunkSize <= 7; chunkSize++) {
+            Response response = parse(raw, chunkSize);
+            assertEquals(429, response.statusCode);
+            assertEquals("1500", response.headers.get("Retry-After-Ms"));
+            assertEquals("second", response.headers.get("X-MULTI"));
+            assertEquals("{\"a\":\"\u00e9\"}", response.body());
+            assertTrue(response.parser.isDone());
+            assertTrue(response.parser.isKeepAlive());
+        }
+    }
+
+    @Test
+    public void removesChunkedCoding() throws IOException {
+        String raw = "HTTP/1.1 200 OK\r\n"
+                + "Transfer-Encoding: chunked\r\n\r\n"
+                + "6\r\ndata: \r\n"
+                + "A;ext=1\r\n0123456789\r\n"
+                + "0\r\nTrailer: yes\r\n\r\n";
+        for (int chunkSize = 1; chunkSize <= 7; chunkSize++) {
+            Response response = parse(raw, chunkSize);
+            assertEquals("data: 0123456789", response.body());
+            assertTrue(response.parser.isDone());
+        }
+    }
+
+    @Test
+    public void leavesWhatFollowsTheResponse() throws IOException {
+        Response response = new Response(false);
+        String left = feed(response, "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nokHTTP/1.1", 64);
+        assertEquals("ok", response.body());
+        assertEquals("HTTP/1.1", left);
+    }
+
+    @Test
+    public void readsUntilCloseWithoutFraming() throws IOException {
+        Response response = parse("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\n\r\ndata: a\n\n", 3);
+        assertFalse(response.parser.isDone());
+        assertFalse(response.parser.isKeepAlive());
+
+        response.parser.endOfInput();
+        assertTrue(response.parser.isDone());
+        assertEquals("data: a\n\n", response.body());
+    }
+
+    @Test
+    public void failsWhenClosedEarly() throws IOException {
+        Response response = parse("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nshort", 64);
+        try {
+            response.parser.endOfInput();
+            fail();
+        } catch (EOFException expected) {
+        }
+    }
+
+    @Test
+    public void skipsInterimResponses() throws IOException {
+        Response response = parse("HTTP/1.1 100 Continue\r\n\r\n"
+                + "HTTP/1.1 204 No Content\r\nX-Final: yes\r\n\r\n", 5);
+        assertEquals(1, response.heads);
+        assertEquals(204, response.statusCode);
+        assertEquals("yes", response.headers.get("x-final"));
+        assertTrue(response.parser.isDone());
+    }
+
+    @Test
+    public void headResponsesHaveNoBody() throws IOException {
+        Response response = new Response(true);
+        feed(response, "HTTP/1.1 200 OK\r\nContent-Length: 1256\r\n\r\n", 64);
+        assertTrue(response.parser.isDone());
+        assertEquals("", response.body());
+    }
+
+    @Test
+    public void honoursConnectionClose() throws IOException {
+        assertFalse(parse("HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 0\r\n\r\n", 64)
+                .parser.isKeepAlive());
+        assertFalse(parse("HTTP/1.0 200 OK\r\nContent-Length: 0\r\n\r\n", 64).parser.isKeepAlive());
+        assertTrue(parse("HTTP/1.0 200 OK\r\nConnection: Keep-Alive\r\nContent-Length: 0\r\n\r\n", 64)
+                .parser.isKeepAlive());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void rejectsAnythingButHttp1() throws IOException {
+        parse("SSH-2.0-OpenSSH_9.6\r\n\r\n", 64);
+    }
+}
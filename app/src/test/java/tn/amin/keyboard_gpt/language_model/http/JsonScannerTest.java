@@ -0,0 +1,98 @@
+package tn.amin.keyboard_gpt.language_model.http;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JsonScannerTest {
+    private static JsonScanner scan(String json) {
+        JsonScanner scanner = new JsonScanner();
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        scanner.reset(bytes, 0, bytes.length);
+        return scanner;
+    }
+
+    @Test
+    public void decodesEscapes() {
+        JsonScanner scanner = scan("{\"s\":\"a\\\"b\\\\c\\/d\\n\\t\\r\\b\\f\\u00e9\\ud83d\\ude00\"}");
+        assertEquals("a\"b\\c/d\n\t\r\b\f\u00e9\ud83d\ude00", scanner.getString(scanner.find(JsonScanner.Path.of("s"))));
+    }
+
+    @Test
+    public void rejectsInvalidUnicodeEscapes() {
+        JsonScanner scanner = scan("{\"bad\":\"a\\u00zzb\",\"short\":\"a\\u12\",\"next\":\"ok\"}");
+        assertNull(scanner.getString(scanner.find(JsonScanner.Path.of("bad"))));
+        assertNull(scanner.getString(scanner.find(JsonScanner.Path.of("short"))));
+        assertEquals("ok", scanner.getString(scanner.find(JsonScanner.Path.of("next"))));
+    }
+
+    @Test
+    public void decodesRawUtf8() {
+        JsonScanner scanner = scan("{\"s\":\"caf\u00e9 \u4e2d \ud83d\ude00\"}");
+        assertEquals("caf\u00e9 \u4e2d \ud83d\ude00", scanner.getString(scanner.find(JsonScanner.Path.of("s"))));
+    }
+
+    @Test
+    public void followsNestedPaths() {
+        JsonScanner scanner = scan("{\"id\":\"x\",\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\"}},"
+                + "{\"index\":1,\"delta\":{\"content\":\"Hi\"},\"finish_reason\":null}]}");
+        assertEquals("assistant", scanner.getString(scanner.find(JsonScanner.Path.of("choices", 0, "delta", "role"))));
+        assertEquals("Hi", scanner.getString(scanner.find(JsonScanner.Path.of("choices", 1, "delta", "content"))));
+        assertEquals(-1, scanner.find(JsonScanner.Path.of("choices", 0, "delta", "content")));
+        assertEquals(-1, scanner.find(JsonScanner.Path.of("choices", 2)));
+        assertEquals("null", scanner.getRaw(scanner.find(JsonScanner.Path.of("choices", 1, "finish_reason"))));
+    }
+
+    @Test
+    public void skipsValuesThatLookLikeTheKey() {
+        // Keys, strings with escaped quotes and nested objects before the match must be skipped whole
+        JsonScanner scanner = scan("{ \"a\" : { \"text\" : \"no\" } , \"b\" : \"say \\\"text\\\": x\" ,"
+                + " \"c\" : [ 1 , { \"text\" : 2 } ] , \"text\" : \"yes\" }");
+        assertEquals("yes", scanner.getString(scanner.find(JsonScanner.Path.of("text"))));
+    }
+
+    @Test
+    public void findsRelativeToAPosition() {
+        JsonScanner scanner = scan("{\"usage\":{\"input_tokens\":12,\"output_tokens\":-3}}");
+        int usage = scanner.find(JsonScanner.Path.of("usage"));
+        assertEquals(12, scanner.getLong(scanner.find(usage, JsonScanner.Path.of("input_tokens")), -1));
+        assertEquals(-3, scanner.getLong(scanner.find(usage, JsonScanner.Path.of("output_tokens")), -1));
+        assertEquals(-1, scanner.getLong(scanner.find(usage, JsonScanner.Path.of("missing")), -1));
+        assertEquals(-1, scanner.find(-1, JsonScanner.Path.of("usage")));
+    }
+
+    @Test
+    public void rejectsWrongTypes() {
+        JsonScanner scanner = scan("{\"n\":5,\"s\":\"5\"}");
+        assertNull(scanner.getString(scanner.find(JsonScanner.Path.of("n"))));
+        assertEquals(7, scanner.getLong(scanner.find(JsonScanner.Path.of("s")), 7));
+        assertEquals(-1, scanner.find(JsonScanner.Path.of("n", "x")));
+        assertEquals(-1, scanner.find(JsonScanner.Path.of("s", 0)));
+    }
+
+    @Test
+    public void unterminatedStringIsNull() {
+        JsonScanner scanner = scan("{\"s\":\"cut");
+        assertNull(scanner.getString(scanner.find(JsonScanner.Path.of("s"))));
+    }
+
+    @Test
+    public void matchesPrefix() {
+        JsonScanner scanner = scan("  [DONE]");
+        assertTrue(scanner.startsWith("[DONE]".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(scanner.startsWith("[DONE] and more".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void scansWithinOffsetAndLength() {
+        byte[] bytes = "garbage{\"a\":\"in\"}{\"a\":\"out\"}".getBytes(StandardCharsets.UTF_8);
+        JsonScanner scanner = new JsonScanner();
+        scanner.reset(bytes, 7, 10);
+        assertEquals("in", scanner.getString(scanner.find(JsonScanner.Path.of("a"))));
+    }
+}
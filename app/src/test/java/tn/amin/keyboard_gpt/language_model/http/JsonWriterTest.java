@@ -0,0 +1,130 @@
+package tn.amin.keyboard_gpt.language_model.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class JsonWriterTest {
+    private static String write(JsonWriter.Body body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(out);
+        body.writeTo(writer);
+        writer.flush();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Records the announced length and the bytes sent, without any network.
+     */
+    private static class RecordingConnection extends HttpURLConnection {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        long fixedLength = -1;
+
+        RecordingConnection() throws IOException {
+            super(new URL("http://localhost/"));
+        }
+
+        @Override
+        public void setFixedLengthStreamingMode(long contentLength) {
+            fixedLength = contentLength;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return body;
+        }
+
+        @Override
+        public void connect() {
+            connected = true;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+
+    @Test
+    public void separatesElementsWithCommas() throws IOException {
+        assertEquals("{\"a\":[1,true,null,{}],\"b\":\"x\",\"c\":[]}", write(writer -> writer.beginObject()
+                .name("a").beginArray().value(1).value(true).value((String) null).beginObject().endObject().endArray()
+                .name("b").value("x")
+                .name("c").beginArray().endArray()
+                .endObject()));
+    }
+
+    @Test
+    public void escapesStrings() throws IOException {
+        assertEquals("[\"q\\\" b\\\\ n\\n r\\r t\\t b\\b f\\f u\\u0001\\u001f /\"]",
+                write(writer -> writer.beginArray().value("q\" b\\ n\n r\r t\t b\b f\f u\u0001\u001f /").endArray()));
+    }
+
+    @Test
+    public void encodesNonAsciiAsUtf8() throws IOException {
+        String text = "caf\u00e9 \u4e2d \ud83d\ude00";
+        assertEquals("[\"" + text + "\"]", write(writer -> writer.beginArray().value(text).endArray()));
+    }
+
+    @Test
+    public void replacesUnpairedSurrogates() throws IOException {
+        assertEquals("[\"a\ufffdb\ufffd\"]",
+                write(writer -> writer.beginArray().value("a\ud83db\ude00").endArray()));
+    }
+
+    @Test
+    public void writesRawValuesInPlace() throws IOException {
+        byte[] raw = "{\"k\":[1,2]}".getBytes(StandardCharsets.UTF_8);
+        assertEquals("{\"a\":1,\"raw\":{\"k\":[1,2]},\"b\":2}", write(writer -> writer.beginObject()
+                .name("a").value(1)
+                .name("raw").rawValue(raw)
+                .name("b").value(2)
+                .endObject()));
+    }
+
+    @Test
+    public void writesStringsLongerThanTheBuffer() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            text.append(i % 3 == 0 ? '\u00e9' : 'a');
+        }
+        assertEquals("[\"" + text + "\"]", write(writer -> writer.beginArray().value(text.toString()).endArray()));
+    }
+
+    @Test
+    public void announcedLengthMatchesBytesSent() throws IOException {
+        StringBuilder prompt = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            prompt.append("line ").append(i).append(" \"quoted\" caf\u00e9 \ud83d\ude00\n");
+        }
+        JsonWriter.Body body = writer -> writer.beginObject()
+                .name("model").value("m")
+                .name("messages").beginArray()
+                    .beginObject()
+                        .name("role").value("user")
+                        .name("content").value(prompt.toString())
+                    .endObject()
+                .endArray()
+                .name("config").rawValue("{\"t\":0.1}".getBytes(StandardCharsets.UTF_8))
+                .name("stream").value(true)
+                .endObject();
+
+        RecordingConnection con = new RecordingConnection();
+        HttpTransport.get().sendJson(con, body);
+
+        assertEquals(con.body.size(), con.fixedLength);
+        assertArrayEquals(write(body).getBytes(StandardCharsets.UTF_8), con.body.toByteArray());
+    }
+}
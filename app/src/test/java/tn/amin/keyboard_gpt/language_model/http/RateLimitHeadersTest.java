@@ -0,0 +1,183 @@
+package tn.amin.keyboard_gpt.language_model.http;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimitHeadersTest {
+    /**
+     * Answers header lookups from a map, case-insensitively like the real connection.
+     */
+    private static class HeaderConnection extends HttpURLConnection {
+        private final Map<String, String> mHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        HeaderConnection(String... headers) throws IOException {
+            super(new URL("http://localhost/"));
+            for (int i = 0; i < headers.length; i += 2) {
+                mHeaders.put(headers[i], headers[i + 1]);
+            }
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mHeaders.get(name);
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+
+        @Override
+        public void connect() {
+        }
+    }
+
+    private static String format(long time, String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(time));
+    }
+
+    private static void assertAbout(long expectedMs, long actualMs) {
+        // Timestamps are to the second, and some time passes before the headers are read
+        assertTrue("expected about " + expectedMs + " but was " + actualMs,
+                actualMs <= expectedMs && actualMs > expectedMs - 2000);
+    }
+
+    @Test
+    public void parseDuration() {
+        assertEquals(1000, RateLimitHeaders.parseDuration("1s"));
+        assertEquals(20, RateLimitHeaders.parseDuration("20ms"));
+        assertEquals(360_000, RateLimitHeaders.parseDuration("6m0s"));
+        assertEquals(1500, RateLimitHeaders.parseDuration("1.5s"));
+        assertEquals(3_723_000, RateLimitHeaders.parseDuration("1h2m3s"));
+        assertEquals(-1, RateLimitHeaders.parseDuration("soon"));
+        assertEquals(-1, RateLimitHeaders.parseDuration(""));
+    }
+
+    @Test
+    public void parseRetryAfterSeconds() {
+        assertEquals(30_000, RateLimitHeaders.parseRetryAfter("30", 0));
+        assertEquals(500, RateLimitHeaders.parseRetryAfter("0.5", 0));
+        assertEquals(0, RateLimitHeaders.parseRetryAfter("-3", 0));
+    }
+
+    @Test
+    public void parseRetryAfterDate() {
+        long now = 1445412480000L; // Wed, 21 Oct 2015 07:28:00 GMT
+        assertEquals(60_000, RateLimitHeaders.parseRetryAfter("Wed, 21 Oct 2015 07:29:00 GMT", now));
+        assertEquals(0, RateLimitHeaders.parseRetryAfter("Wed, 21 Oct 2015 07:27:00 GMT", now));
+        assertEquals(-1, RateLimitHeaders.parseRetryAfter("tomorrow", now));
+    }
+
+    @Test
+    public void retryAfterMsComesFirst() throws IOException {
+        HeaderConnection con = new HeaderConnection(
+                "retry-after-ms", "1500",
+                "Retry-After", "30",
+                "x-ratelimit-reset-requests", "1m");
+        assertEquals(1500, RateLimitHeaders.getRetryAfterMs(con));
+    }
+
+    @Test
+    public void retryAfter() throws IOException {
+        assertEquals(30_000, RateLimitHeaders.getRetryAfterMs(new HeaderConnection("retry-after", "30")));
+    }
+
+    @Test
+    public void malformedRetryAfterFallsBackToReset() throws IOException {
+        HeaderConnection con = new HeaderConnection(
+                "retry-after-ms", "later",
+                "Retry-After", "later",
+                "x-ratelimit-reset-tokens", "7s");
+        assertEquals(7000, RateLimitHeaders.getRetryAfterMs(con));
+    }
+
+    @Test
+    public void waitsForTheLatestReset() throws IOException {
+        HeaderConnection con = new HeaderConnection(
+                "x-ratelimit-reset-requests", "2s",
+                "x-ratelimit-reset-tokens", "6m0s");
+        assertEquals(360_000, RateLimitHeaders.getRetryAfterMs(con));
+    }
+
+    @Test
+    public void anthropicResetTimestamps() throws IOException {
+        long now = System.currentTimeMillis();
+        HeaderConnection con = new HeaderConnection(
+                "anthropic-ratelimit-requests-reset", format(now + 10_000, "yyyy-MM-dd'T'HH:mm:ss'Z'"),
+                "anthropic-ratelimit-tokens-reset", format(now + 60_000, "yyyy-MM-dd'T'HH:mm:ss'Z'"));
+        assertAbout(60_000, RateLimitHeaders.getRetryAfterMs(con));
+    }
+
+    @Test
+    public void pastResetTimestamp() throws IOException {
+        HeaderConnection con = new HeaderConnection(
+                "anthropic-ratelimit-requests-reset", "2015-10-21T07:28:00Z");
+        assertEquals(0, RateLimitHeaders.getRetryAfterMs(con));
+    }
+
+    @Test
+    public void noHint() throws IOException {
+        assertEquals(-1, RateLimitHeaders.getRetryAfterMs(new HeaderConnection()));
+        assertEquals(-1, RateLimitHeaders.getRetryAfterMs(new HeaderConnection("anthropic-ratelimit-requests-reset", "soon")));
+    }
+
+    @Test
+    public void openAILimits() throws IOException {
+        RateLimitHeaders.Limits limits = RateLimitHeaders.getLimits(new HeaderConnection(
+                "x-ratelimit-limit-requests", "500",
+                "x-ratelimit-remaining-requests", "499",
+                "x-ratelimit-limit-tokens", "200000",
+                "x-ratelimit-remaining-tokens", " 199970 "));
+        assertEquals(500, limits.requestLimit);
+        assertEquals(499, limits.requestsRemaining);
+        assertEquals(200_000, limits.tokenLimit);
+        assertEquals(199_970, limits.tokensRemaining);
+        assertFalse(limits.isEmpty());
+    }
+
+    @Test
+    public void anthropicLimits() throws IOException {
+        RateLimitHeaders.Limits limits = RateLimitHeaders.getLimits(new HeaderConnection(
+                "anthropic-ratelimit-requests-limit", "50",
+                "anthropic-ratelimit-requests-remaining", "49",
+                "anthropic-ratelimit-tokens-limit", "40000"));
+        assertEquals(50, limits.requestLimit);
+        assertEquals(49, limits.requestsRemaining);
+        assertEquals(40_000, limits.tokenLimit);
+        assertEquals(-1, limits.tokensRemaining);
+    }
+
+    @Test
+    public void missingOrMalformedLimits() throws IOException {
+        assertTrue(RateLimitHeaders.getLimits(new HeaderConnection()).isEmpty());
+        assertTrue(RateLimitHeaders.getLimits(new HeaderConnection("x-ratelimit-limit-requests", "many")).isEmpty());
+    }
+
+    @Test
+    public void readsParsedHeaders() throws IOException {
+        HeaderConnection con = new HeaderConnection(
+                "Retry-After", "30",
+                "X-RateLimit-Limit-Requests", "500");
+        assertEquals(30_000, RateLimitHeaders.getRetryAfterMs(con.mHeaders));
+        assertEquals(500, RateLimitHeaders.getLimits(con.mHeaders).requestLimit);
+    }
+}
@@ -0,0 +1,183 @@
+package tn.amin.keyboard_gpt.language_model.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SseReaderTest {
+    /**
+     * Hands out at most {@code chunkSize} bytes per read, like a slow network.
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final byte[] mBytes;
+        private final int mChunkSize;
+        private int mPosition = 0;
+
+        ChunkedInputStream(byte[] bytes, int chunkSize) {
+            mBytes = bytes;
+            mChunkSize = chunkSize;
+        }
+
+        @Override
+        public int read() {
+            return mPosition < mBytes.length ? mBytes[mPosition++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (mPosition >= mBytes.length) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, mChunkSize), mBytes.length - mPosition);
+            System.arraycopy(mBytes, mPosition, buffer, offset, count);
+            mPosition += count;
+            return count;
+        }
+    }
+
+    private static List<String> readAll(InputStream in) throws IOException {
+        SseReader reader = new SseReader(in);
+        List<String> events = new ArrayList<>();
+        int length;
+        while ((length = reader.next()) >= 0) {
+            events.add(new String(reader.getData(), 0, length, StandardCharsets.UTF_8));
+        }
+        return events;
+    }
+
+    private static List<String> readAll(String body, int chunkSize) throws IOException {
+        return readAll(new ChunkedInputStream(body.getBytes(StandardCharsets.UTF_8), chunkSize));
+    }
+
+    /**
+     * Feeds {@code body} {@code chunkSize} bytes at a time, taking the events each chunk completes.
+     */
+    private static List<String> feedAll(String body, int chunkSize) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        SseReader reader = new SseReader();
+        List<String> events = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            reader.feed(ByteBuffer.wrap(bytes, offset, Math.min(chunkSize, bytes.length - offset)));
+            takeEvents(reader, events);
+        }
+        reader.endOfStream();
+        assertEquals(-1, takeEvents(reader, events));
+        return events;
+    }
+
+    private static int takeEvents(SseReader reader, List<String> events) throws IOException {
+        int length;
+        while ((length = reader.next()) >= 0) {
+            events.add(new String(reader.getData(), 0, length, StandardCharsets.UTF_8));
+        }
+        return length;
+    }
+
+    private static List<String> list(String... events) {
+        List<String> list = new ArrayList<>();
+        for (String event: events) {
+            list.add(event);
+        }
+        return list;
+    }
+
+    @Test
+    public void readsLineFeedEndings() throws IOException {
+        assertEquals(list("{\"a\":1}", "[DONE]"),
+                readAll("data: {\"a\":1}\n\ndata: [DONE]\n\n", 8192));
+    }
+
+    @Test
+    public void readsCarriageReturnLineFeedEndings() throws IOException {
+        assertEquals(list("{\"a\":1}", "second"),
+                readAll("data: {\"a\":1}\r\n\r\ndata: second\r\n\r\n", 8192));
+    }
+
+    @Test
+    public void readsBareCarriageReturnEndings() throws IOException {
+        assertEquals(list("one", "two"), readAll("data: one\r\rdata: two\r\r", 8192));
+    }
+
+    @Test
+    public void readsEventsSplitAcrossReads() throws IOException {
+        String body = "event: message_start\r\ndata: {\"x\":\"first\"}\r\n\r\n"
+                + ": keep-alive comment\n\n"
+                + "id: 7\ndata: second\n\n";
+        for (int chunkSize = 1; chunkSize <= 7; chunkSize++) {
+            assertEquals("Chunk size " + chunkSize, list("{\"x\":\"first\"}", "second"),
+                    readAll(body, chunkSize));
+        }
+    }
+
+    @Test
+    public void keepsMultiByteCharactersSplitAcrossChunks() throws IOException {
+        // e acute, CJK and an emoji: 2, 3 and 4 bytes in UTF-8
+        String text = "caf\u00e9 \u4e2d\u6587 \ud83d\ude00";
+        String body = "data: " + text + "\n\n";
+        for (int chunkSize = 1; chunkSize <= 5; chunkSize++) {
+            assertEquals("Chunk size " + chunkSize, list(text), readAll(body, chunkSize));
+        }
+    }
+
+    @Test
+    public void joinsMultipleDataLinesWithLineFeed() throws IOException {
+        assertEquals(list("first\nsecond"), readAll("data: first\ndata:second\n\n", 3));
+    }
+
+    @Test
+    public void skipsEventsWithoutData() throws IOException {
+        assertEquals(list("payload"), readAll("event: ping\n\n: comment\n\ndata: payload\n\n", 8192));
+    }
+
+    @Test
+    public void returnsLastEventWithoutTrailingBlankLine() throws IOException {
+        assertEquals(list("a", "b"), readAll("data: a\n\ndata: b", 2));
+        assertEquals(list(), readAll("", 1));
+    }
+
+    @Test
+    public void growsBuffersForLargeEvents() throws IOException {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            large.append((char) ('a' + i % 26));
+        }
+        assertEquals(list(large.toString(), "after"),
+                readAll("data: " + large + "\n\ndata: after\n\n", 1000));
+    }
+
+    @Test
+    public void readsFedBytesAsTheyArrive() throws IOException {
+        String body = "event: message_start\r\ndata: {\"x\":\"first\"}\r\n\r\n"
+                + ": keep-alive comment\n\n"
+                + "data: caf\u00e9\ndata: second line\r\rdata: last";
+        for (int chunkSize = 1; chunkSize <= 7; chunkSize++) {
+            assertEquals("Chunk size " + chunkSize, list("{\"x\":\"first\"}", "caf\u00e9\nsecond line", "last"),
+                    feedAll(body, chunkSize));
+        }
+    }
+
+    @Test
+    public void waitsForTheRestOfAFedEvent() throws IOException {
+        SseReader reader = new SseReader();
+        reader.feed(ByteBuffer.wrap("data: one\n\ndata: tw".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(3, reader.next());
+        assertEquals(SseReader.NEEDS_INPUT, reader.next());
+        assertEquals(SseReader.NEEDS_INPUT, reader.next());
+
+        reader.feed(ByteBuffer.wrap("o\r".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(SseReader.NEEDS_INPUT, reader.next());
+        // The line feed of a CRLF split across two feeds is not a second line ending
+        reader.feed(ByteBuffer.wrap("\n\r\n".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(3, reader.next());
+        assertEquals("two", new String(reader.getData(), 0, 3, StandardCharsets.UTF_8));
+        assertEquals(SseReader.NEEDS_INPUT, reader.next());
+    }
+}
@@ -0,0 +1,158 @@
+package tn.amin.keyboard_gpt.language_model.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plain HTTP/1.1 server on the loopback interface, one thread per connection, standing in for a
+ * provider. Connections are kept open for further requests as long as the handler says so.
+ */
+public class StandInServer implements Closeable {
+    public interface Handler {
+        /**
+         * Writes the response to {@code request}.
+         *
+         * @return whether to wait for another request on the same connection
+         */
+        boolean serve(Request request, OutputStream out) throws IOException, InterruptedException;
+    }
+
+    public static class Request {
+        public final String head;
+        public final String body;
+
+        Request(String head, String body) {
+            this.head = head;
+            this.body = body;
+        }
+    }
+
+    public final AtomicInteger connections = new AtomicInteger();
+    public final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    // Released whenever the client closes a connection
+    public final Semaphore closedByClient = new Semaphore(0);
+
+    private final ServerSocket mServer;
+    private final Handler mHandler;
+
+    public StandInServer(Handler handler) throws IOException {
+        mHandler = handler;
+        mServer = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            while (!mServer.isClosed()) {
+                try {
+                    Socket socket = mServer.accept();
+                    connections.incrementAndGet();
+                    Thread thread = new Thread(() -> handle(socket));
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String url(String path) {
+        return "http://127.0.0.1:" + mServer.getLocalPort() + path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mServer.close();
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            InputStream in = s.getInputStream();
+            OutputStream out = s.getOutputStream();
+            while (true) {
+                Request request = readRequest(in);
+                if (request == null) {
+                    closedByClient.release();
+                    return;
+                }
+                requests.add(request);
+                if (!mHandler.serve(request, out)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            closedByClient.release();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * @return null once the client closed the connection
+     */
+    private static Request readRequest(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int last = 0;
+        while (last != 0x0d0a0d0a) {
+            int b = in.read();
+            if (b < 0) {
+                return null;
+            }
+            head.write(b);
+            last = last << 8 | b;
+        }
+
+        String headText = new String(head.toByteArray(), StandardCharsets.ISO_8859_1);
+        int contentLength = 0;
+        for (String line: headText.split("\r\n")) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+        byte[] body = new byte[contentLength];
+        int read = 0;
+        while (read < contentLength) {
+            int n = in.read(body, read, contentLength - read);
+            if (n < 0) {
+                return null;
+            }
+            read += n;
+        }
+        return new Request(headText, new String(body, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes a response head announcing a chunked body.
+     */
+    public static void writeChunkedHead(OutputStream out, int statusCode, String... headers) throws IOException {
+        StringBuilder head = new StringBuilder("HTTP/1.1 " + statusCode + " Status\r\n");
+        for (int i = 0; i < headers.length; i += 2) {
+            head.append(headers[i]).append(": ").append(headers[i + 1]).append("\r\n");
+        }
+        head.append("Transfer-Encoding: chunked\r\n\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    public static void writeChunk(OutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.write((Integer.toHexString(bytes.length) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.write(bytes);
+        out.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    public static void writeLastChunk(OutputStream out) throws IOException {
+        out.write("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+}
@@ -0,0 +1,82 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.reactivestreams.Publisher;
+import org.testng.annotations.AfterClass;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import tn.amin.keyboard_gpt.language_model.TokenUsage;
+import tn.amin.keyboard_gpt.language_model.http.HttpRequest;
+import tn.amin.keyboard_gpt.language_model.http.JsonScanner;
+import tn.amin.keyboard_gpt.language_model.http.StandInServer;
+
+public class AsyncSsePublisherTckTest extends StringPublisherVerification {
+    private static final Pattern COUNT = Pattern.compile("^GET /\\?count=(\\d+) ");
+    private static final JsonScanner.Path TEXT = JsonScanner.Path.of("text");
+
+    private static final SsePublisher.EventDecoder DECODER = new SsePublisher.EventDecoder() {
+        @Override
+        public String decode(JsonScanner event) {
+            return event.getString(event.find(TEXT));
+        }
+
+        @Override
+        public String getTruncationReason(JsonScanner event) {
+            return null;
+        }
+
+        @Override
+        public void readUsage(JsonScanner event, TokenUsage usage) {
+        }
+    };
+
+    private static final AsyncSsePublisher.ResponseHandler HANDLER = new AsyncSsePublisher.ResponseHandler() {
+        @Override
+        public void onHeaders(int statusCode, Map<String, String> headers) {
+        }
+
+        @Override
+        public IOException toError(int statusCode, Map<String, String> headers, String body) {
+            return new IOException("HTTP " + statusCode);
+        }
+    };
+
+    // Sends as many events as the query asks for, as long as the client reads them
+    private final StandInServer mServer = new StandInServer((request, out) -> {
+        Matcher matcher = COUNT.matcher(request.head);
+        long count = matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+        StandInServer.writeChunkedHead(out, 200, "Content-Type", "text/event-stream");
+        for (long i = 0; i < count; i++) {
+            StandInServer.writeChunk(out, "data: {\"text\":\"" + i + "\"}\n\n");
+        }
+        StandInServer.writeLastChunk(out);
+        return true;
+    });
+
+    public AsyncSsePublisherTckTest() throws IOException {
+    }
+
+    @AfterClass
+    public void closeServer() throws IOException {
+        mServer.close();
+    }
+
+    @Override
+    public Publisher<String> createPublisher(long elements) {
+        try {
+            return new AsyncSsePublisher(new HttpRequest(mServer.url("/?count=" + elements), "GET"), HANDLER, DECODER);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public Publisher<String> createFailedPublisher() {
+        // The request is only sent on the first request for text, which the failure rules never make
+        return null;
+    }
+}
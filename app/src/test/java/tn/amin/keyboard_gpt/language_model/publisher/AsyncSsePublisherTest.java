@@ -0,0 +1,199 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import tn.amin.keyboard_gpt.language_model.TokenUsage;
+import tn.amin.keyboard_gpt.language_model.TruncatedResponseException;
+import tn.amin.keyboard_gpt.language_model.http.HttpRequest;
+import tn.amin.keyboard_gpt.language_model.http.JsonScanner;
+import tn.amin.keyboard_gpt.language_model.http.StandInServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncSsePublisherTest {
+    private static final JsonScanner.Path TEXT = JsonScanner.Path.of("text");
+    private static final JsonScanner.Path STOP = JsonScanner.Path.of("stop");
+    private static final JsonScanner.Path TOKENS = JsonScanner.Path.of("tokens");
+
+    private static final SsePublisher.EventDecoder DECODER = new SsePublisher.EventDecoder() {
+        @Override
+        public String decode(JsonScanner event) {
+            return event.getString(event.find(TEXT));
+        }
+
+        @Override
+        public String getTruncationReason(JsonScanner event) {
+            return event.getString(event.find(STOP));
+        }
+
+        @Override
+        public void readUsage(JsonScanner event, TokenUsage usage) {
+            usage.setOutputTokens(event.getLong(event.find(TOKENS), -1));
+        }
+    };
+
+    private static class Handler implements AsyncSsePublisher.ResponseHandler {
+        volatile int statusCode = 0;
+
+        @Override
+        public void onHeaders(int statusCode, Map<String, String> headers) {
+            this.statusCode = statusCode;
+        }
+
+        @Override
+        public IOException toError(int statusCode, Map<String, String> headers, String body) {
+            return new IOException(statusCode + " " + body);
+        }
+    }
+
+    private static class UsageSubscriber extends RecordingSubscriber implements TokenUsage.Listener {
+        volatile TokenUsage usage;
+
+        @Override
+        public void onUsage(TokenUsage usage) {
+            this.usage = usage;
+        }
+    }
+
+    private StandInServer mServer;
+    private final Handler mHandler = new Handler();
+
+    @After
+    public void tearDown() throws IOException {
+        if (mServer != null) {
+            mServer.close();
+        }
+    }
+
+    private AsyncSsePublisher publisher() throws IOException {
+        return new AsyncSsePublisher(new HttpRequest(mServer.url("/v1/chat"), "POST"), mHandler, DECODER);
+    }
+
+    private static void awaitTerminal(RecordingSubscriber subscriber) throws InterruptedException {
+        assertTrue("stream did not end", subscriber.terminated.await(5, TimeUnit.SECONDS));
+    }
+
+    private static StandInServer.Handler events(String... events) {
+        return (request, out) -> {
+            StandInServer.writeChunkedHead(out, 200, "Content-Type", "text/event-stream");
+            for (String event: events) {
+                StandInServer.writeChunk(out, "data: " + event + "\n\n");
+            }
+            StandInServer.writeLastChunk(out);
+            return true;
+        };
+    }
+
+    @Test
+    public void emitsEventTextAndCompletes() throws Exception {
+        mServer = new StandInServer(events("{\"text\":\"Hello\"}", "{\"text\":\" world\"}",
+                "{\"tokens\":2}", "[DONE]"));
+
+        UsageSubscriber subscriber = new UsageSubscriber();
+        publisher().subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        awaitTerminal(subscriber);
+
+        assertNull(subscriber.error);
+        assertTrue(subscriber.completed);
+        assertEquals(Arrays.asList("Hello", " world"), subscriber.items());
+        assertEquals(200, mHandler.statusCode);
+        assertEquals(2, subscriber.usage.getOutputTokens());
+    }
+
+    @Test
+    public void failsWithHandlerErrorOnErrorStatus() throws Exception {
+        mServer = new StandInServer((request, out) -> {
+            StandInServer.writeChunkedHead(out, 401);
+            StandInServer.writeChunk(out, "{\"error\":\"bad key\"}");
+            StandInServer.writeLastChunk(out);
+            return true;
+        });
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher().subscribe(subscriber);
+        subscriber.subscription.request(1);
+        awaitTerminal(subscriber);
+
+        assertEquals("401 {\"error\":\"bad key\"}", subscriber.error.getMessage());
+        assertEquals(Collections.emptyList(), subscriber.items());
+    }
+
+    @Test
+    public void emitsOnlyWhatWasRequested() throws Exception {
+        mServer = new StandInServer(events("{\"text\":\"a\"}", "{\"text\":\"b\"}", "{\"text\":\"c\"}"));
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher().subscribe(subscriber);
+        subscriber.subscription.request(2);
+        assertTrue(subscriber.awaitItems(2));
+
+        // Gives the loop the time to read the rest of the body
+        Thread.sleep(50);
+        assertEquals(Arrays.asList("a", "b"), subscriber.items());
+        assertEquals(1, subscriber.terminated.getCount());
+
+        subscriber.subscription.request(1);
+        awaitTerminal(subscriber);
+        assertTrue(subscriber.completed);
+        assertEquals(Arrays.asList("a", "b", "c"), subscriber.items());
+    }
+
+    @Test
+    public void failsAfterLastItemWhenTruncated() throws Exception {
+        mServer = new StandInServer(events("{\"text\":\"cut\",\"stop\":\"length\"}"));
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher().subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        awaitTerminal(subscriber);
+
+        assertEquals(Collections.singletonList("cut"), subscriber.items());
+        assertTrue(subscriber.error instanceof TruncatedResponseException);
+    }
+
+    @Test
+    public void cancelClosesConnection() throws Exception {
+        mServer = new StandInServer((request, out) -> {
+            StandInServer.writeChunkedHead(out, 200);
+            // Writing fails once the client closed the connection
+            for (int i = 0; i < 500; i++) {
+                StandInServer.writeChunk(out, "data: {\"text\":\"token\"}\n\n");
+                Thread.sleep(10);
+            }
+            return false;
+        });
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher().subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.awaitItems(1));
+        subscriber.subscription.cancel();
+
+        assertTrue(mServer.closedByClient.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(1, subscriber.items().size());
+        assertEquals(0, subscriber.terminals.get());
+    }
+
+    @Test
+    public void invalidRequestFailsStream() throws Exception {
+        mServer = new StandInServer(events("{\"text\":\"a\"}"));
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher().subscribe(subscriber);
+        subscriber.subscription.request(0);
+        awaitTerminal(subscriber);
+
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertEquals(0, mServer.connections.get());
+    }
+}
@@ -0,0 +1,63 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DemandTest {
+    @Test
+    public void addsUp() {
+        Demand demand = new Demand();
+        assertTrue(demand.add(2));
+        assertTrue(demand.add(3));
+        assertEquals(5, demand.get());
+    }
+
+    @Test
+    public void takesWhatWasRequested() {
+        Demand demand = new Demand();
+        assertFalse(demand.take());
+        demand.add(2);
+        assertTrue(demand.take());
+        assertTrue(demand.take());
+        assertFalse(demand.take());
+        assertEquals(0, demand.get());
+    }
+
+    @Test
+    public void rejectsNonPositiveRequests() {
+        Demand demand = new Demand();
+        demand.add(1);
+        assertFalse(demand.add(0));
+        assertFalse(demand.add(-1));
+        assertFalse(demand.add(Long.MIN_VALUE));
+        assertEquals(1, demand.get());
+    }
+
+    @Test
+    public void overflowsToUnbounded() {
+        Demand demand = new Demand();
+        demand.add(Long.MAX_VALUE - 1);
+        demand.add(2);
+        assertEquals(Long.MAX_VALUE, demand.get());
+        demand.add(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, demand.get());
+    }
+
+    @Test
+    public void unboundedStaysUnbounded() {
+        Demand demand = new Demand();
+        demand.add(Long.MAX_VALUE);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(demand.take());
+        }
+        assertEquals(Long.MAX_VALUE, demand.get());
+    }
+
+    @Test
+    public void invalidNamesTheRule() {
+        assertTrue(Demand.invalid(0).getMessage().contains("3.9"));
+    }
+}
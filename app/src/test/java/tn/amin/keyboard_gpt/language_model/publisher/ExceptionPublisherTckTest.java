@@ -0,0 +1,18 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.reactivestreams.Publisher;
+
+import java.io.IOException;
+
+public class ExceptionPublisherTckTest extends StringPublisherVerification {
+    @Override
+    public Publisher<String> createPublisher(long elements) {
+        notVerified("Only ever fails, so only the rules on failing publishers apply");
+        return null;
+    }
+
+    @Override
+    public Publisher<String> createFailedPublisher() {
+        return new ExceptionPublisher(new IOException("Failed"));
+    }
+}
@@ -0,0 +1,23 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.reactivestreams.Publisher;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class FailoverPublisherTckTest extends StringPublisherVerification {
+    @Override
+    public Publisher<String> createPublisher(long elements) {
+        // The first source fails, so the elements come from the one it hands over to
+        return new FailoverPublisher(Arrays.asList(
+                () -> new ExceptionPublisher(new IOException("Failed")),
+                () -> lines(elements)));
+    }
+
+    @Override
+    public Publisher<String> createFailedPublisher() {
+        return new FailoverPublisher(Arrays.asList(
+                () -> new ExceptionPublisher(new IOException("Failed")),
+                () -> new ExceptionPublisher(new IOException("Failed too"))));
+    }
+}
@@ -0,0 +1,21 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.reactivestreams.Publisher;
+
+import java.io.IOException;
+
+public class HedgedPublisherTckTest extends StringPublisherVerification {
+    // Short enough for the secondary to join the race in most runs
+    private static final long DELAY_MS = 5;
+
+    @Override
+    public Publisher<String> createPublisher(long elements) {
+        return new HedgedPublisher(() -> lines(elements), () -> lines(elements), DELAY_MS);
+    }
+
+    @Override
+    public Publisher<String> createFailedPublisher() {
+        return new HedgedPublisher(() -> new ExceptionPublisher(new IOException("Failed")),
+                () -> new ExceptionPublisher(new IOException("Failed too")), DELAY_MS);
+    }
+}
@@ -0,0 +1,169 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HedgedPublisherTest {
+    // Long enough that the hedge never fires by itself
+    private static final long NEVER_MS = 60 * 1000;
+
+    private final RecordingSubscriber mDownstream = new RecordingSubscriber();
+
+    @After
+    public void tearDown() {
+        GenerationExecutors.shutdown();
+    }
+
+    private void race(ManualPublisher primary, ManualPublisher secondary, long delayMs) {
+        new HedgedPublisher(() -> primary, () -> secondary, delayMs).subscribe(mDownstream);
+    }
+
+    private static int pendingTimers() {
+        return ((ScheduledThreadPoolExecutor) GenerationExecutors.get().timer()).getQueue().size();
+    }
+
+    @Test
+    public void primaryWinsBeforeTheHedge() {
+        ManualPublisher primary = new ManualPublisher();
+        ManualPublisher secondary = new ManualPublisher();
+        race(primary, secondary, NEVER_MS);
+        mDownstream.subscription.request(5);
+        assertEquals(5, primary.requested.get());
+        assertEquals(1, pendingTimers());
+
+        primary.emit("a");
+        // Winning cancels the hedge
+        assertEquals(0, pendingTimers());
+        primary.emit("b");
+        primary.complete();
+
+        assertFalse(secondary.isSubscribed());
+        assertEquals(Arrays.asList("a", "b"), mDownstream.items());
+        assertTrue(mDownstream.completed);
+        assertEquals(1, mDownstream.terminals.get());
+    }
+
+    @Test
+    public void secondaryWinsOnceTheHedgeFired() throws InterruptedException {
+        ManualPublisher primary = new ManualPublisher();
+        ManualPublisher secondary = new ManualPublisher();
+        race(primary, secondary, 0);
+        mDownstream.subscription.request(3);
+        assertTrue(secondary.awaitSubscribed());
+        // Demand made before the hedge reaches it on subscribe
+        assertEquals(3, secondary.requested.get());
+        assertEquals(3, primary.requested.get());
+
+        secondary.emit("b");
+        assertTrue(primary.cancelled);
+        assertFalse(secondary.cancelled);
+        // Whatever the loser still sends is dropped
+        primary.emit("a");
+        primary.complete();
+        secondary.complete();
+
+        assertEquals(Collections.singletonList("b"), mDownstream.items());
+        assertTrue(mDownstream.completed);
+        assertEquals(1, mDownstream.terminals.get());
+
+        // Further demand only goes to the winner
+        mDownstream.subscription.request(2);
+        assertEquals(5, secondary.requested.get());
+        assertEquals(3, primary.requested.get());
+    }
+
+    @Test
+    public void primaryFailingBeforeTheTimerLaunchesTheSecondaryAtOnce() {
+        ManualPublisher primary = new ManualPublisher();
+        ManualPublisher secondary = new ManualPublisher();
+        race(primary, secondary, NEVER_MS);
+        mDownstream.subscription.request(2);
+
+        primary.fail(new IOException("Connection reset"));
+        assertTrue(secondary.isSubscribed());
+        assertEquals(2, secondary.requested.get());
+        assertEquals(0, mDownstream.terminals.get());
+
+        secondary.emit("b");
+        secondary.complete();
+        assertEquals(Collections.singletonList("b"), mDownstream.items());
+        assertNull(mDownstream.error);
+        assertTrue(mDownstream.completed);
+    }
+
+    @Test
+    public void failsOnceWhenBothFailOneAfterTheOther() {
+        ManualPublisher primary = new ManualPublisher();
+        ManualPublisher secondary = new ManualPublisher();
+        race(primary, secondary, NEVER_MS);
+        mDownstream.subscription.request(1);
+
+        primary.fail(new IOException("Connection reset"));
+        IOException last = new IOException("Timeout");
+        secondary.fail(last);
+
+        assertSame(last, mDownstream.error);
+        assertEquals(1, mDownstream.terminals.get());
+    }
+
+    @Test
+    public void failsOnceWhenBothFailWhileRacing() throws InterruptedException {
+        ManualPublisher primary = new ManualPublisher();
+        ManualPublisher secondary = new ManualPublisher();
+        race(primary, secondary, 0);
+        assertTrue(secondary.awaitSubscribed());
+
+        IOException first = new IOException("Connection reset");
+        secondary.fail(first);
+        // The primary is still running
+        assertEquals(0, mDownstream.terminals.get());
+
+        IOException last = new IOException("Timeout");
+        primary.fail(last);
+        assertSame(last, mDownstream.error);
+        assertEquals(1, mDownstream.terminals.get());
+    }
+
+    @Test
+    public void cancelBeforeOnSubscribeCancelsTheLateSubscription() {
+        ManualPublisher primary = new ManualPublisher(true);
+        ManualPublisher secondary = new ManualPublisher();
+        race(primary, secondary, NEVER_MS);
+        mDownstream.subscription.request(4);
+        mDownstream.subscription.cancel();
+        assertEquals(0, pendingTimers());
+
+        primary.sendOnSubscribe();
+        assertTrue(primary.cancelled);
+        assertEquals(0, primary.requested.get());
+        assertFalse(secondary.isSubscribed());
+        assertEquals(0, mDownstream.terminals.get());
+    }
+
+    @Test
+    public void demandBeforeOnSubscribeIsPassedOnOnce() {
+        ManualPublisher primary = new ManualPublisher(true);
+        ManualPublisher secondary = new ManualPublisher();
+        race(primary, secondary, NEVER_MS);
+        mDownstream.subscription.request(4);
+
+        primary.sendOnSubscribe();
+        assertEquals(4, primary.requested.get());
+        mDownstream.subscription.request(1);
+        assertEquals(5, primary.requested.get());
+        assertFalse(primary.cancelled);
+    }
+}
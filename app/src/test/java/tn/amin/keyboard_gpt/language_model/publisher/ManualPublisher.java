@@ -0,0 +1,74 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single-subscriber source whose signals the test sends by hand.
+ */
+class ManualPublisher implements Publisher<String>, Subscription {
+    final AtomicLong requested = new AtomicLong();
+    final CountDownLatch subscribed = new CountDownLatch(1);
+    volatile boolean cancelled = false;
+    private final boolean mDeferOnSubscribe;
+    private volatile Subscriber<? super String> mSubscriber;
+
+    ManualPublisher() {
+        this(false);
+    }
+
+    /**
+     * @param deferOnSubscribe wait for {@link #sendOnSubscribe()} to call onSubscribe
+     */
+    ManualPublisher(boolean deferOnSubscribe) {
+        mDeferOnSubscribe = deferOnSubscribe;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super String> subscriber) {
+        mSubscriber = subscriber;
+        if (!mDeferOnSubscribe) {
+            subscriber.onSubscribe(this);
+        }
+        subscribed.countDown();
+    }
+
+    boolean isSubscribed() {
+        return mSubscriber != null;
+    }
+
+    boolean awaitSubscribed() throws InterruptedException {
+        return subscribed.await(1, TimeUnit.SECONDS);
+    }
+
+    void sendOnSubscribe() {
+        mSubscriber.onSubscribe(this);
+    }
+
+    void emit(String s) {
+        mSubscriber.onNext(s);
+    }
+
+    void fail(Throwable t) {
+        mSubscriber.onError(t);
+    }
+
+    void complete() {
+        mSubscriber.onComplete();
+    }
+
+    @Override
+    public void request(long n) {
+        requested.addAndGet(n);
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+    }
+}
@@ -0,0 +1,17 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.reactivestreams.Publisher;
+
+import java.io.IOException;
+
+public class MulticastPublisherTckTest extends StringPublisherVerification {
+    @Override
+    public Publisher<String> createPublisher(long elements) {
+        return new MulticastPublisher(() -> lines(elements), publisher -> {});
+    }
+
+    @Override
+    public Publisher<String> createFailedPublisher() {
+        return new MulticastPublisher(() -> new ExceptionPublisher(new IOException("Failed")), publisher -> {});
+    }
+}
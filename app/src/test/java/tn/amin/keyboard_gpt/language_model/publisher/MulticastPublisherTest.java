@@ -0,0 +1,177 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MulticastPublisherTest {
+    private final List<Long> mUpstreamRequests = new ArrayList<>();
+    private Subscriber<? super String> mUpstream;
+    private int mSubscriptions = 0;
+    private boolean mUpstreamCancelled = false;
+    private int mFinished = 0;
+
+    private final Publisher<String> mSource = subscriber -> {
+        mSubscriptions++;
+        mUpstream = subscriber;
+        subscriber.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                mUpstreamRequests.add(n);
+            }
+
+            @Override
+            public void cancel() {
+                mUpstreamCancelled = true;
+            }
+        });
+    };
+
+    private final MulticastPublisher mPublisher = new MulticastPublisher(() -> mSource, finished -> mFinished++);
+
+    @Test
+    public void asksUpstreamOnlyForWhatIsRequested() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mPublisher.subscribe(subscriber);
+        assertTrue(mUpstreamRequests.isEmpty());
+
+        subscriber.subscription.request(2);
+        assertEquals(Collections.singletonList(2L), mUpstreamRequests);
+
+        mUpstream.onNext("a");
+        mUpstream.onNext("b");
+        subscriber.subscription.request(3);
+        assertEquals(Arrays.asList(2L, 3L), mUpstreamRequests);
+        assertEquals(Arrays.asList("a", "b"), subscriber.items());
+    }
+
+    @Test
+    public void followsTheSubscriberFurthestAhead() {
+        RecordingSubscriber first = new RecordingSubscriber();
+        mPublisher.subscribe(first);
+        first.subscription.request(2);
+        mUpstream.onNext("a");
+        mUpstream.onNext("b");
+
+        RecordingSubscriber second = new RecordingSubscriber();
+        mPublisher.subscribe(second);
+        assertEquals(1, mSubscriptions);
+
+        // Replayed from what was kept, without asking upstream again
+        second.subscription.request(1);
+        assertEquals(Collections.singletonList("a"), second.items());
+        assertEquals(Collections.singletonList(2L), mUpstreamRequests);
+
+        second.subscription.request(4);
+        assertEquals(Arrays.asList("a", "b"), second.items());
+        assertEquals(Arrays.asList(2L, 3L), mUpstreamRequests);
+
+        mUpstream.onNext("c");
+        mUpstream.onComplete();
+        assertEquals(Arrays.asList("a", "b", "c"), second.items());
+        assertTrue(second.completed);
+        assertEquals(0, first.terminals.get());
+
+        first.subscription.request(1);
+        assertEquals(Arrays.asList("a", "b", "c"), first.items());
+        assertTrue(first.completed);
+    }
+
+    @Test
+    public void unboundedOnce() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mPublisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE - 1);
+        subscriber.subscription.request(2);
+        subscriber.subscription.request(5);
+        assertEquals(Arrays.asList(Long.MAX_VALUE - 1, Long.MAX_VALUE), mUpstreamRequests);
+    }
+
+    @Test
+    public void requestsBeforeTheUpstreamIsThere() {
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                super.onSubscribe(s);
+                s.request(4);
+            }
+        };
+        mPublisher.subscribe(subscriber);
+        assertEquals(Collections.singletonList(4L), mUpstreamRequests);
+    }
+
+    @Test
+    public void lastCancelDisconnectsRightAway() {
+        RecordingSubscriber first = new RecordingSubscriber();
+        RecordingSubscriber second = new RecordingSubscriber();
+        mPublisher.subscribe(first);
+        mPublisher.subscribe(second);
+
+        first.subscription.cancel();
+        assertFalse(mUpstreamCancelled);
+        second.subscription.cancel();
+        assertTrue(mUpstreamCancelled);
+        assertEquals(1, mFinished);
+
+        // Too late to share, a new subscriber gets a fresh response
+        RecordingSubscriber third = new RecordingSubscriber();
+        mPublisher.subscribe(third);
+        assertEquals(2, mSubscriptions);
+    }
+
+    @Test
+    public void signalsOutsideTheLock() {
+        List<Boolean> heldLock = new ArrayList<>();
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onNext(String s) {
+                heldLock.add(Thread.holdsLock(mPublisher));
+                super.onNext(s);
+            }
+
+            @Override
+            public void onComplete() {
+                heldLock.add(Thread.holdsLock(mPublisher));
+                super.onComplete();
+            }
+        };
+        mPublisher.subscribe(subscriber);
+        subscriber.subscription.request(2);
+        mUpstream.onNext("a");
+        mUpstream.onNext("b");
+        mUpstream.onComplete();
+
+        assertEquals(Arrays.asList(false, false, false), heldLock);
+        assertEquals(1, mFinished);
+    }
+
+    @Test
+    public void requestFromOnNextKeepsOrder() {
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onNext(String s) {
+                super.onNext(s);
+                subscription.request(1);
+            }
+        };
+        mPublisher.subscribe(subscriber);
+        mUpstream.onNext("a");
+        mUpstream.onNext("b");
+        mUpstream.onNext("c");
+        subscriber.subscription.request(1);
+
+        assertEquals(Arrays.asList("a", "b", "c"), subscriber.items());
+        mUpstream.onComplete();
+        assertTrue(subscriber.completed);
+    }
+}
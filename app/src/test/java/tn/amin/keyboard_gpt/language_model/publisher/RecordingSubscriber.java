@@ -0,0 +1,76 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps everything a publisher signals, requesting nothing by itself.
+ */
+class RecordingSubscriber implements Subscriber<String> {
+    final List<String> items = new ArrayList<>();
+    final AtomicInteger terminals = new AtomicInteger();
+    final CountDownLatch terminated = new CountDownLatch(1);
+    volatile Subscription subscription;
+    volatile Throwable error;
+    volatile boolean completed;
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        subscription = s;
+    }
+
+    @Override
+    public void onNext(String s) {
+        synchronized (items) {
+            items.add(s);
+            items.notifyAll();
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        error = t;
+        terminals.incrementAndGet();
+        terminated.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+        completed = true;
+        terminals.incrementAndGet();
+        terminated.countDown();
+    }
+
+    List<String> items() {
+        synchronized (items) {
+            return new ArrayList<>(items);
+        }
+    }
+
+    /**
+     * @return whether {@code count} items arrived within a second
+     */
+    boolean awaitItems(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        synchronized (items) {
+            while (items.size() < count) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                items.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    boolean awaitTerminal() throws InterruptedException {
+        return terminated.await(1, TimeUnit.SECONDS);
+    }
+}
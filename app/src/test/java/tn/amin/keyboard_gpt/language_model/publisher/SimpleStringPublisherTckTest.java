@@ -0,0 +1,23 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.reactivestreams.Publisher;
+
+public class SimpleStringPublisherTckTest extends StringPublisherVerification {
+    @Override
+    public Publisher<String> createPublisher(long elements) {
+        if (elements != 1) {
+            notVerified("Always publishes a single string");
+        }
+        return new SimpleStringPublisher("text");
+    }
+
+    @Override
+    public Publisher<String> createFailedPublisher() {
+        return null;
+    }
+
+    @Override
+    public long maxElementsFromPublisher() {
+        return 1;
+    }
+}
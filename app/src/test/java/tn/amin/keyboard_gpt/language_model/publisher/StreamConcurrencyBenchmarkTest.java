@@ -0,0 +1,203 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import tn.amin.keyboard_gpt.Benchmark;
+import tn.amin.keyboard_gpt.GenerationExecutors;
+import tn.amin.keyboard_gpt.language_model.TokenUsage;
+import tn.amin.keyboard_gpt.language_model.http.HttpRequest;
+import tn.amin.keyboard_gpt.language_model.http.JsonScanner;
+import tn.amin.keyboard_gpt.language_model.http.StandInServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Concurrent streams against a stand-in SSE server: 100 ms to the first event, then 20 events
+ * 20 ms apart. Streams are read on the network event loop, so neither the thread count nor the
+ * time to the first token grows with the number of streams in flight. The figures of each run
+ * are in the assertion messages.
+ */
+@Category(Benchmark.class)
+public class StreamConcurrencyBenchmarkTest {
+    private static final long FIRST_EVENT_DELAY_MS = 100;
+    private static final int EVENTS = 20;
+    private static final long EVENT_INTERVAL_MS = 20;
+    private static final long STREAM_MS = FIRST_EVENT_DELAY_MS + EVENTS * EVENT_INTERVAL_MS;
+    // Network loop, plus the io, compute and timer pools at their largest
+    private static final int MAX_CLIENT_THREADS = 1 + 4 + 2 + 1;
+
+    private static final JsonScanner.Path TEXT = JsonScanner.Path.of("text");
+
+    private static final SsePublisher.EventDecoder DECODER = new SsePublisher.EventDecoder() {
+        @Override
+        public String decode(JsonScanner event) {
+            return event.getString(event.find(TEXT));
+        }
+
+        @Override
+        public String getTruncationReason(JsonScanner event) {
+            return null;
+        }
+
+        @Override
+        public void readUsage(JsonScanner event, TokenUsage usage) {
+        }
+    };
+
+    private static final AsyncSsePublisher.ResponseHandler HANDLER = new AsyncSsePublisher.ResponseHandler() {
+        @Override
+        public void onHeaders(int statusCode, Map<String, String> headers) {
+        }
+
+        @Override
+        public IOException toError(int statusCode, Map<String, String> headers, String body) {
+            return new IOException("HTTP " + statusCode);
+        }
+    };
+
+    private StandInServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StandInServer((request, out) -> {
+            StandInServer.writeChunkedHead(out, 200, "Content-Type", "text/event-stream");
+            Thread.sleep(FIRST_EVENT_DELAY_MS);
+            for (int i = 0; i < EVENTS; i++) {
+                StandInServer.writeChunk(out, "data: {\"text\":\"token" + i + " \"}\n\n");
+                Thread.sleep(EVENT_INTERVAL_MS);
+            }
+            StandInServer.writeChunk(out, "data: [DONE]\n\n");
+            StandInServer.writeLastChunk(out);
+            return true;
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+        GenerationExecutors.shutdown();
+    }
+
+    private static class Stream implements Subscriber<String> {
+        final long startNanos = System.nanoTime();
+        final CountDownLatch terminated;
+        volatile long firstTokenMs = -1;
+        volatile int tokens = 0;
+        volatile Throwable error = null;
+
+        Stream(CountDownLatch terminated) {
+            this.terminated = terminated;
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            s.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String s) {
+            if (firstTokenMs < 0) {
+                firstTokenMs = (System.nanoTime() - startNanos) / 1_000_000;
+            }
+            tokens++;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            terminated.countDown();
+        }
+    }
+
+    private static class Run {
+        final List<Stream> streams = new ArrayList<>();
+        int peakThreads = 0;
+    }
+
+    private Run run(int count) throws IOException, InterruptedException {
+        CountDownLatch terminated = new CountDownLatch(count);
+        Run run = new Run();
+        for (int i = 0; i < count; i++) {
+            Stream stream = new Stream(terminated);
+            run.streams.add(stream);
+            HttpRequest request = new HttpRequest(mServer.url("/v1/chat/completions"), "POST");
+            new AsyncSsePublisher(request, HANDLER, DECODER).subscribe(stream);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!terminated.await(10, TimeUnit.MILLISECONDS)) {
+            run.peakThreads = Math.max(run.peakThreads, countClientThreads());
+            assertTrue("Streams did not end", System.nanoTime() < deadline);
+        }
+        return run;
+    }
+
+    private void measure(int count) throws IOException, InterruptedException {
+        Run run = run(count);
+
+        List<Long> firstTokenMs = new ArrayList<>();
+        for (Stream stream: run.streams) {
+            assertNull(stream.error);
+            assertEquals(EVENTS, stream.tokens);
+            firstTokenMs.add(stream.firstTokenMs);
+        }
+        Collections.sort(firstTokenMs);
+        long median = firstTokenMs.get(count / 2);
+        long max = firstTokenMs.get(count - 1);
+        String figures = count + " streams: first token median " + median + " ms, max " + max + " ms, "
+                + run.peakThreads + " client threads (one stream takes " + STREAM_MS + " ms)";
+
+        assertTrue(figures, run.peakThreads <= MAX_CLIENT_THREADS);
+        // Generous bound, this runs on shared machines: a stream that waited for a thread would
+        // only start after another one ended
+        assertTrue(figures, max < STREAM_MS);
+    }
+
+    @Test
+    public void oneStream() throws IOException, InterruptedException {
+        measure(1);
+    }
+
+    @Test
+    public void tenStreams() throws IOException, InterruptedException {
+        // Once to load classes and warm the connection pool
+        run(1);
+        measure(10);
+    }
+
+    @Test
+    public void fiftyStreams() throws IOException, InterruptedException {
+        run(1);
+        measure(50);
+    }
+
+    private static int countClientThreads() {
+        int count = 0;
+        for (Thread thread: Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith("KeyboardGPT-")) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,16 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.reactivestreams.Publisher;
+
+public class StreamPublisherTckTest extends StringPublisherVerification {
+    @Override
+    public Publisher<String> createPublisher(long elements) {
+        return lines(elements);
+    }
+
+    @Override
+    public Publisher<String> createFailedPublisher() {
+        // A body only fails once read, which waits for a request the failure rules never make
+        return null;
+    }
+}
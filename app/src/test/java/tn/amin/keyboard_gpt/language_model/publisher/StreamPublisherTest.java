@@ -0,0 +1,196 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StreamPublisherTest {
+    private static final List<String> ITEMS = Arrays.asList("a", "b", "c", "d", "e");
+
+    /**
+     * Emits a fixed list of items, optionally failing afterwards, without any network.
+     */
+    private static class ListPublisher extends StreamPublisher {
+        private final List<String> mItems;
+        private final IOException mFailure;
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        ListPublisher(List<String> items, IOException failure) {
+            super(new ByteArrayInputStream(new byte[0]), null);
+            mItems = items;
+            mFailure = failure;
+        }
+
+        @Override
+        protected void read(InputStream inputStream, Emitter emitter) throws IOException {
+            try {
+                for (String item: mItems) {
+                    if (emitter.isCancelled()) {
+                        return;
+                    }
+                    emitter.emit(item);
+                }
+                if (mFailure != null) {
+                    throw mFailure;
+                }
+            } finally {
+                finished.countDown();
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        GenerationExecutors.shutdown();
+    }
+
+    @Test
+    public void emitsNoMoreThanRequested() throws InterruptedException {
+        ListPublisher publisher = new ListPublisher(ITEMS, null);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(2);
+        assertTrue(subscriber.awaitItems(2));
+        assertFalse(subscriber.awaitTerminal());
+        assertEquals(Arrays.asList("a", "b"), subscriber.items());
+
+        subscriber.subscription.request(3);
+        assertTrue(subscriber.awaitTerminal());
+        assertEquals(ITEMS, subscriber.items());
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void nothingStartsBeforeARequest() throws InterruptedException {
+        ListPublisher publisher = new ListPublisher(ITEMS, null);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        assertFalse(publisher.finished.await(200, TimeUnit.MILLISECONDS));
+        assertTrue(subscriber.items().isEmpty());
+    }
+
+    @Test
+    public void nonPositiveRequestFails() throws InterruptedException {
+        ListPublisher publisher = new ListPublisher(ITEMS, null);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.awaitTerminal());
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+
+        subscriber.subscription.request(-1);
+        subscriber.subscription.request(5);
+        assertFalse(publisher.finished.await(200, TimeUnit.MILLISECONDS));
+        assertTrue(subscriber.items().isEmpty());
+        assertEquals(1, subscriber.terminals.get());
+    }
+
+    @Test
+    public void nonPositiveRequestWhileStreaming() throws InterruptedException {
+        ListPublisher publisher = new ListPublisher(ITEMS, null);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.awaitItems(1));
+        subscriber.subscription.request(-1);
+        assertTrue(subscriber.awaitTerminal());
+        assertTrue(publisher.finished.await(1, TimeUnit.SECONDS));
+
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertEquals(Collections.singletonList("a"), subscriber.items());
+        assertEquals(1, subscriber.terminals.get());
+    }
+
+    @Test
+    public void overflowsToUnbounded() throws InterruptedException {
+        ListPublisher publisher = new ListPublisher(ITEMS, null);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(Long.MAX_VALUE - 1);
+        subscriber.subscription.request(Long.MAX_VALUE - 1);
+        assertTrue(subscriber.awaitTerminal());
+        assertEquals(ITEMS, subscriber.items());
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void cancelThenRequest() throws InterruptedException {
+        ListPublisher publisher = new ListPublisher(ITEMS, null);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(5);
+        subscriber.subscription.request(0);
+        assertFalse(publisher.finished.await(200, TimeUnit.MILLISECONDS));
+        assertTrue(subscriber.items().isEmpty());
+        assertEquals(0, subscriber.terminals.get());
+    }
+
+    @Test
+    public void cancelWhileWaitingForDemand() throws InterruptedException {
+        ListPublisher publisher = new ListPublisher(ITEMS, null);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.awaitItems(1));
+        subscriber.subscription.cancel();
+        assertTrue("the reader stops", publisher.finished.await(1, TimeUnit.SECONDS));
+
+        subscriber.subscription.request(5);
+        assertEquals(Collections.singletonList("a"), subscriber.items());
+        assertEquals(0, subscriber.terminals.get());
+    }
+
+    @Test
+    public void singleTerminalOnFailure() throws InterruptedException {
+        IOException failure = new IOException("Connection reset");
+        ListPublisher publisher = new ListPublisher(ITEMS, failure);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.awaitTerminal());
+        subscriber.subscription.request(-1);
+        subscriber.subscription.request(1);
+
+        assertEquals(ITEMS, subscriber.items());
+        assertEquals(failure, subscriber.error);
+        assertFalse(subscriber.completed);
+        assertEquals(1, subscriber.terminals.get());
+    }
+
+    @Test
+    public void singleTerminalOnCompletion() throws InterruptedException {
+        ListPublisher publisher = new ListPublisher(ITEMS, null);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.awaitTerminal());
+        subscriber.subscription.request(0);
+
+        assertNull(subscriber.error);
+        assertEquals(1, subscriber.terminals.get());
+    }
+}
@@ -0,0 +1,64 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.tck.PublisherVerification;
+import org.reactivestreams.tck.TestEnvironment;
+import org.testng.annotations.AfterMethod;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+
+/**
+ * Runs the Reactive Streams TCK rules against a publisher of text. Subclasses build the publisher,
+ * taking their elements from {@link #lines(long)} where they wrap another source.
+ */
+public abstract class StringPublisherVerification extends PublisherVerification<String> {
+    // Long enough for the TCK to tell a stalled source from a slow one on a loaded machine
+    private static final long TIMEOUT_MS = 300;
+
+    protected StringPublisherVerification() {
+        super(new TestEnvironment(TIMEOUT_MS));
+    }
+
+    /**
+     * Some rules leave a stream open with no demand, its reader then holds an io thread until the
+     * pools are shut down.
+     */
+    @AfterMethod
+    public void tearDown() {
+        GenerationExecutors.shutdown();
+    }
+
+    /**
+     * Publishes "0" to "count - 1" through a {@link StreamPublisher}, one line each, generated as
+     * they are read so that any count fits.
+     */
+    public static Publisher<String> lines(long count) {
+        return new InputStreamPublisher(new LinesInputStream(count), line -> line);
+    }
+
+    private static class LinesInputStream extends InputStream {
+        private final long mCount;
+        private long mNext = 0;
+        private byte[] mLine = new byte[0];
+        private int mPosition = 0;
+
+        LinesInputStream(long count) {
+            mCount = count;
+        }
+
+        @Override
+        public int read() {
+            if (mPosition == mLine.length) {
+                if (mNext == mCount) {
+                    return -1;
+                }
+                mLine = (mNext++ + "\n").getBytes(StandardCharsets.US_ASCII);
+                mPosition = 0;
+            }
+            return mLine[mPosition++];
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package tn.amin.keyboard_gpt.language_model.publisher;
+
+import org.junit.Test;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SubscriptionArbiterTest {
+    private final RecordingSubscriber mDownstream = new RecordingSubscriber();
+    private final SubscriptionArbiter mArbiter = new SubscriptionArbiter(mDownstream);
+
+    private static class FakeUpstream implements Subscription {
+        final List<Long> requests = new ArrayList<>();
+        boolean cancelled = false;
+
+        @Override
+        public void request(long n) {
+            requests.add(n);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    @Test
+    public void forwardsRequests() {
+        FakeUpstream upstream = new FakeUpstream();
+        mArbiter.setUpstream(upstream);
+        mArbiter.request(3);
+        mArbiter.request(2);
+        assertEquals(Arrays.asList(3L, 2L), upstream.requests);
+        assertEquals(5, mArbiter.getOutstanding());
+    }
+
+    @Test
+    public void asksLaterUpstreamsForWhatIsOutstanding() {
+        mArbiter.request(5);
+        FakeUpstream first = new FakeUpstream();
+        mArbiter.setUpstream(first);
+        assertEquals(Collections.singletonList(5L), first.requests);
+
+        mArbiter.produced();
+        mArbiter.produced();
+        FakeUpstream second = new FakeUpstream();
+        mArbiter.setUpstream(second);
+        assertEquals(Collections.singletonList(3L), second.requests);
+    }
+
+    @Test
+    public void noDemandNoRequest() {
+        FakeUpstream upstream = new FakeUpstream();
+        mArbiter.setUpstream(upstream);
+        assertTrue(upstream.requests.isEmpty());
+    }
+
+    @Test
+    public void nonPositiveRequestCancelsAndFailsOnce() {
+        FakeUpstream upstream = new FakeUpstream();
+        mArbiter.setUpstream(upstream);
+        mArbiter.request(0);
+        mArbiter.request(-1);
+
+        assertTrue(upstream.cancelled);
+        assertTrue(upstream.requests.isEmpty());
+        assertTrue(mArbiter.isCancelled());
+        assertTrue(mDownstream.error instanceof IllegalArgumentException);
+        assertEquals(1, mDownstream.terminals.get());
+    }
+
+    @Test
+    public void overflowsToUnbounded() {
+        mArbiter.request(Long.MAX_VALUE - 1);
+        mArbiter.request(Long.MAX_VALUE - 1);
+        assertEquals(Long.MAX_VALUE, mArbiter.getOutstanding());
+
+        mArbiter.produced();
+        FakeUpstream upstream = new FakeUpstream();
+        mArbiter.setUpstream(upstream);
+        assertEquals(Collections.singletonList(Long.MAX_VALUE), upstream.requests);
+    }
+
+    @Test
+    public void cancelThenRequest() {
+        FakeUpstream upstream = new FakeUpstream();
+        mArbiter.setUpstream(upstream);
+        mArbiter.cancel();
+        mArbiter.request(1);
+        mArbiter.request(0);
+
+        assertTrue(upstream.cancelled);
+        assertTrue(upstream.requests.isEmpty());
+        assertEquals(0, mDownstream.terminals.get());
+    }
+
+    @Test
+    public void upstreamAfterCancelIsCancelled() {
+        mArbiter.request(1);
+        mArbiter.cancel();
+        FakeUpstream upstream = new FakeUpstream();
+        mArbiter.setUpstream(upstream);
+
+        assertTrue(upstream.cancelled);
+        assertTrue(upstream.requests.isEmpty());
+    }
+
+    @Test
+    public void cancelIsIdempotent() {
+        FakeUpstream upstream = new FakeUpstream();
+        mArbiter.setUpstream(upstream);
+        mArbiter.cancel();
+        upstream.cancelled = false;
+        mArbiter.cancel();
+        assertFalse(upstream.cancelled);
+    }
+}
@@ -0,0 +1,222 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import tn.amin.keyboard_gpt.language_model.publisher.ExceptionPublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+    private static final long BASE_OPEN_MS = 30 * 1000;
+    private static final long MAX_OPEN_MS = 5 * 60 * 1000;
+
+    private final List<CircuitBreaker.State> mTransitions = new ArrayList<>();
+    private final CircuitBreaker mBreaker = new CircuitBreaker("Test", breaker -> mTransitions.add(breaker.getState()));
+
+    /**
+     * Ends the current open period, as if the cool-down had elapsed.
+     */
+    private void expireOpenPeriod() {
+        String[] parts = mBreaker.encode().split(":");
+        assertEquals("OPEN", parts[0]);
+        mBreaker.restore("OPEN:0:" + parts[2]);
+    }
+
+    private void trip() {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(mBreaker.tryAcquire());
+            mBreaker.onFailure();
+        }
+    }
+
+    /**
+     * Sends a call failing with {@code t} through the breaker, the way {@link CircuitBreakers} does.
+     */
+    private void guardFailing(Throwable t) {
+        assertTrue(mBreaker.tryAcquire());
+        GuardedPublisher publisher = new GuardedPublisher(mBreaker, System.nanoTime(), new ExceptionPublisher(t));
+        publisher.subscribe(new Subscriber<String>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+            }
+
+            @Override
+            public void onNext(String s) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+    }
+
+    @Test
+    public void localRefusalsDoNotTrip() {
+        for (int i = 0; i < 20; i++) {
+            guardFailing(new RejectedExecutionException());
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+
+        for (int i = 0; i < 4; i++) {
+            guardFailing(new IOException("Connection reset"));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, mBreaker.getState());
+    }
+
+    @Test
+    public void localRefusalFreesTheTrial() {
+        trip();
+        expireOpenPeriod();
+        guardFailing(new RejectedExecutionException());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, mBreaker.getState());
+        assertTrue(mBreaker.tryAcquire());
+    }
+
+    @Test
+    public void goesFromClosedToOpenToHalfOpenToClosed() {
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+        trip();
+        assertEquals(CircuitBreaker.State.OPEN, mBreaker.getState());
+        assertFalse(mBreaker.tryAcquire());
+        assertFalse(mBreaker.isAvailable());
+
+        expireOpenPeriod();
+        assertTrue(mBreaker.isAvailable());
+        assertTrue(mBreaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, mBreaker.getState());
+        // A single trial at a time
+        assertFalse(mBreaker.tryAcquire());
+        assertFalse(mBreaker.isAvailable());
+
+        mBreaker.onSuccess(100);
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+        assertTrue(mBreaker.tryAcquire());
+
+        assertEquals(3, mTransitions.size());
+        assertEquals(CircuitBreaker.State.OPEN, mTransitions.get(0));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, mTransitions.get(1));
+        assertEquals(CircuitBreaker.State.CLOSED, mTransitions.get(2));
+    }
+
+    @Test
+    public void needsEnoughCallsAndFailuresToOpen() {
+        for (int i = 0; i < 3; i++) {
+            mBreaker.onFailure();
+        }
+        // Fewer than the minimum number of calls
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+
+        CircuitBreaker healthy = new CircuitBreaker("Healthy", null);
+        for (int i = 0; i < 20; i++) {
+            healthy.onSuccess(100);
+            if (i % 3 == 0) {
+                healthy.onFailure();
+            }
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, healthy.getState());
+    }
+
+    @Test
+    public void countsSlowFirstTokensAsFailures() {
+        for (int i = 0; i < 4; i++) {
+            mBreaker.onSuccess(15 * 1000);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, mBreaker.getState());
+    }
+
+    @Test
+    public void failedTrialReopensForTwiceAsLongUpToTheCap() {
+        trip();
+        assertOpenFor(BASE_OPEN_MS);
+
+        long expected = BASE_OPEN_MS;
+        for (int i = 0; i < 6; i++) {
+            expireOpenPeriod();
+            assertTrue(mBreaker.tryAcquire());
+            mBreaker.onFailure();
+            expected = Math.min(MAX_OPEN_MS, expected * 2);
+            assertOpenFor(expected);
+        }
+        assertEquals(MAX_OPEN_MS, expected);
+    }
+
+    @Test
+    public void closingResetsTheBackoff() {
+        trip();
+        expireOpenPeriod();
+        mBreaker.tryAcquire();
+        mBreaker.onFailure();
+        assertOpenFor(2 * BASE_OPEN_MS);
+
+        expireOpenPeriod();
+        mBreaker.tryAcquire();
+        mBreaker.onSuccess(100);
+        trip();
+        assertOpenFor(BASE_OPEN_MS);
+    }
+
+    @Test
+    public void ignoredTrialFreesThePermit() {
+        trip();
+        expireOpenPeriod();
+        assertTrue(mBreaker.tryAcquire());
+        mBreaker.onIgnored();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, mBreaker.getState());
+        assertTrue(mBreaker.tryAcquire());
+    }
+
+    @Test
+    public void restoresPersistedHalfOpenStateAsExpiredOpen() {
+        trip();
+        expireOpenPeriod();
+        mBreaker.tryAcquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, mBreaker.getState());
+
+        CircuitBreaker restored = new CircuitBreaker("Test", null);
+        restored.restore(mBreaker.encode());
+        // The trial in flight died with the process, so another one may go right away
+        assertEquals(CircuitBreaker.State.OPEN, restored.getState());
+        assertTrue(restored.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, restored.getState());
+
+        // And the backoff carries on from the persisted trips
+        restored.onFailure();
+        long remaining = restored.getRemainingOpenMs();
+        assertTrue(remaining > 2 * BASE_OPEN_MS - 1000 && remaining <= 2 * BASE_OPEN_MS);
+    }
+
+    @Test
+    public void restoresOpenStateAndIgnoresGarbage() {
+        trip();
+        CircuitBreaker restored = new CircuitBreaker("Test", null);
+        restored.restore(mBreaker.encode());
+        assertEquals(CircuitBreaker.State.OPEN, restored.getState());
+        assertFalse(restored.tryAcquire());
+
+        CircuitBreaker untouched = new CircuitBreaker("Test", null);
+        untouched.restore("garbage");
+        untouched.restore("NOPE:1:2");
+        untouched.restore("OPEN:x:1");
+        assertEquals(CircuitBreaker.State.CLOSED, untouched.getState());
+    }
+
+    private void assertOpenFor(long expectedMs) {
+        assertEquals(CircuitBreaker.State.OPEN, mBreaker.getState());
+        long remaining = mBreaker.getRemainingOpenMs();
+        assertTrue("Open for " + remaining + "ms, expected " + expectedMs,
+                remaining > expectedMs - 1000 && remaining <= expectedMs);
+    }
+}
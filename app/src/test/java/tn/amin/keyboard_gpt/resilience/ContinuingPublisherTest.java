@@ -0,0 +1,237 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import tn.amin.keyboard_gpt.language_model.LanguageModelException;
+import tn.amin.keyboard_gpt.language_model.TruncatedResponseException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ContinuingPublisherTest {
+    // Assistant prefix of every submission, in order
+    private final List<String> mPrefixes = new ArrayList<>();
+    private final List<Part> mParts = new ArrayList<>();
+    private final Recorder mDownstream = new Recorder();
+
+    /**
+     * One submission, signalled by hand.
+     */
+    private static class Part implements Publisher<String>, Subscription {
+        long requested = 0;
+        boolean cancelled = false;
+        Subscriber<? super String> subscriber;
+
+        @Override
+        public void subscribe(Subscriber<? super String> s) {
+            subscriber = s;
+            s.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n) {
+            requested += n;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        Part emit(String... items) {
+            for (String item: items) {
+                subscriber.onNext(item);
+            }
+            return this;
+        }
+    }
+
+    private static class Recorder implements Subscriber<String> {
+        final List<String> items = new ArrayList<>();
+        Subscription subscription;
+        Throwable error;
+        int terminals = 0;
+        boolean completed = false;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(String s) {
+            items.add(s);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            terminals++;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            terminals++;
+        }
+    }
+
+    private void subscribe(long demand) {
+        new ContinuingPublisher("Test", prefix -> {
+            mPrefixes.add(prefix);
+            Part part = new Part();
+            mParts.add(part);
+            return part;
+        }).subscribe(mDownstream);
+        mDownstream.subscription.request(demand);
+    }
+
+    private Part part(int index) {
+        return mParts.get(index);
+    }
+
+    private static TruncatedResponseException truncated() {
+        return new TruncatedResponseException("length");
+    }
+
+    @Test
+    public void continuesATruncatedAnswer() {
+        subscribe(Long.MAX_VALUE);
+        part(0).emit("Hello").subscriber.onError(truncated());
+        part(1).emit(" world").subscriber.onComplete();
+
+        assertEquals(Arrays.asList(null, "Hello"), mPrefixes);
+        assertEquals(Arrays.asList("Hello", " world"), mDownstream.items);
+        assertTrue(mDownstream.completed);
+        assertEquals(1, mDownstream.terminals);
+    }
+
+    @Test
+    public void continuesARetryableErrorAfterText() {
+        subscribe(Long.MAX_VALUE);
+        part(0).emit("Hello").subscriber.onError(new IOException("Connection reset"));
+        part(1).emit(" world").subscriber.onComplete();
+
+        assertEquals(Arrays.asList(null, "Hello"), mPrefixes);
+        assertNull(mDownstream.error);
+        assertTrue(mDownstream.completed);
+    }
+
+    @Test
+    public void leavesErrorsBeforeTheFirstTokenAlone() {
+        subscribe(Long.MAX_VALUE);
+        LanguageModelException error = new LanguageModelException(503, "Overloaded");
+        part(0).subscriber.onError(error);
+
+        assertSame(error, mDownstream.error);
+        assertEquals(1, mParts.size());
+    }
+
+    @Test
+    public void doesNotContinuePermanentErrors() {
+        subscribe(Long.MAX_VALUE);
+        LanguageModelException error = new LanguageModelException(400, "Bad request");
+        part(0).emit("Hello").subscriber.onError(error);
+
+        assertSame(error, mDownstream.error);
+        assertEquals(1, mParts.size());
+    }
+
+    @Test
+    public void givesUpAfterMaxContinuations() {
+        subscribe(Long.MAX_VALUE);
+        TruncatedResponseException last = null;
+        for (int i = 0; i <= ContinuingPublisher.MAX_CONTINUATIONS; i++) {
+            last = truncated();
+            part(i).emit("part" + i + ".").subscriber.onError(last);
+        }
+
+        assertEquals(ContinuingPublisher.MAX_CONTINUATIONS + 1, mParts.size());
+        assertSame(last, mDownstream.error);
+        assertEquals(1, mDownstream.terminals);
+    }
+
+    @Test
+    public void prefixIsEverythingReceivedWithoutTrailingWhitespace() {
+        subscribe(Long.MAX_VALUE);
+        part(0).emit("Hello", " big ").subscriber.onError(truncated());
+        part(1).emit("world,\n").subscriber.onError(truncated());
+
+        assertEquals(Arrays.asList(null, "Hello big", "Hello big world,"), mPrefixes);
+    }
+
+    @Test
+    public void skipsWhitespaceTheContinuationRepeats() {
+        subscribe(Long.MAX_VALUE);
+        part(0).emit("Hello ").subscriber.onError(truncated());
+        part(1).emit(" ", "world").subscriber.onComplete();
+
+        // The space cut from the prefix was already passed on
+        assertEquals(Arrays.asList("Hello ", "world"), mDownstream.items);
+    }
+
+    @Test
+    public void skipsNoMoreWhitespaceThanWasCut() {
+        subscribe(Long.MAX_VALUE);
+        part(0).emit("Title\n\n").subscriber.onError(truncated());
+        part(1).emit("\n\n  Indented").subscriber.onComplete();
+
+        assertEquals(Arrays.asList("Title\n\n", "  Indented"), mDownstream.items);
+    }
+
+    @Test
+    public void keepsLeadingWhitespaceWhenNoneWasCut() {
+        subscribe(Long.MAX_VALUE);
+        part(0).emit("Hello").subscriber.onError(truncated());
+        part(1).emit(" world").subscriber.onComplete();
+
+        assertEquals(Arrays.asList("Hello", " world"), mDownstream.items);
+    }
+
+    @Test
+    public void carriesDemandAcrossParts() {
+        subscribe(5);
+        assertEquals(5, part(0).requested);
+        part(0).emit("a", "b").subscriber.onError(truncated());
+
+        // Only what is still outstanding
+        assertEquals(3, part(1).requested);
+        mDownstream.subscription.request(4);
+        assertEquals(7, part(1).requested);
+        assertEquals(5, part(0).requested);
+    }
+
+    @Test
+    public void replacesSkippedItemsWithFreshDemand() {
+        subscribe(2);
+        part(0).emit("Hello ").subscriber.onError(truncated());
+        assertEquals(1, part(1).requested);
+
+        part(1).emit(" ");
+        assertEquals(2, part(1).requested);
+        part(1).emit("world");
+        assertEquals(Arrays.asList("Hello ", "world"), mDownstream.items);
+    }
+
+    @Test
+    public void cancelStopsTheCurrentPart() {
+        subscribe(Long.MAX_VALUE);
+        part(0).emit("Hello").subscriber.onError(truncated());
+        mDownstream.subscription.cancel();
+
+        assertTrue(part(1).cancelled);
+        part(1).emit(" world");
+        assertEquals(Collections.singletonList("Hello"), mDownstream.items);
+    }
+}
@@ -0,0 +1,80 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.RejectedExecutionException;
+
+import tn.amin.keyboard_gpt.language_model.LanguageModelException;
+import tn.amin.keyboard_gpt.language_model.TruncatedResponseException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ErrorKindTest {
+    private static ErrorKind ofStatus(int statusCode) {
+        return ErrorKind.of(new LanguageModelException(statusCode, "HTTP " + statusCode));
+    }
+
+    @Test
+    public void statusCodes() {
+        assertEquals(ErrorKind.RATE_LIMITED, ofStatus(429));
+        assertEquals(ErrorKind.OVERLOADED, ofStatus(503));
+        assertEquals(ErrorKind.OVERLOADED, ofStatus(529));
+        assertEquals(ErrorKind.TRANSIENT, ofStatus(408));
+        assertEquals(ErrorKind.TRANSIENT, ofStatus(500));
+        assertEquals(ErrorKind.TRANSIENT, ofStatus(502));
+        assertEquals(ErrorKind.TRANSIENT, ofStatus(504));
+        assertEquals(ErrorKind.PERMANENT, ofStatus(400));
+        assertEquals(ErrorKind.PERMANENT, ofStatus(401));
+        assertEquals(ErrorKind.PERMANENT, ofStatus(403));
+        assertEquals(ErrorKind.PERMANENT, ofStatus(404));
+    }
+
+    @Test
+    public void exhaustedQuotaIsNotRetried() {
+        LanguageModelException e = new LanguageModelException(429,
+                "{\"error\":{\"type\":\"insufficient_quota\"}}");
+        assertEquals(ErrorKind.PERMANENT, ErrorKind.of(e));
+    }
+
+    @Test
+    public void rateLimitWithoutMessage() {
+        assertEquals(ErrorKind.RATE_LIMITED, ErrorKind.of(new LanguageModelException(429, null)));
+    }
+
+    @Test
+    public void connectionProblemsAreTransient() {
+        assertEquals(ErrorKind.TRANSIENT, ErrorKind.of(new IOException("Connection reset")));
+        assertEquals(ErrorKind.TRANSIENT, ErrorKind.of(new SocketTimeoutException()));
+    }
+
+    @Test
+    public void refusedLocally() {
+        assertEquals(ErrorKind.LOCAL, ErrorKind.of(new RejectedExecutionException()));
+        assertEquals(ErrorKind.LOCAL, ErrorKind.of(new CircuitOpenException(new CircuitBreaker("Test", null))));
+        assertEquals(ErrorKind.LOCAL, ErrorKind.of(new RateLimitExceededException("Test", 1000)));
+    }
+
+    @Test
+    public void truncatedAnswerIsNotRetried() {
+        assertEquals(ErrorKind.PERMANENT, ErrorKind.of(new TruncatedResponseException("length")));
+    }
+
+    @Test
+    public void otherThrowables() {
+        assertEquals(ErrorKind.PERMANENT, ErrorKind.of(new IllegalStateException()));
+        assertEquals(ErrorKind.PERMANENT, ErrorKind.of(new RuntimeException(new IOException())));
+    }
+
+    @Test
+    public void retryable() {
+        assertTrue(ErrorKind.RATE_LIMITED.retryable);
+        assertTrue(ErrorKind.OVERLOADED.retryable);
+        assertTrue(ErrorKind.TRANSIENT.retryable);
+        assertFalse(ErrorKind.PERMANENT.retryable);
+        assertFalse(ErrorKind.LOCAL.retryable);
+    }
+}
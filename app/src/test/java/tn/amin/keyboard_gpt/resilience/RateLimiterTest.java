@@ -0,0 +1,208 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import org.junit.After;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+import tn.amin.keyboard_gpt.language_model.LanguageModelException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+    private final RateLimiter mLimiter = new RateLimiter("Test", 200);
+
+    // Requests the limiter let through, in the order it did
+    private final List<Request> mStarted = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * A request that never answers until told to.
+     */
+    private class Request implements Publisher<String> {
+        final String name;
+        Subscriber<? super String> subscriber;
+
+        Request(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super String> subscriber) {
+            this.subscriber = subscriber;
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+        }
+
+        void complete() {
+            subscriber.onComplete();
+        }
+
+        void fail(Throwable t) {
+            subscriber.onError(t);
+        }
+    }
+
+    private static class Recorder implements Subscriber<String> {
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final CountDownLatch terminated = new CountDownLatch(1);
+        Subscription subscription;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+            s.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String s) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error.set(t);
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            terminated.countDown();
+        }
+    }
+
+    private Recorder send(RequestPriority priority, String name) {
+        Recorder recorder = new Recorder();
+        mLimiter.limit(priority, 100, () -> {
+            Request request = new Request(name);
+            mStarted.add(request);
+            return request;
+        }).subscribe(recorder);
+        return recorder;
+    }
+
+    private List<String> startedNames() {
+        List<String> names = new ArrayList<>();
+        synchronized (mStarted) {
+            for (Request request: mStarted) {
+                names.add(request.name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Sends as many requests as the initial concurrency limit lets through at once.
+     */
+    private void fillConcurrency() {
+        for (int i = 0; i < 4; i++) {
+            send(RequestPriority.INTERACTIVE, "busy" + i);
+        }
+        assertEquals(4, mStarted.size());
+    }
+
+    @After
+    public void tearDown() {
+        GenerationExecutors.shutdown();
+    }
+
+    @Test
+    public void letsThroughByPriorityThenArrival() {
+        fillConcurrency();
+        send(RequestPriority.BACKGROUND, "probe");
+        send(RequestPriority.SPECULATIVE, "hedge");
+        send(RequestPriority.INTERACTIVE, "first");
+        send(RequestPriority.INTERACTIVE, "second");
+        assertEquals(4, mStarted.size());
+
+        for (int i = 0; i < 4; i++) {
+            mStarted.get(i).complete();
+        }
+        assertEquals(Arrays.asList("busy0", "busy1", "busy2", "busy3", "first", "second", "hedge", "probe"),
+                startedNames());
+    }
+
+    @Test
+    public void halvesConcurrencyOnThrottling() {
+        fillConcurrency();
+        assertEquals(4, mLimiter.getConcurrencyLimit(), 0);
+
+        mStarted.get(0).fail(new LanguageModelException(429, "Too many requests"));
+        assertEquals(2, mLimiter.getConcurrencyLimit(), 0);
+
+        // Three are still in flight, above the new limit
+        send(RequestPriority.INTERACTIVE, "waiting");
+        assertEquals(4, mStarted.size());
+
+        mStarted.get(1).fail(new LanguageModelException(429, "Too many requests"));
+        assertEquals(1, mLimiter.getConcurrencyLimit(), 0);
+        mStarted.get(2).fail(new LanguageModelException(429, "Too many requests"));
+        assertEquals("never below one", 1, mLimiter.getConcurrencyLimit(), 0);
+        assertEquals(4, mStarted.size());
+
+        mStarted.get(3).complete();
+        assertEquals(5, mStarted.size());
+        assertEquals("waiting", mStarted.get(4).name);
+        // One success grows a limit of one by one
+        assertEquals(2, mLimiter.getConcurrencyLimit(), 0);
+    }
+
+    @Test
+    public void otherFailuresDoNotThrottle() {
+        fillConcurrency();
+        mStarted.get(0).fail(new LanguageModelException(500, "Internal error"));
+        mStarted.get(1).fail(new LanguageModelException(429, "insufficient_quota"));
+        assertEquals(4, mLimiter.getConcurrencyLimit(), 0);
+    }
+
+    @Test
+    public void growsAdditively() {
+        send(RequestPriority.INTERACTIVE, "request");
+        mStarted.get(0).complete();
+        assertEquals(4.25, mLimiter.getConcurrencyLimit(), 1e-9);
+    }
+
+    @Test
+    public void expiresQueuedRequests() throws InterruptedException {
+        fillConcurrency();
+        Recorder queued = send(RequestPriority.INTERACTIVE, "queued");
+
+        assertTrue(queued.terminated.await(5, TimeUnit.SECONDS));
+        assertTrue(queued.error.get() instanceof RateLimitExceededException);
+        assertEquals(4, mStarted.size());
+
+        // The expired request does not take a slot once one frees up
+        mStarted.get(0).complete();
+        assertEquals(4, mStarted.size());
+    }
+
+    @Test
+    public void cancelledRequestsNeitherExpireNorStart() throws InterruptedException {
+        fillConcurrency();
+        Recorder queued = send(RequestPriority.INTERACTIVE, "queued");
+        queued.subscription.cancel();
+
+        assertFalse(queued.terminated.await(500, TimeUnit.MILLISECONDS));
+        assertNull(queued.error.get());
+        mStarted.get(0).complete();
+        assertEquals(4, mStarted.size());
+    }
+}
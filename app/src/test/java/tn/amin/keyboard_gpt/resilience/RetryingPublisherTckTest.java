@@ -0,0 +1,21 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import org.reactivestreams.Publisher;
+
+import tn.amin.keyboard_gpt.language_model.LanguageModelException;
+import tn.amin.keyboard_gpt.language_model.publisher.ExceptionPublisher;
+import tn.amin.keyboard_gpt.language_model.publisher.StringPublisherVerification;
+
+public class RetryingPublisherTckTest extends StringPublisherVerification {
+    @Override
+    public Publisher<String> createPublisher(long elements) {
+        return new RetryingPublisher("RetryTck", () -> lines(elements));
+    }
+
+    @Override
+    public Publisher<String> createFailedPublisher() {
+        // Not retried, so it fails right away
+        return new RetryingPublisher("RetryTck",
+                () -> new ExceptionPublisher(new LanguageModelException(401, "Invalid key")));
+    }
+}
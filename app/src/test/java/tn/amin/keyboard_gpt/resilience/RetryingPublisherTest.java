@@ -0,0 +1,232 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import org.junit.After;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+import tn.amin.keyboard_gpt.language_model.LanguageModelException;
+import tn.amin.keyboard_gpt.language_model.publisher.ExceptionPublisher;
+import tn.amin.keyboard_gpt.metrics.Metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RetryingPublisherTest {
+    private static final AtomicInteger sNames = new AtomicInteger();
+
+    // Counters are global, so every test counts under its own name
+    private final String mName = "RetryTest" + sNames.incrementAndGet();
+    private final AtomicInteger mSubmits = new AtomicInteger();
+
+    private static class Recorder implements Subscriber<String> {
+        final List<String> items = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch terminated = new CountDownLatch(1);
+        final AtomicInteger terminals = new AtomicInteger();
+        volatile Subscription subscription;
+        volatile Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+            s.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String s) {
+            items.add(s);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            terminals.incrementAndGet();
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            terminals.incrementAndGet();
+            terminated.countDown();
+        }
+    }
+
+    /**
+     * Emits {@code text} once requested, then fails with {@code error}.
+     */
+    private static Publisher<String> emitThenFail(String text, Throwable error) {
+        return subscriber -> subscriber.onSubscribe(new Subscription() {
+            private boolean mDone = false;
+
+            @Override
+            public void request(long n) {
+                if (mDone) {
+                    return;
+                }
+                mDone = true;
+                subscriber.onNext(text);
+                subscriber.onError(error);
+            }
+
+            @Override
+            public void cancel() {
+                mDone = true;
+            }
+        });
+    }
+
+    private Recorder subscribe(Publisher<String> failure) {
+        Recorder recorder = new Recorder();
+        new RetryingPublisher(mName, () -> {
+            mSubmits.incrementAndGet();
+            return failure;
+        }).subscribe(recorder);
+        return recorder;
+    }
+
+    private long retries() {
+        return Metrics.counter("retry.attempts." + mName).get();
+    }
+
+    private long exhausted() {
+        return Metrics.counter("retry.exhausted." + mName).get();
+    }
+
+    private static LanguageModelException overloaded(long retryAfterMs) {
+        return new LanguageModelException(503, "Overloaded", retryAfterMs);
+    }
+
+    @After
+    public void tearDown() {
+        GenerationExecutors.shutdown();
+    }
+
+    @Test
+    public void waitsWhatTheProviderAskedForPlusJitter() {
+        LanguageModelException e = overloaded(1000);
+        for (int i = 0; i < 1000; i++) {
+            long delayMs = RetryingPublisher.getDelayMs(e, 1);
+            assertTrue(delayMs + "ms", delayMs >= 1000 && delayMs < 1000 + RetryingPublisher.RETRY_AFTER_JITTER_MS);
+        }
+        // Whatever the attempt
+        long delayMs = RetryingPublisher.getDelayMs(e, 3);
+        assertTrue(delayMs + "ms", delayMs >= 1000 && delayMs < 1000 + RetryingPublisher.RETRY_AFTER_JITTER_MS);
+    }
+
+    @Test
+    public void backsOffExponentiallyWithoutAHint() {
+        IOException e = new IOException("Connection reset");
+        long expectedBackoff = RetryingPublisher.BASE_DELAY_MS;
+        for (int attempts = 1; attempts <= 6; attempts++) {
+            long backoffMs = Math.min(RetryingPublisher.MAX_DELAY_MS, expectedBackoff);
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (int i = 0; i < 1000; i++) {
+                long delayMs = RetryingPublisher.getDelayMs(e, attempts);
+                min = Math.min(min, delayMs);
+                max = Math.max(max, delayMs);
+            }
+            assertTrue("attempt " + attempts + ": " + min + "ms", min >= backoffMs / 2);
+            assertTrue("attempt " + attempts + ": " + max + "ms", max <= backoffMs);
+            // The random half is actually random
+            assertTrue(max > min);
+            expectedBackoff *= 2;
+        }
+    }
+
+    @Test
+    public void noHintFromOtherStatuses() {
+        // A status without Retry-After falls back to the backoff
+        long delayMs = RetryingPublisher.getDelayMs(new LanguageModelException(500, "Internal error"), 1);
+        assertTrue(delayMs + "ms", delayMs <= RetryingPublisher.BASE_DELAY_MS);
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws InterruptedException {
+        LanguageModelException error = overloaded(0);
+        Recorder recorder = subscribe(new ExceptionPublisher(error));
+
+        assertTrue(recorder.terminated.await(10, TimeUnit.SECONDS));
+        assertSame(error, recorder.error);
+        assertEquals(RetryingPublisher.MAX_ATTEMPTS, mSubmits.get());
+        assertEquals(RetryingPublisher.MAX_ATTEMPTS - 1, retries());
+        assertEquals(1, exhausted());
+        assertEquals(1, recorder.terminals.get());
+    }
+
+    @Test
+    public void givesUpWhenTheRetryWouldStartPastTheDeadline() throws InterruptedException {
+        LanguageModelException error = overloaded(RetryingPublisher.DEADLINE_MS);
+        Recorder recorder = subscribe(new ExceptionPublisher(error));
+
+        assertTrue(recorder.terminated.await(1, TimeUnit.SECONDS));
+        assertSame(error, recorder.error);
+        assertEquals(1, mSubmits.get());
+        assertEquals(0, retries());
+        assertEquals(1, exhausted());
+    }
+
+    @Test
+    public void retriesWithinTheDeadline() {
+        Recorder recorder = subscribe(new ExceptionPublisher(overloaded(RetryingPublisher.DEADLINE_MS - 2000)));
+
+        assertEquals(1, retries());
+        assertEquals(0, exhausted());
+        assertEquals(0, recorder.terminals.get());
+        recorder.subscription.cancel();
+    }
+
+    @Test
+    public void doesNotRetryPermanentErrors() {
+        LanguageModelException error = new LanguageModelException(401, "Invalid key");
+        Recorder recorder = subscribe(new ExceptionPublisher(error));
+
+        assertSame(error, recorder.error);
+        assertEquals(1, mSubmits.get());
+        assertEquals(0, retries());
+    }
+
+    @Test
+    public void doesNotRetryOnceATokenWentThrough() throws InterruptedException {
+        LanguageModelException error = overloaded(0);
+        Recorder recorder = subscribe(emitThenFail("Hello", error));
+
+        assertTrue(recorder.terminated.await(1, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("Hello"), recorder.items);
+        assertSame(error, recorder.error);
+        // Give a wrongly scheduled retry the time to run
+        Thread.sleep(RetryingPublisher.RETRY_AFTER_JITTER_MS * 2);
+        assertEquals(1, mSubmits.get());
+        assertEquals(0, retries());
+    }
+
+    @Test
+    public void cancelDuringTheWaitCancelsTheRetry() throws InterruptedException {
+        Recorder recorder = subscribe(new ExceptionPublisher(overloaded(300)));
+        ScheduledThreadPoolExecutor timer = (ScheduledThreadPoolExecutor) GenerationExecutors.get().timer();
+        assertEquals(1, retries());
+        assertEquals(1, timer.getQueue().size());
+
+        recorder.subscription.cancel();
+        // The timer drops cancelled tasks right away
+        assertEquals(0, timer.getQueue().size());
+
+        Thread.sleep(300 + RetryingPublisher.RETRY_AFTER_JITTER_MS * 2);
+        assertEquals(1, mSubmits.get());
+        assertEquals(0, recorder.terminals.get());
+        assertNull(recorder.error);
+    }
+}
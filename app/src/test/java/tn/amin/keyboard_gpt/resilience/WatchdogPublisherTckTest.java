@@ -0,0 +1,21 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import org.reactivestreams.Publisher;
+
+import java.io.IOException;
+
+import tn.amin.keyboard_gpt.language_model.publisher.ExceptionPublisher;
+import tn.amin.keyboard_gpt.language_model.publisher.StringPublisherVerification;
+
+public class WatchdogPublisherTckTest extends StringPublisherVerification {
+    @Override
+    public Publisher<String> createPublisher(long elements) {
+        return new WatchdogPublisher("WatchdogTck", Deadlines.DEFAULT, System.nanoTime(), lines(elements));
+    }
+
+    @Override
+    public Publisher<String> createFailedPublisher() {
+        return new WatchdogPublisher("WatchdogTck", Deadlines.DEFAULT, System.nanoTime(),
+                new ExceptionPublisher(new IOException("Failed")));
+    }
+}
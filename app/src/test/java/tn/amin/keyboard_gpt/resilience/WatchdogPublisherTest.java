@@ -0,0 +1,162 @@
+package tn.amin.keyboard_gpt.resilience;
+
+import org.junit.After;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import tn.amin.keyboard_gpt.GenerationExecutors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WatchdogPublisherTest {
+    private static final long FIRST_TOKEN_MS = 200;
+    private static final long INTER_TOKEN_MS = 150;
+    private static final Deadlines DEADLINES = new Deadlines(1000, FIRST_TOKEN_MS, INTER_TOKEN_MS);
+
+    private volatile Subscriber<? super String> mUpstream;
+    private volatile boolean mUpstreamCancelled = false;
+
+    private final Publisher<String> mSource = subscriber -> {
+        mUpstream = subscriber;
+        subscriber.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+                mUpstreamCancelled = true;
+            }
+        });
+    };
+
+    private static class Recorder implements Subscriber<String> {
+        final List<String> items = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch terminated = new CountDownLatch(1);
+        volatile Subscription subscription;
+        volatile Throwable error;
+        volatile long terminatedNanos;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(String s) {
+            items.add(s);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            terminatedNanos = System.nanoTime();
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            terminatedNanos = System.nanoTime();
+            terminated.countDown();
+        }
+
+        boolean awaitTerminal() throws InterruptedException {
+            return terminated.await(2, TimeUnit.SECONDS);
+        }
+    }
+
+    private Recorder watch() {
+        Recorder recorder = new Recorder();
+        new WatchdogPublisher("Test", DEADLINES, System.nanoTime(), mSource).subscribe(recorder);
+        return recorder;
+    }
+
+    private void assertStalled(Recorder recorder, StallException.Phase phase) throws InterruptedException {
+        assertTrue(recorder.awaitTerminal());
+        assertTrue(String.valueOf(recorder.error), recorder.error instanceof StallException);
+        assertEquals(phase, ((StallException) recorder.error).getPhase());
+        assertTrue(mUpstreamCancelled);
+    }
+
+    @After
+    public void tearDown() {
+        GenerationExecutors.shutdown();
+    }
+
+    @Test
+    public void abortsWithoutAFirstToken() throws InterruptedException {
+        long startNanos = System.nanoTime();
+        Recorder recorder = watch();
+        recorder.subscription.request(Long.MAX_VALUE);
+
+        assertStalled(recorder, StallException.Phase.FIRST_TOKEN);
+        assertTrue((recorder.terminatedNanos - startNanos) / 1_000_000 >= FIRST_TOKEN_MS);
+    }
+
+    @Test
+    public void abortsWhenTokensStop() throws InterruptedException {
+        Recorder recorder = watch();
+        recorder.subscription.request(Long.MAX_VALUE);
+        mUpstream.onNext("a");
+        long lastTokenNanos = System.nanoTime();
+
+        assertStalled(recorder, StallException.Phase.INTER_TOKEN);
+        assertEquals(Collections.singletonList("a"), recorder.items);
+        assertTrue((recorder.terminatedNanos - lastTokenNanos) / 1_000_000 >= INTER_TOKEN_MS);
+    }
+
+    @Test
+    public void keepsWaitingForTheFirstTokenWithoutDemand() throws InterruptedException {
+        Recorder recorder = watch();
+        Thread.sleep(FIRST_TOKEN_MS * 3);
+        assertEquals(1, recorder.terminated.getCount());
+        assertFalse(mUpstreamCancelled);
+
+        // The provider gets the whole deadline once asked
+        long demandNanos = System.nanoTime();
+        recorder.subscription.request(1);
+        assertStalled(recorder, StallException.Phase.FIRST_TOKEN);
+        assertTrue((recorder.terminatedNanos - demandNanos) / 1_000_000 >= FIRST_TOKEN_MS);
+    }
+
+    @Test
+    public void keepsWaitingForTheNextTokenWithoutDemand() throws InterruptedException {
+        Recorder recorder = watch();
+        recorder.subscription.request(1);
+        mUpstream.onNext("a");
+        Thread.sleep(INTER_TOKEN_MS * 3);
+        assertEquals(1, recorder.terminated.getCount());
+        assertFalse(mUpstreamCancelled);
+
+        long demandNanos = System.nanoTime();
+        recorder.subscription.request(1);
+        assertStalled(recorder, StallException.Phase.INTER_TOKEN);
+        assertTrue((recorder.terminatedNanos - demandNanos) / 1_000_000 >= INTER_TOKEN_MS);
+    }
+
+    @Test
+    public void tokensKeepTheResponseAlive() throws InterruptedException {
+        Recorder recorder = watch();
+        recorder.subscription.request(Long.MAX_VALUE);
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(INTER_TOKEN_MS / 3);
+            mUpstream.onNext("token" + i);
+        }
+        mUpstream.onComplete();
+
+        assertTrue(recorder.awaitTerminal());
+        assertEquals(5, recorder.items.size());
+        assertTrue(recorder.error == null);
+        assertFalse(mUpstreamCancelled);
+    }
+}